@@ -0,0 +1,357 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.archive;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.PreparedBatch;
+import org.skife.jdbi.v2.StatementContext;
+import org.skife.jdbi.v2.TransactionStatus;
+import org.skife.jdbi.v2.tweak.ResultSetMapper;
+import org.sqlite.SQLiteDataSource;
+
+import be.ceau.podcastfinder.util.Timestamp;
+
+/**
+ * SQLite index of a {@link FeedArchive}: where each distinct payload is stored, and which payload each podcast
+ * served at each download, along with the charset it was decoded with. New entries are kept in memory and written in
+ * batches, in a single transaction each. Opened read-only, it changes nothing in the file, and reads what the writer of
+ * the archive, if any, has flushed.
+ */
+final class ArchiveIndex implements AutoCloseable {
+
+	private static final String CREATE_TABLE_BLOBS = "CREATE TABLE IF NOT EXISTS blobs (hash TEXT PRIMARY KEY NOT NULL, pack INTEGER NOT NULL, offset INTEGER NOT NULL, length INTEGER NOT NULL, rawLength INTEGER NOT NULL)";
+
+	private static final String CREATE_TABLE_SNAPSHOTS = "CREATE TABLE IF NOT EXISTS snapshots (podcastId INTEGER NOT NULL, date TEXT NOT NULL, hash TEXT NOT NULL, charset TEXT, PRIMARY KEY (podcastId, date))";
+
+	private static final String SELECT_CHARSET_COLUMN = 
+			"SELECT COUNT(*) FROM pragma_table_info('snapshots') WHERE name = 'charset'";
+
+	/**
+	 * Snapshots archived before charsets were kept have none
+	 */
+	private static final String ADD_CHARSET_COLUMN = 
+			"ALTER TABLE snapshots ADD COLUMN charset TEXT";
+
+	private static final String INSERT_BLOB = 
+			"INSERT OR IGNORE INTO blobs (hash, pack, offset, length, rawLength) VALUES (:hash, :pack, :offset, :length, :rawLength)";
+
+	private static final String INSERT_SNAPSHOT = 
+			"INSERT OR REPLACE INTO snapshots (podcastId, date, hash, charset) VALUES (:podcastId, :date, :hash, :charset)";
+
+	private static final String SELECT_BLOB = 
+			"SELECT hash, pack, offset, length, rawLength FROM blobs WHERE hash = :hash";
+
+	private static final String SELECT_BLOB_BY_SNAPSHOT = 
+			" SELECT b.hash, b.pack, b.offset, b.length, b.rawLength FROM snapshots s JOIN blobs b ON b.hash = s.hash "
+		+	" 	WHERE s.podcastId = :podcastId AND s.date = :date ";
+
+	private static final String SELECT_NEWEST_BLOB = 
+			" SELECT b.hash, b.pack, b.offset, b.length, b.rawLength FROM snapshots s JOIN blobs b ON b.hash = s.hash "
+		+	" 	WHERE s.podcastId = :podcastId ORDER BY s.date DESC LIMIT 1 ";
+
+	private static final String SELECT_CHARSET = 
+			"SELECT charset FROM snapshots WHERE podcastId = :podcastId AND date = :date";
+
+	private static final String SELECT_NEWEST_DATE = 
+			"SELECT MAX(date) FROM snapshots WHERE podcastId = :podcastId";
+
+	private static final String SELECT_DATES = 
+			"SELECT date FROM snapshots WHERE podcastId = :podcastId ORDER BY date ASC";
+
+	private static final String SELECT_LAST_PACK = 
+			"SELECT COALESCE(MAX(pack), 0) FROM blobs";
+
+	private static final String SELECT_PACK_END = 
+			"SELECT COALESCE(MAX(offset + length), 0) FROM blobs WHERE pack = :pack";
+
+	private static final ResultSetMapper<Blob> BLOB_MAPPER = (int index, ResultSet r, StatementContext ctx) -> new Blob(
+			r.getString("hash"), r.getInt("pack"), r.getLong("offset"), r.getInt("length"), r.getInt("rawLength"));
+
+	private final Lock lock = new ReentrantLock();
+	private final Connection connection;
+	private final Handle handle;
+	private final Map<String, Blob> pendingBlobs = new LinkedHashMap<>();
+	private final List<Snapshot> pendingSnapshots = new ArrayList<>();
+	private final boolean charsetColumn;
+
+	ArchiveIndex(Path file) {
+		this(file, false);
+	}
+
+	/**
+	 * @param readOnly
+	 *            {@code true} to open an existing index for reading only, creating and upgrading nothing
+	 */
+	ArchiveIndex(Path file, boolean readOnly) {
+		if (readOnly && !Files.isRegularFile(file)) {
+			throw new IllegalArgumentException(String.format("archive index %s does not exist", file));
+		}
+		SQLiteDataSource ds = new SQLiteDataSource();
+		ds.setUrl("jdbc:sqlite:" + file);
+		ds.setFullSync(false);
+		ds.setReadOnly(readOnly);
+		try {
+			connection = ds.getConnection();
+			connection.setAutoCommit(true);
+			handle = DBI.open(connection);
+			if (!readOnly) {
+				handle.createStatement(CREATE_TABLE_BLOBS).execute();
+				handle.createStatement(CREATE_TABLE_SNAPSHOTS).execute();
+				if (handle.createQuery(SELECT_CHARSET_COLUMN).mapTo(Integer.class).first() == 0) {
+					handle.createStatement(ADD_CHARSET_COLUMN).execute();
+				}
+			}
+			// an index no writer has upgraded yet has no charsets to read
+			charsetColumn = handle.createQuery(SELECT_CHARSET_COLUMN).mapTo(Integer.class).first() > 0;
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * @return {@link Blob} with the given hash, indexed or pending, or {@code null}
+	 */
+	Blob getBlob(String hash) {
+		lock.lock();
+		try {
+			Blob blob = pendingBlobs.get(hash);
+			if (blob != null) {
+				return blob;
+			}
+			return handle.createQuery(SELECT_BLOB)
+					.bind("hash", hash)
+					.map(BLOB_MAPPER)
+					.first();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return {@link Blob} downloaded for the given podcast at the given date, or {@code null}; pending entries are not
+	 *         considered
+	 */
+	Blob getBlob(int podcastId, LocalDateTime date) {
+		lock.lock();
+		try {
+			return handle.createQuery(SELECT_BLOB_BY_SNAPSHOT)
+					.bind("podcastId", podcastId)
+					.bind("date", Timestamp.format(date))
+					.map(BLOB_MAPPER)
+					.first();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return newest {@link Blob} downloaded for the given podcast, or {@code null}; pending entries are not considered
+	 */
+	Blob getNewestBlob(int podcastId) {
+		lock.lock();
+		try {
+			return handle.createQuery(SELECT_NEWEST_BLOB)
+					.bind("podcastId", podcastId)
+					.map(BLOB_MAPPER)
+					.first();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return name of the charset of the snapshot of the given podcast at the given date, or {@code null} if unknown
+	 *         or if there is no such snapshot; pending entries are not considered
+	 */
+	String getCharset(int podcastId, LocalDateTime date) {
+		if (!charsetColumn) {
+			return null;
+		}
+		lock.lock();
+		try {
+			return handle.createQuery(SELECT_CHARSET)
+					.bind("podcastId", podcastId)
+					.bind("date", Timestamp.format(date))
+					.mapTo(String.class)
+					.first();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return date of the newest snapshot of the given podcast, or {@code null}; pending entries are not considered
+	 */
+	LocalDateTime getNewestDate(int podcastId) {
+		lock.lock();
+		try {
+			return Timestamp.parseLocalDateTime(handle.createQuery(SELECT_NEWEST_DATE)
+					.bind("podcastId", podcastId)
+					.mapTo(String.class)
+					.first());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	List<LocalDateTime> getDates(int podcastId) {
+		lock.lock();
+		try {
+			return handle.createQuery(SELECT_DATES)
+					.bind("podcastId", podcastId)
+					.mapTo(String.class)
+					.list()
+					.stream()
+					.map(Timestamp::parseLocalDateTime)
+					.collect(Collectors.toList());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	int getLastPack() {
+		lock.lock();
+		try {
+			return handle.createQuery(SELECT_LAST_PACK)
+					.mapTo(Integer.class)
+					.first();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return offset right after the last indexed payload of the given pack, {@code 0} if there is none
+	 */
+	long getPackEnd(int pack) {
+		lock.lock();
+		try {
+			return handle.createQuery(SELECT_PACK_END)
+					.bind("pack", pack)
+					.mapTo(Long.class)
+					.first();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Keep the given {@link Blob} until the next {@link #flush()}
+	 */
+	void add(Blob blob) {
+		lock.lock();
+		try {
+			pendingBlobs.put(blob.getHash(), blob);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Keep the given snapshot until the next {@link #flush()}
+	 * 
+	 * @param charset
+	 *            name of the charset the payload was decoded with, or {@code null} if unknown
+	 * @return number of pending entries
+	 */
+	int addSnapshot(int podcastId, LocalDateTime date, String hash, String charset) {
+		lock.lock();
+		try {
+			pendingSnapshots.add(new Snapshot(podcastId, Timestamp.format(date), hash, charset));
+			return pendingSnapshots.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Write all pending entries in a single transaction
+	 */
+	void flush() {
+		lock.lock();
+		try {
+			if (pendingSnapshots.isEmpty() && pendingBlobs.isEmpty()) {
+				return;
+			}
+			handle.inTransaction((Handle h, TransactionStatus status) -> {
+				PreparedBatch blobs = h.prepareBatch(INSERT_BLOB);
+				pendingBlobs.values().forEach(blob -> blobs.add()
+						.bind("hash", blob.getHash())
+						.bind("pack", blob.getPack())
+						.bind("offset", blob.getOffset())
+						.bind("length", blob.getLength())
+						.bind("rawLength", blob.getRawLength()));
+				blobs.execute();
+				PreparedBatch snapshots = h.prepareBatch(INSERT_SNAPSHOT);
+				pendingSnapshots.forEach(snapshot -> snapshots.add()
+						.bind("podcastId", snapshot.podcastId)
+						.bind("date", snapshot.date)
+						.bind("hash", snapshot.hash)
+						.bind("charset", snapshot.charset));
+				snapshots.execute();
+				return null;
+			});
+			pendingBlobs.clear();
+			pendingSnapshots.clear();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static final class Snapshot {
+
+		private final int podcastId;
+		private final String date;
+		private final String hash;
+		private final String charset;
+
+		private Snapshot(int podcastId, String date, String hash, String charset) {
+			this.podcastId = podcastId;
+			this.date = date;
+			this.hash = hash;
+			this.charset = charset;
+		}
+
+	}
+
+}
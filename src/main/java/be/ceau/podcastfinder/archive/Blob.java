@@ -0,0 +1,69 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.archive;
+
+/**
+ * Location of a single compressed payload in the pack files of a {@link FeedArchive}
+ */
+final class Blob {
+
+	private final String hash;
+	private final int pack;
+	private final long offset;
+	private final int length;
+	private final int rawLength;
+
+	/**
+	 * @param hash
+	 *            hex encoded SHA-256 of the uncompressed payload
+	 * @param pack
+	 *            number of the {@link PackFile} holding the payload
+	 * @param offset
+	 *            offset of the compressed payload in its pack
+	 * @param length
+	 *            length of the compressed payload
+	 * @param rawLength
+	 *            length of the uncompressed payload
+	 */
+	Blob(String hash, int pack, long offset, int length, int rawLength) {
+		this.hash = hash;
+		this.pack = pack;
+		this.offset = offset;
+		this.length = length;
+		this.rawLength = rawLength;
+	}
+
+	String getHash() {
+		return hash;
+	}
+
+	int getPack() {
+		return pack;
+	}
+
+	long getOffset() {
+		return offset;
+	}
+
+	int getLength() {
+		return length;
+	}
+
+	int getRawLength() {
+		return rawLength;
+	}
+
+}
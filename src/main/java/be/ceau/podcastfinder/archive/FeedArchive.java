@@ -0,0 +1,502 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.ceau.podcastfinder.api.PathProvider;
+import be.ceau.podcastfinder.executor.ExecutorServiceFactory;
+import be.ceau.podcastfinder.executor.TaskPool;
+import be.ceau.podcastfinder.model.Shard;
+
+/**
+ * <p>
+ * Archive of raw feed payloads, keyed by their SHA-256 so that a payload served unchanged at every download is stored
+ * only once. Payloads are compressed and appended to large pack files, rather than written to a file each, and an
+ * SQLite index maps each (podcastId, date) snapshot to the payload served at that download and to the charset it was
+ * decoded with, which the payload itself does not tell.
+ * </p>
+ * <p>
+ * Hashing and compressing happen on {@link TaskPool#PARSE}, so that a single writer adding payloads is not held up
+ * by them. Appending to the current pack and indexing happen one payload at a time on {@link TaskPool#DISK}, in the
+ * order the payloads were added, with a bounded number of payloads waiting. A write that fails does not keep later
+ * writes from running. Reads go through memory mappings of the pack files.
+ * </p>
+ * <p>
+ * Only one instance at a time, in any process, can open a given directory for writing. Any number of instances opened
+ * with {@link #openReadOnly(Path)} can read from it alongside, seeing the payloads the writer has indexed.
+ * </p>
+ */
+public class FeedArchive implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(FeedArchive.class);
+
+	/**
+	 * Size in bytes beyond which no payload is appended to a pack, so that each pack can be mapped in full
+	 */
+	public static final long MAX_PACK_BYTES = 1L << 30;
+
+	/**
+	 * Directory of the archive of this application
+	 */
+	public static final Path DEFAULT_DIRECTORY = PathProvider.get().resolve("archive");
+
+	static final String INDEX_FILE_NAME = "index.sqlite";
+
+	private static final String LOCK_FILE_NAME = "archive.lock";
+
+	/**
+	 * Maximum number of payloads waiting to be written before {@link #add(int, LocalDateTime, byte[], Charset)} blocks
+	 */
+	private static final int MAX_PENDING_WRITES = 64;
+
+	/**
+	 * Number of snapshots written to the index in one transaction
+	 */
+	private static final int FLUSH_SIZE = 500;
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final Path directory;
+	private final boolean readOnly;
+	private final FileChannel lockChannel;
+	private final ArchiveIndex index;
+	private final Executor parsePool = ExecutorServiceFactory.getExecutor(TaskPool.PARSE);
+	private final Executor diskPool = ExecutorServiceFactory.getExecutor(TaskPool.DISK);
+	private final Semaphore pendingWrites = new Semaphore(MAX_PENDING_WRITES);
+	private final Map<Integer, PackFile> packs = new ConcurrentHashMap<>();
+	private final Object tailLock = new Object();
+	private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+	private PackFile current;
+	private volatile boolean dirty = false;
+
+	/**
+	 * Default constructor, for the archive in the directory of this application
+	 */
+	public FeedArchive() {
+		this(DEFAULT_DIRECTORY);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param directory
+	 *            {@link Path} of the directory holding index and pack files, created if need be, not {@code null}
+	 * @throws IllegalStateException
+	 *             if another instance has the given directory open
+	 */
+	public FeedArchive(Path directory) {
+		this(directory, false);
+	}
+
+	private FeedArchive(Path directory, boolean readOnly) {
+		Objects.requireNonNull(directory);
+		this.directory = directory;
+		this.readOnly = readOnly;
+		if (readOnly) {
+			this.lockChannel = null;
+			this.index = new ArchiveIndex(directory.resolve(INDEX_FILE_NAME), true);
+			return;
+		}
+		this.lockChannel = lock(directory);
+		this.index = new ArchiveIndex(directory.resolve(INDEX_FILE_NAME));
+		this.current = getPack(index.getLastPack());
+		try {
+			long end = index.getPackEnd(current.getNumber());
+			if (current.size() > end) {
+				logger.warn("truncating {} from {} to {} bytes, dropping payloads that were never indexed", PackFile.getFileName(current.getNumber()), current.size(), end);
+				current.truncate(end);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Open an existing archive for reading only, without taking its lock and without touching its files, so that it can
+	 * be read while another process writes to it
+	 * 
+	 * @param directory
+	 *            {@link Path} of the directory holding index and pack files, not {@code null}
+	 * @throws IllegalArgumentException
+	 *             if the given directory holds no archive
+	 */
+	public static FeedArchive openReadOnly(Path directory) {
+		return new FeedArchive(directory, true);
+	}
+
+	/**
+	 * @return directory for the archive of the given {@link Shard}, each shard having its own so that shards can run
+	 *         at once
+	 */
+	public static Path getShardDirectory(Shard shard) {
+		Objects.requireNonNull(shard);
+		return PathProvider.get().resolve(String.format("archive-shard-%s-of-%s", shard.getIndex(), shard.getCount()));
+	}
+
+	/**
+	 * @return {@link List} of the directory of the archive of this application and of every shard archive, those that
+	 *         exist only, not {@code null}
+	 */
+	public static List<Path> getDirectories() {
+		List<Path> directories = new ArrayList<>();
+		if (Files.isDirectory(DEFAULT_DIRECTORY)) {
+			directories.add(DEFAULT_DIRECTORY);
+		}
+		try (DirectoryStream<Path> shards = Files.newDirectoryStream(PathProvider.get(), "archive-shard-*-of-*")) {
+			for (Path shard : shards) {
+				if (Files.isDirectory(shard)) {
+					directories.add(shard);
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return directories;
+	}
+
+	/**
+	 * @return {@link FileChannel} holding an exclusive lock on the given directory
+	 */
+	private static FileChannel lock(Path directory) {
+		try {
+			Files.createDirectories(directory);
+			FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			FileLock lock;
+			try {
+				lock = channel.tryLock();
+			} catch (OverlappingFileLockException e) {
+				lock = null;
+			}
+			if (lock == null) {
+				channel.close();
+				throw new IllegalStateException(String.format("archive %s is in use", directory));
+			}
+			return channel;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Best effort archiving of the payload downloaded for the given podcast at the given date. Returns as soon as the
+	 * payload is queued for writing, unless too many payloads are queued already.
+	 * 
+	 * @param podcastId
+	 *            {@code int} podcastId
+	 * @param date
+	 *            {@link LocalDateTime} of the download, as stored with its status, not {@code null}
+	 * @param payload
+	 *            raw response body, not {@code null}
+	 * @param charset
+	 *            {@link Charset} the payload was decoded with when downloaded, or {@code null} if unknown
+	 * @throws IllegalStateException
+	 *             if this archive was opened with {@link #openReadOnly(Path)}
+	 */
+	public void add(int podcastId, LocalDateTime date, byte[] payload, Charset charset) {
+		Objects.requireNonNull(date);
+		Objects.requireNonNull(payload);
+		if (readOnly) {
+			throw new IllegalStateException(String.format("archive %s is open for reading only", directory));
+		}
+		String charsetName = charset == null ? null : charset.name();
+		try {
+			pendingWrites.acquire();
+		} catch (InterruptedException e) {
+			logger.warn("interrupted, payload of podcast {} at {} not archived", podcastId, date);
+			Thread.currentThread().interrupt();
+			return;
+		}
+		CompletableFuture<Prepared> prepared;
+		try {
+			prepared = CompletableFuture.supplyAsync(() -> prepare(payload), parsePool);
+		} catch (RuntimeException e) {
+			pendingWrites.release();
+			throw e;
+		}
+		enqueue(() -> {
+			try {
+				Prepared p = prepared.join();
+				write(podcastId, date, p.hash, charsetName, payload, p.compressed);
+			} catch (IOException | RuntimeException e) {
+				logger.error("add(int {}, LocalDateTime {}, byte[])", podcastId, date, e);
+			} finally {
+				pendingWrites.release();
+			}
+		});
+	}
+
+	/**
+	 * @return raw payload downloaded for the given podcast at the given date, or {@code null} if none was archived
+	 */
+	public byte[] get(int podcastId, LocalDateTime date) throws IOException {
+		Objects.requireNonNull(date);
+		sync();
+		Blob blob = index.getBlob(podcastId, date);
+		return blob == null ? null : read(blob);
+	}
+
+	/**
+	 * @return {@link Charset} the payload downloaded for the given podcast at the given date was decoded with, or
+	 *         {@code null} if it was archived without or if none was archived
+	 */
+	public Charset getCharset(int podcastId, LocalDateTime date) {
+		Objects.requireNonNull(date);
+		sync();
+		String name = index.getCharset(podcastId, date);
+		if (name != null) {
+			try {
+				return Charset.forName(name);
+			} catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+				logger.warn("charset {} of podcast {} at {} is not supported", name, podcastId, date);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return {@link LocalDateTime} of the newest download archived for the given podcast, or {@code null} if none was
+	 */
+	public LocalDateTime getNewestDate(int podcastId) {
+		sync();
+		return index.getNewestDate(podcastId);
+	}
+
+	/**
+	 * @return raw payload of the newest download archived for the given podcast, or {@code null} if none was
+	 */
+	public byte[] getNewest(int podcastId) throws IOException {
+		sync();
+		Blob blob = index.getNewestBlob(podcastId);
+		return blob == null ? null : read(blob);
+	}
+
+	/**
+	 * @return {@link List} of the dates of every download archived for the given podcast, oldest first, not
+	 *         {@code null}
+	 */
+	public List<LocalDateTime> getDates(int podcastId) {
+		sync();
+		return index.getDates(podcastId);
+	}
+
+	/**
+	 * Hash the given payload, and compress it unless it is known already, outside the single writer
+	 */
+	private Prepared prepare(byte[] payload) {
+		String hash = sha256(payload);
+		return new Prepared(hash, index.getBlob(hash) == null ? deflate(payload) : null);
+	}
+
+	/**
+	 * Runs on {@link TaskPool#DISK}, after every write queued before
+	 * 
+	 * @param compressed
+	 *            compressed payload, or {@code null} if it was known already when queued
+	 */
+	private void write(int podcastId, LocalDateTime date, String hash, String charset, byte[] payload, byte[] compressed) throws IOException {
+		dirty = true;
+		if (index.getBlob(hash) == null) {
+			byte[] data = compressed == null ? deflate(payload) : compressed;
+			if (current.size() > 0 && current.size() + data.length > MAX_PACK_BYTES) {
+				roll();
+			}
+			long offset = current.append(data);
+			index.add(new Blob(hash, current.getNumber(), offset, data.length, payload.length));
+		}
+		if (index.addSnapshot(podcastId, date, hash, charset) >= FLUSH_SIZE) {
+			flush();
+		}
+	}
+
+	private void roll() throws IOException {
+		flush();
+		current.close();
+		current = getPack(current.getNumber() + 1);
+		// left behind by a crash before anything in it was indexed
+		current.truncate(0);
+		logger.info("archiving to {}", PackFile.getFileName(current.getNumber()));
+	}
+
+	/**
+	 * Index nothing that is not on the storage device yet
+	 */
+	private void flush() throws IOException {
+		current.force();
+		index.flush();
+		dirty = false;
+	}
+
+	/**
+	 * Wait for every queued write and index it. Returns at once if nothing was written since the last flush, as when
+	 * the archive is only read from.
+	 */
+	private void sync() {
+		if (!dirty && pendingWrites.availablePermits() == MAX_PENDING_WRITES) {
+			return;
+		}
+		enqueue(() -> {
+			try {
+				flush();
+			} catch (IOException e) {
+				logger.error("sync()", e);
+			}
+		}).join();
+	}
+
+	private CompletableFuture<Void> enqueue(Runnable task) {
+		synchronized (tailLock) {
+			// runs whether or not the task before it failed, so that one failure does not stop all later writes
+			tail = tail.handle((v, t) -> {
+				if (t != null) {
+					logger.error("enqueue(Runnable)", t);
+				}
+				return (Void) null;
+			}).thenRunAsync(task, diskPool);
+			return tail;
+		}
+	}
+
+	private PackFile getPack(int number) {
+		return packs.computeIfAbsent(number, n -> new PackFile(directory, n));
+	}
+
+	private byte[] read(Blob blob) throws IOException {
+		ByteBuffer buffer = getPack(blob.getPack()).read(blob.getOffset(), blob.getLength());
+		byte[] compressed = new byte[blob.getLength()];
+		buffer.get(compressed);
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			byte[] payload = new byte[blob.getRawLength()];
+			int length = 0;
+			while (length < payload.length && !inflater.finished()) {
+				int n = inflater.inflate(payload, length, payload.length - length);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				length += n;
+			}
+			if (length != payload.length) {
+				throw new IOException(String.format("payload %s is corrupt: %s of %s bytes", blob.getHash(), length, payload.length));
+			}
+			return payload;
+		} catch (DataFormatException e) {
+			throw new IOException(String.format("payload %s is corrupt", blob.getHash()), e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static byte[] deflate(byte[] payload) {
+		Deflater deflater = new Deflater();
+		try {
+			deflater.setInput(payload);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, payload.length / 4));
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static String sha256(byte[] payload) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(payload);
+			char[] hex = new char[digest.length * 2];
+			for (int i = 0; i < digest.length; i++) {
+				hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+				hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+			}
+			return new String(hex);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Write and index every queued payload, and release all files
+	 */
+	@Override
+	public void close() {
+		sync();
+		for (PackFile pack : packs.values()) {
+			try {
+				pack.close();
+			} catch (IOException e) {
+				logger.error("close()", e);
+			}
+		}
+		index.close();
+		if (lockChannel != null) {
+			try {
+				// releases the lock
+				lockChannel.close();
+			} catch (IOException e) {
+				logger.error("close()", e);
+			}
+		}
+	}
+
+	/**
+	 * Hash of a payload, and its compressed bytes if it was not archived yet
+	 */
+	private static final class Prepared {
+
+		private final String hash;
+		private final byte[] compressed;
+
+		private Prepared(String hash, byte[] compressed) {
+			this.hash = hash;
+			this.compressed = compressed;
+		}
+
+	}
+
+}
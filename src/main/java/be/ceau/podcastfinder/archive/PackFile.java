@@ -0,0 +1,122 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A single append-only file of concatenated compressed payloads. The writer appends through a {@link FileChannel};
+ * readers go through a read-only memory mapping of the file, which is mapped again once reads go past its end.
+ */
+final class PackFile implements Closeable {
+
+	private final int number;
+	private final Path file;
+	private FileChannel writeChannel;
+	private MappedByteBuffer mapping;
+
+	PackFile(Path directory, int number) {
+		this.number = number;
+		this.file = directory.resolve(getFileName(number));
+	}
+
+	static String getFileName(int number) {
+		return String.format("pack-%06d.dat", number);
+	}
+
+	int getNumber() {
+		return number;
+	}
+
+	/**
+	 * @return current size in bytes of this pack, as seen by the writer
+	 */
+	long size() throws IOException {
+		return getWriteChannel().size();
+	}
+
+	/**
+	 * Append the given bytes at the end of this pack
+	 * 
+	 * @return {@code long} offset at which the bytes were written
+	 */
+	long append(byte[] data) throws IOException {
+		FileChannel channel = getWriteChannel();
+		long offset = channel.size();
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		long position = offset;
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+		return offset;
+	}
+
+	/**
+	 * Cut off anything past the given size, such as payloads appended but never indexed before a crash
+	 */
+	void truncate(long size) throws IOException {
+		getWriteChannel().truncate(size);
+	}
+
+	/**
+	 * Write everything appended so far to the storage device
+	 */
+	void force() throws IOException {
+		if (writeChannel != null) {
+			writeChannel.force(false);
+		}
+	}
+
+	/**
+	 * @return read-only {@link ByteBuffer} over the given range of this pack, not {@code null}
+	 */
+	synchronized ByteBuffer read(long offset, int length) throws IOException {
+		if (mapping == null || offset + length > mapping.capacity()) {
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				if (offset + length > channel.size()) {
+					throw new IOException(String.format("range %s+%s is past the end of %s", offset, length, file));
+				}
+				mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+		}
+		ByteBuffer buffer = mapping.duplicate();
+		buffer.position((int) offset);
+		buffer.limit((int) offset + length);
+		return buffer.slice();
+	}
+
+	private FileChannel getWriteChannel() throws IOException {
+		if (writeChannel == null) {
+			writeChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		}
+		return writeChannel;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (writeChannel != null) {
+			writeChannel.close();
+			writeChannel = null;
+		}
+	}
+
+}
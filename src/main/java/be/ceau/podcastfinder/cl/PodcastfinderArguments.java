@@ -15,6 +15,10 @@
 */
 package be.ceau.podcastfinder.cl;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import be.ceau.podcastfinder.http.ResponseLimits;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 
@@ -39,9 +43,42 @@ public class PodcastfinderArguments {
 	@Option(names = {"-e", "--enrich"}, description = {"Retrieve podcast feeds to add additional information and current status"})
 	private boolean enrich = false;
 
+	@Option(names = {"--resume"}, description = {"With --enrich, continue an unfinished enrich run (default)"})
+	private boolean resume = false;
+
+	@Option(names = {"--restart"}, description = {"With --enrich, discard any unfinished enrich run and start over"})
+	private boolean restart = false;
+
+	@Option(names = {"--shard"}, paramLabel = "i/n", description = {"With --enrich, only enrich shard i of n (counting from 0) and write the results to a separate shard file"})
+	private String shard = null;
+
+	@Option(names = {"--lease"}, description = {"With --enrich, share the work with any other worker started with --lease on the same database, claiming feeds with expiring leases"})
+	private boolean lease = false;
+
+	@Option(names = {"--merge"}, arity = "1..*", paramLabel = "FILE", description = {"Merge the given shard files into the main database"})
+	private List<String> merge = new ArrayList<>();
+
+	@Option(names = {"--max-feed-size"}, paramLabel = "MiB", description = {"With --enrich, abort downloading any feed larger than this many MiB (default 32)"})
+	private int maxFeedSize = (int) (ResponseLimits.DEFAULT_MAX_BYTES / (1024 * 1024));
+
+	@Option(names = {"--feed-timeout"}, paramLabel = "SECONDS", description = {"With --enrich, abort downloading any feed that takes longer than this many seconds (default 120)"})
+	private int feedTimeout = (int) ResponseLimits.DEFAULT_BODY_TIMEOUT.getSeconds();
+
+	@Option(names = {"--fetch-engine"}, paramLabel = "ENGINE", description = {"With --enrich, download feeds with the blocking client on a thread pool (blocking, default) or with the non-blocking client (async), which keeps up to 2048 downloads in flight on a few threads"})
+	private String fetchEngine = "blocking";
+
 	@Option(names = {"-c"}, description = {"Maximum number of concurrent downloads"})
 	private int concurrency = Integer.MAX_VALUE;
 
+	@Option(names = {"--virtual-threads"}, description = {"Run downloads on virtual threads, up to 2048 at once or as limited by -c, if supported by the Java runtime (21 or later)"})
+	private boolean virtualThreads = false;
+
+	@Option(names = {"--archive"}, description = {"With --enrich, keep the raw body of every downloaded feed in a compressed archive, storing each distinct body once"})
+	private boolean archive = false;
+
+	@Option(names = {"--reenrich"}, description = {"Enrich every podcast again from its newest feed in the archive kept with --archive, without downloading anything, on every processor"})
+	private boolean reenrich = false;
+
 	@Option(names = {"-s", "--status"}, description = {"Show status information about the data held by this application"})
 	private boolean status = false;
 
@@ -51,6 +88,9 @@ public class PodcastfinderArguments {
 	@Option(names = {"--clean"}, description = {"Remove all but the newest error statuses and vacuum the database"})
 	private boolean clean = false;
 
+	@Option(names = {"--unpark"}, description = {"Make every feed that was given up on after repeated failures due again, so the next --enrich retries it"})
+	private boolean unpark = false;
+
 	@Option(names = {"--export"}, description = {"Export a list of all valid feeds with at least one episode"})
 	private String export = null;
 
@@ -74,10 +114,54 @@ public class PodcastfinderArguments {
 		return enrich;
 	}
 	
+	public boolean isResume() {
+		return resume;
+	}
+
+	public boolean isRestart() {
+		return restart;
+	}
+
+	public String getShard() {
+		return shard;
+	}
+
+	public boolean isLease() {
+		return lease;
+	}
+
+	public List<String> getMerge() {
+		return merge;
+	}
+
+	public int getMaxFeedSize() {
+		return maxFeedSize;
+	}
+
+	public int getFeedTimeout() {
+		return feedTimeout;
+	}
+
+	public String getFetchEngine() {
+		return fetchEngine;
+	}
+
 	public int getConcurrency() {
 		return concurrency;
 	}
 
+	public boolean isVirtualThreads() {
+		return virtualThreads;
+	}
+
+	public boolean isArchive() {
+		return archive;
+	}
+
+	public boolean isReenrich() {
+		return reenrich;
+	}
+
 	public boolean isStatus() {
 		return status;
 	}
@@ -90,12 +174,16 @@ public class PodcastfinderArguments {
 		return clean;
 	}
 
+	public boolean isUnpark() {
+		return unpark;
+	}
+
 	public String getExport() {
 		return export;
 	}
 	
 	public boolean isActive() {
-		return digitalPodcast || gpodder || itunesFeedGenerator || itunesSearch || enrich || status || duplicates || clean || export != null;
+		return digitalPodcast || gpodder || itunesFeedGenerator || itunesSearch || enrich || reenrich || !merge.isEmpty() || status || duplicates || clean || unpark || export != null;
 	}
 
 }
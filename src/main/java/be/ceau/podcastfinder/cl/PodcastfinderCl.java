@@ -15,6 +15,9 @@
 */
 package be.ceau.podcastfinder.cl;
 
+import java.nio.file.Paths;
+import java.time.Duration;
+
 import be.ceau.podcastfinder.action.impl.CleanAction;
 import be.ceau.podcastfinder.action.impl.DigitalPodcastAction;
 import be.ceau.podcastfinder.action.impl.DuplicatesAction;
@@ -23,9 +26,14 @@ import be.ceau.podcastfinder.action.impl.GPodderAction;
 import be.ceau.podcastfinder.action.impl.ITunesFeedGeneratorAction;
 import be.ceau.podcastfinder.action.impl.ITunesSearchAction;
 import be.ceau.podcastfinder.executor.ExecutorServiceFactory;
+import be.ceau.podcastfinder.http.ResponseLimits;
+import be.ceau.podcastfinder.model.Shard;
 import be.ceau.podcastfinder.store.sqlite.PodcastFinderStore;
+import be.ceau.podcastfinder.update.FetchEngine;
+import be.ceau.podcastfinder.update.ReplayPipeline;
 import be.ceau.podcastfinder.update.UpdatePipeline;
 import be.ceau.podcastfinder.update.filter.UpdateFilter;
+import be.ceau.podcastfinder.update.schedule.RefreshScheduler;
 import picocli.CommandLine;
 
 /**
@@ -49,7 +57,49 @@ public class PodcastfinderCl {
 			System.exit(0);
 		}
 
+		if (arguments.isResume() && arguments.isRestart()) {
+			System.out.println("--resume and --restart can not be combined");
+			CommandLine.usage(arguments, System.out);
+			System.exit(1);
+		}
+
+		if (arguments.isLease() && (arguments.getShard() != null || arguments.isResume() || arguments.isRestart())) {
+			System.out.println("--lease can not be combined with --shard, --resume or --restart");
+			CommandLine.usage(arguments, System.out);
+			System.exit(1);
+		}
+
+		Shard shard = Shard.ALL;
+		if (arguments.getShard() != null) {
+			try {
+				shard = Shard.parse(arguments.getShard());
+			} catch (IllegalArgumentException e) {
+				System.out.println(e.getMessage());
+				CommandLine.usage(arguments, System.out);
+				System.exit(1);
+			}
+		}
+
+		ResponseLimits limits = null;
+		try {
+			limits = new ResponseLimits(arguments.getMaxFeedSize() * 1024L * 1024L, Duration.ofSeconds(arguments.getFeedTimeout()));
+		} catch (IllegalArgumentException e) {
+			System.out.println("--max-feed-size and --feed-timeout must be positive");
+			CommandLine.usage(arguments, System.out);
+			System.exit(1);
+		}
+
+		FetchEngine fetchEngine = FetchEngine.BLOCKING;
+		try {
+			fetchEngine = FetchEngine.parse(arguments.getFetchEngine());
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			CommandLine.usage(arguments, System.out);
+			System.exit(1);
+		}
+
 		ExecutorServiceFactory.setMaxConcurrency(arguments.getConcurrency());
+		ExecutorServiceFactory.setVirtualThreads(arguments.isVirtualThreads());
 
 		try {
 			if (arguments.isDuplicates()) {
@@ -75,8 +125,27 @@ public class PodcastfinderCl {
 				System.out.println("starting iTunes search lookup");
 				new ITunesSearchAction().run();
 			}
-			if (arguments.isEnrich()) {
-				new UpdatePipeline(new UpdateFilter()).enrich();
+			if (!arguments.getMerge().isEmpty()) {
+				try (PodcastFinderStore store = new PodcastFinderStore()) {
+					for (String file : arguments.getMerge()) {
+						System.out.println("merging shard file " + file);
+						store.merge(Paths.get(file));
+					}
+				}
+			}
+			if (arguments.isUnpark()) {
+				try (PodcastFinderStore store = new PodcastFinderStore()) {
+					System.out.println("unparked " + store.unparkAll() + " feeds");
+				}
+			}
+			if (arguments.isEnrich() && arguments.isLease()) {
+				new UpdatePipeline(new UpdateFilter(), new RefreshScheduler(), limits, fetchEngine, arguments.isArchive()).enrichLeased();
+			} else if (arguments.isEnrich()) {
+				new UpdatePipeline(new UpdateFilter(), new RefreshScheduler(), limits, fetchEngine, arguments.isArchive()).enrich(!arguments.isRestart(), shard);
+			}
+			if (arguments.isReenrich()) {
+				System.out.println("starting replay of archived feeds");
+				new ReplayPipeline().reenrich();
 			}
 			if (arguments.isClean()) {
 				new CleanAction().run();
@@ -15,33 +15,57 @@
 */
 package be.ceau.podcastfinder.executor;
 
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * Provide a shared {@link ExecutorService} instance to outside callers.
+ * Provide shared {@link ExecutorService} instances to outside callers, one for each {@link TaskPool}, each with threads
+ * of its own. Each pool is created on first use, without locking.
+ * <p>
+ * By default, tasks run on pools of platform threads. Opting in to virtual threads, on a JVM that supports them, runs
+ * every {@link TaskPool#DOWNLOAD} task on a virtual thread of its own instead, so that many more blocking downloads
+ * can be in flight at once.
+ * </p>
  */
 public class ExecutorServiceFactory {
 
-	private static final int DEFAULT_POOL_SIZE = 124;
-	private static final AtomicInteger MAX_CONCURRENCY = new AtomicInteger(DEFAULT_POOL_SIZE);
-	private static final ThreadFactory THREAD_FACTORY = new PodcastFinderThreadFactory(MAX_CONCURRENCY);
+	private static final Logger logger = LoggerFactory.getLogger(ExecutorServiceFactory.class);
+
+	/**
+	 * Maximum number of tasks running at once on virtual threads, whatever the maximum concurrency
+	 */
+	private static final int MAX_VIRTUAL_CONCURRENCY = 2048;
+
+	/**
+	 * Idle threads of any pool are stopped after this many seconds
+	 */
+	private static final long KEEP_ALIVE_SECONDS = 60L;
 
-	private static ThreadPoolExecutor executorService;
+	private static final AtomicInteger MAX_CONCURRENCY = new AtomicInteger(TaskPool.DOWNLOAD.getDefaultSize());
+	private static final AtomicBoolean VIRTUAL_THREADS = new AtomicBoolean(false);
+	private static final AtomicReferenceArray<ExecutorService> POOLS = new AtomicReferenceArray<>(TaskPool.values().length);
 
 	/**
 	 * <p>
-	 * Set the approximate maximum number of threads that can be executed simultaneously.
+	 * Set the approximate maximum number of downloads that can be executed simultaneously, on at most 124 threads. On
+	 * virtual threads, this is the maximum number of tasks running at once, up to 2048.
 	 * </p>
 	 * <p>
 	 * Setting this number will not have an effect if {@link Runnable} or {@link Callable} tasks have
-	 * already been submitted.
+	 * already been submitted to {@link TaskPool#DOWNLOAD}.
 	 * </p>
 	 * 
 	 * @param maxConcurrency
@@ -54,49 +78,167 @@ public class ExecutorServiceFactory {
 		MAX_CONCURRENCY.set(maxConcurrency);
 	}
 
-	private static synchronized ThreadPoolExecutor get() {
-		if (executorService == null) {
-			int poolSize = Math.min(MAX_CONCURRENCY.get(), DEFAULT_POOL_SIZE);
-			executorService = new ThreadPoolExecutor(poolSize, poolSize, 
-					0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(poolSize), 
-					THREAD_FACTORY, 
-					new ThreadPoolExecutor.CallerRunsPolicy());
-		}
-		return executorService;
+	/**
+	 * @return {@code int} maximum number of concurrent downloads as last set, which may exceed
+	 *         {@link #getPoolSize(TaskPool)}
+	 */
+	public static int getMaxConcurrency() {
+		return MAX_CONCURRENCY.get();
 	}
 
-	public static synchronized Future<?> submit(Runnable runnable) {
-		return get().submit(runnable);
+	/**
+	 * <p>
+	 * Run every {@link TaskPool#DOWNLOAD} task on a virtual thread of its own, with no more than the maximum
+	 * concurrency running at once. Submitting a task then blocks while that many are running. If the JVM does not
+	 * support virtual threads, tasks run on the pool of platform threads regardless.
+	 * </p>
+	 * <p>
+	 * Setting this will not have an effect if {@link Runnable} or {@link Callable} tasks have already been submitted
+	 * to {@link TaskPool#DOWNLOAD}.
+	 * </p>
+	 * 
+	 * @param virtualThreads
+	 *            {@code true} to run downloads on virtual threads
+	 */
+	public static void setVirtualThreads(boolean virtualThreads) {
+		VIRTUAL_THREADS.set(virtualThreads);
 	}
 
-	public static synchronized <T> Future<T> submit(Callable<T> callable) {
-		return get().submit(callable);
+	/**
+	 * @return {@code true} if {@link TaskPool#DOWNLOAD} was started and its tasks run on virtual threads
+	 */
+	public static boolean isVirtualThreads() {
+		return POOLS.get(TaskPool.DOWNLOAD.ordinal()) instanceof VirtualThreadExecutor;
 	}
 
-	public static int getActiveCount() {
-		return get().getActiveCount();
+	/**
+	 * @return {@code true} if any task was ever submitted to the given {@link TaskPool}
+	 */
+	public static boolean isStarted(TaskPool pool) {
+		return POOLS.get(pool.ordinal()) != null;
 	}
-	
-	public static int getWaitingCount() {
-		return get().getQueue().size();
+
+	private static ExecutorService get(TaskPool pool) {
+		ExecutorService executor = POOLS.get(pool.ordinal());
+		if (executor != null) {
+			return executor;
+		}
+		ExecutorService created = create(pool);
+		if (POOLS.compareAndSet(pool.ordinal(), null, created)) {
+			if (created instanceof VirtualThreadExecutor) {
+				logger.info("running up to {} {} tasks at once on virtual threads", ((VirtualThreadExecutor) created).getMaxConcurrency(), pool.getName());
+			}
+			return created;
+		}
+		// another thread got there first
+		created.shutdown();
+		return POOLS.get(pool.ordinal());
 	}
 
-	public static long getCompletedCount() {
-		return get().getCompletedTaskCount();
+	private static ExecutorService create(TaskPool pool) {
+		return create(pool, VIRTUAL_THREADS.get(), MAX_CONCURRENCY.get());
 	}
 
 	/**
-	 * Blocking wait until this factory has no more running threads
+	 * @return new {@link ExecutorService} for the given {@link TaskPool}, with the given settings rather than those last
+	 *         set
 	 */
-	public static void await() {
-		while (get().getActiveCount() > 0 && !get().getQueue().isEmpty()) {
-			try {
-				Thread.sleep(1000l);
-			} catch (InterruptedException e) {
-				Thread.currentThread().interrupt();
-				throw new RuntimeException(e);
+	static ExecutorService create(TaskPool pool, boolean virtualThreads, int maxConcurrency) {
+		int poolSize = pool.getDefaultSize();
+		if (pool == TaskPool.DOWNLOAD) {
+			if (virtualThreads) {
+				ThreadFactory virtualThreadFactory = VirtualThreadExecutor.newVirtualThreadFactory("podcastfinder-virtual-");
+				if (virtualThreadFactory != null) {
+					return new VirtualThreadExecutor(virtualThreadFactory, Math.min(maxConcurrency, MAX_VIRTUAL_CONCURRENCY));
+				}
+				logger.warn("virtual threads are not supported on Java {}, running tasks on a pool of platform threads", System.getProperty("java.version"));
 			}
+			poolSize = Math.min(maxConcurrency, poolSize);
+		}
+		BlockingQueue<Runnable> queue = pool.isBounded() ? new LinkedBlockingQueue<>(poolSize) : new LinkedBlockingQueue<>();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 
+				KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue, 
+				new PodcastFinderThreadFactory(pool.getName(), poolSize), 
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Execute the given {@link Runnable} on the given {@link TaskPool} without retaining a {@link Future} for it.
+	 * Blocks, or runs the task on the calling thread, if the pool is {@link TaskPool#DOWNLOAD} and it is saturated.
+	 * 
+	 * @param pool
+	 *            {@link TaskPool}, not {@code null}
+	 * @param runnable
+	 *            {@link Runnable}, not {@code null}
+	 */
+	public static void execute(TaskPool pool, Runnable runnable) {
+		get(pool).execute(runnable);
+	}
+
+	public static Future<?> submit(TaskPool pool, Runnable runnable) {
+		return get(pool).submit(runnable);
+	}
+
+	public static <T> Future<T> submit(TaskPool pool, Callable<T> callable) {
+		return get(pool).submit(callable);
+	}
+
+	/**
+	 * @param pool
+	 *            {@link TaskPool}, not {@code null}
+	 * @return {@link Executor} running tasks on the given {@link TaskPool}, not {@code null}
+	 */
+	public static Executor getExecutor(TaskPool pool) {
+		return runnable -> execute(pool, runnable);
+	}
+
+	/**
+	 * @return {@code int} number of tasks that can run simultaneously on the given {@link TaskPool} without being
+	 *         queued
+	 */
+	public static int getPoolSize(TaskPool pool) {
+		ExecutorService executor = get(pool);
+		if (executor instanceof VirtualThreadExecutor) {
+			return ((VirtualThreadExecutor) executor).getMaxConcurrency();
+		}
+		return ((ThreadPoolExecutor) executor).getMaximumPoolSize();
+	}
+
+	/**
+	 * @return {@code int} approximate number of tasks running on the given {@link TaskPool}, {@code 0} if it was never
+	 *         used
+	 */
+	public static int getActiveCount(TaskPool pool) {
+		ExecutorService executor = POOLS.get(pool.ordinal());
+		if (executor instanceof VirtualThreadExecutor) {
+			return ((VirtualThreadExecutor) executor).getActiveCount();
+		}
+		return executor == null ? 0 : ((ThreadPoolExecutor) executor).getActiveCount();
+	}
+
+	/**
+	 * @return {@code int} approximate number of tasks waiting to run on the given {@link TaskPool}, {@code 0} if it was
+	 *         never used
+	 */
+	public static int getWaitingCount(TaskPool pool) {
+		ExecutorService executor = POOLS.get(pool.ordinal());
+		if (executor instanceof VirtualThreadExecutor) {
+			return ((VirtualThreadExecutor) executor).getWaitingCount();
+		}
+		return executor == null ? 0 : ((ThreadPoolExecutor) executor).getQueue().size();
+	}
+
+	/**
+	 * @return {@code long} approximate number of tasks that finished running on the given {@link TaskPool}
+	 */
+	public static long getCompletedCount(TaskPool pool) {
+		ExecutorService executor = POOLS.get(pool.ordinal());
+		if (executor instanceof VirtualThreadExecutor) {
+			return ((VirtualThreadExecutor) executor).getCompletedTaskCount();
 		}
+		return executor == null ? 0L : ((ThreadPoolExecutor) executor).getCompletedTaskCount();
 	}
 
 }
@@ -7,11 +7,12 @@ import org.apache.commons.lang3.StringUtils;
 
 class PodcastFinderThreadFactory implements ThreadFactory {
 	
-	private final ThreadGroup group = new ThreadGroup("podcastfinder-pool");
+	private final ThreadGroup group;
 	private final AtomicInteger num = new AtomicInteger(0);
-	private final AtomicInteger max;
+	private final int max;
 
-	PodcastFinderThreadFactory(AtomicInteger maxConcurrency) {
+	PodcastFinderThreadFactory(String name, int maxConcurrency) {
+		this.group = new ThreadGroup("podcastfinder-" + name);
 		this.max = maxConcurrency;
 	}
 	
@@ -23,7 +24,7 @@ class PodcastFinderThreadFactory implements ThreadFactory {
 	}
 
 	private int getPad() {
-		int concurrency = max.get();
+		int concurrency = max;
 		int pads = 1;
 		while ((concurrency = (concurrency / 10)) > 0) {
 			pads++;
@@ -0,0 +1,76 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.executor;
+
+/**
+ * The separate pools {@link ExecutorServiceFactory} runs tasks on, so that one kind of work can not starve another
+ */
+public enum TaskPool {
+
+	/**
+	 * Calls to the APIs of podcast directories
+	 */
+	DISCOVERY("discovery", 16, false),
+
+	/**
+	 * Downloads of feeds and other resources. Submitting a task while as many are queued as there are threads runs it
+	 * on the submitting thread. Can run on virtual threads instead, see
+	 * {@link ExecutorServiceFactory#setVirtualThreads(boolean)}
+	 */
+	DOWNLOAD("download", 124, true),
+
+	/**
+	 * CPU-bound parsing, one thread per processor
+	 */
+	PARSE("parse", Runtime.getRuntime().availableProcessors(), false),
+
+	/**
+	 * Writes to local files
+	 */
+	DISK("disk", 2, false);
+
+	private final String name;
+	private final int defaultSize;
+	private final boolean bounded;
+
+	private TaskPool(String name, int defaultSize, boolean bounded) {
+		this.name = name;
+		this.defaultSize = defaultSize;
+		this.bounded = bounded;
+	}
+
+	/**
+	 * @return name of this pool, as used in thread names and metrics
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return number of threads of this pool, unless configured otherwise
+	 */
+	public int getDefaultSize() {
+		return defaultSize;
+	}
+
+	/**
+	 * @return {@code true} if no more tasks than there are threads are queued, {@code false} if the queue is unbounded
+	 */
+	boolean isBounded() {
+		return bounded;
+	}
+
+}
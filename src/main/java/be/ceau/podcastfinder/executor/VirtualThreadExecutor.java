@@ -0,0 +1,167 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.executor;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Runs every task on a thread of its own, with no more than a fixed number of tasks running at once. Submitting a task
+ * blocks while that many are running, rather than queueing it or running it on the submitting thread.
+ * </p>
+ * <p>
+ * Meant for virtual threads, which cost too little to pool. As this application targets Java 8, virtual threads are
+ * created through reflection, see {@link #newVirtualThreadFactory(String)}.
+ * </p>
+ */
+class VirtualThreadExecutor extends AbstractExecutorService {
+
+	private final ThreadFactory threadFactory;
+	private final int maxConcurrency;
+	private final Semaphore permits;
+	private final AtomicLong completed = new AtomicLong();
+	private volatile boolean shutdown = false;
+
+	/**
+	 * @param threadFactory
+	 *            {@link ThreadFactory} creating a new thread for every task, not {@code null}
+	 * @param maxConcurrency
+	 *            maximum number of tasks running at once, greater than 0
+	 */
+	VirtualThreadExecutor(ThreadFactory threadFactory, int maxConcurrency) {
+		Objects.requireNonNull(threadFactory);
+		if (maxConcurrency < 1) {
+			throw new IllegalArgumentException(String.format("maxConcurrency must be greater than 0, not %s", maxConcurrency));
+		}
+		this.threadFactory = threadFactory;
+		this.maxConcurrency = maxConcurrency;
+		this.permits = new Semaphore(maxConcurrency);
+	}
+
+	/**
+	 * @param prefix
+	 *            prefix of the names of the new threads, followed by a sequence number
+	 * @return {@link ThreadFactory} of virtual threads, or {@code null} if not supported by the running JVM
+	 */
+	static ThreadFactory newVirtualThreadFactory(String prefix) {
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// before Java 21, or a preview feature that is not enabled
+			return null;
+		}
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		Objects.requireNonNull(command);
+		if (shutdown) {
+			throw new RejectedExecutionException("executor has been shut down");
+		}
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RejectedExecutionException("interrupted waiting for a running task to finish");
+		}
+		try {
+			threadFactory.newThread(() -> {
+				try {
+					command.run();
+				} finally {
+					completed.incrementAndGet();
+					permits.release();
+				}
+			}).start();
+		} catch (RuntimeException | Error e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return maximum number of tasks running at once
+	 */
+	int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	/**
+	 * @return approximate number of tasks running
+	 */
+	int getActiveCount() {
+		return maxConcurrency - permits.availablePermits();
+	}
+
+	/**
+	 * @return approximate number of threads blocked submitting a task
+	 */
+	int getWaitingCount() {
+		return permits.getQueueLength();
+	}
+
+	/**
+	 * @return number of tasks that have finished running
+	 */
+	long getCompletedTaskCount() {
+		return completed.get();
+	}
+
+	@Override
+	public void shutdown() {
+		shutdown = true;
+	}
+
+	/**
+	 * Running tasks are not interrupted, and there is never a queue of tasks waiting to run
+	 */
+	@Override
+	public List<Runnable> shutdownNow() {
+		shutdown();
+		return Collections.emptyList();
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return shutdown && getActiveCount() == 0;
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		if (permits.tryAcquire(maxConcurrency, timeout, unit)) {
+			permits.release(maxConcurrency);
+			return shutdown;
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,472 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.nio.protocol.BasicAsyncRequestProducer;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.ByteArrayBuffer;
+
+import be.ceau.podcastfinder.executor.ExecutorServiceFactory;
+import be.ceau.podcastfinder.executor.TaskPool;
+import be.ceau.podcastfinder.metrics.PipelineMetrics;
+import be.ceau.podcastfinder.parse.FeedMetadata;
+
+/**
+ * <p>
+ * {@link HttpFetcher} implementation on a non-blocking HTTP client, that keeps any number of downloads in flight on
+ * one I/O dispatch thread per processor. Response bodies are buffered as they arrive, within the
+ * {@link ResponseLimits}, and parsed into {@link FeedMetadata} on {@link TaskPool#PARSE}, so that parsing never stalls
+ * the I/O dispatch threads. The bodies buffered at once share a budget of bytes: a download that finds it spent stops
+ * reading from its connection until bytes are released. A timer aborts any body not read in full within the
+ * {@link ResponseLimits}, whether or not bytes still arrive.
+ * </p>
+ * <p>
+ * As the non-blocking client does not report when it opens a connection, no connect latency is recorded. Time to
+ * first byte is measured from the moment the request was sent, and so still excludes it.
+ * </p>
+ */
+public class AsyncHttpFeedFetcher implements HttpFetcher<FeedMetadata>, Closeable {
+
+	/**
+	 * Default maximum number of open connections
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS = 2048;
+
+	/**
+	 * Default maximum number of response body bytes buffered at once, across all downloads in flight
+	 */
+	public static final int DEFAULT_BUFFER_BYTES = 256 * 1024 * 1024;
+
+	/**
+	 * Largest initial size of the buffer for a response body, which grows as the body arrives: a {@code Content-Length}
+	 * is not trusted to allocate more
+	 */
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+	private static final int CHUNK_SIZE = 8192;
+
+	private final CloseableHttpAsyncClient httpClient;
+	private final Executor parsePool = ExecutorServiceFactory.getExecutor(TaskPool.PARSE);
+	private final FeedReader feedReader;
+	private final HostCircuitBreaker circuitBreaker;
+	private final ResponseLimits limits;
+	private final BufferBudget budget;
+	private final ScheduledThreadPoolExecutor timer;
+	private final PipelineMetrics metrics = PipelineMetrics.INSTANCE;
+
+	/**
+	 * Default constructor, with a {@link HostCircuitBreaker} of its own, {@link ResponseLimits#DEFAULT} and
+	 * {@link #DEFAULT_MAX_CONNECTIONS}
+	 */
+	public AsyncHttpFeedFetcher() {
+		this(new HostCircuitBreaker(), ResponseLimits.DEFAULT, DEFAULT_MAX_CONNECTIONS);
+	}
+
+	/**
+	 * Constructor, starting the I/O dispatch threads of the new instance
+	 * 
+	 * @param circuitBreaker
+	 *            {@link HostCircuitBreaker} guarding every request of this instance, not {@code null}
+	 * @param limits
+	 *            {@link ResponseLimits} enforced on every response body, not {@code null}
+	 * @param maxConnections
+	 *            maximum number of open connections, greater than 0
+	 */
+	public AsyncHttpFeedFetcher(HostCircuitBreaker circuitBreaker, ResponseLimits limits, int maxConnections) {
+		this(circuitBreaker, limits, maxConnections, false);
+	}
+
+	/**
+	 * Constructor, starting the I/O dispatch threads of the new instance
+	 * 
+	 * @param circuitBreaker
+	 *            {@link HostCircuitBreaker} guarding every request of this instance, not {@code null}
+	 * @param limits
+	 *            {@link ResponseLimits} enforced on every response body, not {@code null}
+	 * @param maxConnections
+	 *            maximum number of open connections, greater than 0
+	 * @param keepBody
+	 *            {@code true} to retain the raw body of every parsed response, see {@link FeedResponse#getBody()}
+	 */
+	public AsyncHttpFeedFetcher(HostCircuitBreaker circuitBreaker, ResponseLimits limits, int maxConnections, boolean keepBody) {
+		this(circuitBreaker, limits, maxConnections, keepBody, DEFAULT_BUFFER_BYTES);
+	}
+
+	/**
+	 * Constructor, starting the I/O dispatch threads of the new instance
+	 * 
+	 * @param circuitBreaker
+	 *            {@link HostCircuitBreaker} guarding every request of this instance, not {@code null}
+	 * @param limits
+	 *            {@link ResponseLimits} enforced on every response body, not {@code null}
+	 * @param maxConnections
+	 *            maximum number of open connections, greater than 0
+	 * @param keepBody
+	 *            {@code true} to retain the raw body of every parsed response, see {@link FeedResponse#getBody()}
+	 * @param bufferBytes
+	 *            maximum number of response body bytes buffered at once, enough for at least one body of the largest
+	 *            size the {@link ResponseLimits} allow
+	 */
+	public AsyncHttpFeedFetcher(HostCircuitBreaker circuitBreaker, ResponseLimits limits, int maxConnections, boolean keepBody, int bufferBytes) {
+		Objects.requireNonNull(circuitBreaker);
+		Objects.requireNonNull(limits);
+		if (maxConnections < 1) {
+			throw new IllegalArgumentException(String.format("maxConnections must be greater than 0, not %s", maxConnections));
+		}
+		if (bufferBytes < limits.getMaxBytes() + CHUNK_SIZE) {
+			throw new IllegalArgumentException(String.format("bufferBytes must be at least %s but is %s", limits.getMaxBytes() + CHUNK_SIZE, bufferBytes));
+		}
+		this.circuitBreaker = circuitBreaker;
+		this.limits = limits;
+		this.budget = new BufferBudget(bufferBytes);
+		this.timer = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread thread = new Thread(r, "podcastfinder-body-timeout");
+			thread.setDaemon(true);
+			return thread;
+		});
+		// nearly every deadline is cancelled long before it is due
+		this.timer.setRemoveOnCancelPolicy(true);
+		this.feedReader = new FeedReader(limits, false, keepBody);
+		this.httpClient = new HttpClientFactory().getHttpAsyncClient(maxConnections);
+		this.httpClient.start();
+	}
+
+	/**
+	 * Retrieve the given {@link URI} with an HTTP GET request, blocking until it is parsed. Return the response body as
+	 * {@link FeedMetadata}
+	 * 
+	 * @param uri
+	 *            {@link URI}, not {@code null}
+	 * @return instance of {@link FeedMetadata}, not {@code null}
+	 */
+	@Override
+	public FeedMetadata get(URI uri) throws IOException {
+		try {
+			return get(uri, null, null).get().getMetadata();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted waiting for " + uri);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw (RuntimeException) e.getCause();
+		}
+	}
+
+	/**
+	 * Start retrieving the given {@link URI} with a conditional HTTP GET request, without blocking. If either validator
+	 * is given, the server may answer HTTP 304, in which case the response body is neither downloaded nor parsed.
+	 * <p>
+	 * The returned {@link CompletableFuture} is always completed on {@link TaskPool#PARSE}, never on an I/O dispatch
+	 * thread, so that actions depending on it may block. It fails with a {@link HostUnavailableException} if the circuit for
+	 * the host of the given {@link URI} is open, with any other {@link IOException} if the download failed, and with a
+	 * {@link RuntimeException} if the response body could not be parsed.
+	 * </p>
+	 * 
+	 * @param uri
+	 *            {@link URI}, not {@code null}
+	 * @param etag
+	 *            {@code ETag} received with the previous response, sent as {@code If-None-Match}, can be {@code null}
+	 * @param lastModified
+	 *            {@code Last-Modified} received with the previous response, sent as {@code If-Modified-Since}, can be
+	 *            {@code null}
+	 * @return {@link CompletableFuture} of {@link FeedResponse}, not {@code null}
+	 */
+	public CompletableFuture<FeedResponse> get(URI uri, String etag, String lastModified) {
+		CompletableFuture<FeedResponse> result = new CompletableFuture<>();
+		String host = uri.getHost();
+		if (host != null) {
+			try {
+				circuitBreaker.acquire(host);
+			} catch (HostUnavailableException e) {
+				parsePool.execute(() -> result.completeExceptionally(e));
+				return result;
+			}
+		}
+		HttpGet request = new HttpGet(uri);
+		if (etag != null) {
+			request.setHeader(HttpHeaders.IF_NONE_MATCH, etag);
+		}
+		if (lastModified != null) {
+			request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+		}
+		TimedRequestProducer producer = new TimedRequestProducer(request);
+		BufferingResponseConsumer consumer = new BufferingResponseConsumer(producer);
+		HttpClientContext context = HttpClientContext.create();
+		consumer.exchange = httpClient.execute(producer, consumer, context, new FutureCallback<HttpResponse>() {
+
+			@Override
+			public void completed(HttpResponse response) {
+				parsePool.execute(() -> {
+					try {
+						parse(request, response, context, etag, lastModified, result);
+					} finally {
+						consumer.releaseBody();
+					}
+				});
+			}
+
+			@Override
+			public void failed(Exception e) {
+				parsePool.execute(() -> fail(host, e, result));
+			}
+
+			@Override
+			public void cancelled() {
+				failed(consumer.timeout != null ? consumer.timeout : new InterruptedIOException("request cancelled: " + uri));
+			}
+
+		});
+		return result;
+	}
+
+	private void parse(HttpGet request, HttpResponse response, HttpContext context, String etag, String lastModified, CompletableFuture<FeedResponse> result) {
+		String host = request.getURI().getHost();
+		boolean recorded = false;
+		try {
+			FeedResponse feedResponse = feedReader.handleResponse(response, request::abort, etag, lastModified)
+					.withRedirects(request.getURI(), RecordingRedirectStrategy.getRedirects(context));
+			if (host != null) {
+				circuitBreaker.onSuccess(host);
+			}
+			recorded = true;
+			result.complete(feedResponse);
+		} catch (IOException e) {
+			recorded = true;
+			fail(host, e, result);
+		} catch (RuntimeException e) {
+			// the host responded, but not with something that could be parsed
+			if (host != null) {
+				circuitBreaker.onSuccess(host);
+			}
+			recorded = true;
+			result.completeExceptionally(e);
+		} finally {
+			if (host != null && !recorded) {
+				circuitBreaker.onAbandoned(host);
+			}
+		}
+	}
+
+	/**
+	 * Failures other than {@link IOException} or {@link RuntimeException} are protocol errors, which the blocking client
+	 * reports as {@link ClientProtocolException}
+	 */
+	private void fail(String host, Exception e, CompletableFuture<FeedResponse> result) {
+		Exception failure = e instanceof IOException || e instanceof RuntimeException ? e : new ClientProtocolException(e);
+		if (host != null && failure instanceof IOException) {
+			circuitBreaker.onFailure(host, (IOException) failure);
+		} else if (host != null) {
+			circuitBreaker.onAbandoned(host);
+		}
+		result.completeExceptionally(failure);
+	}
+
+	/**
+	 * Number of response body bytes that may still be buffered before downloads are suspended
+	 */
+	int getAvailableBufferBytes() {
+		return budget.getAvailable();
+	}
+
+	/**
+	 * Shut down the I/O dispatch threads, aborting any download still in flight
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			httpClient.close();
+		} finally {
+			timer.shutdownNow();
+		}
+	}
+
+	/**
+	 * Notes when the request was sent in full, so that time to first byte excludes opening the connection
+	 */
+	private static final class TimedRequestProducer extends BasicAsyncRequestProducer {
+
+		private volatile long sentNanos = System.nanoTime();
+
+		TimedRequestProducer(HttpGet request) {
+			super(URIUtils.extractHost(request.getURI()), request);
+		}
+
+		@Override
+		public void requestCompleted(HttpContext context) {
+			sentNanos = System.nanoTime();
+			super.requestCompleted(context);
+		}
+
+	}
+
+	/**
+	 * Buffers a successful response body on the I/O dispatch thread as it arrives, failing as soon as it exceeds the
+	 * {@link ResponseLimits} or if its {@code Content-Type} is that of media, which closes the connection. The body of
+	 * any other response is discarded. The bytes of a buffered body are reserved from the {@link BufferBudget} until
+	 * {@link #releaseBody()}, or until the exchange fails.
+	 */
+	private final class BufferingResponseConsumer extends AbstractAsyncResponseConsumer<HttpResponse> {
+
+		private final TimedRequestProducer producer;
+		private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+		private volatile Future<HttpResponse> exchange;
+		private volatile ResponseTimeoutException timeout;
+		private volatile long byteCount;
+		private HttpResponse response;
+		private long bodyStart;
+		private long deadlineNanos;
+		private ScheduledFuture<?> deadline;
+		private ContentType contentType;
+		private ByteArrayBuffer buffer;
+		private int reserved;
+		private boolean handedOver;
+
+		BufferingResponseConsumer(TimedRequestProducer producer) {
+			this.producer = producer;
+		}
+
+		@Override
+		protected void onResponseReceived(HttpResponse response) throws HttpException, IOException {
+			bodyStart = System.nanoTime();
+			metrics.getTimeToFirstByteHistogram().record(bodyStart - producer.sentNanos);
+			deadlineNanos = bodyStart + limits.getBodyTimeout().toNanos();
+			deadline = timer.schedule(this::expire, limits.getBodyTimeout().toNanos(), TimeUnit.NANOSECONDS);
+			this.response = response;
+		}
+
+		/**
+		 * Abort the exchange from the timer, also when no bytes arrive that would let {@link #onContentReceived} notice
+		 */
+		private void expire() {
+			Future<HttpResponse> exchange = this.exchange;
+			if (exchange != null) {
+				timeout = new ResponseTimeoutException(limits.getBodyTimeout(), byteCount);
+				exchange.cancel(true);
+			}
+		}
+
+		@Override
+		protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) throws IOException {
+			int status = response.getStatusLine().getStatusCode();
+			if (status < 200 || status >= 300) {
+				return;
+			}
+			long contentLength = entity.getContentLength();
+			if (contentLength > limits.getMaxBytes()) {
+				throw new ResponseTooLargeException(limits.getMaxBytes(), contentLength);
+			}
+			ContentSniffer.INSTANCE.checkContentType(contentType == null ? null : contentType.getMimeType());
+			this.contentType = contentType;
+			this.buffer = new ByteArrayBuffer(contentLength < 0 ? INITIAL_BUFFER_SIZE : (int) Math.min(contentLength, INITIAL_BUFFER_SIZE));
+		}
+
+		@Override
+		protected void onContentReceived(ContentDecoder decoder, IOControl ioControl) throws IOException {
+			int read;
+			do {
+				if (buffer != null) {
+					if (!budget.reserve(CHUNK_SIZE, ioControl)) {
+						// input resumes once other bodies release their bytes
+						return;
+					}
+					reserved += CHUNK_SIZE;
+				}
+				read = decoder.read(chunk);
+				if (buffer != null) {
+					budget.release(CHUNK_SIZE - Math.max(read, 0));
+					reserved -= CHUNK_SIZE - Math.max(read, 0);
+				}
+				if (read > 0) {
+					byteCount += read;
+					if (buffer != null) {
+						if (byteCount > limits.getMaxBytes()) {
+							throw new ResponseTooLargeException(limits.getMaxBytes(), byteCount);
+						}
+						buffer.append(chunk.array(), 0, read);
+					}
+					chunk.clear();
+				}
+			} while (read > 0);
+			if (System.nanoTime() - deadlineNanos > 0) {
+				throw new ResponseTimeoutException(limits.getBodyTimeout(), byteCount);
+			}
+		}
+
+		@Override
+		protected HttpResponse buildResult(HttpContext context) {
+			if (buffer != null) {
+				metrics.getBodyHistogram().record(System.nanoTime() - bodyStart);
+				response.setEntity(new ByteArrayEntity(buffer.buffer(), 0, buffer.length(), contentType));
+				handedOver = true;
+			} else {
+				response.setEntity(null);
+			}
+			return response;
+		}
+
+		@Override
+		protected void releaseResources() {
+			if (deadline != null) {
+				deadline.cancel(false);
+			}
+			buffer = null;
+			if (!handedOver) {
+				releaseBody();
+			}
+		}
+
+		/**
+		 * Return the bytes of the body to the {@link BufferBudget}, once it is no longer needed
+		 */
+		synchronized void releaseBody() {
+			budget.release(reserved);
+			reserved = 0;
+		}
+
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.http;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+import org.apache.http.nio.IOControl;
+
+/**
+ * Bounds the number of response body bytes an {@link AsyncHttpFeedFetcher} holds in memory at once, across all of its
+ * downloads in flight. A download that finds the budget spent suspends reading from its connection until bytes are
+ * released, pushing back on the server instead of failing. Should all downloads holding bytes be suspended at once,
+ * the first to reach its body deadline is aborted, which frees its bytes for the others.
+ */
+final class BufferBudget {
+
+	private final Semaphore bytes;
+	private final Queue<IOControl> suspended = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * @param maxBytes
+	 *            {@code int} maximum number of bytes held at once, greater than 0
+	 */
+	BufferBudget(int maxBytes) {
+		if (maxBytes < 1) {
+			throw new IllegalArgumentException(String.format("maxBytes must be at least 1 but is %s", maxBytes));
+		}
+		this.bytes = new Semaphore(maxBytes);
+	}
+
+	/**
+	 * Reserve the given number of bytes, or else suspend input on the given {@link IOControl} until bytes are released
+	 * 
+	 * @return {@code true} if the bytes were reserved, {@code false} if input was suspended
+	 */
+	boolean reserve(int count, IOControl ioControl) {
+		if (bytes.tryAcquire(count)) {
+			return true;
+		}
+		ioControl.suspendInput();
+		suspended.add(ioControl);
+		// bytes released since the attempt above found no connection to resume
+		if (bytes.availablePermits() >= count) {
+			resume();
+		}
+		return false;
+	}
+
+	/**
+	 * Return the given number of reserved bytes, and resume every suspended connection so that it tries again
+	 */
+	void release(int count) {
+		if (count > 0) {
+			bytes.release(count);
+			resume();
+		}
+	}
+
+	int getAvailable() {
+		return bytes.availablePermits();
+	}
+
+	private void resume() {
+		IOControl ioControl;
+		while ((ioControl = suspended.poll()) != null) {
+			ioControl.requestInput();
+		}
+	}
+
+}
@@ -0,0 +1,187 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.http;
+
+import java.util.Locale;
+
+/**
+ * <p>
+ * Rejects responses that are evidently not feeds before any parsing is attempted.
+ * </p>
+ * <p>
+ * A {@code Content-Type} of an image, audio or video is rejected outright. Any other response is judged by the first
+ * {@value #SNIFF_BYTES} bytes of its body, since feeds are served with all sorts of {@code Content-Type} headers: the
+ * body must start with markup, and that markup must not be an HTML document. Bodies in an encoding that is not a
+ * superset of ASCII, as announced by a UTF-16 or UTF-32 byte order mark or given away by NUL bytes, are left to the
+ * parser. Anything that is not obviously something else is let through.
+ * </p>
+ */
+final class ContentSniffer {
+
+	static final ContentSniffer INSTANCE = new ContentSniffer();
+
+	/**
+	 * Number of leading bytes of a response body inspected
+	 */
+	static final int SNIFF_BYTES = 4096;
+
+	private ContentSniffer() {
+	}
+
+	/**
+	 * @param mimeType
+	 *            MIME type of the response, can be {@code null}
+	 * @throws NotAFeedException
+	 *             if the MIME type is that of media
+	 */
+	void checkContentType(String mimeType) throws NotAFeedException {
+		if (mimeType == null) {
+			return;
+		}
+		String type = mimeType.trim().toLowerCase(Locale.ROOT);
+		if (type.startsWith("image/") || type.startsWith("audio/") || type.startsWith("video/")) {
+			throw new NotAFeedException(type.substring(0, type.indexOf('/')), mimeType);
+		}
+	}
+
+	/**
+	 * @param prefix
+	 *            the first bytes of the response body, not {@code null}
+	 * @param length
+	 *            number of bytes in {@code prefix}, less than its length only if the body is shorter
+	 * @param mimeType
+	 *            MIME type of the response, can be {@code null}
+	 * @throws NotAFeedException
+	 *             if the body is empty, does not start with markup, or is an HTML document
+	 */
+	void checkBody(byte[] prefix, int length, String mimeType) throws NotAFeedException {
+		if (isWide(prefix, length)) {
+			return;
+		}
+		int i = skipWhitespace(prefix, length, hasBom(prefix, length, 0xEF, 0xBB, 0xBF) ? 3 : 0);
+		if (i == length) {
+			if (length < prefix.length) {
+				throw new NotAFeedException("empty", mimeType);
+			}
+			return;
+		}
+		if (prefix[i] == '{' || prefix[i] == '[') {
+			throw new NotAFeedException("JSON", mimeType);
+		}
+		if (prefix[i] != '<') {
+			throw new NotAFeedException("not markup", mimeType);
+		}
+		while (i < length) {
+			if (startsWith(prefix, length, i, "<?")) {
+				i = skipPast(prefix, length, i, "?>");
+			} else if (startsWith(prefix, length, i, "<!--")) {
+				i = skipPast(prefix, length, i, "-->");
+			} else if (startsWith(prefix, length, i, "<!DOCTYPE")) {
+				if (isHtml(prefix, length, skipWhitespace(prefix, length, i + 9))) {
+					throw new NotAFeedException("HTML", mimeType);
+				}
+				return;
+			} else if (prefix[i] == '<') {
+				if (isHtml(prefix, length, i + 1)) {
+					throw new NotAFeedException("HTML", mimeType);
+				}
+				return;
+			} else if (isWhitespace(prefix[i])) {
+				i++;
+			} else {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return {@code true} if the prefix starts with a UTF-16 or UTF-32 byte order mark, or contains a NUL byte
+	 */
+	private static boolean isWide(byte[] prefix, int length) {
+		if (hasBom(prefix, length, 0xFE, 0xFF) || hasBom(prefix, length, 0xFF, 0xFE)) {
+			return true;
+		}
+		for (int i = 0; i < length; i++) {
+			if (prefix[i] == 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean hasBom(byte[] prefix, int length, int... bom) {
+		if (length < bom.length) {
+			return false;
+		}
+		for (int i = 0; i < bom.length; i++) {
+			if ((prefix[i] & 0xFF) != bom[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return {@code true} if the element or doctype name at the given index is one only found in HTML
+	 */
+	private static boolean isHtml(byte[] prefix, int length, int i) {
+		return isName(prefix, length, i, "html") || isName(prefix, length, i, "head") || isName(prefix, length, i, "body");
+	}
+
+	private static boolean isName(byte[] prefix, int length, int i, String name) {
+		if (!startsWith(prefix, length, i, name)) {
+			return false;
+		}
+		int end = i + name.length();
+		return end == length || isWhitespace(prefix[end]) || prefix[end] == '>' || prefix[end] == '/';
+	}
+
+	/**
+	 * Case insensitive comparison of the ASCII {@link String} with the bytes at the given index
+	 */
+	private static boolean startsWith(byte[] prefix, int length, int i, String s) {
+		if (i + s.length() > length) {
+			return false;
+		}
+		for (int j = 0; j < s.length(); j++) {
+			if (Character.toLowerCase((char) (prefix[i + j] & 0xFF)) != Character.toLowerCase(s.charAt(j))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int skipPast(byte[] prefix, int length, int i, String end) {
+		for (int j = i; j < length; j++) {
+			if (startsWith(prefix, length, j, end)) {
+				return j + end.length();
+			}
+		}
+		return length;
+	}
+
+	private static int skipWhitespace(byte[] prefix, int length, int i) {
+		while (i < length && isWhitespace(prefix[i])) {
+			i++;
+		}
+		return i;
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+	}
+
+}
@@ -0,0 +1,244 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Objects;
+
+import util.hash.MurmurHash3;
+
+/**
+ * {@link FilterInputStream} that counts and hashes every byte read from the wrapped stream, so that size and hash of
+ * the raw response body are known once the parser is done with it, without keeping a copy. It also measures the time
+ * spent blocked on the wrapped stream, so that reading the body can be told apart from parsing it.
+ * <p>
+ * Given {@link ResponseLimits}, it fails as soon as more bytes than allowed were read, or when the body deadline has
+ * passed before a read. On failure it first runs an abort action, so that closing the stream does not drain the rest
+ * of the body. The failure is retained, as a parser reading through this stream may wrap it in an exception of its
+ * own.
+ * </p>
+ * <p>
+ * On request, it also copies every byte read, for callers that may need the raw body after parsing, until they tell
+ * it they no longer do.
+ * </p>
+ */
+class FeedInputStream extends FilterInputStream {
+
+	private static final int DRAIN_BUFFER_SIZE = 8192;
+
+	/**
+	 * Initial size of the copy, which grows with the body rather than trusting any {@code Content-Length}
+	 */
+	private static final int COPY_BUFFER_SIZE = 8192;
+
+	private final MurmurHash3.Hasher32 hasher = MurmurHash3.newHasher32();
+	private final long maxBytes;
+	private final Duration bodyTimeout;
+	private final long deadlineNanos;
+	private final Runnable abort;
+	private ByteArrayOutputStream copy;
+	private long readNanos = 0L;
+	private IOException failure;
+
+	/**
+	 * Without any limits
+	 */
+	FeedInputStream(InputStream in) {
+		super(in);
+		this.maxBytes = Long.MAX_VALUE;
+		this.bodyTimeout = null;
+		this.deadlineNanos = 0L;
+		this.abort = () -> {};
+		this.copy = null;
+	}
+
+	/**
+	 * @param limits
+	 *            {@link ResponseLimits} to enforce, its body timeout starting now
+	 * @param abort
+	 *            {@link Runnable} aborting the underlying connection when a limit is exceeded
+	 */
+	FeedInputStream(InputStream in, ResponseLimits limits, Runnable abort) {
+		this(in, limits, abort, false);
+	}
+
+	/**
+	 * @param limits
+	 *            {@link ResponseLimits} to enforce, its body timeout starting now
+	 * @param abort
+	 *            {@link Runnable} aborting the underlying connection when a limit is exceeded
+	 * @param copy
+	 *            {@code true} to copy every byte read, until {@link #stopCopy()}
+	 */
+	FeedInputStream(InputStream in, ResponseLimits limits, Runnable abort, boolean copy) {
+		super(in);
+		Objects.requireNonNull(limits);
+		Objects.requireNonNull(abort);
+		this.maxBytes = limits.getMaxBytes();
+		this.bodyTimeout = limits.getBodyTimeout();
+		this.deadlineNanos = System.nanoTime() + bodyTimeout.toNanos();
+		this.abort = abort;
+		this.copy = copy ? new ByteArrayOutputStream(COPY_BUFFER_SIZE) : null;
+	}
+
+	@Override
+	public int read() throws IOException {
+		long start = beforeRead();
+		int b = super.read();
+		readNanos += System.nanoTime() - start;
+		if (b != -1) {
+			hasher.update((byte) b);
+			if (copy != null) {
+				copy.write(b);
+			}
+			afterRead();
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		long start = beforeRead();
+		int n = super.read(b, off, len);
+		readNanos += System.nanoTime() - start;
+		if (n > 0) {
+			hasher.update(b, off, n);
+			if (copy != null) {
+				copy.write(b, off, n);
+			}
+			afterRead();
+		}
+		return n;
+	}
+
+	/**
+	 * @return {@link System#nanoTime()} at which the read starts
+	 */
+	private long beforeRead() throws IOException {
+		if (failure != null) {
+			throw failure;
+		}
+		long now = System.nanoTime();
+		if (bodyTimeout != null && now - deadlineNanos > 0) {
+			fail(new ResponseTimeoutException(bodyTimeout, hasher.length()));
+		}
+		return now;
+	}
+
+	private void afterRead() throws IOException {
+		if (hasher.length() > maxBytes) {
+			fail(new ResponseTooLargeException(maxBytes, hasher.length()));
+		}
+	}
+
+	private void fail(IOException e) throws IOException {
+		failure = e;
+		abort.run();
+		throw e;
+	}
+
+	/**
+	 * Skipped bytes are read, so that they are counted and hashed as well
+	 */
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0) {
+			return 0;
+		}
+		byte[] buffer = new byte[(int) Math.min(n, DRAIN_BUFFER_SIZE)];
+		long skipped = 0;
+		while (skipped < n) {
+			int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+			if (read < 0) {
+				break;
+			}
+			skipped += read;
+		}
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+		// not supported
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		throw new IOException("mark/reset not supported");
+	}
+
+	/**
+	 * Read any bytes the parser left unread, such as trailing whitespace, so that count and hash cover the whole body.
+	 */
+	void drain() throws IOException {
+		byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+		while (read(buffer, 0, buffer.length) != -1) {
+			// keep reading
+		}
+	}
+
+	/**
+	 * Stop copying, and discard the bytes copied so far
+	 */
+	void stopCopy() {
+		copy = null;
+	}
+
+	/**
+	 * @return copy of every byte read so far, or {@code null} if not copying
+	 */
+	byte[] getCopy() {
+		return copy == null ? null : copy.toByteArray();
+	}
+
+	/**
+	 * @return {@link IOException} thrown when a limit was exceeded, or {@code null}
+	 */
+	IOException getFailure() {
+		return failure;
+	}
+
+	/**
+	 * @return number of bytes read so far
+	 */
+	long getByteCount() {
+		return hasher.length();
+	}
+
+	/**
+	 * @return nanoseconds spent reading from the wrapped stream so far
+	 */
+	long getReadNanos() {
+		return readNanos;
+	}
+
+	/**
+	 * @return MurmurHash3 of the bytes read so far
+	 */
+	int getHash() {
+		return hasher.finish();
+	}
+
+}
@@ -0,0 +1,207 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.http;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Objects;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.ParseException;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+
+import be.ceau.podcastfinder.metrics.PipelineMetrics;
+import be.ceau.podcastfinder.parse.FeedMetadata;
+import be.ceau.podcastfinder.parse.FeedMetadataParser;
+import be.ceau.podcastparser.exceptions.InvalidFeedFormatException;
+
+/**
+ * Turns an {@link HttpResponse} into a {@link FeedResponse}, extracting the {@link FeedMetadata} of its body while it
+ * is being read. A document the streaming pass of the {@link FeedMetadataParser} can not handle is parsed in full
+ * from a second read of a repeatable body, as buffered by the asynchronous fetcher, or else from a copy of the body
+ * taken as it streams by, which is dropped as soon as the streaming pass is decided. Shared by the blocking and the
+ * asynchronous feed fetchers.
+ */
+class FeedReader {
+
+	private final FeedMetadataParser parser = new FeedMetadataParser();
+	private final PipelineMetrics metrics = PipelineMetrics.INSTANCE;
+	private final ResponseLimits limits;
+	private final boolean streaming;
+	private final boolean keepBody;
+
+	/**
+	 * @param limits
+	 *            {@link ResponseLimits} enforced on every response body, not {@code null}
+	 * @param streaming
+	 *            {@code true} if response bodies are read from the network while they are parsed, {@code false} if
+	 *            they were buffered in full beforehand, in which case reading them is not recorded as body time
+	 * @param keepBody
+	 *            {@code true} to retain a copy of every parsed response body in its {@link FeedResponse}
+	 */
+	FeedReader(ResponseLimits limits, boolean streaming, boolean keepBody) {
+		Objects.requireNonNull(limits);
+		this.limits = limits;
+		this.streaming = streaming;
+		this.keepBody = keepBody;
+	}
+
+	/**
+	 * Mirrors {@link org.apache.http.impl.client.AbstractResponseHandler}, except that HTTP 304 is not an error and
+	 * that the validators of the response are retained. A body that exceeds the {@link ResponseLimits} aborts the
+	 * request, and is not parsed at all if its {@code Content-Length} announces as much. A response the
+	 * {@link ContentSniffer} rejects as not being a feed aborts the request without being parsed either.
+	 * 
+	 * @param abort
+	 *            {@link Runnable} aborting the request, so that the rest of its body is not drained
+	 */
+	FeedResponse handleResponse(final HttpResponse response, final Runnable abort, String etag, String lastModified) throws IOException {
+		final StatusLine statusLine = response.getStatusLine();
+		final HttpEntity entity = response.getEntity();
+		if (statusLine.getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+			EntityUtils.consume(entity);
+			// a 304 response may omit validators that did not change
+			return FeedResponse.notModified(header(response, HttpHeaders.ETAG, etag), header(response, HttpHeaders.LAST_MODIFIED, lastModified));
+		}
+		if (statusLine.getStatusCode() >= 300) {
+			EntityUtils.consume(entity);
+			throw new HttpResponseException(statusLine.getStatusCode(), statusLine.getReasonPhrase());
+		}
+		if (entity != null && entity.getContentLength() > limits.getMaxBytes()) {
+			abort.run();
+			throw new ResponseTooLargeException(limits.getMaxBytes(), entity.getContentLength());
+		}
+		final String mimeType = getMimeType(entity);
+		try {
+			ContentSniffer.INSTANCE.checkContentType(mimeType);
+		} catch (NotAFeedException e) {
+			abort.run();
+			throw e;
+		}
+		final InputStream content = entity == null ? null : entity.getContent();
+		if (content == null) {
+			throw new IOException("empty response body");
+		}
+		final boolean repeatable = entity.isRepeatable();
+		try (FeedInputStream in = new FeedInputStream(content, limits, abort, !repeatable)) {
+			long start = System.nanoTime();
+			Charset charset = getCharset(entity);
+			FeedMetadata metadata;
+			try {
+				InputStream sniffed = sniff(in, mimeType, abort);
+				metadata = parser.extract(new InputStreamReader(sniffed, charset), keepBody ? () -> {} : in::stopCopy);
+				in.drain();
+				if (metadata == null) {
+					metadata = parser.parse(new InputStreamReader(getContentAgain(entity, in), charset));
+				}
+			} catch (IOException | RuntimeException e) {
+				// the parser may have wrapped the failure of the stream
+				if (in.getFailure() != null) {
+					throw in.getFailure();
+				}
+				throw e;
+			}
+			if (streaming) {
+				metrics.getBodyHistogram().record(in.getReadNanos());
+				metrics.getParseHistogram().record(System.nanoTime() - start - in.getReadNanos());
+			} else {
+				metrics.getParseHistogram().record(System.nanoTime() - start);
+			}
+			int bytes = (int) Math.min(in.getByteCount(), Integer.MAX_VALUE);
+			return FeedResponse.modified(metadata, in.getHash(), bytes, header(response, HttpHeaders.ETAG, null), header(response, HttpHeaders.LAST_MODIFIED, null),
+					keepBody ? getBody(entity, in) : null, charset);
+		}
+	}
+
+	/**
+	 * Check the start of the body with the {@link ContentSniffer}
+	 * 
+	 * @return {@link InputStream} that still returns the body from its first byte
+	 */
+	private static InputStream sniff(InputStream in, String mimeType, Runnable abort) throws IOException {
+		BufferedInputStream buffered = new BufferedInputStream(in, ContentSniffer.SNIFF_BYTES);
+		buffered.mark(ContentSniffer.SNIFF_BYTES);
+		byte[] prefix = new byte[ContentSniffer.SNIFF_BYTES];
+		int length = 0;
+		int read;
+		while (length < prefix.length && (read = buffered.read(prefix, length, prefix.length - length)) != -1) {
+			length += read;
+		}
+		buffered.reset();
+		try {
+			ContentSniffer.INSTANCE.checkBody(prefix, length, mimeType);
+		} catch (NotAFeedException e) {
+			abort.run();
+			throw e;
+		}
+		return buffered;
+	}
+
+	private static String getMimeType(HttpEntity entity) {
+		ContentType contentType = entity == null ? null : ContentType.getLenient(entity);
+		return contentType == null ? null : contentType.getMimeType();
+	}
+
+	/**
+	 * @return {@link InputStream} returning the whole body once more, for the full parse
+	 */
+	private static InputStream getContentAgain(HttpEntity entity, FeedInputStream in) throws IOException {
+		if (entity.isRepeatable()) {
+			return entity.getContent();
+		}
+		byte[] copy = in.getCopy();
+		if (copy == null) {
+			// dropped once the streaming pass was decided, which it then only gives up on for malformed documents
+			throw new InvalidFeedFormatException("document is malformed past its feed level date");
+		}
+		return new ByteArrayInputStream(copy);
+	}
+
+	private static byte[] getBody(HttpEntity entity, FeedInputStream in) throws IOException {
+		return entity.isRepeatable() ? EntityUtils.toByteArray(entity) : in.getCopy();
+	}
+
+	private static String header(HttpResponse response, String name, String fallback) {
+		Header header = response.getFirstHeader(name);
+		return header == null ? fallback : header.getValue();
+	}
+
+	private Charset getCharset(final HttpEntity entity) {
+		try {
+			ContentType c = ContentType.get(entity);
+			if (c != null && c.getCharset() != null) {
+				return c.getCharset();
+			}
+		} catch (UnsupportedCharsetException | ParseException e) {
+
+		}
+		return StandardCharsets.UTF_8;
+	}
+
+}
@@ -0,0 +1,194 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.http;
+
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+
+import be.ceau.podcastfinder.parse.FeedMetadata;
+
+/**
+ * The outcome of a single, possibly conditional, feed download: either the {@link FeedMetadata} of a freshly parsed
+ * feed or confirmation by the server that the feed has not been modified since the validators sent with the request.
+ */
+public class FeedResponse {
+
+	private final FeedMetadata metadata;
+	private final int hash;
+	private final int bytes;
+	private final String etag;
+	private final String lastModified;
+	private final URI uri;
+	private final List<Redirect> redirects;
+	private final byte[] body;
+	private final Charset charset;
+
+	private FeedResponse(FeedMetadata metadata, int hash, int bytes, String etag, String lastModified, URI uri, List<Redirect> redirects, byte[] body, Charset charset) {
+		this.metadata = metadata;
+		this.hash = hash;
+		this.bytes = bytes;
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.uri = uri;
+		this.redirects = redirects;
+		this.body = body;
+		this.charset = charset;
+	}
+
+	/**
+	 * @param metadata
+	 *            {@link FeedMetadata} of the parsed feed, can not be {@code null}
+	 * @param hash
+	 *            MurmurHash3 of the raw response body
+	 * @param bytes
+	 *            size in bytes of the raw response body
+	 * @param etag
+	 *            value of the {@code ETag} response header, can be {@code null}
+	 * @param lastModified
+	 *            value of the {@code Last-Modified} response header, can be {@code null}
+	 * @param body
+	 *            raw response body, or {@code null} if it was not retained
+	 * @param charset
+	 *            {@link Charset} the response body was decoded with, can not be {@code null}
+	 * @return a new {@link FeedResponse} for a full (HTTP 200) response
+	 */
+	static FeedResponse modified(FeedMetadata metadata, int hash, int bytes, String etag, String lastModified, byte[] body, Charset charset) {
+		if (metadata == null) {
+			throw new IllegalArgumentException("metadata can not be null for a modified response");
+		}
+		if (charset == null) {
+			throw new IllegalArgumentException("charset can not be null for a modified response");
+		}
+		return new FeedResponse(metadata, hash, bytes, etag, lastModified, null, Collections.emptyList(), body, charset);
+	}
+
+	/**
+	 * @param etag
+	 *            value of the {@code ETag} validator, can be {@code null}
+	 * @param lastModified
+	 *            value of the {@code Last-Modified} validator, can be {@code null}
+	 * @return a new {@link FeedResponse} for an HTTP 304 response
+	 */
+	static FeedResponse notModified(String etag, String lastModified) {
+		return new FeedResponse(null, 0, 0, etag, lastModified, null, Collections.emptyList(), null, null);
+	}
+
+	/**
+	 * @param uri
+	 *            {@link URI} originally requested, not {@code null}
+	 * @param redirects
+	 *            {@link List} of every {@link Redirect} followed from {@code uri}, in order, not {@code null}
+	 * @return a copy of this {@link FeedResponse} that knows where it was requested and how it got to its final
+	 *         {@link URI}
+	 */
+	FeedResponse withRedirects(URI uri, List<Redirect> redirects) {
+		return new FeedResponse(metadata, hash, bytes, etag, lastModified, uri, redirects, body, charset);
+	}
+
+	/**
+	 * @return {@code true} if the server answered HTTP 304 and no body was downloaded or parsed
+	 */
+	public boolean isNotModified() {
+		return metadata == null;
+	}
+
+	/**
+	 * @return {@link FeedMetadata} of the parsed feed, or {@code null} if {@link #isNotModified()}
+	 */
+	public FeedMetadata getMetadata() {
+		return metadata;
+	}
+
+	/**
+	 * @return MurmurHash3 of the response body as received on the wire, or {@code 0} if {@link #isNotModified()}
+	 */
+	public int getHash() {
+		return hash;
+	}
+
+	/**
+	 * @return size in bytes of the response body as received on the wire, or {@code 0} if {@link #isNotModified()}
+	 */
+	public int getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return {@code ETag} validator to send with the next request for this feed, or {@code null}
+	 */
+	public String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * @return {@code Last-Modified} validator to send with the next request for this feed, or {@code null}
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return the raw response body as received on the wire, or {@code null} if {@link #isNotModified()} or if the
+	 *         fetcher was not asked to keep it
+	 */
+	public byte[] getBody() {
+		return body;
+	}
+
+	/**
+	 * @return {@link Charset} the response body was decoded with, from its {@code Content-Type} or else UTF-8, or
+	 *         {@code null} if {@link #isNotModified()}
+	 */
+	public Charset getCharset() {
+		return charset;
+	}
+
+	/**
+	 * @return unmodifiable {@link List} of every {@link Redirect} followed to get this response, in order, never
+	 *         {@code null}
+	 */
+	public List<Redirect> getRedirects() {
+		return redirects;
+	}
+
+	/**
+	 * @return the {@link URI} that actually answered with this response, which is the requested {@link URI} unless
+	 *         redirects were followed
+	 */
+	public URI getFinalUri() {
+		return redirects.isEmpty() ? uri : redirects.get(redirects.size() - 1).getLocation();
+	}
+
+	/**
+	 * A move only counts as permanent as long as every hop from the requested {@link URI} is permanent: a 301 behind
+	 * a 302 tells nothing about the requested {@link URI}.
+	 * 
+	 * @return the {@link URI} this feed permanently moved to, or {@code null} if it did not move for good
+	 */
+	public URI getPermanentUri() {
+		URI permanent = null;
+		for (Redirect redirect : redirects) {
+			if (!redirect.isPermanent()) {
+				break;
+			}
+			permanent = redirect.getLocation();
+		}
+		return permanent == null || permanent.equals(uri) ? null : permanent;
+	}
+
+}
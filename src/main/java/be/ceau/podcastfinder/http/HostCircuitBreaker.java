@@ -0,0 +1,203 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.http;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.apache.http.conn.ConnectTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Per host circuit breaker, shared by every download to avoid waiting out connect and socket timeouts for each feed of
+ * a host that is down.
+ * </p>
+ * <p>
+ * A circuit opens after a number of consecutive connection failures, or immediately when the host name does not
+ * resolve. While open, {@link #acquire(String)} fails fast with a {@link HostUnavailableException}. Once the cool-down
+ * has passed, a single request is let through: if it succeeds the circuit closes, otherwise it opens again.
+ * </p>
+ * <p>
+ * Any response from the server, including HTTP errors, proves the host is reachable and closes its circuit. Every
+ * {@link #acquire(String)} must be followed by {@link #onSuccess(String)}, {@link #onFailure(String, IOException)} or,
+ * if the request ended without telling anything about the host, {@link #onAbandoned(String)}, so that a half-open
+ * circuit is never left waiting for a probe that will not report back.
+ * </p>
+ * <p>
+ * Instances are threadsafe.
+ * </p>
+ */
+public class HostCircuitBreaker {
+
+	private static final Logger logger = LoggerFactory.getLogger(HostCircuitBreaker.class);
+
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+	public static final long DEFAULT_COOL_DOWN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+	public static final long DEFAULT_UNKNOWN_HOST_COOL_DOWN_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+	private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<>();
+	private final int failureThreshold;
+	private final long coolDownMillis;
+	private final long unknownHostCoolDownMillis;
+	private final LongSupplier clock;
+
+	/**
+	 * Default constructor
+	 */
+	public HostCircuitBreaker() {
+		this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_COOL_DOWN_MILLIS, DEFAULT_UNKNOWN_HOST_COOL_DOWN_MILLIS);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param failureThreshold
+	 *            {@code int} consecutive connection failures that open a circuit, at least 1
+	 * @param coolDownMillis
+	 *            {@code long} milliseconds a circuit stays open after connection failures
+	 * @param unknownHostCoolDownMillis
+	 *            {@code long} milliseconds a circuit stays open after the host name failed to resolve
+	 */
+	public HostCircuitBreaker(int failureThreshold, long coolDownMillis, long unknownHostCoolDownMillis) {
+		this(failureThreshold, coolDownMillis, unknownHostCoolDownMillis, System::currentTimeMillis);
+	}
+
+	HostCircuitBreaker(int failureThreshold, long coolDownMillis, long unknownHostCoolDownMillis, LongSupplier clock) {
+		if (failureThreshold < 1) {
+			throw new IllegalArgumentException(String.format("failureThreshold must be at least 1 but is %s", failureThreshold));
+		}
+		if (coolDownMillis < 0 || unknownHostCoolDownMillis < 0) {
+			throw new IllegalArgumentException(String.format("cool-down can not be negative but is %s and %s", coolDownMillis, unknownHostCoolDownMillis));
+		}
+		Objects.requireNonNull(clock);
+		this.failureThreshold = failureThreshold;
+		this.coolDownMillis = coolDownMillis;
+		this.unknownHostCoolDownMillis = unknownHostCoolDownMillis;
+		this.clock = clock;
+	}
+
+	/**
+	 * @param host
+	 *            {@link String} host about to be contacted, not {@code null}
+	 * @throws HostUnavailableException
+	 *             if the circuit for the given host is open
+	 */
+	public void acquire(String host) throws HostUnavailableException {
+		Circuit circuit = circuits.get(host);
+		if (circuit != null) {
+			circuit.acquire(host, clock.getAsLong());
+		}
+	}
+
+	/**
+	 * Record that the given host responded
+	 */
+	public void onSuccess(String host) {
+		if (circuits.remove(host) != null) {
+			logger.debug("circuit for {} closed", host);
+		}
+	}
+
+	/**
+	 * Record that a request to the given host failed with the given exception
+	 */
+	public void onFailure(String host, IOException e) {
+		if (e instanceof HostUnavailableException) {
+			return;
+		}
+		if (e instanceof UnknownHostException) {
+			circuits.computeIfAbsent(host, h -> new Circuit()).open(host, clock.getAsLong() + unknownHostCoolDownMillis);
+		} else if (isConnectionFailure(e)) {
+			circuits.computeIfAbsent(host, h -> new Circuit()).failure(host, clock.getAsLong(), failureThreshold, coolDownMillis);
+		} else {
+			onSuccess(host);
+		}
+	}
+
+	/**
+	 * Record that a request to the given host ended without a verdict on the host, for instance because an
+	 * {@link Error} was thrown: if it was the probe of a half-open circuit, the next request probes instead
+	 */
+	public void onAbandoned(String host) {
+		Circuit circuit = circuits.get(host);
+		if (circuit != null) {
+			circuit.abandon();
+		}
+	}
+
+	/**
+	 * @return number of hosts with an open or half-open circuit, or with recent connection failures
+	 */
+	public int size() {
+		return circuits.size();
+	}
+
+	private static boolean isConnectionFailure(IOException e) {
+		return e instanceof ConnectTimeoutException
+				|| e instanceof ConnectException
+				|| e instanceof NoRouteToHostException
+				|| e instanceof SocketTimeoutException;
+	}
+
+	private static final class Circuit {
+
+		private int failures = 0;
+		private long openUntil = 0;
+		private boolean probing = false;
+
+		synchronized void acquire(String host, long now) throws HostUnavailableException {
+			if (openUntil == 0) {
+				return;
+			}
+			if (now < openUntil || probing) {
+				throw new HostUnavailableException(host, openUntil - now);
+			}
+			// half-open: let a single request through
+			probing = true;
+		}
+
+		synchronized void failure(String host, long now, int threshold, long coolDownMillis) {
+			failures++;
+			if (probing || failures >= threshold) {
+				open(host, now + coolDownMillis);
+			}
+		}
+
+		synchronized void abandon() {
+			probing = false;
+		}
+
+		synchronized void open(String host, long until) {
+			if (openUntil == 0) {
+				logger.info("circuit for {} opened", host);
+			}
+			openUntil = Math.max(openUntil, until);
+			probing = false;
+		}
+
+	}
+
+}
@@ -0,0 +1,50 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.http;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thrown without any network activity when the {@link HostCircuitBreaker} for the host of a request is open.
+ */
+public class HostUnavailableException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String host;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param host
+	 *            {@link String} host that is unavailable
+	 * @param remainingMillis
+	 *            {@code long} milliseconds before a request to the host will be attempted again
+	 */
+	public HostUnavailableException(String host, long remainingMillis) {
+		super(String.format("host %s unavailable, retrying in %s s", host, TimeUnit.MILLISECONDS.toSeconds(Math.max(0, remainingMillis))));
+		this.host = host;
+	}
+
+	/**
+	 * @return the unavailable host
+	 */
+	public String getHost() {
+		return host;
+	}
+
+}
@@ -23,42 +23,117 @@ import javax.net.ssl.SSLContext;
 
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
 import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
 import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.NoopHostnameVerifier;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.conn.ssl.TrustAllStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.ManagedNHttpClientConnectionFactory;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NHttpClientConnectionManager;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
 import org.apache.http.ssl.SSLContextBuilder;
 
 class HttpClientFactory {
 
 	private static final String USER_AGENT = "PodcastFinder/1.0.0-SNAPSHOT";
 
+	/**
+	 * Default maximum number of open connections of a blocking client
+	 */
+	static final int DEFAULT_MAX_CONNECTIONS = 164;
+
+	/**
+	 * Maximum number of open connections to a single host and port
+	 */
+	static final int MAX_CONNECTIONS_PER_ROUTE = 30;
+
+	/**
+	 * Shared by all clients, so that a host name that failed to resolve is not looked up again by each of them
+	 */
+	private static final NegativeDnsCache DNS_RESOLVER = new NegativeDnsCache();
+
 	/**
 	 * Construct and return a new {@link HttpClient} instance.
 	 * 
 	 * @return {@link HttpClient}, not {@code null}
 	 */
 	HttpClient getHttpClient() {
+		return getHttpClient(DEFAULT_MAX_CONNECTIONS);
+	}
+
+	/**
+	 * Construct and return a new {@link HttpClient} instance.
+	 * 
+	 * @param maxConnections
+	 *            maximum number of open connections, greater than 0
+	 * @return {@link HttpClient}, not {@code null}
+	 */
+	HttpClient getHttpClient(int maxConnections) {
 		return HttpClientBuilder.create()
-				.setConnectionManager(getConnectionManager())
+				.setConnectionManager(getConnectionManager(maxConnections))
 				.setUserAgent(USER_AGENT)
 				.setDefaultRequestConfig(getRequestConfig())
+				.setRedirectStrategy(RecordingRedirectStrategy.INSTANCE)
 				.disableCookieManagement()
 				.setSSLSocketFactory(getConnectionSocketFactory())
 				.build();
 	}
 
-	private HttpClientConnectionManager getConnectionManager() {
-		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
-		connectionManager.setMaxTotal(164);
-		connectionManager.setDefaultMaxPerRoute(30);
+	/**
+	 * Construct and return a new, not yet started, {@link CloseableHttpAsyncClient} instance, configured as
+	 * {@link #getHttpClient()} but running all of its connections on one I/O dispatch thread per processor.
+	 * 
+	 * @param maxConnections
+	 *            maximum number of open connections, greater than 0
+	 * @return {@link CloseableHttpAsyncClient}, not {@code null}
+	 */
+	CloseableHttpAsyncClient getHttpAsyncClient(int maxConnections) {
+		return HttpAsyncClients.custom()
+				.setConnectionManager(getAsyncConnectionManager(maxConnections))
+				.setUserAgent(USER_AGENT)
+				.setDefaultRequestConfig(getRequestConfig())
+				.setRedirectStrategy(RecordingRedirectStrategy.INSTANCE)
+				.disableCookieManagement()
+				.build();
+	}
+
+	private HttpClientConnectionManager getConnectionManager(int maxConnections) {
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(getSocketFactoryRegistry(), DNS_RESOLVER);
+		connectionManager.setMaxTotal(maxConnections);
+		connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
 		connectionManager.setValidateAfterInactivity(5 * 1000);
 		return connectionManager;
 	}
 
+	private NHttpClientConnectionManager getAsyncConnectionManager(int maxConnections) {
+		IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+				.setIoThreadCount(Runtime.getRuntime().availableProcessors())
+				.build();
+		try {
+			PoolingNHttpClientConnectionManager connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(ioReactorConfig),
+					ManagedNHttpClientConnectionFactory.INSTANCE, getIOSessionStrategyRegistry(), DNS_RESOLVER);
+			connectionManager.setMaxTotal(maxConnections);
+			connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+			return connectionManager;
+		} catch (IOReactorException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	private RequestConfig getRequestConfig() {
 		return RequestConfig.custom()
 				.setConnectTimeout(15 * 1000)
@@ -81,6 +156,20 @@ class HttpClientFactory {
 		}
 	}
 
+	private Registry<ConnectionSocketFactory> getSocketFactoryRegistry() {
+		return RegistryBuilder.<ConnectionSocketFactory>create()
+				.register("http", new TimedConnectionSocketFactory(PlainConnectionSocketFactory.getSocketFactory()))
+				.register("https", new TimedConnectionSocketFactory(getConnectionSocketFactory()))
+				.build();
+	}
+
+	private Registry<SchemeIOSessionStrategy> getIOSessionStrategyRegistry() {
+		return RegistryBuilder.<SchemeIOSessionStrategy>create()
+				.register("http", NoopIOSessionStrategy.INSTANCE)
+				.register("https", new SSLIOSessionStrategy(getSSLContext(), NoopHostnameVerifier.INSTANCE))
+				.build();
+	}
+
 	private LayeredConnectionSocketFactory getConnectionSocketFactory() {
 		return new SSLConnectionSocketFactory(getSSLContext(), NoopHostnameVerifier.INSTANCE);
 	}
@@ -16,74 +16,207 @@
 package be.ceau.podcastfinder.http;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.InterruptedIOException;
 import java.net.URI;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
-import java.nio.charset.UnsupportedCharsetException;
+import java.util.Objects;
+import java.util.concurrent.Semaphore;
 
-import org.apache.http.HttpEntity;
-import org.apache.http.ParseException;
+import org.apache.http.HttpHeaders;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.entity.ContentType;
-import org.apache.http.impl.client.AbstractResponseHandler;
+import org.apache.http.client.protocol.HttpClientContext;
 
-import be.ceau.podcastparser.PodcastParser;
-import be.ceau.podcastparser.models.core.Feed;
+import be.ceau.podcastfinder.metrics.PipelineMetrics;
+import be.ceau.podcastfinder.parse.FeedMetadata;
 
 /**
- * {@link HttpFetcher} implementation that directly parses the response body into a {@link Feed}
+ * {@link HttpFetcher} implementation that directly parses the response body into {@link FeedMetadata}
+ * <p>
+ * Requests wait for a free connection to their host on a {@link Semaphore} before asking the connection pool for one,
+ * as the pool waits inside a {@code synchronized} block, which would pin the carrier thread of a virtual thread. Hosts
+ * are hashed onto a fixed number of semaphores, so that two hosts occasionally share their connection limit.
+ * </p>
  */
-public class HttpFeedFetcher implements HttpFetcher<Feed> {
+public class HttpFeedFetcher implements HttpFetcher<FeedMetadata> {
 
-	private final HttpClient httpClient = new HttpClientFactory().getHttpClient();
-	private final FeedReader feedReader = new FeedReader();
+	/**
+	 * Default maximum number of open connections
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS = HttpClientFactory.DEFAULT_MAX_CONNECTIONS;
 
 	/**
-	 * Retrieve the given {@link URI} with an HTTP GET request. Return the response body as {@link Feed}
+	 * Number of semaphores hosts are hashed onto
+	 */
+	private static final int HOST_STRIPES = 1024;
+
+	private final HttpClient httpClient;
+	private final Semaphore[] hostPermits = new Semaphore[HOST_STRIPES];
+	private final FeedReader feedReader;
+	private final HostCircuitBreaker circuitBreaker;
+	private final PipelineMetrics metrics = PipelineMetrics.INSTANCE;
+
+	/**
+	 * Default constructor, with a {@link HostCircuitBreaker} of its own and {@link ResponseLimits#DEFAULT}
+	 */
+	public HttpFeedFetcher() {
+		this(new HostCircuitBreaker());
+	}
+
+	/**
+	 * Constructor, with {@link ResponseLimits#DEFAULT} and {@link #DEFAULT_MAX_CONNECTIONS}
 	 * 
-	 * @param uri
-	 *            {@link URI}, not {@code null}
-	 * @return instance of {@link Feed}, not {@code null}
+	 * @param circuitBreaker
+	 *            {@link HostCircuitBreaker} guarding every request of this instance, not {@code null}
 	 */
-	@Override
-	public Feed get(URI uri) throws IOException {
-		return httpClient.execute(new HttpGet(uri), feedReader);
+	public HttpFeedFetcher(HostCircuitBreaker circuitBreaker) {
+		this(circuitBreaker, ResponseLimits.DEFAULT);
 	}
 
-	private static final class FeedReader extends AbstractResponseHandler<Feed> {
+	/**
+	 * Constructor
+	 * 
+	 * @param circuitBreaker
+	 *            {@link HostCircuitBreaker} guarding every request of this instance, not {@code null}
+	 * @param limits
+	 *            {@link ResponseLimits} enforced on every response body, not {@code null}
+	 */
+	public HttpFeedFetcher(HostCircuitBreaker circuitBreaker, ResponseLimits limits) {
+		this(circuitBreaker, limits, DEFAULT_MAX_CONNECTIONS);
+	}
 
-		private final PodcastParser podcastParser = new PodcastParser();
+	/**
+	 * Constructor
+	 * 
+	 * @param circuitBreaker
+	 *            {@link HostCircuitBreaker} guarding every request of this instance, not {@code null}
+	 * @param limits
+	 *            {@link ResponseLimits} enforced on every response body, not {@code null}
+	 * @param maxConnections
+	 *            maximum number of open connections, greater than 0
+	 */
+	public HttpFeedFetcher(HostCircuitBreaker circuitBreaker, ResponseLimits limits, int maxConnections) {
+		this(circuitBreaker, limits, maxConnections, false);
+	}
 
-		@Override
-		public Feed handleEntity(final HttpEntity entity) throws IOException {
-			final InputStream in = entity.getContent();
-			if (in == null) {
-				return null;
-			}
-			try {
-				Reader reader = new InputStreamReader(entity.getContent(), getCharset(entity));
-				return podcastParser.parse(reader);
-			} finally {
-				in.close();
-			}
+	/**
+	 * Constructor
+	 * 
+	 * @param circuitBreaker
+	 *            {@link HostCircuitBreaker} guarding every request of this instance, not {@code null}
+	 * @param limits
+	 *            {@link ResponseLimits} enforced on every response body, not {@code null}
+	 * @param maxConnections
+	 *            maximum number of open connections, greater than 0
+	 * @param keepBody
+	 *            {@code true} to retain the raw body of every parsed response, see {@link FeedResponse#getBody()}
+	 */
+	public HttpFeedFetcher(HostCircuitBreaker circuitBreaker, ResponseLimits limits, int maxConnections, boolean keepBody) {
+		Objects.requireNonNull(circuitBreaker);
+		Objects.requireNonNull(limits);
+		if (maxConnections < 1) {
+			throw new IllegalArgumentException(String.format("maxConnections must be greater than 0, not %s", maxConnections));
 		}
+		this.httpClient = new HttpClientFactory().getHttpClient(maxConnections);
+		for (int i = 0; i < HOST_STRIPES; i++) {
+			hostPermits[i] = new Semaphore(HttpClientFactory.MAX_CONNECTIONS_PER_ROUTE);
+		}
+		this.circuitBreaker = circuitBreaker;
+		this.feedReader = new FeedReader(limits, true, keepBody);
+	}
 
-		private Charset getCharset(final HttpEntity entity) {
-			try {
-				ContentType c = ContentType.get(entity);
-				if (c != null && c.getCharset() != null) {
-					return c.getCharset();
-				}
-			} catch (UnsupportedCharsetException | ParseException e) {
+	/**
+	 * Retrieve the given {@link URI} with an HTTP GET request. Return the response body as {@link FeedMetadata}
+	 * 
+	 * @param uri
+	 *            {@link URI}, not {@code null}
+	 * @return instance of {@link FeedMetadata}, not {@code null}
+	 */
+	@Override
+	public FeedMetadata get(URI uri) throws IOException {
+		return get(uri, null, null).getMetadata();
+	}
 
+	/**
+	 * Retrieve the given {@link URI} with a conditional HTTP GET request. If either validator is given, the server may
+	 * answer HTTP 304, in which case the response body is neither downloaded nor parsed.
+	 * 
+	 * @param uri
+	 *            {@link URI}, not {@code null}
+	 * @param etag
+	 *            {@code ETag} received with the previous response, sent as {@code If-None-Match}, can be {@code null}
+	 * @param lastModified
+	 *            {@code Last-Modified} received with the previous response, sent as {@code If-Modified-Since}, can be
+	 *            {@code null}
+	 * @return {@link FeedResponse}, not {@code null}
+	 * @throws HostUnavailableException
+	 *             without sending a request, if the circuit for the host of the given {@link URI} is open
+	 */
+	public FeedResponse get(URI uri, String etag, String lastModified) throws IOException {
+		String host = uri.getHost();
+		if (host == null) {
+			return execute(uri, etag, lastModified);
+		}
+		circuitBreaker.acquire(host);
+		boolean recorded = false;
+		try {
+			FeedResponse response = execute(uri, etag, lastModified);
+			circuitBreaker.onSuccess(host);
+			recorded = true;
+			return response;
+		} catch (IOException e) {
+			circuitBreaker.onFailure(host, e);
+			recorded = true;
+			throw e;
+		} catch (RuntimeException e) {
+			// the host responded, but not with something that could be parsed
+			circuitBreaker.onSuccess(host);
+			recorded = true;
+			throw e;
+		} finally {
+			if (!recorded) {
+				circuitBreaker.onAbandoned(host);
 			}
-			return StandardCharsets.UTF_8;
 		}
+	}
+
+	/**
+	 * @return number of requests to the given host that may start before waiting for one to finish
+	 */
+	int getAvailableConnections(String host) {
+		return getHostPermits(host).availablePermits();
+	}
 
+	private Semaphore getHostPermits(String host) {
+		return hostPermits[Math.floorMod(String.valueOf(host).hashCode(), HOST_STRIPES)];
+	}
+
+	private FeedResponse execute(URI uri, String etag, String lastModified) throws IOException {
+		HttpGet request = new HttpGet(uri);
+		if (etag != null) {
+			request.setHeader(HttpHeaders.IF_NONE_MATCH, etag);
+		}
+		if (lastModified != null) {
+			request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+		}
+		Semaphore permits = getHostPermits(uri.getHost());
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted waiting for a connection to " + uri.getHost());
+		}
+		try {
+			TimedConnectionSocketFactory.resetConnectNanos();
+			final long start = System.nanoTime();
+			HttpClientContext context = HttpClientContext.create();
+			return httpClient.execute(request, response -> {
+				metrics.getTimeToFirstByteHistogram().record(System.nanoTime() - start - TimedConnectionSocketFactory.getConnectNanos());
+				return feedReader.handleResponse(response, request::abort, etag, lastModified)
+						.withRedirects(uri, RecordingRedirectStrategy.getRedirects(context));
+			}, context);
+		} finally {
+			permits.release();
+		}
 	}
 
 }
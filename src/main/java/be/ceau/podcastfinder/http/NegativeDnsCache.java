@@ -0,0 +1,78 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.http;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+
+/**
+ * {@link DnsResolver} that remembers host names that failed to resolve, and fails subsequent lookups for those host
+ * names immediately until the entry expires.
+ */
+class NegativeDnsCache implements DnsResolver {
+
+	private static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+	/**
+	 * Expired entries are purged whenever the cache grows beyond this size
+	 */
+	private static final int PURGE_THRESHOLD = 10000;
+
+	private final ConcurrentMap<String, Long> expiries = new ConcurrentHashMap<>();
+	private final DnsResolver delegate;
+	private final long ttlMillis;
+
+	NegativeDnsCache() {
+		this(SystemDefaultDnsResolver.INSTANCE, DEFAULT_TTL_MILLIS);
+	}
+
+	NegativeDnsCache(DnsResolver delegate, long ttlMillis) {
+		this.delegate = delegate;
+		this.ttlMillis = ttlMillis;
+	}
+
+	@Override
+	public InetAddress[] resolve(String host) throws UnknownHostException {
+		Long expiry = expiries.get(host);
+		if (expiry != null) {
+			if (System.currentTimeMillis() < expiry) {
+				throw new UnknownHostException(host + " (cached)");
+			}
+			expiries.remove(host, expiry);
+		}
+		try {
+			return delegate.resolve(host);
+		} catch (UnknownHostException e) {
+			if (expiries.size() >= PURGE_THRESHOLD) {
+				purge();
+			}
+			expiries.put(host, System.currentTimeMillis() + ttlMillis);
+			throw e;
+		}
+	}
+
+	private void purge() {
+		long now = System.currentTimeMillis();
+		expiries.values().removeIf(expiry -> expiry <= now);
+	}
+
+}
@@ -0,0 +1,51 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.http;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a response is evidently not a feed, such as an HTML landing page, a JSON error or an audio file, judging
+ * by its {@code Content-Type} and the first bytes of its body. The response is rejected without being parsed, and the
+ * rest of its body is not read.
+ */
+public class NotAFeedException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String contentType;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param kind
+	 *            {@link String} describing what the response appears to be, not {@code null}
+	 * @param contentType
+	 *            {@link String} MIME type of the response, or {@code null} if it did not declare one
+	 */
+	public NotAFeedException(String kind, String contentType) {
+		super(String.format("response is %s, not a feed (Content-Type %s)", kind, contentType));
+		this.contentType = contentType;
+	}
+
+	/**
+	 * @return MIME type of the response, or {@code null} if it did not declare one
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+}
@@ -0,0 +1,64 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.http;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolException;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.DefaultRedirectStrategy;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * {@link DefaultRedirectStrategy} that also records every redirect it follows as a {@link Redirect} in the
+ * {@link HttpContext} of the request, so that callers learn where a feed ended up and whether it moved for good.
+ */
+class RecordingRedirectStrategy extends DefaultRedirectStrategy {
+
+	static final RecordingRedirectStrategy INSTANCE = new RecordingRedirectStrategy();
+
+	private static final String REDIRECTS = "be.ceau.podcastfinder.redirects";
+
+	@Override
+	public HttpUriRequest getRedirect(HttpRequest request, HttpResponse response, HttpContext context) throws ProtocolException {
+		HttpUriRequest redirect = super.getRedirect(request, response, context);
+		@SuppressWarnings("unchecked")
+		List<Redirect> redirects = (List<Redirect>) context.getAttribute(REDIRECTS);
+		if (redirects == null) {
+			redirects = new ArrayList<>(2);
+			context.setAttribute(REDIRECTS, redirects);
+		}
+		redirects.add(new Redirect(response.getStatusLine().getStatusCode(), redirect.getURI()));
+		return redirect;
+	}
+
+	/**
+	 * @param context
+	 *            {@link HttpContext} of an executed request, not {@code null}
+	 * @return unmodifiable {@link List} of every {@link Redirect} followed in the given context, in order, never
+	 *         {@code null}
+	 */
+	static List<Redirect> getRedirects(HttpContext context) {
+		@SuppressWarnings("unchecked")
+		List<Redirect> redirects = (List<Redirect>) context.getAttribute(REDIRECTS);
+		return redirects == null ? Collections.emptyList() : Collections.unmodifiableList(redirects);
+	}
+
+}
@@ -0,0 +1,73 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.http;
+
+import java.net.URI;
+import java.util.Objects;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.impl.client.DefaultRedirectStrategy;
+
+/**
+ * A single redirect followed while downloading a feed: the HTTP status of the redirecting response and the
+ * {@link URI} it pointed to.
+ */
+public class Redirect {
+
+	private final int status;
+	private final URI location;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param status
+	 *            {@code int} HTTP status code of the redirecting response
+	 * @param location
+	 *            absolute {@link URI} the response redirected to, not {@code null}
+	 */
+	public Redirect(int status, URI location) {
+		Objects.requireNonNull(location);
+		this.status = status;
+		this.location = location;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public URI getLocation() {
+		return location;
+	}
+
+	/**
+	 * @return {@code true} if the server declared the move permanent, with HTTP 301 or 308
+	 */
+	public boolean isPermanent() {
+		return status == HttpStatus.SC_MOVED_PERMANENTLY || status == DefaultRedirectStrategy.SC_PERMANENT_REDIRECT;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder()
+				.append("Redirect [status=")
+				.append(status)
+				.append(", location=")
+				.append(location)
+				.append("]")
+				.toString();
+	}
+
+}
@@ -0,0 +1,75 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.http;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Bounds on reading a single response body, so that a misconfigured server can neither fill the heap of a download
+ * thread nor hold it forever with a never ending stream.
+ */
+public class ResponseLimits {
+
+	public static final long DEFAULT_MAX_BYTES = 32L * 1024L * 1024L;
+
+	public static final Duration DEFAULT_BODY_TIMEOUT = Duration.ofMinutes(2);
+
+	public static final ResponseLimits DEFAULT = new ResponseLimits(DEFAULT_MAX_BYTES, DEFAULT_BODY_TIMEOUT);
+
+	private final long maxBytes;
+	private final Duration bodyTimeout;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param maxBytes
+	 *            {@code long} maximum size of a response body in bytes, greater than 0
+	 * @param bodyTimeout
+	 *            {@link Duration} maximum wall-clock time for reading a response body, positive
+	 */
+	public ResponseLimits(long maxBytes, Duration bodyTimeout) {
+		Objects.requireNonNull(bodyTimeout);
+		if (maxBytes < 1) {
+			throw new IllegalArgumentException(String.format("maxBytes must be at least 1 but is %s", maxBytes));
+		}
+		if (bodyTimeout.isNegative() || bodyTimeout.isZero()) {
+			throw new IllegalArgumentException(String.format("bodyTimeout must be positive but is %s", bodyTimeout));
+		}
+		this.maxBytes = maxBytes;
+		this.bodyTimeout = bodyTimeout;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public Duration getBodyTimeout() {
+		return bodyTimeout;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder()
+				.append("ResponseLimits [maxBytes=")
+				.append(maxBytes)
+				.append(", bodyTimeout=")
+				.append(bodyTimeout)
+				.append("]")
+				.toString();
+	}
+
+}
@@ -0,0 +1,41 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.http;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Thrown when reading a response body takes longer than allowed, however steadily the bytes arrive. The connection is
+ * aborted rather than drained.
+ */
+public class ResponseTimeoutException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param timeout
+	 *            {@link Duration} allowed for reading the body
+	 * @param bytes
+	 *            {@code long} number of bytes read when time ran out
+	 */
+	public ResponseTimeoutException(Duration timeout, long bytes) {
+		super(String.format("response body not read within %s s, aborted after %s bytes", timeout.getSeconds(), bytes));
+	}
+
+}
@@ -0,0 +1,50 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.http;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a response body is larger than allowed, either as announced by its {@code Content-Length} before
+ * anything is read, or as soon as reading it goes past the limit. The connection is aborted rather than drained.
+ */
+public class ResponseTooLargeException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long limit;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param limit
+	 *            {@code long} maximum number of bytes allowed
+	 * @param bytes
+	 *            {@code long} number of bytes announced or read when the limit was exceeded
+	 */
+	public ResponseTooLargeException(long limit, long bytes) {
+		super(String.format("response body of at least %s bytes exceeds limit of %s bytes", bytes, limit));
+		this.limit = limit;
+	}
+
+	/**
+	 * @return maximum number of bytes allowed
+	 */
+	public long getLimit() {
+		return limit;
+	}
+
+}
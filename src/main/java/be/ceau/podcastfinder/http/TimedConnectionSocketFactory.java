@@ -0,0 +1,83 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Objects;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.protocol.HttpContext;
+
+import be.ceau.podcastfinder.metrics.LatencyHistogram;
+import be.ceau.podcastfinder.metrics.PipelineMetrics;
+
+/**
+ * {@link ConnectionSocketFactory} that records how long it takes to open each new connection, TLS handshake included,
+ * and keeps a per thread total so that a request can tell its connect time apart from its time to first byte.
+ */
+class TimedConnectionSocketFactory implements ConnectionSocketFactory {
+
+	private static final ThreadLocal<long[]> CONNECT_NANOS = ThreadLocal.withInitial(() -> new long[1]);
+
+	private final ConnectionSocketFactory delegate;
+	private final LatencyHistogram histogram;
+
+	TimedConnectionSocketFactory(ConnectionSocketFactory delegate) {
+		this(delegate, PipelineMetrics.INSTANCE.getConnectHistogram());
+	}
+
+	TimedConnectionSocketFactory(ConnectionSocketFactory delegate, LatencyHistogram histogram) {
+		Objects.requireNonNull(delegate);
+		Objects.requireNonNull(histogram);
+		this.delegate = delegate;
+		this.histogram = histogram;
+	}
+
+	/**
+	 * Start counting connect time for a new request on the current thread
+	 */
+	static void resetConnectNanos() {
+		CONNECT_NANOS.get()[0] = 0L;
+	}
+
+	/**
+	 * @return nanoseconds spent opening connections on the current thread since {@link #resetConnectNanos()}
+	 */
+	static long getConnectNanos() {
+		return CONNECT_NANOS.get()[0];
+	}
+
+	@Override
+	public Socket createSocket(HttpContext context) throws IOException {
+		return delegate.createSocket(context);
+	}
+
+	@Override
+	public Socket connectSocket(int connectTimeout, Socket sock, HttpHost host, InetSocketAddress remoteAddress, InetSocketAddress localAddress, HttpContext context) throws IOException {
+		long start = System.nanoTime();
+		try {
+			return delegate.connectSocket(connectTimeout, sock, host, remoteAddress, localAddress, context);
+		} finally {
+			long elapsed = System.nanoTime() - start;
+			histogram.record(elapsed);
+			CONNECT_NANOS.get()[0] += elapsed;
+		}
+	}
+
+}
@@ -28,6 +28,7 @@ import org.slf4j.LoggerFactory;
 import be.ceau.digitalpodcast.DigitalPodcastAPI;
 import be.ceau.podcastfinder.api.Podcastfinder;
 import be.ceau.podcastfinder.executor.ExecutorServiceFactory;
+import be.ceau.podcastfinder.executor.TaskPool;
 import be.ceau.podcastfinder.model.FeedId;
 
 /**
@@ -44,21 +45,21 @@ public class DigitalPodcastFinder implements Podcastfinder {
 		
 		List<Future<List<FeedId>>> futures = new ArrayList<>();
 
-		futures.add(ExecutorServiceFactory.submit(new Feedable(() -> api.getDirectory())));
-		futures.add(ExecutorServiceFactory.submit(new Feedable(() -> api.getDirectoryNoAdult())));
-		futures.add(ExecutorServiceFactory.submit(new Feedable(() -> api.getDirectoryClean())));
-		futures.add(ExecutorServiceFactory.submit(new Feedable(() -> api.getNew())));
-		futures.add(ExecutorServiceFactory.submit(new Feedable(() -> api.getNewNoAdult())));
-		futures.add(ExecutorServiceFactory.submit(new Feedable(() -> api.getNewClean())));
-		futures.add(ExecutorServiceFactory.submit(new Feedable(() -> api.getMostViewed())));
-		futures.add(ExecutorServiceFactory.submit(new Feedable(() -> api.getMostViewedNoAdult())));
-		futures.add(ExecutorServiceFactory.submit(new Feedable(() -> api.getMostViewedClean())));
-		futures.add(ExecutorServiceFactory.submit(new Feedable(() -> api.getTopRated())));
-		futures.add(ExecutorServiceFactory.submit(new Feedable(() -> api.getTopRatedNoAdult())));
-		futures.add(ExecutorServiceFactory.submit(new Feedable(() -> api.getTopRatedClean())));
-		futures.add(ExecutorServiceFactory.submit(new Feedable(() -> api.getSubscribed())));
-		futures.add(ExecutorServiceFactory.submit(new Feedable(() -> api.getSubscribedNoAdult())));
-		futures.add(ExecutorServiceFactory.submit(new Feedable(() -> api.getSubscribedClean())));
+		futures.add(ExecutorServiceFactory.submit(TaskPool.DISCOVERY, new Feedable(() -> api.getDirectory())));
+		futures.add(ExecutorServiceFactory.submit(TaskPool.DISCOVERY, new Feedable(() -> api.getDirectoryNoAdult())));
+		futures.add(ExecutorServiceFactory.submit(TaskPool.DISCOVERY, new Feedable(() -> api.getDirectoryClean())));
+		futures.add(ExecutorServiceFactory.submit(TaskPool.DISCOVERY, new Feedable(() -> api.getNew())));
+		futures.add(ExecutorServiceFactory.submit(TaskPool.DISCOVERY, new Feedable(() -> api.getNewNoAdult())));
+		futures.add(ExecutorServiceFactory.submit(TaskPool.DISCOVERY, new Feedable(() -> api.getNewClean())));
+		futures.add(ExecutorServiceFactory.submit(TaskPool.DISCOVERY, new Feedable(() -> api.getMostViewed())));
+		futures.add(ExecutorServiceFactory.submit(TaskPool.DISCOVERY, new Feedable(() -> api.getMostViewedNoAdult())));
+		futures.add(ExecutorServiceFactory.submit(TaskPool.DISCOVERY, new Feedable(() -> api.getMostViewedClean())));
+		futures.add(ExecutorServiceFactory.submit(TaskPool.DISCOVERY, new Feedable(() -> api.getTopRated())));
+		futures.add(ExecutorServiceFactory.submit(TaskPool.DISCOVERY, new Feedable(() -> api.getTopRatedNoAdult())));
+		futures.add(ExecutorServiceFactory.submit(TaskPool.DISCOVERY, new Feedable(() -> api.getTopRatedClean())));
+		futures.add(ExecutorServiceFactory.submit(TaskPool.DISCOVERY, new Feedable(() -> api.getSubscribed())));
+		futures.add(ExecutorServiceFactory.submit(TaskPool.DISCOVERY, new Feedable(() -> api.getSubscribedNoAdult())));
+		futures.add(ExecutorServiceFactory.submit(TaskPool.DISCOVERY, new Feedable(() -> api.getSubscribedClean())));
 
 		List<FeedId> podcasts = new ArrayList<>();
 		
@@ -35,6 +35,7 @@ import be.ceau.gpodder.DirectoryAPI;
 import be.ceau.gpodder.Tag;
 import be.ceau.podcastfinder.api.Podcastfinder;
 import be.ceau.podcastfinder.executor.ExecutorServiceFactory;
+import be.ceau.podcastfinder.executor.TaskPool;
 import be.ceau.podcastfinder.model.FeedId;
 
 /**
@@ -67,7 +68,7 @@ public class GPodderFinder implements Podcastfinder {
 		List<Future<List<FeedId>>> futures = new ArrayList<>();
 		List<FeedId> podcasts = new ArrayList<>();
 		for (String tag : tags) {
-			futures.add(ExecutorServiceFactory.submit(new RetrievePodcastsFromTag(tag)));
+			futures.add(ExecutorServiceFactory.submit(TaskPool.DISCOVERY, new RetrievePodcastsFromTag(tag)));
 		}
 		for (Future<List<FeedId>> future : futures) {
 			try {
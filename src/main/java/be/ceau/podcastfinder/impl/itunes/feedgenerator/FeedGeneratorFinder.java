@@ -34,6 +34,7 @@ import be.ceau.itunesapi.Lookup;
 import be.ceau.itunesapi.request.Country;
 import be.ceau.podcastfinder.api.Podcastfinder;
 import be.ceau.podcastfinder.executor.ExecutorServiceFactory;
+import be.ceau.podcastfinder.executor.TaskPool;
 import be.ceau.podcastfinder.model.FeedId;
 import be.ceau.podcastparser.util.UnmodifiableSet;
 
@@ -74,7 +75,7 @@ public class FeedGeneratorFinder implements Podcastfinder {
 		List<Future<Set<String>>> futures = Country.ALL.stream()
 				.filter(c -> !ISOS_TO_IGNORE.contains(c.getIso()))
 				.map(Feedable::new)
-				.map(ExecutorServiceFactory::submit)
+				.map(feedable -> ExecutorServiceFactory.submit(TaskPool.DISCOVERY, feedable))
 				.collect(Collectors.toList());
 		
 		return futures.stream()
@@ -120,7 +121,7 @@ public class FeedGeneratorFinder implements Podcastfinder {
 	private List<FeedId> getPodcasts(Collection<Lookup> lookups) {
 		List<Future<List<FeedId>>> futures = new ArrayList<>();
 		for (Lookup lookup : lookups) {
-			futures.add(ExecutorServiceFactory.submit(new Lookable(lookup)));
+			futures.add(ExecutorServiceFactory.submit(TaskPool.DISCOVERY, new Lookable(lookup)));
 		}
 		List<FeedId> podcasts = futures.stream()
 				.map(this::getPodcastList)
@@ -0,0 +1,202 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Histogram of durations in nanoseconds, with four buckets per power of two, so that any percentile is reported at
+ * most 25% too high. Recording is a few arithmetic operations and an uncontended {@link LongAdder} increment, cheap
+ * enough to call from every download thread.
+ * </p>
+ * <p>
+ * Instances are threadsafe.
+ * </p>
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = SUB_BUCKETS * (Long.SIZE - SUB_BUCKET_BITS);
+
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+	public LatencyHistogram() {
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * @param nanos
+	 *            {@code long} duration in nanoseconds, negative values are recorded as 0
+	 */
+	public void record(long nanos) {
+		long value = Math.max(nanos, 0L);
+		buckets[index(value)].increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * Record the time elapsed since the given {@link System#nanoTime()}
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * @return {@link Snapshot} of all durations recorded so far, not {@code null}
+	 */
+	public Snapshot snapshot() {
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = buckets[i].sum();
+		}
+		return new Snapshot(counts, sum.sum(), max.get());
+	}
+
+	static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return SUB_BUCKETS * (exponent - SUB_BUCKET_BITS + 1) + sub;
+	}
+
+	/**
+	 * @return {@code long} greatest value recorded in the bucket with the given index
+	 */
+	static long upperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+		return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+	/**
+	 * Immutable copy of the state of a {@link LatencyHistogram}
+	 */
+	public static final class Snapshot {
+
+		private final long[] counts;
+		private final long count;
+		private final long sum;
+		private final long max;
+
+		private Snapshot(long[] counts, long sum, long max) {
+			long count = 0L;
+			for (long c : counts) {
+				count += c;
+			}
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		/**
+		 * @param earlier
+		 *            {@link Snapshot} taken earlier of the same {@link LatencyHistogram}, not {@code null}
+		 * @return {@link Snapshot} of the durations recorded after {@code earlier} was taken, its maximum estimated
+		 *         from its highest bucket
+		 */
+		public Snapshot since(Snapshot earlier) {
+			long[] diff = new long[counts.length];
+			int highest = -1;
+			for (int i = 0; i < diff.length; i++) {
+				diff[i] = counts[i] - earlier.counts[i];
+				if (diff[i] > 0) {
+					highest = i;
+				}
+			}
+			return new Snapshot(diff, sum - earlier.sum, highest < 0 ? 0L : Math.min(upperBound(highest), max));
+		}
+
+		/**
+		 * @return {@code long} number of durations recorded
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return {@code long} mean duration in nanoseconds, or 0 if nothing was recorded
+		 */
+		public long getMean() {
+			return count == 0 ? 0L : sum / count;
+		}
+
+		/**
+		 * @return {@code long} greatest duration recorded in nanoseconds
+		 */
+		public long getMax() {
+			return max;
+		}
+
+		/**
+		 * @param quantile
+		 *            {@code double} between 0 and 1, for example {@code 0.99}
+		 * @return {@code long} duration in nanoseconds that the given fraction of durations did not exceed, or 0 if
+		 *         nothing was recorded
+		 */
+		public long getPercentile(double quantile) {
+			if (quantile < 0d || quantile > 1d) {
+				throw new IllegalArgumentException(String.format("quantile must be between 0 and 1 but is %s", quantile));
+			}
+			if (count == 0) {
+				return 0L;
+			}
+			long rank = Math.max(1L, (long) Math.ceil(quantile * count));
+			long seen = 0L;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(upperBound(i), max);
+				}
+			}
+			return max;
+		}
+
+		/**
+		 * @return short summary in milliseconds, such as {@code n=120 mean=35 p50=28 p99=410 max=512}
+		 */
+		@Override
+		public String toString() {
+			return new StringBuilder()
+					.append("n=").append(count)
+					.append(" mean=").append(millis(getMean()))
+					.append(" p50=").append(millis(getPercentile(0.5d)))
+					.append(" p99=").append(millis(getPercentile(0.99d)))
+					.append(" max=").append(millis(max))
+					.toString();
+		}
+
+		private static long millis(long nanos) {
+			return TimeUnit.NANOSECONDS.toMillis(nanos);
+		}
+
+	}
+
+}
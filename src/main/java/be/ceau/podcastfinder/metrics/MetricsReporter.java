@@ -0,0 +1,144 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.metrics;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs a summary line of {@link PipelineMetrics} at a fixed interval, covering only what happened during that
+ * interval, and a final line covering the whole run when closed.
+ */
+public class MetricsReporter implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(MetricsReporter.class);
+
+	public static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(30);
+
+	private final PipelineMetrics metrics;
+	private final ScheduledExecutorService executor;
+	private final State start;
+	private State previous;
+
+	/**
+	 * Start reporting {@link PipelineMetrics#INSTANCE} every {@link #DEFAULT_INTERVAL}, and register it with JMX
+	 */
+	public MetricsReporter() {
+		this(PipelineMetrics.INSTANCE, DEFAULT_INTERVAL);
+	}
+
+	public MetricsReporter(PipelineMetrics metrics, Duration interval) {
+		Objects.requireNonNull(metrics);
+		Objects.requireNonNull(interval);
+		if (interval.isNegative() || interval.isZero()) {
+			throw new IllegalArgumentException(String.format("interval must be positive but is %s", interval));
+		}
+		PipelineMetrics.registerMBean();
+		this.metrics = metrics;
+		this.start = new State(metrics);
+		this.previous = start;
+		this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "podcastfinder-metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.executor.scheduleAtFixedRate(this::report, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	private synchronized void report() {
+		try {
+			State current = new State(metrics);
+			logger.info("last {}", current.since(previous));
+			previous = current;
+		} catch (RuntimeException e) {
+			logger.warn("report()", e);
+		}
+	}
+
+	/**
+	 * Stop reporting, and log a summary of everything since this reporter was created
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+		logger.info("run {}", new State(metrics).since(start));
+	}
+
+	/**
+	 * Counters and histograms at one moment
+	 */
+	private static final class State {
+
+		private final PipelineMetrics metrics;
+		private final long nanos = System.nanoTime();
+		private final long offered;
+		private final long downloaded;
+		private final long notModified;
+		private final long failed;
+		private final long committed;
+		private final long bytes;
+		private final LatencyHistogram.Snapshot connect;
+		private final LatencyHistogram.Snapshot timeToFirstByte;
+		private final LatencyHistogram.Snapshot body;
+		private final LatencyHistogram.Snapshot parse;
+		private final LatencyHistogram.Snapshot insertBatch;
+
+		State(PipelineMetrics metrics) {
+			this.metrics = metrics;
+			this.offered = metrics.getFeedsOffered();
+			this.downloaded = metrics.getFeedsDownloaded();
+			this.notModified = metrics.getFeedsNotModified();
+			this.failed = metrics.getFeedsFailed();
+			this.committed = metrics.getFeedsCommitted();
+			this.bytes = metrics.getBytesRead();
+			this.connect = metrics.getConnectHistogram().snapshot();
+			this.timeToFirstByte = metrics.getTimeToFirstByteHistogram().snapshot();
+			this.body = metrics.getBodyHistogram().snapshot();
+			this.parse = metrics.getParseHistogram().snapshot();
+			this.insertBatch = metrics.getInsertBatchHistogram().snapshot();
+		}
+
+		String since(State earlier) {
+			double seconds = Math.max(1L, nanos - earlier.nanos) / (double) TimeUnit.SECONDS.toNanos(1);
+			return new StringBuilder()
+					.append(String.format("%.1fs: %.1f feeds/s", seconds, (committed - earlier.committed) / seconds))
+					.append(", offered ").append(offered - earlier.offered)
+					.append(", downloaded ").append(downloaded - earlier.downloaded)
+					.append(", not modified ").append(notModified - earlier.notModified)
+					.append(", failed ").append(failed - earlier.failed)
+					.append(", committed ").append(committed - earlier.committed)
+					.append(String.format(", %.1f MiB", (bytes - earlier.bytes) / (1024d * 1024d)))
+					.append(" | queues: filling ").append(metrics.getFillingQueueDepth())
+					.append(", in flight ").append(metrics.getDownloadsInFlight())
+					.append(", insert ").append(metrics.getInsertQueueDepth())
+					.append(" | ms connect [").append(connect.since(earlier.connect))
+					.append("] ttfb [").append(timeToFirstByte.since(earlier.timeToFirstByte))
+					.append("] body [").append(body.since(earlier.body))
+					.append("] parse [").append(parse.since(earlier.parse))
+					.append("] insert [").append(insertBatch.since(earlier.insertBatch))
+					.append("]")
+					.toString();
+		}
+
+	}
+
+}
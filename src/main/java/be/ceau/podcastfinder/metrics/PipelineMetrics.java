@@ -0,0 +1,280 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.ceau.podcastfinder.executor.TaskPool;
+
+/**
+ * <p>
+ * Counters, queue depths and latency histograms of every stage of the enrich pipeline: reading feeds from the
+ * database, connecting, waiting for the first byte, reading the body, parsing it and committing the outcome.
+ * </p>
+ * <p>
+ * Queue depths are read through {@link IntSupplier} gauges set by whichever pipeline is running. Instances are
+ * threadsafe.
+ * </p>
+ */
+public class PipelineMetrics implements PipelineMetricsMBean {
+
+	private static final Logger logger = LoggerFactory.getLogger(PipelineMetrics.class);
+
+	public static final String OBJECT_NAME = "be.ceau.podcastfinder:type=PipelineMetrics";
+
+	private static final IntSupplier NONE = () -> 0;
+
+	public static final PipelineMetrics INSTANCE = new PipelineMetrics();
+
+	private final long created = System.nanoTime();
+
+	private final LongAdder feedsOffered = new LongAdder();
+	private final LongAdder feedsDownloaded = new LongAdder();
+	private final LongAdder feedsNotModified = new LongAdder();
+	private final LongAdder feedsFailed = new LongAdder();
+	private final LongAdder feedsCommitted = new LongAdder();
+	private final LongAdder bytesRead = new LongAdder();
+
+	private final LatencyHistogram connect = new LatencyHistogram();
+	private final LatencyHistogram timeToFirstByte = new LatencyHistogram();
+	private final LatencyHistogram body = new LatencyHistogram();
+	private final LatencyHistogram parse = new LatencyHistogram();
+	private final LatencyHistogram insertBatch = new LatencyHistogram();
+
+	private volatile IntSupplier fillingQueueDepth = NONE;
+	private volatile IntSupplier insertQueueDepth = NONE;
+	private volatile IntSupplier downloadsInFlight = NONE;
+
+	private boolean registered = false;
+
+	/**
+	 * Register {@link #INSTANCE}, and {@link TaskPoolMetrics} for every {@link TaskPool}, with the platform
+	 * {@link MBeanServer}, unless already done
+	 */
+	public static synchronized void registerMBean() {
+		if (INSTANCE.registered) {
+			return;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+		} catch (InstanceAlreadyExistsException e) {
+			// registered by another class loader
+		} catch (JMException e) {
+			logger.warn("could not register {}", OBJECT_NAME, e);
+		}
+		for (TaskPool pool : TaskPool.values()) {
+			TaskPoolMetrics poolMetrics = new TaskPoolMetrics(pool);
+			try {
+				server.registerMBean(poolMetrics, new ObjectName(poolMetrics.getObjectName()));
+			} catch (InstanceAlreadyExistsException e) {
+				// registered by another class loader
+			} catch (JMException e) {
+				logger.warn("could not register {}", poolMetrics.getObjectName(), e);
+			}
+		}
+		INSTANCE.registered = true;
+	}
+
+	public void feedOffered() {
+		feedsOffered.increment();
+	}
+
+	public void feedDownloaded(long bytes) {
+		feedsDownloaded.increment();
+		bytesRead.add(bytes);
+	}
+
+	public void feedNotModified() {
+		feedsNotModified.increment();
+	}
+
+	public void feedFailed() {
+		feedsFailed.increment();
+	}
+
+	public void feedsCommitted(int count) {
+		feedsCommitted.add(count);
+	}
+
+	/**
+	 * @return {@link LatencyHistogram} of opening new connections, TLS handshake included
+	 */
+	public LatencyHistogram getConnectHistogram() {
+		return connect;
+	}
+
+	/**
+	 * @return {@link LatencyHistogram} from sending a request until its response headers arrive, excluding the time
+	 *         spent opening a new connection
+	 */
+	public LatencyHistogram getTimeToFirstByteHistogram() {
+		return timeToFirstByte;
+	}
+
+	/**
+	 * @return {@link LatencyHistogram} of time spent waiting on the network while reading response bodies
+	 */
+	public LatencyHistogram getBodyHistogram() {
+		return body;
+	}
+
+	/**
+	 * @return {@link LatencyHistogram} of time spent parsing response bodies, excluding the time spent reading them
+	 */
+	public LatencyHistogram getParseHistogram() {
+		return parse;
+	}
+
+	/**
+	 * @return {@link LatencyHistogram} of committing a batch to the database
+	 */
+	public LatencyHistogram getInsertBatchHistogram() {
+		return insertBatch;
+	}
+
+	public void setFillingQueueDepth(IntSupplier fillingQueueDepth) {
+		this.fillingQueueDepth = fillingQueueDepth == null ? NONE : fillingQueueDepth;
+	}
+
+	public void setInsertQueueDepth(IntSupplier insertQueueDepth) {
+		this.insertQueueDepth = insertQueueDepth == null ? NONE : insertQueueDepth;
+	}
+
+	public void setDownloadsInFlight(IntSupplier downloadsInFlight) {
+		this.downloadsInFlight = downloadsInFlight == null ? NONE : downloadsInFlight;
+	}
+
+	@Override
+	public long getFeedsOffered() {
+		return feedsOffered.sum();
+	}
+
+	@Override
+	public long getFeedsDownloaded() {
+		return feedsDownloaded.sum();
+	}
+
+	@Override
+	public long getFeedsNotModified() {
+		return feedsNotModified.sum();
+	}
+
+	@Override
+	public long getFeedsFailed() {
+		return feedsFailed.sum();
+	}
+
+	@Override
+	public long getFeedsCommitted() {
+		return feedsCommitted.sum();
+	}
+
+	@Override
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	@Override
+	public int getFillingQueueDepth() {
+		return fillingQueueDepth.getAsInt();
+	}
+
+	@Override
+	public int getInsertQueueDepth() {
+		return insertQueueDepth.getAsInt();
+	}
+
+	@Override
+	public int getDownloadsInFlight() {
+		return downloadsInFlight.getAsInt();
+	}
+
+	/**
+	 * @return feeds committed per second since this instance was created
+	 */
+	@Override
+	public double getFeedsPerSecond() {
+		double seconds = (System.nanoTime() - created) / (double) TimeUnit.SECONDS.toNanos(1);
+		return seconds <= 0d ? 0d : getFeedsCommitted() / seconds;
+	}
+
+	@Override
+	public String getConnectLatency() {
+		return connect.snapshot().toString();
+	}
+
+	@Override
+	public String getTimeToFirstByteLatency() {
+		return timeToFirstByte.snapshot().toString();
+	}
+
+	@Override
+	public String getBodyLatency() {
+		return body.snapshot().toString();
+	}
+
+	@Override
+	public String getParseLatency() {
+		return parse.snapshot().toString();
+	}
+
+	@Override
+	public String getInsertBatchLatency() {
+		return insertBatch.snapshot().toString();
+	}
+
+	@Override
+	public long getConnectP99Millis() {
+		return p99Millis(connect);
+	}
+
+	@Override
+	public long getTimeToFirstByteP99Millis() {
+		return p99Millis(timeToFirstByte);
+	}
+
+	@Override
+	public long getBodyP99Millis() {
+		return p99Millis(body);
+	}
+
+	@Override
+	public long getParseP99Millis() {
+		return p99Millis(parse);
+	}
+
+	@Override
+	public long getInsertBatchP99Millis() {
+		return p99Millis(insertBatch);
+	}
+
+	private static long p99Millis(LatencyHistogram histogram) {
+		return TimeUnit.NANOSECONDS.toMillis(histogram.snapshot().getPercentile(0.99d));
+	}
+
+}
@@ -0,0 +1,64 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.metrics;
+
+/**
+ * JMX view of {@link PipelineMetrics}, registered as {@value PipelineMetrics#OBJECT_NAME}. Durations are in
+ * milliseconds, cumulative since the start of this JVM.
+ */
+public interface PipelineMetricsMBean {
+
+	long getFeedsOffered();
+
+	long getFeedsDownloaded();
+
+	long getFeedsNotModified();
+
+	long getFeedsFailed();
+
+	long getFeedsCommitted();
+
+	long getBytesRead();
+
+	int getFillingQueueDepth();
+
+	int getInsertQueueDepth();
+
+	int getDownloadsInFlight();
+
+	double getFeedsPerSecond();
+
+	String getConnectLatency();
+
+	String getTimeToFirstByteLatency();
+
+	String getBodyLatency();
+
+	String getParseLatency();
+
+	String getInsertBatchLatency();
+
+	long getConnectP99Millis();
+
+	long getTimeToFirstByteP99Millis();
+
+	long getBodyP99Millis();
+
+	long getParseP99Millis();
+
+	long getInsertBatchP99Millis();
+
+}
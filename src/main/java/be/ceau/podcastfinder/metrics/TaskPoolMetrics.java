@@ -0,0 +1,75 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.metrics;
+
+import java.util.Objects;
+
+import be.ceau.podcastfinder.executor.ExecutorServiceFactory;
+import be.ceau.podcastfinder.executor.TaskPool;
+
+/**
+ * Size, load and throughput of a single {@link TaskPool}, read from {@link ExecutorServiceFactory}. A pool that was
+ * never used reports all zeroes.
+ */
+public class TaskPoolMetrics implements TaskPoolMetricsMBean {
+
+	public static final String OBJECT_NAME_PREFIX = "be.ceau.podcastfinder:type=TaskPool,name=";
+
+	private final TaskPool pool;
+
+	public TaskPoolMetrics(TaskPool pool) {
+		Objects.requireNonNull(pool);
+		this.pool = pool;
+	}
+
+	/**
+	 * @return JMX object name of this pool
+	 */
+	public String getObjectName() {
+		return OBJECT_NAME_PREFIX + pool.getName();
+	}
+
+	@Override
+	public String getName() {
+		return pool.getName();
+	}
+
+	@Override
+	public int getPoolSize() {
+		return ExecutorServiceFactory.isStarted(pool) ? ExecutorServiceFactory.getPoolSize(pool) : 0;
+	}
+
+	@Override
+	public int getActiveCount() {
+		return ExecutorServiceFactory.getActiveCount(pool);
+	}
+
+	@Override
+	public int getWaitingCount() {
+		return ExecutorServiceFactory.getWaitingCount(pool);
+	}
+
+	@Override
+	public long getCompletedCount() {
+		return ExecutorServiceFactory.getCompletedCount(pool);
+	}
+
+	@Override
+	public boolean isVirtualThreads() {
+		return pool == TaskPool.DOWNLOAD && ExecutorServiceFactory.isVirtualThreads();
+	}
+
+}
@@ -0,0 +1,37 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.metrics;
+
+import be.ceau.podcastfinder.executor.TaskPool;
+
+/**
+ * JMX view of a {@link TaskPool}, registered as {@value TaskPoolMetrics#OBJECT_NAME_PREFIX} followed by its name
+ */
+public interface TaskPoolMetricsMBean {
+
+	String getName();
+
+	int getPoolSize();
+
+	int getActiveCount();
+
+	int getWaitingCount();
+
+	long getCompletedCount();
+
+	boolean isVirtualThreads();
+
+}
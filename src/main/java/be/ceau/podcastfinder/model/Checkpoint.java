@@ -0,0 +1,146 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.model;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+/**
+ * <p>
+ * Instances represent how far an enrich run has progressed through its keyset ordered stream of feeds: first the
+ * unscheduled feeds by podcastId, then the scheduled feeds due at {@code runStart} by {@code nextDue} and podcastId.
+ * </p>
+ * <p>
+ * Every feed at or before this position has been committed, or is in flight.
+ * </p>
+ */
+public class Checkpoint {
+
+	private final LocalDateTime runStart;
+	private final boolean scheduled;
+	private final int afterPodcastId;
+	private final LocalDateTime afterNextDue;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param runStart
+	 *            {@link LocalDateTime} at which the run started, deciding which feeds are due, can not be
+	 *            {@code null}
+	 * @param scheduled
+	 *            {@code true} once the run has moved on to scheduled feeds
+	 * @param afterPodcastId
+	 *            {@code int} podcastId of the last feed reached, or {@code 0}
+	 * @param afterNextDue
+	 *            {@link LocalDateTime} nextDue of the last scheduled feed reached, or {@code null}
+	 */
+	public Checkpoint(LocalDateTime runStart, boolean scheduled, int afterPodcastId, LocalDateTime afterNextDue) {
+		Objects.requireNonNull(runStart);
+		if (afterPodcastId < 0) {
+			throw new IllegalArgumentException("afterPodcastId can not be negative");
+		}
+		this.runStart = runStart;
+		this.scheduled = scheduled;
+		this.afterPodcastId = afterPodcastId;
+		this.afterNextDue = afterNextDue;
+	}
+
+	/**
+	 * @param runStart
+	 *            {@link LocalDateTime} at which the run starts, can not be {@code null}
+	 * @return new {@link Checkpoint} before the first feed of a run
+	 */
+	public static Checkpoint start(LocalDateTime runStart) {
+		return new Checkpoint(runStart, false, 0, null);
+	}
+
+	/**
+	 * @return new {@link Checkpoint} in the same run, just after the given unscheduled feed
+	 */
+	public Checkpoint afterUnscheduled(PersistedFeed feed) {
+		return new Checkpoint(runStart, false, feed.getPodcastId(), null);
+	}
+
+	/**
+	 * @return new {@link Checkpoint} in the same run, just after the given scheduled feed
+	 */
+	public Checkpoint afterScheduled(PersistedFeed feed) {
+		return new Checkpoint(runStart, true, feed.getPodcastId(), feed.getFeedSchedule().getNextDue());
+	}
+
+	public LocalDateTime getRunStart() {
+		return runStart;
+	}
+
+	public boolean isScheduled() {
+		return scheduled;
+	}
+
+	public int getAfterPodcastId() {
+		return afterPodcastId;
+	}
+
+	public LocalDateTime getAfterNextDue() {
+		return afterNextDue;
+	}
+
+	/**
+	 * @return {@link FeedSchedule} key of the last scheduled feed reached, or {@code null} if none was reached yet
+	 */
+	public FeedSchedule getAfterSchedule() {
+		if (!scheduled || afterNextDue == null) {
+			return null;
+		}
+		return new FeedSchedule(afterPodcastId, afterNextDue, Duration.ZERO);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(runStart, scheduled, afterPodcastId, afterNextDue);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		Checkpoint other = (Checkpoint) obj;
+		return runStart.equals(other.runStart)
+				&& scheduled == other.scheduled
+				&& afterPodcastId == other.afterPodcastId
+				&& Objects.equals(afterNextDue, other.afterNextDue);
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder()
+				.append("Checkpoint [runStart=")
+				.append(runStart)
+				.append(", scheduled=")
+				.append(scheduled)
+				.append(", afterPodcastId=")
+				.append(afterPodcastId)
+				.append(", afterNextDue=")
+				.append(afterNextDue)
+				.append("]")
+				.toString();
+	}
+
+}
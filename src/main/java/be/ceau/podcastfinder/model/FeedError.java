@@ -29,9 +29,10 @@ public class FeedError implements Comparable<FeedError> {
 	private final LocalDateTime date;
 	private final String error;
 	private final String message;
+	private final int httpStatus;
 
 	/**
-	 * Constructor
+	 * Constructor for an error without an HTTP status code
 	 * 
 	 * @param podcastId
 	 *            {@code int} database id of podcast, must be greater than 0
@@ -43,6 +44,25 @@ public class FeedError implements Comparable<FeedError> {
 	 *            {@link String} additional information about the error, can be {@code null}
 	 */
 	public FeedError(int podcastId, LocalDateTime date, String error, String message) {
+		this(podcastId, date, error, message, 0);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param podcastId
+	 *            {@code int} database id of podcast, must be greater than 0
+	 * @param date
+	 *            {@link LocalDateTime} the error occurred, can not be {@code null}
+	 * @param error
+	 *            error {@link String}, can not be {@code blank}
+	 * @param message
+	 *            {@link String} additional information about the error, can be {@code null}
+	 * @param httpStatus
+	 *            {@code int} HTTP status code of the response that caused the error, or {@code 0} if there was no such
+	 *            response
+	 */
+	public FeedError(int podcastId, LocalDateTime date, String error, String message, int httpStatus) {
 		if (podcastId < 1) {
 			throw new IllegalArgumentException("podcastId must be greater than 0");
 		}
@@ -52,6 +72,7 @@ public class FeedError implements Comparable<FeedError> {
 		this.date = date;
 		this.error = error;
 		this.message = message;
+		this.httpStatus = httpStatus;
 	}
 
 	public int getPodcastId() {
@@ -70,12 +91,21 @@ public class FeedError implements Comparable<FeedError> {
 		return message;
 	}
 
+	/**
+	 * @return {@code int} HTTP status code of the response that caused the error, or {@code 0} if there was no such
+	 *         response
+	 */
+	public int getHttpStatus() {
+		return httpStatus;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((date == null) ? 0 : date.hashCode());
 		result = prime * result + ((error == null) ? 0 : error.hashCode());
+		result = prime * result + httpStatus;
 		result = prime * result + ((message == null) ? 0 : message.hashCode());
 		result = prime * result + podcastId;
 		return result;
@@ -105,6 +135,8 @@ public class FeedError implements Comparable<FeedError> {
 				return false;
 		} else if (!error.equals(other.message))
 			return false;
+		if (httpStatus != other.httpStatus)
+			return false;
 		if (podcastId != other.podcastId)
 			return false;
 		return true;
@@ -121,6 +153,8 @@ public class FeedError implements Comparable<FeedError> {
 				.append(error)
 				.append(", message=")
 				.append(message)
+				.append(", httpStatus=")
+				.append(httpStatus)
 				.append("]")
 				.toString();
 	}
@@ -0,0 +1,172 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.model;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+/**
+ * Instances represent when a given podcast should next be downloaded, the estimated interval between changes to its
+ * feed that this was derived from, and the number of consecutive failed downloads that led to it
+ */
+public class FeedSchedule {
+
+	/**
+	 * {@code nextDue} of a parked feed, which is never due again
+	 */
+	public static final LocalDateTime PARKED = LocalDateTime.of(9999, 12, 31, 23, 59, 59);
+
+	private final int podcastId;
+	private final LocalDateTime nextDue;
+	private final Duration interval;
+	private final int failures;
+
+	/**
+	 * Constructor for the schedule of a feed that did not fail since it was last downloaded
+	 * 
+	 * @param podcastId
+	 *            {@code int} database id of the podcast, must be greater than 0
+	 * @param nextDue
+	 *            {@link LocalDateTime} from which the feed should be downloaded again, can not be {@code null}
+	 * @param interval
+	 *            {@link Duration} estimated interval between changes to the feed, can not be {@code null} or negative
+	 */
+	public FeedSchedule(int podcastId, LocalDateTime nextDue, Duration interval) {
+		this(podcastId, nextDue, interval, 0);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param podcastId
+	 *            {@code int} database id of the podcast, must be greater than 0
+	 * @param nextDue
+	 *            {@link LocalDateTime} from which the feed should be downloaded again, can not be {@code null}
+	 * @param interval
+	 *            {@link Duration} estimated interval between changes to the feed, can not be {@code null} or negative
+	 * @param failures
+	 *            {@code int} number of consecutive failed downloads, can not be negative
+	 */
+	public FeedSchedule(int podcastId, LocalDateTime nextDue, Duration interval, int failures) {
+		if (podcastId < 1) {
+			throw new IllegalArgumentException("podcastId must be greater than 0");
+		}
+		Objects.requireNonNull(nextDue);
+		Objects.requireNonNull(interval);
+		if (interval.isNegative()) {
+			throw new IllegalArgumentException("interval can not be negative");
+		}
+		if (failures < 0) {
+			throw new IllegalArgumentException(String.format("failures can not be negative but is %s", failures));
+		}
+		this.podcastId = podcastId;
+		this.nextDue = nextDue;
+		this.interval = interval;
+		this.failures = failures;
+	}
+
+	/**
+	 * @param podcastId
+	 *            {@code int} database id of the podcast, must be greater than 0
+	 * @return new {@link FeedSchedule} that is never due
+	 */
+	public static FeedSchedule parked(int podcastId) {
+		return parked(podcastId, 0);
+	}
+
+	/**
+	 * @param podcastId
+	 *            {@code int} database id of the podcast, must be greater than 0
+	 * @param failures
+	 *            {@code int} number of consecutive failed downloads that got the feed parked, can not be negative
+	 * @return new {@link FeedSchedule} that is never due
+	 */
+	public static FeedSchedule parked(int podcastId, int failures) {
+		return new FeedSchedule(podcastId, PARKED, Duration.ZERO, failures);
+	}
+
+	public int getPodcastId() {
+		return podcastId;
+	}
+
+	public LocalDateTime getNextDue() {
+		return nextDue;
+	}
+
+	public Duration getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @return {@code int} number of consecutive failed downloads, {@code 0} after a successful one
+	 */
+	public int getFailures() {
+		return failures;
+	}
+
+	/**
+	 * @return {@code true} if the feed has been given up on
+	 */
+	public boolean isParked() {
+		return PARKED.equals(nextDue);
+	}
+
+	/**
+	 * @param now
+	 *            {@link LocalDateTime} to compare with, not {@code null}
+	 * @return {@code true} if the feed should be downloaded at {@code now}
+	 */
+	public boolean isDue(LocalDateTime now) {
+		return !nextDue.isAfter(now);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(podcastId, nextDue, interval, failures);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		FeedSchedule other = (FeedSchedule) obj;
+		return podcastId == other.podcastId
+				&& nextDue.equals(other.nextDue)
+				&& interval.equals(other.interval)
+				&& failures == other.failures;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder()
+				.append("FeedSchedule [podcastId=")
+				.append(podcastId)
+				.append(", nextDue=")
+				.append(nextDue)
+				.append(", interval=")
+				.append(interval)
+				.append(", failures=")
+				.append(failures)
+				.append("]")
+				.toString();
+	}
+
+}
@@ -30,6 +30,8 @@ public class FeedStatus implements Comparable<FeedStatus> {
 	private final int items;
 	private final int hash;
 	private final int bytes;
+	private final String etag;
+	private final String lastModified;
 
 	/**
 	 * Constructor
@@ -48,6 +50,30 @@ public class FeedStatus implements Comparable<FeedStatus> {
 	 *            {@code int} size of the feed xml
 	 */
 	public FeedStatus(int podcastId, LocalDateTime date, LocalDate lastUpdate, int items, int hash, int bytes) {
+		this(podcastId, date, lastUpdate, items, hash, bytes, null, null);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param podcastId
+	 *            {@code int} database id of the podcast, must be greater than 0
+	 * @param date
+	 *            {@link LocalDateTime} date of this status, can not be {@code null}
+	 * @param lastUpdate
+	 *            {@link LocalDate} date that the feed itself identifies as its last updated date
+	 * @param items
+	 *            {@code int} number of items or enclosures in the feed, must be 0 or greater
+	 * @param hash
+	 *            {@code int} hascode of the feed xml
+	 * @param bytes
+	 *            {@code int} size of the feed xml
+	 * @param etag
+	 *            {@link String} value of the {@code ETag} response header, can be {@code null}
+	 * @param lastModified
+	 *            {@link String} value of the {@code Last-Modified} response header, can be {@code null}
+	 */
+	public FeedStatus(int podcastId, LocalDateTime date, LocalDate lastUpdate, int items, int hash, int bytes, String etag, String lastModified) {
 		if (podcastId < 1) {
 			throw new IllegalArgumentException("podcastId must be greater than 0");
 		}
@@ -61,6 +87,8 @@ public class FeedStatus implements Comparable<FeedStatus> {
 		this.items = items;
 		this.hash = hash;
 		this.bytes = bytes;
+		this.etag = etag;
+		this.lastModified = lastModified;
 	}
 
 	public int getPodcastId() {
@@ -87,14 +115,37 @@ public class FeedStatus implements Comparable<FeedStatus> {
 		return bytes;
 	}
 
+	/**
+	 * @return the {@code ETag} validator sent by the server with this status, or {@code null}
+	 */
+	public String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * @return the {@code Last-Modified} validator sent by the server with this status, or {@code null}
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return {@code true} if this status holds at least one validator usable for a conditional GET request
+	 */
+	public boolean hasValidators() {
+		return etag != null || lastModified != null;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + bytes;
 		result = prime * result + ((date == null) ? 0 : date.hashCode());
+		result = prime * result + ((etag == null) ? 0 : etag.hashCode());
 		result = prime * result + hash;
 		result = prime * result + items;
+		result = prime * result + ((lastModified == null) ? 0 : lastModified.hashCode());
 		result = prime * result + ((lastUpdate == null) ? 0 : lastUpdate.hashCode());
 		result = prime * result + podcastId;
 		return result;
@@ -116,10 +167,20 @@ public class FeedStatus implements Comparable<FeedStatus> {
 				return false;
 		} else if (!date.equals(other.date))
 			return false;
+		if (etag == null) {
+			if (other.etag != null)
+				return false;
+		} else if (!etag.equals(other.etag))
+			return false;
 		if (hash != other.hash)
 			return false;
 		if (items != other.items)
 			return false;
+		if (lastModified == null) {
+			if (other.lastModified != null)
+				return false;
+		} else if (!lastModified.equals(other.lastModified))
+			return false;
 		if (lastUpdate == null) {
 			if (other.lastUpdate != null)
 				return false;
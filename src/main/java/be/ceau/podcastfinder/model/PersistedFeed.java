@@ -15,6 +15,8 @@
 */
 package be.ceau.podcastfinder.model;
 
+import java.net.URI;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -31,6 +33,10 @@ public class PersistedFeed {
 	private final FeedInfo feedInfo;
 	private final List<FeedStatus> feedStatuses = new ArrayList<>();
 	private final List<FeedError> feedErrors = new ArrayList<>();
+	private FeedSchedule feedSchedule;
+	private URI movedTo;
+	private byte[] payload;
+	private Charset payloadCharset;
 
 	/**
 	 * Constructor
@@ -110,6 +116,48 @@ public class PersistedFeed {
 				.orElse(null);
 	}
 
+	/**
+	 * @return {@link FeedSchedule} for this podcast, or {@code null} if it was never scheduled
+	 */
+	public FeedSchedule getFeedSchedule() {
+		return feedSchedule;
+	}
+
+	public void setFeedSchedule(FeedSchedule feedSchedule) {
+		this.feedSchedule = feedSchedule;
+	}
+
+	/**
+	 * @return {@link URI} this podcast permanently moved to since it was last stored, or {@code null}
+	 */
+	public URI getMovedTo() {
+		return movedTo;
+	}
+
+	public void setMovedTo(URI movedTo) {
+		this.movedTo = movedTo;
+	}
+
+	/**
+	 * @return raw body of the download of the newest {@link FeedStatus}, to be archived once that is stored, or
+	 *         {@code null}
+	 */
+	public byte[] getPayload() {
+		return payload;
+	}
+
+	/**
+	 * @return {@link Charset} the payload was decoded with, or {@code null} if there is no payload
+	 */
+	public Charset getPayloadCharset() {
+		return payloadCharset;
+	}
+
+	public void setPayload(byte[] payload, Charset payloadCharset) {
+		this.payload = payload;
+		this.payloadCharset = payloadCharset;
+	}
+
 	/**
 	 * {@link PersistedFeed} hashcode is based on {@code podcastId} only
 	 */
@@ -138,7 +186,7 @@ public class PersistedFeed {
 	@Override
 	public String toString() {
 		return "PersistedFeed [podcastId=" + podcastId + ", feedInfo=" + feedInfo + ", feedStatuses=" + feedStatuses
-				+ ", feedErrors=" + feedErrors + "]";
+				+ ", feedErrors=" + feedErrors + ", feedSchedule=" + feedSchedule + ", movedTo=" + movedTo + "]";
 	}
 
 }
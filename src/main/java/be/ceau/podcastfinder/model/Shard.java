@@ -0,0 +1,124 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.model;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * Instances select one of {@code count} disjoint slices of all podcasts, so that several processes can each enrich
+ * their own slice. A podcast belongs to the shard with index {@code podcastId % count}.
+ * </p>
+ * <p>
+ * Shards are written as {@code index/count}, with {@code index} counting from 0.
+ * </p>
+ */
+public class Shard {
+
+	private static final Pattern PATTERN = Pattern.compile("^(\\d+)/(\\d+)$");
+
+	/**
+	 * The single shard containing every podcast
+	 */
+	public static final Shard ALL = new Shard(0, 1);
+
+	private final int index;
+	private final int count;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param index
+	 *            {@code int} index of this shard, at least 0 and less than {@code count}
+	 * @param count
+	 *            {@code int} total number of shards, at least 1
+	 */
+	public Shard(int index, int count) {
+		if (count < 1) {
+			throw new IllegalArgumentException(String.format("count must be at least 1 but is %s", count));
+		}
+		if (index < 0 || index >= count) {
+			throw new IllegalArgumentException(String.format("index must be at least 0 and less than %s but is %s", count, index));
+		}
+		this.index = index;
+		this.count = count;
+	}
+
+	/**
+	 * @param value
+	 *            {@link String} formatted as {@code index/count}, for example {@code 0/4}
+	 * @return {@link Shard} instance, never {@code null}
+	 * @throws IllegalArgumentException
+	 *             if {@code value} is not a valid shard
+	 */
+	public static Shard parse(String value) {
+		Matcher matcher = PATTERN.matcher(value == null ? "" : value.trim());
+		if (!matcher.matches()) {
+			throw new IllegalArgumentException(String.format("shard must be formatted as index/count but is %s", value));
+		}
+		try {
+			return new Shard(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(String.format("shard must be formatted as index/count but is %s", value));
+		}
+	}
+
+	/**
+	 * @return {@code true} if the given podcastId belongs to this shard
+	 */
+	public boolean contains(int podcastId) {
+		return Math.floorMod(podcastId, count) == index;
+	}
+
+	/**
+	 * @return {@code true} if this shard contains every podcast
+	 */
+	public boolean isAll() {
+		return count == 1;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * index + count;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof Shard)) {
+			return false;
+		}
+		Shard other = (Shard) obj;
+		return index == other.index && count == other.count;
+	}
+
+	@Override
+	public String toString() {
+		return index + "/" + count;
+	}
+
+}
@@ -0,0 +1,107 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.parse;
+
+import java.time.LocalDate;
+
+import be.ceau.podcastparser.models.core.Feed;
+
+/**
+ * The feed level values of a podcast feed that the enrich pipeline keeps: everything needed to derive
+ * {@link be.ceau.podcastfinder.model.FeedInfo} and {@link be.ceau.podcastfinder.model.FeedStatus}, but none of the
+ * items themselves.
+ */
+public final class FeedMetadata {
+
+	private final String title;
+	private final String language;
+	private final String summary;
+	private final String description;
+	private final String subtitle;
+	private final int items;
+	private final LocalDate lastUpdate;
+
+	FeedMetadata(String title, String language, String summary, String description, String subtitle, int items, LocalDate lastUpdate) {
+		this.title = title;
+		this.language = language;
+		this.summary = summary;
+		this.description = description;
+		this.subtitle = subtitle;
+		this.items = items;
+		this.lastUpdate = lastUpdate;
+	}
+
+	/**
+	 * @param feed
+	 *            {@link Feed} as parsed in full, not {@code null}
+	 * @return a new {@link FeedMetadata} holding the values of the given {@link Feed}, not {@code null}
+	 */
+	public static FeedMetadata of(Feed feed) {
+		return new FeedMetadata(feed.getTitle(), feed.getLanguage(), feed.getSummary(),
+				feed.getDescription() == null ? null : feed.getDescription().getText(), feed.getSubtitle(),
+				feed.getItems().size(), feed.getLastLocalDate());
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public String getLanguage() {
+		return language;
+	}
+
+	public String getSummary() {
+		return summary;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public String getSubtitle() {
+		return subtitle;
+	}
+
+	/**
+	 * @return number of items or entries in the feed
+	 */
+	public int getItems() {
+		return items;
+	}
+
+	/**
+	 * @return date the feed was last updated as declared by the feed itself, or {@code null}
+	 */
+	public LocalDate getLastUpdate() {
+		return lastUpdate;
+	}
+
+	@Override
+	public String toString() {
+		return new StringBuilder()
+				.append("FeedMetadata [title=")
+				.append(title)
+				.append(", language=")
+				.append(language)
+				.append(", items=")
+				.append(items)
+				.append(", lastUpdate=")
+				.append(lastUpdate)
+				.append("]")
+				.toString();
+	}
+
+}
@@ -0,0 +1,382 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.parse;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang3.StringUtils;
+
+import be.ceau.podcastparser.models.core.RFC639;
+import be.ceau.podcastparser.namespace.Namespace;
+import be.ceau.podcastparser.namespace.NamespaceFactory;
+import be.ceau.podcastparser.namespace.custom.impl.DublinCore;
+import be.ceau.podcastparser.namespace.custom.impl.GooglePlay;
+import be.ceau.podcastparser.namespace.custom.impl.ITunes;
+import be.ceau.podcastparser.namespace.custom.impl.Media;
+import be.ceau.podcastparser.util.Dates;
+
+/**
+ * <p>
+ * Streams through an RSS or Atom document and only reads the feed level elements that end up in a
+ * {@link FeedMetadata}. Items and entries are counted and skipped without being materialized.
+ * </p>
+ * <p>
+ * Elements are visited the way {@link be.ceau.podcastparser.PodcastParser} visits them, so that both yield the same
+ * values: in document order until the channel or feed closes, with the later of two occurrences of an element winning,
+ * and with unrecognized elements not hiding their children. Documents this class can not vouch for are left to the
+ * full parser: anything with a DTD, a document declared standalone, a root other than {@code rss} or {@code feed},
+ * malformed XML, and feeds without a feed level date, whose last update depends on the ordering of their items.
+ * </p>
+ * <p>
+ * A feed level date that can not be parsed does not clear one parsed before it, so that once a date was found, the
+ * document is only ever left to the full parser if it turns out to be malformed, which the full parser rejects as well.
+ * Callers can therefore stop keeping a copy of the document for the full parser as soon as they are told it is decided.
+ * </p>
+ */
+final class FeedMetadataExtractor {
+
+	/**
+	 * Elements the full parser reads in one go, the children of which must therefore not be taken for feed level
+	 * elements
+	 */
+	private static final Set<String> RSS_ELEMENTS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+			"link", "copyright", "managingEditor", "webMaster", "category", "generator", "docs", "cloud", "ttl", "image",
+			"textInput", "skipHours", "skipDays")));
+
+	private static final Set<String> ATOM_ELEMENTS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+			"author", "category", "contributor", "generator", "icon", "logo", "id", "link", "rights")));
+
+	private final XMLInputFactory factory;
+
+	FeedMetadataExtractor() {
+		this.factory = XMLInputFactory.newFactory();
+		this.factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		this.factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	/**
+	 * @param reader
+	 *            {@link Reader} positioned at the start of the document, not {@code null}
+	 * @return {@link FeedMetadata} of the document, or {@code null} if the full parser should handle it
+	 * @throws IOException
+	 *             if reading from the given {@link Reader} failed, rather than parsing what it returned
+	 */
+	FeedMetadata extract(Reader reader) throws IOException {
+		return extract(reader, () -> {});
+	}
+
+	/**
+	 * @param reader
+	 *            {@link Reader} positioned at the start of the document, not {@code null}
+	 * @param decided
+	 *            {@link Runnable} run once, as soon as the document is known to need no full parse unless it is
+	 *            malformed, not {@code null}
+	 * @return {@link FeedMetadata} of the document, or {@code null} if the full parser should handle it
+	 * @throws IOException
+	 *             if reading from the given {@link Reader} failed, rather than parsing what it returned
+	 */
+	FeedMetadata extract(Reader reader, Runnable decided) throws IOException {
+		XMLStreamReader xml = null;
+		try {
+			xml = factory.createXMLStreamReader(reader);
+			return extract(xml, decided);
+		} catch (XMLStreamException e) {
+			IOException cause = getIOException(e);
+			if (cause != null) {
+				throw cause;
+			}
+			return null;
+		} catch (RuntimeException e) {
+			return null;
+		} finally {
+			close(xml);
+		}
+	}
+
+	private FeedMetadata extract(XMLStreamReader xml, Runnable decided) throws XMLStreamException {
+		while (xml.hasNext()) {
+			switch (xml.next()) {
+			case XMLStreamConstants.DTD:
+				return null;
+			case XMLStreamConstants.START_ELEMENT:
+				if (xml.isStandalone()) {
+					// the full parser reads no text at all from such documents
+					return null;
+				}
+				if ("rss".equals(xml.getLocalName())) {
+					return new Walk(xml, NamespaceFactory.getRSS(), "channel", decided).run();
+				}
+				if ("feed".equals(xml.getLocalName())) {
+					return new Walk(xml, NamespaceFactory.getAtom(), "feed", decided).run();
+				}
+				return null;
+			default:
+				break;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return {@link IOException} a StAX implementation wrapped, or {@code null} if the document itself is at fault
+	 */
+	private static IOException getIOException(XMLStreamException e) {
+		Throwable cause = e.getNestedException() != null ? e.getNestedException() : e.getCause();
+		while (cause != null && !(cause instanceof IOException)) {
+			cause = cause instanceof XMLStreamException && ((XMLStreamException) cause).getNestedException() != null
+					? ((XMLStreamException) cause).getNestedException()
+					: cause.getCause();
+		}
+		return (IOException) cause;
+	}
+
+	private static void close(XMLStreamReader xml) {
+		if (xml != null) {
+			try {
+				xml.close();
+			} catch (XMLStreamException e) {
+
+			}
+		}
+	}
+
+	/**
+	 * A single pass over the elements of one document
+	 */
+	private static final class Walk {
+
+		private final XMLStreamReader xml;
+		private final Namespace root;
+		private final String end;
+		private final Runnable decided;
+
+		private String title;
+		private String language;
+		private String summary;
+		private String description;
+		private String subtitle;
+		private int items;
+		private ZonedDateTime pubDate;
+		private ZonedDateTime lastBuildDate;
+
+		private Walk(XMLStreamReader xml, Namespace root, String end, Runnable decided) {
+			this.xml = xml;
+			this.root = root;
+			this.end = end;
+			this.decided = decided;
+		}
+
+		private FeedMetadata run() throws XMLStreamException {
+			loop: while (xml.hasNext()) {
+				switch (xml.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					visit(getNamespace());
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					if (end.equals(xml.getLocalName())) {
+						break loop;
+					}
+					break;
+				default:
+					break;
+				}
+			}
+			ZonedDateTime lastUpdate = lastBuildDate != null ? lastBuildDate : pubDate;
+			if (lastUpdate == null) {
+				return null;
+			}
+			return new FeedMetadata(title, language, summary, description, subtitle, items, lastUpdate.toLocalDate());
+		}
+
+		/**
+		 * @return {@link Namespace} the full parser would hand the current element to, or {@code null}
+		 */
+		private Namespace getNamespace() {
+			String uri = xml.getNamespaceURI();
+			if (StringUtils.isBlank(uri)) {
+				return root;
+			}
+			return NamespaceFactory.getInstance(uri);
+		}
+
+		private void visit(Namespace namespace) throws XMLStreamException {
+			if (namespace == NamespaceFactory.getRSS()) {
+				visitRss();
+			} else if (namespace == NamespaceFactory.getAtom()) {
+				visitAtom();
+			} else if (namespace instanceof ITunes) {
+				visitITunes();
+			} else if (namespace instanceof GooglePlay || namespace instanceof Media) {
+				if ("description".equals(xml.getLocalName())) {
+					description = getElementText();
+				}
+			} else if (namespace instanceof DublinCore) {
+				if ("date".equals(xml.getLocalName())) {
+					pubDate = date(pubDate);
+				}
+			}
+		}
+
+		private void visitRss() throws XMLStreamException {
+			String name = xml.getLocalName();
+			switch (name) {
+			case "title":
+				title = getElementText();
+				break;
+			case "language":
+				language = toLanguage(getElementText());
+				break;
+			case "description":
+				description = getElementText();
+				break;
+			case "pubDate":
+				pubDate = date(pubDate);
+				break;
+			case "lastBuildDate":
+				lastBuildDate = date(lastBuildDate);
+				break;
+			case "item":
+				items++;
+				skip(name);
+				break;
+			default:
+				if (RSS_ELEMENTS.contains(name)) {
+					skip(name);
+				}
+				break;
+			}
+		}
+
+		private void visitAtom() throws XMLStreamException {
+			String name = xml.getLocalName();
+			switch (name) {
+			case "title":
+				title = getElementText();
+				break;
+			case "subtitle":
+				subtitle = getElementText();
+				break;
+			case "updated":
+				lastBuildDate = date(lastBuildDate);
+				break;
+			case "entry":
+				items++;
+				skip(name);
+				break;
+			default:
+				if (ATOM_ELEMENTS.contains(name)) {
+					skip(name);
+				}
+				break;
+			}
+		}
+
+		private void visitITunes() throws XMLStreamException {
+			switch (xml.getLocalName()) {
+			case "summary":
+				String text = getElementText();
+				if (StringUtils.isNotBlank(text)) {
+					summary = text;
+				}
+				break;
+			case "subtitle":
+				text = getElementText();
+				if (StringUtils.isNotBlank(text)) {
+					subtitle = text;
+				}
+				break;
+			default:
+				break;
+			}
+		}
+
+		/**
+		 * @return {@link ZonedDateTime} of the current element, or the given previous value if it can not be parsed
+		 */
+		private ZonedDateTime date(ZonedDateTime previous) throws XMLStreamException {
+			ZonedDateTime date = Dates.parse(getElementText());
+			if (date == null) {
+				return previous;
+			}
+			if (pubDate == null && lastBuildDate == null) {
+				decided.run();
+			}
+			return date;
+		}
+
+		/**
+		 * Same normalization as {@link be.ceau.podcastparser.models.core.Feed#setLanguage(String)}: a known two letter
+		 * code or {@code null}
+		 */
+		private static String toLanguage(String text) {
+			if (StringUtils.isBlank(text)) {
+				return null;
+			}
+			String code = StringUtils.substring(text.trim().toLowerCase(Locale.ENGLISH), 0, 2);
+			return RFC639.LANGUAGES.contains(code) ? code : null;
+		}
+
+		/**
+		 * Text of the current element and all of its descendants, up to the first end tag with the same local name
+		 */
+		private String getElementText() throws XMLStreamException {
+			String name = xml.getLocalName();
+			StringBuilder text = new StringBuilder();
+			while (xml.hasNext()) {
+				switch (xml.next()) {
+				case XMLStreamConstants.END_ELEMENT:
+					if (name.equals(xml.getLocalName())) {
+						return text.toString();
+					}
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+					text.append(xml.getText());
+					break;
+				default:
+					break;
+				}
+			}
+			throw new XMLStreamException("document ends inside " + name);
+		}
+
+		/**
+		 * Move past the first end tag with the given local name
+		 */
+		private void skip(String name) throws XMLStreamException {
+			while (xml.hasNext()) {
+				if (xml.next() == XMLStreamConstants.END_ELEMENT && name.equals(xml.getLocalName())) {
+					return;
+				}
+			}
+			throw new XMLStreamException("document ends inside " + name);
+		}
+
+	}
+
+}
@@ -0,0 +1,108 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.parse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.ceau.podcastparser.PodcastParser;
+import be.ceau.podcastparser.exceptions.PodcastParserException;
+
+/**
+ * Turns a feed document into {@link FeedMetadata}. A streaming pass that only looks at feed level elements handles
+ * most documents; {@link PodcastParser} only parses, in full, the documents that pass can not handle. Instances are
+ * thread safe.
+ */
+public class FeedMetadataParser {
+
+	private static final Logger logger = LoggerFactory.getLogger(FeedMetadataParser.class);
+
+	private final FeedMetadataExtractor extractor = new FeedMetadataExtractor();
+	private final PodcastParser podcastParser = new PodcastParser();
+
+	/**
+	 * Try the streaming pass only.
+	 * 
+	 * @param reader
+	 *            {@link Reader} positioned at the start of the document, not {@code null}
+	 * @return {@link FeedMetadata}, or {@code null} if the document must be parsed with {@link #parse(Reader)} instead,
+	 *         in which case the given {@link Reader} may have been read partially
+	 * @throws IOException
+	 *             if reading from the given {@link Reader} failed
+	 */
+	public FeedMetadata extract(Reader reader) throws IOException {
+		return extractor.extract(reader);
+	}
+
+	/**
+	 * As {@link #extract(Reader)}, telling the caller as soon as the document needs no full parse, unless it is
+	 * malformed, in which case the full parse fails as well.
+	 * 
+	 * @param decided
+	 *            {@link Runnable} run at most once, while the document is being read, not {@code null}
+	 */
+	public FeedMetadata extract(Reader reader, Runnable decided) throws IOException {
+		Objects.requireNonNull(decided);
+		return extractor.extract(reader, decided);
+	}
+
+	/**
+	 * Parse the document in full with {@link PodcastParser}.
+	 * 
+	 * @param reader
+	 *            {@link Reader} positioned at the start of the document, not {@code null}
+	 * @return {@link FeedMetadata}, not {@code null}
+	 * @throws PodcastParserException
+	 *             if the document is not a podcast feed
+	 */
+	public FeedMetadata parse(Reader reader) {
+		return FeedMetadata.of(podcastParser.parse(reader));
+	}
+
+	/**
+	 * Try the streaming pass, and parse the document in full if that pass can not handle it.
+	 * 
+	 * @param document
+	 *            raw bytes of the document, not {@code null}
+	 * @param charset
+	 *            {@link Charset} the document is encoded in, not {@code null}
+	 * @return {@link FeedMetadata}, not {@code null}
+	 * @throws PodcastParserException
+	 *             if the document is not a podcast feed
+	 */
+	public FeedMetadata parse(byte[] document, Charset charset) {
+		FeedMetadata metadata;
+		try {
+			metadata = extract(new InputStreamReader(new ByteArrayInputStream(document), charset));
+		} catch (IOException e) {
+			// not thrown by an in-memory stream
+			metadata = null;
+		}
+		if (metadata != null) {
+			return metadata;
+		}
+		logger.debug("parse(byte[], Charset) falling back to full parse of {} bytes", document.length);
+		return parse(new InputStreamReader(new ByteArrayInputStream(document), charset));
+	}
+
+}
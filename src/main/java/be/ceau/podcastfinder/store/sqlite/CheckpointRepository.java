@@ -0,0 +1,138 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.store.sqlite;
+
+import java.sql.ResultSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.PreparedBatch;
+import org.skife.jdbi.v2.StatementContext;
+
+import be.ceau.podcastfinder.model.Checkpoint;
+import be.ceau.podcastfinder.util.Timestamp;
+
+/**
+ * Class for interacting with SQLite tables {@code `checkpoint`}, holding at most one row, and
+ * {@code `checkpoint_inflight`}
+ */
+final class CheckpointRepository {
+
+	private static final String UPSERT_CHECKPOINT = 
+			"INSERT OR REPLACE INTO checkpoint (id, runStart, scheduled, afterPodcastId, afterNextDue) VALUES (1, :runStart, :scheduled, :afterPodcastId, :afterNextDue)";
+
+	private static final String SELECT_CHECKPOINT = 
+			"SELECT runStart, scheduled, afterPodcastId, afterNextDue FROM checkpoint WHERE id = 1";
+
+	private static final String DELETE_CHECKPOINT = 
+			"DELETE FROM checkpoint";
+
+	private static final String INSERT_IN_FLIGHT = 
+			"INSERT OR IGNORE INTO checkpoint_inflight (podcastId) VALUES (:podcastId)";
+
+	private static final String DELETE_IN_FLIGHT = 
+			"DELETE FROM checkpoint_inflight WHERE podcastId = :podcastId";
+
+	private static final String SELECT_IN_FLIGHT = 
+			"SELECT podcastId FROM checkpoint_inflight ORDER BY podcastId";
+
+	private static final String DELETE_ALL_IN_FLIGHT = 
+			"DELETE FROM checkpoint_inflight";
+
+	private final SQLiteDatabase database;
+
+	CheckpointRepository(SQLiteDatabase database) {
+		Objects.requireNonNull(database);
+		this.database = database;
+	}
+
+	Checkpoint get() {
+		return database.read((Handle h) -> h.createQuery(SELECT_CHECKPOINT)
+				.map((int index, ResultSet r, StatementContext ctx) -> new Checkpoint(
+						Timestamp.parseLocalDateTime(r.getString("runStart")),
+						r.getInt("scheduled") != 0,
+						r.getInt("afterPodcastId"),
+						Timestamp.parseLocalDateTime(r.getString("afterNextDue"))))
+				.first());
+	}
+
+	List<Integer> getInFlight() {
+		return database.read((Handle h) -> h.createQuery(SELECT_IN_FLIGHT)
+				.map((int index, ResultSet r, StatementContext ctx) -> r.getInt("podcastId"))
+				.list());
+	}
+
+	/**
+	 * Replace any previous checkpoint and in-flight set with the given {@link Checkpoint}
+	 */
+	void reset(Checkpoint checkpoint) {
+		database.inTransaction((Handle h) -> {
+			h.createStatement(DELETE_ALL_IN_FLIGHT).execute();
+			save(h, checkpoint, Collections.emptyList(), Collections.emptyList());
+		});
+	}
+
+	/**
+	 * Move the checkpoint forward using the given {@link Handle}, for use in a wider transaction
+	 * 
+	 * @param checkpoint
+	 *            {@link Checkpoint} new position, or {@code null} to leave the position unchanged
+	 * @param started
+	 *            {@link Collection} of podcastIds dispatched at or before {@code checkpoint}
+	 * @param finished
+	 *            {@link Collection} of podcastIds committed in the same transaction
+	 */
+	void save(Handle h, Checkpoint checkpoint, Collection<Integer> started, Collection<Integer> finished) {
+		if (!started.isEmpty()) {
+			PreparedBatch batch = h.prepareBatch(INSERT_IN_FLIGHT);
+			started.forEach(podcastId -> batch.add().bind("podcastId", podcastId));
+			batch.execute();
+		}
+		if (!finished.isEmpty()) {
+			PreparedBatch batch = h.prepareBatch(DELETE_IN_FLIGHT);
+			finished.forEach(podcastId -> batch.add().bind("podcastId", podcastId));
+			batch.execute();
+		}
+		if (checkpoint != null) {
+			h.createStatement(UPSERT_CHECKPOINT)
+					.bind("runStart", Timestamp.format(checkpoint.getRunStart()))
+					.bind("scheduled", checkpoint.isScheduled() ? 1 : 0)
+					.bind("afterPodcastId", checkpoint.getAfterPodcastId())
+					.bind("afterNextDue", Timestamp.format(checkpoint.getAfterNextDue()))
+					.execute();
+		}
+	}
+
+	void clear() {
+		database.inTransaction((Handle h) -> {
+			h.createStatement(DELETE_ALL_IN_FLIGHT).execute();
+			h.createStatement(DELETE_CHECKPOINT).execute();
+		});
+	}
+
+	/**
+	 * A deleted podcast is no longer in flight: resuming the run must not look for it
+	 */
+	boolean delete(final int podcastId) {
+		return database.execute((Handle h) -> h.createStatement(DELETE_IN_FLIGHT)
+				.bind("podcastId", podcastId)
+				.execute() > 0);
+	}
+
+}
@@ -30,10 +30,10 @@ final class DataStatusRepository {
 			"SELECT count(*) FROM podcasts";
 
 	private static final String SELECT_VALIDATED_PODCAST_COUNT = 
-			"SELECT COUNT(*) FROM (SELECT podcastId, items, max(date) FROM status GROUP BY podcastId) WHERE items > 0";		
+			"SELECT count(*) FROM latest_status WHERE items > 0";
 
 	private static final String SELECT_ZERO_ITEMS_PODCAST_COUNT = 
-			"SELECT COUNT(*) FROM (SELECT podcastId, items, max(date) FROM status GROUP BY podcastId) WHERE items = 0";		
+			"SELECT count(*) FROM latest_status WHERE items = 0";
 
 	private static final String SELECT_FAILED_PODCAST_COUNT = 
 			"SELECT count(*) FROM (SELECT DISTINCT podcasts.podcastId FROM podcasts	INNER JOIN errors ON podcasts.podcastId = errors.podcastId)";
@@ -42,18 +42,12 @@ final class DataStatusRepository {
 				" SELECT count(*) FROM ("
 			+	" 	SELECT DISTINCT podcasts.podcastId "
 			+	"	FROM podcasts "
-			+	"	LEFT OUTER JOIN status ON podcasts.podcastId = status.podcastId "
+			+	"	LEFT OUTER JOIN latest_status ON podcasts.podcastId = latest_status.podcastId "
 			+	"	LEFT OUTER JOIN errors ON podcasts.podcastId = errors.podcastId "
-			+	"	WHERE status.podcastId IS NULL AND errors.podcastId IS NULL )";
+			+	"	WHERE latest_status.podcastId IS NULL AND errors.podcastId IS NULL )";
 
 	private static final String SELECT_ENCLOSURE_COUNT = 
-				" SELECT SUM(s1.items) AS total "
-			+	" FROM status s1 "
-			+	" INNER JOIN ("
-			+	"	SELECT podcastId, max(date) AS date"
-			+	"	FROM status"
-			+	"	GROUP BY podcastId ) s2"
-			+	" ON s1.podcastId = s2.podcastId AND s1.date = s2.date";
+			"SELECT SUM(items) AS total FROM latest_status";
 
 	private final SQLiteDatabase database;
 	
@@ -87,7 +81,7 @@ final class DataStatusRepository {
 	}
 
 	private int get(String sql) {
-		Integer ret = database.execute((Handle h) -> h.createQuery(sql)
+		Integer ret = database.read((Handle h) -> h.createQuery(sql)
 				.mapTo(Integer.class)
 				.first());
 		return ret == null ? 0 : ret;
@@ -42,8 +42,8 @@ final class DuplicatesRepository {
 
 	private static final String SELECT_DUPLICATES = 
 			" SELECT s1.podcastId AS podcastId1, s2.podcastId AS podcastId2, p1.name as name1, p2.name as name2, s1.items, s1.hash, s1.bytes, p1.uri AS uri1, p2.uri AS uri2, p1.language AS language1, p2.language AS language2, p1.description AS description1, p2.description AS description2 "
-		+	" 	FROM ( SELECT podcastId, max(date) AS date, items, hash, bytes FROM status GROUP BY podcastId ) AS s1 "
-		+	" 	INNER JOIN ( SELECT podcastId, max(date) AS date, items, hash, bytes FROM status GROUP BY podcastId ) AS s2 "
+		+	" 	FROM latest_status s1 "
+		+	" 	INNER JOIN latest_status s2 "
 		+	" 		ON s1.hash = s2.hash and s1.items = s2.items and s1.bytes = s2.bytes and s1.podcastId < s2.podcastId "
 		+	" 	INNER JOIN podcasts p1 ON s1.podcastId = p1.podcastId "
 		+	" 	INNER JOIN podcasts p2 ON s2.podcastId = p2.podcastId "
@@ -60,7 +60,7 @@ final class DuplicatesRepository {
 		
 		final Map<Integer, Duplicates> duplicatesMap = new TreeMap<>();
 		
-		database.execute((Handle h) -> h.createQuery(SELECT_DUPLICATES)
+		database.read((Handle h) -> h.createQuery(SELECT_DUPLICATES)
 				.map(new ResultSetMapper<Duplicates>() {
 
 					@Override
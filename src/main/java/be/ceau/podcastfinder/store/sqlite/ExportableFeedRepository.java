@@ -33,14 +33,14 @@ final class ExportableFeedRepository implements ExportableFeedProducer {
 	private static final String SELECT_STATUSES = 
 			" SELECT uri, name, language, description, lastUpdate, items "
 		+	" FROM podcasts p "
-		+	" INNER JOIN ( SELECT podcastId, lastUpdate, items, max(date) AS date FROM status GROUP BY podcastId ) AS s on p.podcastId = s.podcastId "
+		+	" INNER JOIN latest_status s ON p.podcastId = s.podcastId "
 		+	" WHERE items > 0 "
 		+	" ORDER BY language ASC, uri ASC ";
 
 	private static final String SELECT_STATUSES_BY_LANGUAGE = 
 			" SELECT uri, name, language, description, lastUpdate, items "
 		+	" FROM podcasts p "
-		+	" INNER JOIN ( SELECT podcastId, lastUpdate, items, max(date) AS date FROM status GROUP BY podcastId ) AS s on p.podcastId = s.podcastId "
+		+	" INNER JOIN latest_status s ON p.podcastId = s.podcastId "
 		+	" WHERE items > 0 "
 		+	" AND language = :language "
 		+	" ORDER BY uri ASC ";
@@ -54,14 +54,14 @@ final class ExportableFeedRepository implements ExportableFeedProducer {
 
 	@Override
 	public List<ExportableFeed> getExportableFeeds() {
-		return database.execute((Handle h) -> h.createQuery(SELECT_STATUSES)
+		return database.read((Handle h) -> h.createQuery(SELECT_STATUSES)
 				.map(ExportableFeedMapper.INSTANCE)
 				.list());
 	}
 
 	@Override
 	public List<ExportableFeed> getExportableFeeds(String language) {
-		return database.execute((Handle h) -> h.createQuery(SELECT_STATUSES_BY_LANGUAGE)
+		return database.read((Handle h) -> h.createQuery(SELECT_STATUSES_BY_LANGUAGE)
 				.bind("language", language)
 				.map(ExportableFeedMapper.INSTANCE)
 				.list());
@@ -69,14 +69,14 @@ final class ExportableFeedRepository implements ExportableFeedProducer {
 	
 	@Override
 	public void consumeExportableFeeds(Consumer<ExportableFeed> consumer) {
-		database.execute((Handle h) -> h.createQuery(SELECT_STATUSES)
+		database.read((Handle h) -> h.createQuery(SELECT_STATUSES)
 				.map(ExportableFeedMapper.INSTANCE)
 				.forEach(consumer));
 	}
 
 	@Override
 	public void consumeExportableFeeds(String language, Consumer<ExportableFeed> consumer) {
-		database.execute((Handle h) -> h.createQuery(SELECT_STATUSES_BY_LANGUAGE)
+		database.read((Handle h) -> h.createQuery(SELECT_STATUSES_BY_LANGUAGE)
 				.bind("language", language)
 				.map(ExportableFeedMapper.INSTANCE)
 				.forEach(consumer));
@@ -33,16 +33,16 @@ import be.ceau.podcastfinder.store.sqlite.mapper.FeedErrorMapper;
 final class FeedErrorsRepository {
 
 	private static final String INSERT_ERROR = 
-			"INSERT INTO errors (podcastId, date, error, message) VALUES (:podcastId, :date, :error, :message)";
+			"INSERT INTO errors (podcastId, date, error, message, httpStatus) VALUES (:podcastId, :date, :error, :message, :httpStatus)";
 
 	private static final String SELECT_ERRORS = 
-			"SELECT podcastId, date, error, message FROM errors";
+			"SELECT podcastId, date, error, message, httpStatus FROM errors";
 
 	private static final String SELECT_ERRORS_BY_ID = 
-			"SELECT podcastId, date, error, message FROM errors WHERE podcastId = :podcastId";
+			"SELECT podcastId, date, error, message, httpStatus FROM errors WHERE podcastId = :podcastId";
 
 	private static final String SELECT_ERRORS_BY_ID_RANGE = 
-			"SELECT podcastId, date, error, message FROM errors WHERE podcastId >= :minPodcastId and podcastId <= :maxPodcastId";
+			"SELECT podcastId, date, error, message, httpStatus FROM errors WHERE podcastId >= :minPodcastId and podcastId <= :maxPodcastId";
 
 	private static final String DELETE_ALL_BUT_NEWEST = 
 			"DELETE FROM errors WHERE ROWID NOT IN (SELECT ROWID FROM (SELECT ROWID, podcastId, max(date) FROM errors GROUP BY podcastId))";
@@ -66,28 +66,36 @@ final class FeedErrorsRepository {
 	}
 
 	void addAll(Collection<FeedError> feedErrors) {
-		database.execute((Handle h) -> { 
-			PreparedBatch batch = h.prepareBatch(INSERT_ERROR);
-			feedErrors.forEach(feedError -> FeedErrorBinder.INSTANCE.bind(batch.add(), feedError));
-			batch.execute();
-		});
+		database.execute((Handle h) -> addAll(h, feedErrors));
+	}
+
+	/**
+	 * Insert all given instances using the given {@link Handle}, for use in a wider transaction
+	 */
+	void addAll(Handle h, Collection<FeedError> feedErrors) {
+		if (feedErrors.isEmpty()) {
+			return;
+		}
+		PreparedBatch batch = h.prepareBatch(INSERT_ERROR);
+		feedErrors.forEach(feedError -> FeedErrorBinder.INSTANCE.bind(batch.add(), feedError));
+		batch.execute();
 	}
 
 	List<FeedError> get() {
-		return database.execute((Handle h) -> h.createQuery(SELECT_ERRORS)
+		return database.read((Handle h) -> h.createQuery(SELECT_ERRORS)
 				.map(FeedErrorMapper.INSTANCE)
 				.list());
 	}
 
 	List<FeedError> get(final int podcastId) {
-		return database.execute((Handle h) -> h.createQuery(SELECT_ERRORS_BY_ID)
+		return database.read((Handle h) -> h.createQuery(SELECT_ERRORS_BY_ID)
 				.bind("podcastId", podcastId)
 				.map(FeedErrorMapper.INSTANCE)
 				.list());
 	}
 
 	List<FeedError> getRange(final int minPodcastId, final int maxPodcastId) {
-		return database.execute((Handle h) -> h.createQuery(SELECT_ERRORS_BY_ID_RANGE)
+		return database.read((Handle h) -> h.createQuery(SELECT_ERRORS_BY_ID_RANGE)
 				.bind("minPodcastId", minPodcastId)
 				.bind("maxPodcastId", maxPodcastId)
 				.map(FeedErrorMapper.INSTANCE)
@@ -33,7 +33,8 @@ import be.ceau.podcastfinder.store.sqlite.mapper.FeedIdMapper;
 final class FeedIdRepository {
 
 	private static final String INSERT_PODCAST = 
-			"INSERT OR IGNORE INTO podcasts (name, uri, insertDate) VALUES (:name, :uri, :insertDate)";
+			" INSERT OR IGNORE INTO podcasts (name, uri, insertDate) "
+		+	" 	SELECT :name, :uri, :insertDate WHERE NOT EXISTS (SELECT 1 FROM uri_aliases WHERE uri = :uri) ";
 
 	private static final String SELECT_PODCASTS = 
 			"SELECT name, uri FROM podcasts";
@@ -71,20 +72,20 @@ final class FeedIdRepository {
 	}
 
 	List<FeedId> get() {
-		return database.execute((Handle h) -> h.createQuery(SELECT_PODCASTS)
+		return database.read((Handle h) -> h.createQuery(SELECT_PODCASTS)
 				.map(FeedIdMapper.INSTANCE)
 				.list());
 	}
 
 	FeedId get(final int podcastId) {
-		return database.execute((Handle h) -> h.createQuery(SELECT_PODCAST_BY_ID)
+		return database.read((Handle h) -> h.createQuery(SELECT_PODCAST_BY_ID)
 				.bind("podcastId", podcastId)
 				.map(FeedIdMapper.INSTANCE)
 				.first());
 	}
 
 	List<FeedId> getRange(final int minPodcastId, final int maxPodcastId) {
-		return database.execute((Handle h) -> h.createQuery(SELECT_PODCASTS_BY_ID_RANGE)
+		return database.read((Handle h) -> h.createQuery(SELECT_PODCASTS_BY_ID_RANGE)
 				.bind("minPodcastId", minPodcastId)
 				.bind("maxPodcastId", maxPodcastId)
 				.map(FeedIdMapper.INSTANCE)
@@ -16,6 +16,7 @@
 package be.ceau.podcastfinder.store.sqlite;
 
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
@@ -26,6 +27,8 @@ import java.util.stream.Collectors;
 import org.skife.jdbi.v2.Handle;
 import org.skife.jdbi.v2.PreparedBatch;
 import org.skife.jdbi.v2.Update;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import be.ceau.podcastfinder.model.FeedInfo;
 import be.ceau.podcastfinder.model.PersistedFeed;
@@ -37,17 +40,25 @@ import be.ceau.podcastfinder.store.sqlite.mapper.PersistedFeedMapper;
  */
 final class FeedInfoRepository {
 
+	private static final Logger logger = LoggerFactory.getLogger(FeedInfoRepository.class);
+
 	private static final String INSERT_PODCAST =
 			"INSERT INTO podcasts (name, uri, language, description, insertDate) VALUES (:name, :uri, :language, :description, :insertDate)";
 
 	private static final String UPDATE_PODCAST = 
 			"UPDATE podcasts SET name = :name, language = :language, description = :description WHERE podcastId = :podcastId";
 
+	/**
+	 * Ignores a podcast that is stored already, by podcastId or by uri
+	 */
+	private static final String INSERT_PODCAST_WITH_ID = 
+			"INSERT OR IGNORE INTO podcasts (podcastId, name, uri, language, description, insertDate) VALUES (:podcastId, :name, :uri, :language, :description, :insertDate)";
+
 	private static final String SELECT_PODCASTS = 
 			"SELECT podcastId, name, uri, language, description, insertDate FROM podcasts";
 
 	private static final String SELECT_PODCAST_ID_BY_URI = 
-			"SELECT podcastId FROM podcasts WHERE podcastId = :podcastId";
+			"SELECT podcastId FROM podcasts WHERE uri = :uri UNION ALL SELECT podcastId FROM uri_aliases WHERE uri = :uri";
 
 	private static final String SELECT_PODCAST_BY_ID = 
 			"SELECT podcastId, name, uri, language, description, insertDate FROM podcasts WHERE podcastId = :podcastId";
@@ -55,6 +66,9 @@ final class FeedInfoRepository {
 	private static final String SELECT_PODCASTS_BY_ID_RANGE = 
 			"SELECT podcastId, name, uri, language, description, insertDate FROM podcasts WHERE podcastId >= :minPodcastId and podcastId <= :maxPodcastId";
 
+	private static final String SELECT_PODCAST_PAGE = 
+			"SELECT podcastId, name, uri, language, description, insertDate FROM podcasts WHERE podcastId > :afterPodcastId ORDER BY podcastId LIMIT :limit";
+
 	private static final String SELECT_MAX_PODCAST_ID = 
 			"SELECT MAX(podcastId) FROM podcasts";
 
@@ -65,10 +79,16 @@ final class FeedInfoRepository {
 			"UPDATE podcasts SET language = NULL WHERE language = :language";
 
 	private final SQLiteDatabase database;
-	
-	FeedInfoRepository(SQLiteDatabase database) {
+	private final boolean shardFile;
+
+	/**
+	 * @param shardFile
+	 *            {@code true} if the database is the file of a shard, holding only podcasts its run committed
+	 */
+	FeedInfoRepository(SQLiteDatabase database, boolean shardFile) {
 		Objects.requireNonNull(database);
 		this.database = database;
+		this.shardFile = shardFile;
 	}
 
 	void add(FeedInfo feedInfo) {
@@ -88,26 +108,38 @@ final class FeedInfoRepository {
 	}
 
 	List<PersistedFeed> get() {
-		return database.execute((Handle h) -> h.createQuery(SELECT_PODCASTS)
+		return database.read((Handle h) -> h.createQuery(SELECT_PODCASTS)
 				.map(PersistedFeedMapper.INSTANCE)
 				.list());
 	}
 
 	PersistedFeed get(final int podcastId) {
-		return database.execute((Handle h) -> h.createQuery(SELECT_PODCAST_BY_ID)
+		return database.read((Handle h) -> h.createQuery(SELECT_PODCAST_BY_ID)
 				.bind("podcastId", podcastId)
 				.map(PersistedFeedMapper.INSTANCE)
 				.first());
 	}
 
 	List<PersistedFeed> getRange(final int minPodcastId, final int maxPodcastId) {
-		return database.execute((Handle h) -> h.createQuery(SELECT_PODCASTS_BY_ID_RANGE)
+		return database.read((Handle h) -> h.createQuery(SELECT_PODCASTS_BY_ID_RANGE)
 				.bind("minPodcastId", minPodcastId)
 				.bind("maxPodcastId", maxPodcastId)
 				.map(PersistedFeedMapper.INSTANCE)
 				.list());
 	}
 
+	/**
+	 * @return {@link List} of at most {@code limit} podcasts with a podcastId above the given one, in order of podcastId,
+	 *         without their statuses, errors and schedule
+	 */
+	List<PersistedFeed> getPage(final int afterPodcastId, final int limit) {
+		return database.read((Handle h) -> h.createQuery(SELECT_PODCAST_PAGE)
+				.bind("afterPodcastId", afterPodcastId)
+				.bind("limit", limit)
+				.map(PersistedFeedMapper.INSTANCE)
+				.list());
+	}
+
 	void update(int podcastId, FeedInfo feedInfo) {
 		database.execute((Handle h) -> {
 			h.createStatement(UPDATE_PODCAST)
@@ -119,21 +151,62 @@ final class FeedInfoRepository {
 		});
 	}
 
+	/**
+	 * Update name, language and description of all given feeds using the given {@link Handle}, for use in a wider
+	 * transaction. A feed that is not stored was deleted after it was read, and stays deleted, except in the file of a
+	 * shard, which only holds the podcasts its run committed: there, it is inserted with its podcastId, unless its uri
+	 * already belongs to another podcast in that file.
+	 */
+	void updateAll(Handle h, Collection<PersistedFeed> feeds) {
+		if (feeds.isEmpty()) {
+			return;
+		}
+		List<PersistedFeed> list = new ArrayList<>(feeds);
+		PreparedBatch updates = h.prepareBatch(UPDATE_PODCAST);
+		list.forEach(feed -> updates.add()
+				.bind("podcastId", feed.getPodcastId())
+				.bind("name", feed.getFeedInfo().getFeedId().getName())
+				.bind("language", feed.getFeedInfo().getLanguage())
+				.bind("description", feed.getFeedInfo().getDescription()));
+		int[] updated = updates.execute();
+		List<PersistedFeed> missing = new ArrayList<>();
+		for (int i = 0; i < list.size(); i++) {
+			if (updated[i] == 0) {
+				missing.add(list.get(i));
+			}
+		}
+		if (missing.isEmpty()) {
+			return;
+		}
+		if (!shardFile) {
+			missing.forEach(feed -> logger.info("podcast {} was deleted while it was being enriched", feed.getPodcastId()));
+			return;
+		}
+		PreparedBatch inserts = h.prepareBatch(INSERT_PODCAST_WITH_ID);
+		missing.forEach(feed -> FeedInfoBinder.INSTANCE.bind(inserts.add().bind("podcastId", feed.getPodcastId()), feed.getFeedInfo()));
+		int[] inserted = inserts.execute();
+		for (int i = 0; i < missing.size(); i++) {
+			if (inserted[i] == 0) {
+				logger.warn("podcast {} not stored: uri {} belongs to another podcast", missing.get(i).getPodcastId(), missing.get(i).getFeedInfo().getFeedId().getUri());
+			}
+		}
+	}
+
 	Integer getPodcastId(URI uri) {
-		return database.execute((Handle h) -> h.createQuery(SELECT_PODCAST_ID_BY_URI)
+		return database.read((Handle h) -> h.createQuery(SELECT_PODCAST_ID_BY_URI)
 				.bind("uri", uri.toASCIIString())
 				.mapTo(Integer.class)
 				.first());
 	}
 
 	int getMaxPodcastId() {
-		return database.execute((Handle h) -> h.createQuery(SELECT_MAX_PODCAST_ID)
+		return database.read((Handle h) -> h.createQuery(SELECT_MAX_PODCAST_ID)
 				.mapTo(Integer.class)
 				.first());
 	}
 
 	Set<String> getLanguages() {
-		return database.execute((Handle h) -> h.createQuery(SELECT_LANGUAGES)
+		return database.read((Handle h) -> h.createQuery(SELECT_LANGUAGES)
 				.mapTo(String.class)
 				.list())
 				.stream()
@@ -0,0 +1,110 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.store.sqlite;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Objects;
+
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.PreparedBatch;
+
+import be.ceau.podcastfinder.model.FeedSchedule;
+import be.ceau.podcastfinder.store.sqlite.bind.FeedScheduleBinder;
+import be.ceau.podcastfinder.store.sqlite.mapper.FeedScheduleMapper;
+import be.ceau.podcastfinder.util.Timestamp;
+
+/**
+ * Class for interacting with SQLite table {@code `schedule`}, holding at most one row per podcast
+ */
+final class FeedScheduleRepository {
+
+	private static final String UPSERT_SCHEDULE = 
+			"INSERT OR REPLACE INTO schedule (podcastId, nextDue, intervalSeconds, failures) VALUES (:podcastId, :nextDue, :intervalSeconds, :failures)";
+
+	private static final String SELECT_BY_PODCAST_ID = 
+			"SELECT podcastId, nextDue, intervalSeconds, failures FROM schedule WHERE podcastId = :podcastId";
+
+	/**
+	 * Makes parked feeds due at {@code :now}, giving them a clean slate
+	 */
+	private static final String UNPARK = 
+			"UPDATE schedule SET nextDue = :now, intervalSeconds = 0, failures = 0 WHERE nextDue = :parked";
+
+	private static final String UNPARK_BY_PODCAST_ID = UNPARK + " AND podcastId = :podcastId";
+
+	private static final String DELETE_BY_PODCAST_ID = 
+			"DELETE FROM schedule WHERE podcastId = :podcastId";
+
+	private final SQLiteDatabase database;
+
+	FeedScheduleRepository(SQLiteDatabase database) {
+		Objects.requireNonNull(database);
+		this.database = database;
+	}
+
+	void upsertAll(Collection<FeedSchedule> feedSchedules) {
+		database.inTransaction((Handle h) -> upsertAll(h, feedSchedules));
+	}
+
+	/**
+	 * Insert or replace the schedule of each given instance using the given {@link Handle}, for use in a wider
+	 * transaction
+	 */
+	void upsertAll(Handle h, Collection<FeedSchedule> feedSchedules) {
+		if (feedSchedules.isEmpty()) {
+			return;
+		}
+		PreparedBatch batch = h.prepareBatch(UPSERT_SCHEDULE);
+		feedSchedules.forEach(feedSchedule -> FeedScheduleBinder.INSTANCE.bind(batch.add(), feedSchedule));
+		batch.execute();
+	}
+
+	FeedSchedule get(final int podcastId) {
+		return database.read((Handle h) -> h.createQuery(SELECT_BY_PODCAST_ID)
+				.bind("podcastId", podcastId)
+				.map(FeedScheduleMapper.INSTANCE)
+				.first());
+	}
+
+	/**
+	 * @return {@code int} number of parked feeds made due at {@code now}
+	 */
+	int unparkAll(final LocalDateTime now) {
+		return database.execute((Handle h) -> h.createStatement(UNPARK)
+				.bind("now", Timestamp.format(now))
+				.bind("parked", Timestamp.format(FeedSchedule.PARKED))
+				.execute());
+	}
+
+	/**
+	 * @return {@code true} if the podcast was parked and is now due at {@code now}
+	 */
+	boolean unpark(final int podcastId, final LocalDateTime now) {
+		return database.execute((Handle h) -> h.createStatement(UNPARK_BY_PODCAST_ID)
+				.bind("now", Timestamp.format(now))
+				.bind("parked", Timestamp.format(FeedSchedule.PARKED))
+				.bind("podcastId", podcastId)
+				.execute() > 0);
+	}
+
+	boolean delete(final int podcastId) {
+		return database.execute((Handle h) -> h.createStatement(DELETE_BY_PODCAST_ID)
+				.bind("podcastId", podcastId)
+				.execute() > 0);
+	}
+
+}
@@ -28,25 +28,36 @@ import be.ceau.podcastfinder.store.sqlite.bind.FeedStatusBinder;
 import be.ceau.podcastfinder.store.sqlite.mapper.FeedStatusMapper;
 
 /**
- * Class for interacting with SQLite table {@code `status`}
+ * Class for interacting with SQLite table {@code `status`}, and {@code `latest_status`} derived from it
  */
 final class FeedStatusRepository {
 
 	private static final String INSERT_STATUS = 
-			"INSERT INTO status (podcastId, date, lastUpdate, items, hash, bytes) VALUES (:podcastId, :date, :lastUpdate, :items, :hash, :bytes)";
+			"INSERT INTO status (podcastId, date, lastUpdate, items, hash, bytes, etag, lastModified) VALUES (:podcastId, :date, :lastUpdate, :items, :hash, :bytes, :etag, :lastModified)";
+
+	/**
+	 * Keeps {@code `latest_status`} at the newest status of each podcast, in whatever order statuses are added
+	 */
+	private static final String UPSERT_LATEST_STATUS = 
+			" INSERT INTO latest_status (podcastId, date, lastUpdate, items, hash, bytes, etag, lastModified) VALUES (:podcastId, :date, :lastUpdate, :items, :hash, :bytes, :etag, :lastModified) "
+		+	" 	ON CONFLICT (podcastId) DO UPDATE SET date = excluded.date, lastUpdate = excluded.lastUpdate, items = excluded.items, hash = excluded.hash, bytes = excluded.bytes, etag = excluded.etag, lastModified = excluded.lastModified "
+		+	" 	WHERE excluded.date >= latest_status.date ";
 
 	private static final String SELECT_STATUSES = 
-			"SELECT podcastId, date, lastUpdate, items, hash, bytes FROM status";
+			"SELECT podcastId, date, lastUpdate, items, hash, bytes, etag, lastModified FROM status";
 
 	private static final String SELECT_STATUSES_BY_ID = 
-			"SELECT podcastId, date, lastUpdate, items, hash, bytes FROM status WHERE podcastId = :podcastId";
+			"SELECT podcastId, date, lastUpdate, items, hash, bytes, etag, lastModified FROM status WHERE podcastId = :podcastId";
 
 	private static final String SELECT_STATUSES_BY_ID_RANGE = 
-			"SELECT podcastId, date, lastUpdate, items, hash, bytes FROM status WHERE podcastId >= :minPodcastId and podcastId <= :maxPodcastId";
+			"SELECT podcastId, date, lastUpdate, items, hash, bytes, etag, lastModified FROM status WHERE podcastId >= :minPodcastId and podcastId <= :maxPodcastId";
 
 	private static final String DELETE_BY_PODCAST_ID = 
 			"DELETE FROM status WHERE podcastId = :podcastId";
 
+	private static final String DELETE_LATEST_BY_PODCAST_ID = 
+			"DELETE FROM latest_status WHERE podcastId = :podcastId";
+
 	private final SQLiteDatabase database;
 	
 	FeedStatusRepository(SQLiteDatabase database) {
@@ -55,36 +66,51 @@ final class FeedStatusRepository {
 	}
 
 	void add(FeedStatus feedStatus) {
-		database.execute((Handle h) -> { 
+		database.inTransaction((Handle h) -> { 
 			Update update = h.createStatement(INSERT_STATUS);
 			FeedStatusBinder.INSTANCE.bind(update, feedStatus);
 			update.execute();
+			Update latest = h.createStatement(UPSERT_LATEST_STATUS);
+			FeedStatusBinder.INSTANCE.bind(latest, feedStatus);
+			latest.execute();
 		});
 	}
 
 	void addAll(Collection<FeedStatus> feedStatuses) {
-		database.execute((Handle h) -> { 
-			PreparedBatch batch = h.prepareBatch(INSERT_STATUS);
-			feedStatuses.forEach(feedStatus -> FeedStatusBinder.INSTANCE.bind(batch.add(), feedStatus));
-			batch.execute();
-		});
+		database.inTransaction((Handle h) -> addAll(h, feedStatuses));
+	}
+
+	/**
+	 * Insert all given instances, and update {@code `latest_status`} accordingly, using the given {@link Handle}, for
+	 * use in a wider transaction
+	 */
+	void addAll(Handle h, Collection<FeedStatus> feedStatuses) {
+		if (feedStatuses.isEmpty()) {
+			return;
+		}
+		PreparedBatch batch = h.prepareBatch(INSERT_STATUS);
+		feedStatuses.forEach(feedStatus -> FeedStatusBinder.INSTANCE.bind(batch.add(), feedStatus));
+		batch.execute();
+		PreparedBatch latest = h.prepareBatch(UPSERT_LATEST_STATUS);
+		feedStatuses.forEach(feedStatus -> FeedStatusBinder.INSTANCE.bind(latest.add(), feedStatus));
+		latest.execute();
 	}
 
 	List<FeedStatus> get() {
-		return database.execute((Handle h) -> h.createQuery(SELECT_STATUSES)
+		return database.read((Handle h) -> h.createQuery(SELECT_STATUSES)
 				.map(FeedStatusMapper.INSTANCE)
 				.list());
 	}
 
 	List<FeedStatus> get(final int podcastId) {
-		return database.execute((Handle h) -> h.createQuery(SELECT_STATUSES_BY_ID)
+		return database.read((Handle h) -> h.createQuery(SELECT_STATUSES_BY_ID)
 				.bind("podcastId", podcastId)
 				.map(FeedStatusMapper.INSTANCE)
 				.list());
 	}
 
 	List<FeedStatus> getRange(final int minPodcastId, final int maxPodcastId) {
-		return database.execute((Handle h) -> h.createQuery(SELECT_STATUSES_BY_ID_RANGE)
+		return database.read((Handle h) -> h.createQuery(SELECT_STATUSES_BY_ID_RANGE)
 				.bind("minPodcastId", minPodcastId)
 				.bind("maxPodcastId", maxPodcastId)
 				.map(FeedStatusMapper.INSTANCE)
@@ -92,9 +118,16 @@ final class FeedStatusRepository {
 	}
 
 	boolean delete(final int podcastId) {
-		return database.execute((Handle h) -> h.createStatement(DELETE_BY_PODCAST_ID)
-				.bind("podcastId", podcastId)
-				.execute() > 0);
+		final int[] deleted = new int[1];
+		database.inTransaction((Handle h) -> {
+			h.createStatement(DELETE_LATEST_BY_PODCAST_ID)
+					.bind("podcastId", podcastId)
+					.execute();
+			deleted[0] = h.createStatement(DELETE_BY_PODCAST_ID)
+					.bind("podcastId", podcastId)
+					.execute();
+		});
+		return deleted[0] > 0;
 	}
 
 }
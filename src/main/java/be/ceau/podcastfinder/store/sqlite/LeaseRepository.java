@@ -0,0 +1,140 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.store.sqlite;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Objects;
+
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.PreparedBatch;
+
+import be.ceau.podcastfinder.util.Timestamp;
+
+/**
+ * <p>
+ * Class for interacting with SQLite table {@code `lease`}, holding at most one row per podcast.
+ * </p>
+ * <p>
+ * A lease is live while it is not released and has not expired. A released lease stays behind, so that a podcast
+ * released by one worker is not claimed again by a run that started before it was claimed.
+ * </p>
+ */
+final class LeaseRepository {
+
+	private static final String CLAIM_LEASE = 
+			"INSERT OR REPLACE INTO lease (podcastId, worker, claimed, expires, released) VALUES (:podcastId, :worker, :claimed, :expires, 0)";
+
+	private static final String RENEW_LEASE = 
+			"UPDATE lease SET expires = :expires WHERE podcastId = :podcastId AND worker = :worker AND released = 0";
+
+	private static final String RELEASE_LEASE = 
+			"UPDATE lease SET released = 1, expires = :now WHERE podcastId = :podcastId AND worker = :worker AND released = 0";
+
+	private static final String ABANDON_LEASES = 
+			"DELETE FROM lease WHERE worker = :worker AND released = 0";
+
+	private static final String DELETE_BY_PODCAST_ID = 
+			"DELETE FROM lease WHERE podcastId = :podcastId";
+
+	/**
+	 * Condition on alias {@code p} of table {@code `podcasts`}: the podcast has no live lease at {@code :now} and was
+	 * not released since {@code :runStart}
+	 */
+	static final String CLAIMABLE = 
+			" NOT EXISTS (SELECT 1 FROM lease l WHERE l.podcastId = p.podcastId "
+		+	" 	AND ((l.released = 0 AND l.expires > :now) OR (l.released = 1 AND l.claimed >= :runStart))) ";
+
+	private final SQLiteDatabase database;
+
+	LeaseRepository(SQLiteDatabase database) {
+		Objects.requireNonNull(database);
+		this.database = database;
+	}
+
+	/**
+	 * Lease the given podcasts to the given worker using the given {@link Handle}, for use in the transaction that
+	 * selected them
+	 */
+	void claim(Handle h, String worker, Collection<Integer> podcastIds, LocalDateTime now, LocalDateTime expires) {
+		if (podcastIds.isEmpty()) {
+			return;
+		}
+		PreparedBatch batch = h.prepareBatch(CLAIM_LEASE);
+		podcastIds.forEach(podcastId -> batch.add()
+				.bind("podcastId", podcastId)
+				.bind("worker", worker)
+				.bind("claimed", Timestamp.format(now))
+				.bind("expires", Timestamp.format(expires)));
+		batch.execute();
+	}
+
+	/**
+	 * @return number of the given leases still held by the given worker, and now extended until {@code expires}
+	 */
+	int renew(String worker, Collection<Integer> podcastIds, LocalDateTime expires) {
+		if (podcastIds.isEmpty()) {
+			return 0;
+		}
+		final String formatted = Timestamp.format(expires);
+		int[] counts = database.execute((Handle h) -> {
+			PreparedBatch batch = h.prepareBatch(RENEW_LEASE);
+			podcastIds.forEach(podcastId -> batch.add()
+					.bind("podcastId", podcastId)
+					.bind("worker", worker)
+					.bind("expires", formatted));
+			return batch.execute();
+		});
+		int renewed = 0;
+		for (int count : counts) {
+			renewed += count;
+		}
+		return renewed;
+	}
+
+	/**
+	 * Release the leases of the given podcasts held by the given worker using the given {@link Handle}, for use in a
+	 * wider transaction
+	 */
+	void release(Handle h, String worker, Collection<Integer> podcastIds, LocalDateTime now) {
+		if (podcastIds.isEmpty()) {
+			return;
+		}
+		final String formatted = Timestamp.format(now);
+		PreparedBatch batch = h.prepareBatch(RELEASE_LEASE);
+		podcastIds.forEach(podcastId -> batch.add()
+				.bind("podcastId", podcastId)
+				.bind("worker", worker)
+				.bind("now", formatted));
+		batch.execute();
+	}
+
+	/**
+	 * Drop every live lease of the given worker, putting its podcasts back in the pool at once
+	 */
+	int abandon(String worker) {
+		return database.execute((Handle h) -> h.createStatement(ABANDON_LEASES)
+				.bind("worker", worker)
+				.execute());
+	}
+
+	boolean delete(final int podcastId) {
+		return database.execute((Handle h) -> h.createStatement(DELETE_BY_PODCAST_ID)
+				.bind("podcastId", podcastId)
+				.execute() > 0);
+	}
+
+}
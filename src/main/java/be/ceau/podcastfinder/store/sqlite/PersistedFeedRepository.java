@@ -0,0 +1,229 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.store.sqlite;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.StatementContext;
+
+import be.ceau.podcastfinder.model.FeedSchedule;
+import be.ceau.podcastfinder.model.PersistedFeed;
+import be.ceau.podcastfinder.model.Shard;
+import be.ceau.podcastfinder.store.sqlite.mapper.FeedErrorMapper;
+import be.ceau.podcastfinder.store.sqlite.mapper.FeedScheduleMapper;
+import be.ceau.podcastfinder.store.sqlite.mapper.FeedStatusMapper;
+import be.ceau.podcastfinder.store.sqlite.mapper.PersistedFeedMapper;
+import be.ceau.podcastfinder.util.Timestamp;
+
+/**
+ * Class for reading complete {@link PersistedFeed} instances, joining tables {@code `podcasts`}, {@code `schedule`},
+ * {@code `status`} and {@code `errors`} in a single query
+ */
+final class PersistedFeedRepository {
+
+	private static final int KIND_PODCAST = 0;
+	private static final int KIND_STATUS = 1;
+	private static final int KIND_ERROR = 2;
+
+	/**
+	 * One keyset page of podcasts in shard {@code :shardIndex} of {@code :shardCount} that have no row in
+	 * {@code `schedule`}, ordered by podcastId
+	 */
+	private static final String PAGE_UNSCHEDULED = 
+			" SELECT p.podcastId, p.name, p.uri, p.language, p.description, NULL AS nextDue, NULL AS intervalSeconds, NULL AS failures "
+		+	" 	FROM podcasts p "
+		+	" 	WHERE p.podcastId > :afterPodcastId AND p.podcastId % :shardCount = :shardIndex "
+		+	" 	AND NOT EXISTS (SELECT 1 FROM schedule s WHERE s.podcastId = p.podcastId) "
+		+	" 	ORDER BY p.podcastId LIMIT :limit ";
+
+	/**
+	 * One keyset page of podcasts in shard {@code :shardIndex} of {@code :shardCount} due at {@code :now}, most overdue
+	 * first, walking index {@code schedule_nextDue}
+	 */
+	private static final String PAGE_DUE = 
+			" SELECT p.podcastId, p.name, p.uri, p.language, p.description, s.nextDue, s.intervalSeconds, s.failures "
+		+	" 	FROM schedule s INNER JOIN podcasts p ON p.podcastId = s.podcastId "
+		+	" 	WHERE s.nextDue <= :now AND (s.nextDue, s.podcastId) > (:afterNextDue, :afterPodcastId) "
+		+	" 	AND s.podcastId % :shardCount = :shardIndex "
+		+	" 	ORDER BY s.nextDue, s.podcastId LIMIT :limit ";
+
+	/**
+	 * Up to {@code :limit} claimable podcasts that have no row in {@code `schedule`}, ordered by podcastId
+	 */
+	private static final String PAGE_CLAIMABLE_UNSCHEDULED = 
+			" SELECT p.podcastId, p.name, p.uri, p.language, p.description, NULL AS nextDue, NULL AS intervalSeconds, NULL AS failures "
+		+	" 	FROM podcasts p "
+		+	" 	WHERE p.podcastId > :afterPodcastId AND NOT EXISTS (SELECT 1 FROM schedule s WHERE s.podcastId = p.podcastId) "
+		+	" 	AND " + LeaseRepository.CLAIMABLE
+		+	" 	ORDER BY p.podcastId LIMIT :limit ";
+
+	/**
+	 * Up to {@code :limit} claimable podcasts due at {@code :runStart}, most overdue first
+	 */
+	private static final String PAGE_CLAIMABLE_DUE = 
+			" SELECT p.podcastId, p.name, p.uri, p.language, p.description, s.nextDue, s.intervalSeconds, s.failures "
+		+	" 	FROM schedule s INNER JOIN podcasts p ON p.podcastId = s.podcastId "
+		+	" 	WHERE s.nextDue <= :runStart AND " + LeaseRepository.CLAIMABLE
+		+	" 	ORDER BY s.nextDue, s.podcastId LIMIT :limit ";
+
+	private static final String SELECT_PAGE_UNSCHEDULED = select(PAGE_UNSCHEDULED, "podcastId ASC, kind ASC");
+
+	private static final String SELECT_PAGE_DUE = select(PAGE_DUE, "nextDue ASC, podcastId ASC, kind ASC");
+
+	private static final String SELECT_PAGE_CLAIMABLE_UNSCHEDULED = select(PAGE_CLAIMABLE_UNSCHEDULED, "podcastId ASC, kind ASC");
+
+	private static final String SELECT_PAGE_CLAIMABLE_DUE = select(PAGE_CLAIMABLE_DUE, "nextDue ASC, podcastId ASC, kind ASC");
+
+	/**
+	 * One page of podcasts, followed by their statuses and errors, as a single cursor in page order
+	 */
+	private static String select(String page, String orderBy) {
+		return " WITH page AS ( " + page + " ) "
+			+	" SELECT " + KIND_PODCAST + " AS kind, podcastId, name, uri, language, description, nextDue, intervalSeconds, failures, "
+			+	" 	NULL AS date, NULL AS lastUpdate, NULL AS items, NULL AS hash, NULL AS bytes, NULL AS etag, NULL AS lastModified, NULL AS error, NULL AS message, NULL AS httpStatus "
+			+	" 	FROM page "
+			+	" UNION ALL "
+			+	" SELECT " + KIND_STATUS + ", s.podcastId, NULL, NULL, NULL, NULL, page.nextDue, NULL, NULL, s.date, s.lastUpdate, s.items, s.hash, s.bytes, s.etag, s.lastModified, NULL, NULL, NULL "
+			+	" 	FROM status s INNER JOIN page ON s.podcastId = page.podcastId "
+			+	" UNION ALL "
+			+	" SELECT " + KIND_ERROR + ", e.podcastId, NULL, NULL, NULL, NULL, page.nextDue, NULL, NULL, e.date, NULL, NULL, NULL, NULL, NULL, NULL, e.error, e.message, e.httpStatus "
+			+	" 	FROM errors e INNER JOIN page ON e.podcastId = page.podcastId "
+			+	" ORDER BY " + orderBy;
+	}
+
+	private final SQLiteDatabase database;
+
+	PersistedFeedRepository(SQLiteDatabase database) {
+		Objects.requireNonNull(database);
+		this.database = database;
+	}
+
+	/**
+	 * @param shard
+	 *            {@link Shard} only podcasts in this shard are returned
+	 * @param afterPodcastId
+	 *            {@code int} only podcasts with a greater podcastId are returned
+	 * @param limit
+	 *            {@code int} maximum number of podcasts to return
+	 * @return {@link List} of at most {@code limit} {@link PersistedFeed} instances without {@link FeedSchedule},
+	 *         ordered by podcastId, never {@code null}
+	 */
+	List<PersistedFeed> getUnscheduledPage(final Shard shard, final int afterPodcastId, final int limit) {
+		return database.read((Handle h) -> h.createQuery(SELECT_PAGE_UNSCHEDULED)
+				.bind("shardIndex", shard.getIndex())
+				.bind("shardCount", shard.getCount())
+				.bind("afterPodcastId", afterPodcastId)
+				.bind("limit", limit)
+				.fold(new ArrayList<PersistedFeed>(limit), PersistedFeedRepository::fold));
+	}
+
+	/**
+	 * @param shard
+	 *            {@link Shard} only podcasts in this shard are returned
+	 * @param now
+	 *            {@link LocalDateTime} only podcasts due at this moment are returned
+	 * @param after
+	 *            {@link FeedSchedule} of the last podcast in the previous page, or {@code null} for the first page
+	 * @param limit
+	 *            {@code int} maximum number of podcasts to return
+	 * @return {@link List} of at most {@code limit} {@link PersistedFeed} instances, ordered by {@code nextDue} then
+	 *         podcastId, never {@code null}
+	 */
+	List<PersistedFeed> getDuePage(final Shard shard, final LocalDateTime now, final FeedSchedule after, final int limit) {
+		return database.read((Handle h) -> h.createQuery(SELECT_PAGE_DUE)
+				.bind("shardIndex", shard.getIndex())
+				.bind("shardCount", shard.getCount())
+				.bind("now", Timestamp.format(now))
+				.bind("afterNextDue", after == null ? "" : Timestamp.format(after.getNextDue()))
+				.bind("afterPodcastId", after == null ? 0 : after.getPodcastId())
+				.bind("limit", limit)
+				.fold(new ArrayList<PersistedFeed>(limit), PersistedFeedRepository::fold));
+	}
+
+	/**
+	 * Claimable podcasts without {@link FeedSchedule} using the given {@link Handle}, for use in the transaction that
+	 * leases them
+	 * 
+	 * @param runStart
+	 *            {@link LocalDateTime} start of the run of the claiming worker
+	 * @param now
+	 *            {@link LocalDateTime} leases expired at this moment are ignored
+	 * @param afterPodcastId
+	 *            {@code int} only podcasts with a greater podcastId are returned
+	 * @param limit
+	 *            {@code int} maximum number of podcasts to return
+	 * @return {@link List} of at most {@code limit} {@link PersistedFeed} instances, ordered by podcastId, never
+	 *         {@code null}
+	 */
+	List<PersistedFeed> getClaimableUnscheduledPage(Handle h, final LocalDateTime runStart, final LocalDateTime now, final int afterPodcastId, final int limit) {
+		return h.createQuery(SELECT_PAGE_CLAIMABLE_UNSCHEDULED)
+				.bind("runStart", Timestamp.format(runStart))
+				.bind("now", Timestamp.format(now))
+				.bind("afterPodcastId", afterPodcastId)
+				.bind("limit", limit)
+				.fold(new ArrayList<PersistedFeed>(limit), PersistedFeedRepository::fold);
+	}
+
+	/**
+	 * Claimable podcasts due at {@code runStart} using the given {@link Handle}, for use in the transaction that
+	 * leases them
+	 * 
+	 * @param runStart
+	 *            {@link LocalDateTime} start of the run of the claiming worker
+	 * @param now
+	 *            {@link LocalDateTime} leases expired at this moment are ignored
+	 * @param limit
+	 *            {@code int} maximum number of podcasts to return
+	 * @return {@link List} of at most {@code limit} {@link PersistedFeed} instances, ordered by {@code nextDue} then
+	 *         podcastId, never {@code null}
+	 */
+	List<PersistedFeed> getClaimableDuePage(Handle h, final LocalDateTime runStart, final LocalDateTime now, final int limit) {
+		return h.createQuery(SELECT_PAGE_CLAIMABLE_DUE)
+				.bind("runStart", Timestamp.format(runStart))
+				.bind("now", Timestamp.format(now))
+				.bind("limit", limit)
+				.fold(new ArrayList<PersistedFeed>(limit), PersistedFeedRepository::fold);
+	}
+
+	/**
+	 * Rows for a podcast always follow its own {@link #KIND_PODCAST} row, so only the last feed needs to be looked at.
+	 */
+	private static ArrayList<PersistedFeed> fold(ArrayList<PersistedFeed> feeds, ResultSet r, StatementContext ctx) throws SQLException {
+		switch (r.getInt("kind")) {
+		case KIND_PODCAST:
+			PersistedFeed feed = PersistedFeedMapper.INSTANCE.map(feeds.size(), r, ctx);
+			feed.setFeedSchedule(FeedScheduleMapper.INSTANCE.map(feeds.size(), r, ctx));
+			feeds.add(feed);
+			break;
+		case KIND_STATUS:
+			feeds.get(feeds.size() - 1).addFeedStatus(FeedStatusMapper.INSTANCE.map(feeds.size(), r, ctx));
+			break;
+		case KIND_ERROR:
+			feeds.get(feeds.size() - 1).addFeedError(FeedErrorMapper.INSTANCE.map(feeds.size(), r, ctx));
+			break;
+		default:
+			throw new IllegalStateException("unknown row kind " + r.getInt("kind"));
+		}
+		return feeds;
+	}
+
+}
@@ -16,12 +16,18 @@
 package be.ceau.podcastfinder.store.sqlite;
 
 import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -30,14 +36,18 @@ import org.skife.jdbi.v2.Handle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import be.ceau.podcastfinder.api.PathProvider;
 import be.ceau.podcastfinder.export.ExportableFeed;
+import be.ceau.podcastfinder.model.Checkpoint;
 import be.ceau.podcastfinder.model.DataStatus;
 import be.ceau.podcastfinder.model.Duplicates;
 import be.ceau.podcastfinder.model.FeedError;
 import be.ceau.podcastfinder.model.FeedId;
 import be.ceau.podcastfinder.model.FeedInfo;
+import be.ceau.podcastfinder.model.FeedSchedule;
 import be.ceau.podcastfinder.model.FeedStatus;
 import be.ceau.podcastfinder.model.PersistedFeed;
+import be.ceau.podcastfinder.model.Shard;
 import be.ceau.podcastfinder.store.api.ExportableFeedProducer;
 import be.ceau.podcastfinder.store.api.PersistedFeedProducer;
 
@@ -55,19 +65,70 @@ public class PodcastFinderStore implements AutoCloseable, PersistedFeedProducer,
 	private final FeedInfoRepository feedInfoRepository;
 	private final FeedStatusRepository statusRepository;
 	private final FeedErrorsRepository errorsRepository;
+	private final FeedScheduleRepository scheduleRepository;
+	private final CheckpointRepository checkpointRepository;
+	private final PersistedFeedRepository persistedFeedRepository;
 	private final DataStatusRepository dataStatusRepository;
 	private final DuplicatesRepository duplicatesRepository;
 	private final ExportableFeedRepository exportableFeedRepository;
+	private final ShardMergeRepository shardMergeRepository;
+	private final LeaseRepository leaseRepository;
+	private final UriAliasRepository uriAliasRepository;
 
+	/**
+	 * Open the main database
+	 */
 	public PodcastFinderStore() {
-		this.database = SQLiteDatabase.getInstance();
+		this(SQLiteDatabase.getInstance(), false);
+	}
+
+	/**
+	 * Open the database in the given file, creating it if necessary
+	 * 
+	 * @param file
+	 *            {@link Path} of a SQLite database file, not {@code null}
+	 */
+	public PodcastFinderStore(Path file) {
+		this(SQLiteDatabase.getInstance(file), false);
+	}
+
+	private PodcastFinderStore(SQLiteDatabase database, boolean shardFile) {
+		this.database = database;
 		this.feedIdRepository = new FeedIdRepository(database);
-		this.feedInfoRepository = new FeedInfoRepository(database);
+		this.feedInfoRepository = new FeedInfoRepository(database, shardFile);
 		this.statusRepository = new FeedStatusRepository(database);
 		this.errorsRepository = new FeedErrorsRepository(database);
+		this.scheduleRepository = new FeedScheduleRepository(database);
+		this.checkpointRepository = new CheckpointRepository(database);
+		this.persistedFeedRepository = new PersistedFeedRepository(database);
 		this.dataStatusRepository = new DataStatusRepository(database);
 		this.duplicatesRepository = new DuplicatesRepository(database);
 		this.exportableFeedRepository = new ExportableFeedRepository(database);
+		this.shardMergeRepository = new ShardMergeRepository(database);
+		this.leaseRepository = new LeaseRepository(database);
+		this.uriAliasRepository = new UriAliasRepository(database);
+	}
+
+	/**
+	 * Open the output file of an enrich run of a {@link Shard}, creating it if necessary. Unlike other databases, it
+	 * stores the info of podcasts committed by the run that it does not hold yet, to be folded into the main database
+	 * by {@link #merge(Path)}.
+	 * 
+	 * @param file
+	 *            {@link Path} of a SQLite database file, not {@code null}
+	 */
+	public static PodcastFinderStore openShardFile(Path file) {
+		return new PodcastFinderStore(SQLiteDatabase.getInstance(file), true);
+	}
+
+	/**
+	 * @param shard
+	 *            {@link Shard} whose output file to return, not {@code null}
+	 * @return {@link Path} of the file an enrich run of the given shard writes to, next to the main database
+	 */
+	public static Path getShardFile(Shard shard) {
+		Objects.requireNonNull(shard);
+		return PathProvider.get().resolve(String.format("podcastfinder-shard-%s-of-%s.sqlite", shard.getIndex(), shard.getCount()));
 	}
 
 	public void add(FeedId feedId) {
@@ -115,6 +176,172 @@ public class PodcastFinderStore implements AutoCloseable, PersistedFeedProducer,
 		errorsRepository.addAll(feedErrors);
 	}
 
+	/**
+	 * Store (or replace) the given {@link FeedSchedule} instances in a single transaction
+	 */
+	public void addFeedSchedules(Collection<FeedSchedule> feedSchedules) {
+		requireOpen();
+		scheduleRepository.upsertAll(feedSchedules);
+	}
+
+	/**
+	 * Store the outcome of a batch of download attempts in a single transaction: every {@link FeedStatus} and
+	 * {@link FeedError}, the {@link FeedInfo} of each feed that was downloaded successfully or replayed without error
+	 * and the {@link FeedSchedule} of each feed that has one.
+	 * 
+	 * @param feeds
+	 *            {@link Collection} of {@link PersistedFeed} instances holding only new statuses and errors, not
+	 *            {@code null}
+	 */
+	public void commit(Collection<PersistedFeed> feeds) {
+		commit(feeds, null, Collections.emptyList());
+	}
+
+	/**
+	 * Store the outcome of a batch of download attempts as {@link #commit(Collection)} does, and move the
+	 * {@link Checkpoint} of the current run forward in the same transaction: every given feed is no longer in flight,
+	 * every podcastId in {@code started} is.
+	 * 
+	 * @param feeds
+	 *            {@link Collection} of {@link PersistedFeed} instances holding only new statuses and errors, not
+	 *            {@code null}
+	 * @param checkpoint
+	 *            {@link Checkpoint} reached, or {@code null} to leave the checkpoint unchanged
+	 * @param started
+	 *            {@link Collection} of podcastIds dispatched since the previous commit, not {@code null}
+	 */
+	public void commit(Collection<PersistedFeed> feeds, Checkpoint checkpoint, Collection<Integer> started) {
+		requireOpen();
+		commit(feeds, (Handle h, List<Integer> finished) -> checkpointRepository.save(h, checkpoint, started, finished));
+	}
+
+	/**
+	 * Store the outcome of a batch of download attempts as {@link #commit(Collection)} does, and release the leases
+	 * the given worker holds on these feeds in the same transaction.
+	 * 
+	 * @param feeds
+	 *            {@link Collection} of {@link PersistedFeed} instances holding only new statuses and errors, not
+	 *            {@code null}
+	 * @param worker
+	 *            {@link String} identifier of the worker that claimed the feeds, not {@code null}
+	 */
+	public void commitLeased(Collection<PersistedFeed> feeds, String worker) {
+		requireOpen();
+		Objects.requireNonNull(worker);
+		commit(feeds, (Handle h, List<Integer> finished) -> leaseRepository.release(h, worker, finished, LocalDateTime.now()));
+	}
+
+	/**
+	 * @param progress
+	 *            {@link BiConsumer} recording in the same transaction that the feeds with the given podcastIds are
+	 *            finished
+	 */
+	private void commit(Collection<PersistedFeed> feeds, BiConsumer<Handle, List<Integer>> progress) {
+		final List<PersistedFeed> updated = new ArrayList<>();
+		final List<FeedStatus> statuses = new ArrayList<>();
+		final List<FeedError> errors = new ArrayList<>();
+		final List<FeedSchedule> schedules = new ArrayList<>();
+		final List<Integer> finished = new ArrayList<>();
+		for (PersistedFeed feed : feeds) {
+			finished.add(feed.getPodcastId());
+			if (!feed.getFeedStatuses().isEmpty() || feed.getFeedErrors().isEmpty()) {
+				// only a failed attempt carries no new info
+				updated.add(feed);
+			}
+			statuses.addAll(feed.getFeedStatuses());
+			errors.addAll(feed.getFeedErrors());
+			if (feed.getFeedSchedule() != null) {
+				schedules.add(feed.getFeedSchedule());
+			}
+		}
+		database.inTransaction((Handle h) -> {
+			feedInfoRepository.updateAll(h, updated);
+			uriAliasRepository.moveAll(h, updated);
+			statusRepository.addAll(h, statuses);
+			errorsRepository.addAll(h, errors);
+			scheduleRepository.upsertAll(h, schedules);
+			progress.accept(h, finished);
+		});
+	}
+
+	/**
+	 * Lease a batch of podcasts that are due for download to the given worker, in a single transaction, so that no
+	 * other worker sharing this database claims them until the lease is released or expires. Podcasts that were never
+	 * scheduled are claimed first, by podcastId, followed by scheduled podcasts due at {@code runStart}, most overdue
+	 * first. A podcast released since {@code runStart} is not claimed again.
+	 * 
+	 * @param worker
+	 *            {@link String} unique identifier of the claiming worker, not {@code null}
+	 * @param runStart
+	 *            {@link LocalDateTime} start of the run of the claiming worker, not {@code null}
+	 * @param afterPodcastId
+	 *            {@code int} podcastId of the last unscheduled podcast claimed by this run, or {@code 0}
+	 * @param leaseTime
+	 *            {@link Duration} until the leases expire unless renewed, not {@code null}
+	 * @param limit
+	 *            {@code int} maximum number of podcasts to claim, greater than 0
+	 * @return {@link List} of {@link PersistedFeed} with statuses, errors and {@link FeedSchedule}, if any, empty when
+	 *         nothing is left to claim
+	 */
+	public List<PersistedFeed> claimFeeds(String worker, LocalDateTime runStart, int afterPodcastId, Duration leaseTime, int limit) {
+		requireOpen();
+		Objects.requireNonNull(worker);
+		Objects.requireNonNull(runStart);
+		Objects.requireNonNull(leaseTime);
+		if (limit < 1) {
+			throw new IllegalArgumentException(String.format("limit must be at least 1 but is %s", limit));
+		}
+		final List<PersistedFeed> claimed = new ArrayList<>(limit);
+		database.inTransaction((Handle h) -> {
+			LocalDateTime now = LocalDateTime.now();
+			claimed.addAll(persistedFeedRepository.getClaimableUnscheduledPage(h, runStart, now, afterPodcastId, limit));
+			if (claimed.size() < limit) {
+				claimed.addAll(persistedFeedRepository.getClaimableDuePage(h, runStart, now, limit - claimed.size()));
+			}
+			List<Integer> podcastIds = claimed.stream().map(PersistedFeed::getPodcastId).collect(Collectors.toList());
+			leaseRepository.claim(h, worker, podcastIds, now, now.plus(leaseTime));
+		});
+		return claimed;
+	}
+
+	/**
+	 * Extend the leases the given worker holds on the given podcasts
+	 * 
+	 * @return number of leases renewed, less than the number of podcastIds if any lease was lost
+	 */
+	public int renewLeases(String worker, Collection<Integer> podcastIds, Duration leaseTime) {
+		requireOpen();
+		Objects.requireNonNull(worker);
+		Objects.requireNonNull(podcastIds);
+		return leaseRepository.renew(worker, podcastIds, LocalDateTime.now().plus(leaseTime));
+	}
+
+	/**
+	 * Release the leases the given worker holds on the given podcasts without a download, storing the given
+	 * {@link FeedSchedule} instances in the same transaction
+	 */
+	public void releaseLeases(String worker, Collection<Integer> podcastIds, Collection<FeedSchedule> feedSchedules) {
+		requireOpen();
+		Objects.requireNonNull(worker);
+		Objects.requireNonNull(podcastIds);
+		Objects.requireNonNull(feedSchedules);
+		database.inTransaction((Handle h) -> {
+			scheduleRepository.upsertAll(h, feedSchedules);
+			leaseRepository.release(h, worker, podcastIds, LocalDateTime.now());
+		});
+	}
+
+	/**
+	 * Drop every live lease of the given worker, so that other workers can claim these podcasts at once
+	 * 
+	 * @return number of leases dropped
+	 */
+	public int abandonLeases(String worker) {
+		requireOpen();
+		Objects.requireNonNull(worker);
+		return leaseRepository.abandon(worker);
+	}
+
 	public List<PersistedFeed> get() {
 		requireOpen();
 		final Map<Integer, PersistedFeed> feedMap = feedInfoRepository.get()
@@ -155,6 +382,7 @@ public class PodcastFinderStore implements AutoCloseable, PersistedFeedProducer,
 		if (feed != null) {
 			statusRepository.get(podcastId).forEach(feed::addFeedStatus);
 			errorsRepository.get(podcastId).forEach(feed::addFeedError);
+			feed.setFeedSchedule(scheduleRepository.get(podcastId));
 		}
 		return feed;
 	}
@@ -209,6 +437,131 @@ public class PodcastFinderStore implements AutoCloseable, PersistedFeedProducer,
 		return feeds;
 	}
 
+	/**
+	 * Keyset pagination over all podcasts, retrieving the {@link FeedInfo} of each feed only.
+	 * 
+	 * @param afterPodcastId
+	 *            {@code int} podcastId of the last feed of the previous page, or {@code 0} for the first page
+	 * @param limit
+	 *            {@code int} maximum number of feeds in the page, greater than 0
+	 * @return {@link List} of {@link PersistedFeed} without statuses, errors or schedule, ordered by podcastId, empty
+	 *         when there are no more feeds
+	 */
+	public List<PersistedFeed> getFeedInfoPage(int afterPodcastId, int limit) {
+		requireOpen();
+		if (limit < 1) {
+			throw new IllegalArgumentException(String.format("limit must be at least 1 but is %s", limit));
+		}
+		return feedInfoRepository.getPage(afterPodcastId, limit);
+	}
+
+	/**
+	 * Keyset pagination over podcasts that were never scheduled, retrieving each feed with its statuses and errors in
+	 * a single query.
+	 * 
+	 * @param afterPodcastId
+	 *            {@code int} podcastId of the last feed of the previous page, or {@code 0} for the first page
+	 * @param limit
+	 *            {@code int} maximum number of feeds in the page, greater than 0
+	 * @return {@link List} of {@link PersistedFeed} ordered by podcastId, empty when there are no more feeds
+	 */
+	public List<PersistedFeed> getUnscheduledFeedPage(int afterPodcastId, int limit) {
+		return getUnscheduledFeedPage(Shard.ALL, afterPodcastId, limit);
+	}
+
+	/**
+	 * As {@link #getUnscheduledFeedPage(int, int)}, limited to podcasts in the given {@link Shard}
+	 */
+	public List<PersistedFeed> getUnscheduledFeedPage(Shard shard, int afterPodcastId, int limit) {
+		requireOpen();
+		Objects.requireNonNull(shard);
+		if (limit < 1) {
+			throw new IllegalArgumentException(String.format("limit must be at least 1 but is %s", limit));
+		}
+		return persistedFeedRepository.getUnscheduledPage(shard, afterPodcastId, limit);
+	}
+
+	/**
+	 * Keyset pagination over podcasts whose {@link FeedSchedule} is due, most overdue first, retrieving each feed with
+	 * its statuses and errors in a single query.
+	 * 
+	 * @param now
+	 *            {@link LocalDateTime} moment at which feeds must be due, not {@code null}
+	 * @param after
+	 *            {@link FeedSchedule} of the last feed of the previous page, or {@code null} for the first page
+	 * @param limit
+	 *            {@code int} maximum number of feeds in the page, greater than 0
+	 * @return {@link List} of {@link PersistedFeed} ordered by {@code nextDue} and podcastId, empty when there are no
+	 *         more feeds
+	 */
+	public List<PersistedFeed> getDueFeedPage(LocalDateTime now, FeedSchedule after, int limit) {
+		return getDueFeedPage(Shard.ALL, now, after, limit);
+	}
+
+	/**
+	 * As {@link #getDueFeedPage(LocalDateTime, FeedSchedule, int)}, limited to podcasts in the given {@link Shard}
+	 */
+	public List<PersistedFeed> getDueFeedPage(Shard shard, LocalDateTime now, FeedSchedule after, int limit) {
+		requireOpen();
+		Objects.requireNonNull(shard);
+		Objects.requireNonNull(now);
+		if (limit < 1) {
+			throw new IllegalArgumentException(String.format("limit must be at least 1 but is %s", limit));
+		}
+		return persistedFeedRepository.getDuePage(shard, now, after, limit);
+	}
+
+	/**
+	 * @return {@link Checkpoint} left by an unfinished enrich run, or {@code null}
+	 */
+	public Checkpoint getCheckpoint() {
+		requireOpen();
+		return checkpointRepository.get();
+	}
+
+	/**
+	 * @return {@link List} of podcastIds that an unfinished enrich run had dispatched but not committed, never
+	 *         {@code null}
+	 */
+	public List<Integer> getInFlightPodcastIds() {
+		requireOpen();
+		return checkpointRepository.getInFlight();
+	}
+
+	/**
+	 * Store the given {@link Checkpoint} as the start of a new run, discarding any previous checkpoint
+	 */
+	public void startCheckpoint(Checkpoint checkpoint) {
+		requireOpen();
+		Objects.requireNonNull(checkpoint);
+		checkpointRepository.reset(checkpoint);
+	}
+
+	/**
+	 * Discard the checkpoint after a run has finished
+	 */
+	public void clearCheckpoint() {
+		requireOpen();
+		checkpointRepository.clear();
+	}
+
+	/**
+	 * Fold the output file of a shard into this database in a single transaction, emptying the shard file of
+	 * everything merged
+	 * 
+	 * @param shardFile
+	 *            {@link Path} of a database file written by an enrich run of a {@link Shard}, not {@code null}
+	 */
+	public void merge(Path shardFile) {
+		requireOpen();
+		shardMergeRepository.merge(shardFile);
+	}
+
+	public int getPodcastCount() {
+		requireOpen();
+		return dataStatusRepository.getPodcastCount();
+	}
+
 	public DataStatus getDataStatus() {
 		DataStatus dataStatus = new DataStatus();
 		dataStatus.setTotal(dataStatusRepository.getPodcastCount());
@@ -230,6 +583,26 @@ public class PodcastFinderStore implements AutoCloseable, PersistedFeedProducer,
 		}
 	}
 	
+	/**
+	 * Make every parked feed due at once, forgetting its failures, so that the next run tries it again
+	 * 
+	 * @return {@code int} number of feeds unparked
+	 */
+	public int unparkAll() {
+		requireOpen();
+		return scheduleRepository.unparkAll(LocalDateTime.now());
+	}
+
+	/**
+	 * Make the given feed due at once if it is parked, forgetting its failures
+	 * 
+	 * @return {@code true} if the feed was parked
+	 */
+	public boolean unpark(int podcastId) {
+		requireOpen();
+		return scheduleRepository.unpark(podcastId, LocalDateTime.now());
+	}
+
 	public void clean() {
 		errorsRepository.deleteAllButNewest();
 		database.execute((Handle h) -> h.createStatement("vacuum;").execute());
@@ -273,6 +646,10 @@ public class PodcastFinderStore implements AutoCloseable, PersistedFeedProducer,
 	public void delete(final int podcastId) {
 		statusRepository.delete(podcastId);
 		errorsRepository.delete(podcastId);
+		scheduleRepository.delete(podcastId);
+		checkpointRepository.delete(podcastId);
+		leaseRepository.delete(podcastId);
+		uriAliasRepository.delete(podcastId);
 		feedIdRepository.delete(podcastId);
 	}
 	
@@ -19,6 +19,13 @@ import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
@@ -26,108 +33,262 @@ import java.util.function.Function;
 
 import org.skife.jdbi.v2.DBI;
 import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.TransactionStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sqlite.SQLiteDataSource;
 
+import be.ceau.podcastfinder.api.PathProvider;
+
+/**
+ * Shared access to a SQLite database file in WAL journal mode: a single write connection, serialized by a lock, and a
+ * small pool of read-only connections that run concurrently with it and with each other.
+ */
 class SQLiteDatabase implements AutoCloseable {
 
 	private static final Logger logger = LoggerFactory.getLogger(SQLiteDatabase.class);
 
-	private static final String CREATE_TABLE_PODCASTS = "CREATE TABLE IF NOT EXISTS podcasts (uri TEXT NOT NULL UNIQUE, name TEXT, language TEXT, description TEXT, insertDate TEXT, podcastId INTEGER PRIMARY KEY NOT NULL)";
+	/**
+	 * Milliseconds to wait for a lock held by another process sharing the database file
+	 */
+	private static final int BUSY_TIMEOUT_MILLIS = 60000;
+
+	/**
+	 * Number of read-only connections alongside the write connection
+	 */
+	private static final int READ_CONNECTIONS = 4;
 
-	private static final String CREATE_TABLE_STATUS = "CREATE TABLE IF NOT EXISTS status (podcastId INTEGER NOT NULL, date TEXT NOT NULL, items INTEGER, lastUpdate TEXT, hash INTEGER, bytes INTEGER, FOREIGN KEY(podcastId) REFERENCES podcasts(podcastId))";
+	/**
+	 * File name of the main database within the directory given by {@link PathProvider}
+	 */
+	static final String FILE_NAME = "podcastfinder.sqlite";
 
-	private static final String CREATE_TABLE_ERRORS = "CREATE TABLE IF NOT EXISTS errors (podcastId INTEGER NOT NULL, date TEXT NOT NULL, error TEXT NOT NULL, message TEXT NOT NULL, FOREIGN KEY(podcastId) REFERENCES podcasts(podcastId))";
+	private static final Lock REGISTRY_LOCK = new ReentrantLock();
+	private static final Map<Path, SQLiteDatabase> instances = new HashMap<>();
 
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Path file;
 	private final SQLiteDataSource ds;
 	private final Handle handle;
 	private final Connection connection;
+	private final List<Connection> readConnections = new ArrayList<>(READ_CONNECTIONS);
+	private final BlockingQueue<Handle> readers = new ArrayBlockingQueue<>(READ_CONNECTIONS);
+	private int users = 0;
 
-	private static final Lock LOCK = new ReentrantLock();
-	private static SQLiteDatabase instance;
-	private static int users = 0;
-
+	/**
+	 * @return shared {@link SQLiteDatabase} for the main database file
+	 */
 	static SQLiteDatabase getInstance() {
-		LOCK.lock();
+		return getInstance(PathProvider.get().resolve(FILE_NAME));
+	}
+
+	/**
+	 * @param file
+	 *            {@link Path} of the database file, created if it does not exist yet
+	 * @return shared {@link SQLiteDatabase} for the given file, to be {@link #close()}d by each caller
+	 */
+	static SQLiteDatabase getInstance(Path file) {
+		Objects.requireNonNull(file);
+		Path key = file.toAbsolutePath().normalize();
+		REGISTRY_LOCK.lock();
 		try {
+			SQLiteDatabase instance = instances.get(key);
 			if (instance == null) {
-				instance = new SQLiteDatabase();
+				instance = new SQLiteDatabase(key);
+				instances.put(key, instance);
 			}
-			users++;
+			instance.users++;
 			return instance;
 		} finally {
-			LOCK.unlock();
+			REGISTRY_LOCK.unlock();
 		}
 	}
 
-	private SQLiteDatabase() {
+	private SQLiteDatabase(Path file) {
+		this.file = file;
 		ds = new SQLiteDataSource();
-		ds.setUrl(getUrl());
+		ds.setUrl(getUrl(file));
 		ds.setDatabaseName("podcasts");
 		ds.setFullSync(false);
+		// other processes may share the file: wait for their locks, and take the write lock when a transaction begins
+		// rather than failing to upgrade a read lock halfway through
+		ds.setBusyTimeout(BUSY_TIMEOUT_MILLIS);
+		ds.setTransactionMode("IMMEDIATE");
+		// readers see the last committed state without blocking the writer, and the writer never waits for readers
+		ds.setJournalMode("WAL");
 		try {
 			connection = ds.getConnection();
 			connection.setAutoCommit(true);
 			connection.setHoldability(ResultSet.CLOSE_CURSORS_AT_COMMIT);
 			handle = DBI.open(connection);
-			prepareDatabase();
+			SchemaMigrations.INSTANCE.migrate(handle);
+			openReaders();
 		} catch (SQLException e) {
+			close(readConnections);
 			throw new RuntimeException(e);
 		}
 	}
 
-	private String getUrl() {
-		Path directory = Path.of(System.getProperty("user.home")).resolve("podcastfinder");
-		if (!directory.toFile().exists() && !directory.toFile().mkdirs()) {
+	/**
+	 * Open the read-only connections, once the write connection has switched the file to WAL mode and created the
+	 * schema
+	 */
+	private void openReaders() throws SQLException {
+		SQLiteDataSource readDs = new SQLiteDataSource();
+		readDs.setUrl(ds.getUrl());
+		readDs.setDatabaseName("podcasts");
+		readDs.setReadOnly(true);
+		readDs.setBusyTimeout(BUSY_TIMEOUT_MILLIS);
+		for (int i = 0; i < READ_CONNECTIONS; i++) {
+			Connection readConnection = readDs.getConnection();
+			readConnections.add(readConnection);
+			readConnection.setAutoCommit(true);
+			readConnection.setHoldability(ResultSet.CLOSE_CURSORS_AT_COMMIT);
+			readers.add(DBI.open(readConnection));
+		}
+	}
+
+	private static String getUrl(Path file) {
+		Path directory = file.getParent();
+		if (directory != null && !directory.toFile().exists() && !directory.toFile().mkdirs()) {
 			throw new IllegalStateException("directory " + directory + " does not exist and could not be created");
 		}
-		return new StringBuilder()
-				.append("jdbc:sqlite:")
-				.append(System.getProperty("user.home"))
-				.append("/podcastfinder")
-				.append("/podcastfinder.sqlite")
-				.toString();
+		return "jdbc:sqlite:" + file;
 	}
 
-	private void prepareDatabase() throws SQLException {
-		handle.createStatement(CREATE_TABLE_PODCASTS).execute();
-		handle.createStatement(CREATE_TABLE_STATUS).execute();
-		handle.createStatement(CREATE_TABLE_ERRORS).execute();
+	/**
+	 * @return absolute {@link Path} of the database file
+	 */
+	Path getFile() {
+		return file;
+	}
+
+	/**
+	 * Apply the given {@link Function} to a read-only {@link Handle}, waiting for one only while all are in use, never
+	 * for the writer. It sees changes committed before it started. A thread holding the write lock, within
+	 * {@link #inTransaction(Consumer)} for instance, reads through the write connection instead, so that it sees its
+	 * own uncommitted changes.
+	 */
+	<T> T read(Function<Handle, T> function) {
+		if (lock.isHeldByCurrentThread()) {
+			return function.apply(handle);
+		}
+		Handle reader = borrowReader();
+		try {
+			return function.apply(reader);
+		} finally {
+			readers.add(reader);
+		}
+	}
+
+	/**
+	 * Pass a read-only {@link Handle} to the given {@link Consumer}, as {@link #read(Function)}
+	 */
+	void read(Consumer<Handle> consumer) {
+		read((Handle h) -> {
+			consumer.accept(h);
+			return null;
+		});
+	}
+
+	private Handle borrowReader() {
+		try {
+			return readers.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while waiting for a read connection", e);
+		}
 	}
 
 	<T> T execute(Function<Handle, T> function) {
-		LOCK.lock();
+		lock.lock();
 		try {
 			return function.apply(handle);
 		} finally {
-			LOCK.unlock();
+			lock.unlock();
 		}
 	}
 
 	void execute(Consumer<Handle> consumer) {
-		LOCK.lock();
+		lock.lock();
 		try {
 			consumer.accept(handle);
 		} finally {
-			LOCK.unlock();
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Execute the given {@link Consumer} in a single transaction, rolling back if it throws.
+	 */
+	void inTransaction(Consumer<Handle> consumer) {
+		lock.lock();
+		try {
+			handle.inTransaction((Handle h, TransactionStatus status) -> {
+				consumer.accept(h);
+				return null;
+			});
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Attach another database file under the given schema name, execute the given {@link Consumer} in a single
+	 * transaction, rolling back if it throws, and detach the file again.
+	 */
+	void inTransaction(Path attached, String schema, Consumer<Handle> consumer) {
+		Objects.requireNonNull(attached);
+		if (!schema.matches("[a-z]+")) {
+			throw new IllegalArgumentException(String.format("schema must be lower case letters only but is %s", schema));
+		}
+		lock.lock();
+		try {
+			handle.createStatement("ATTACH DATABASE :file AS " + schema)
+					.bind("file", attached.toAbsolutePath().toString())
+					.execute();
+			try {
+				handle.inTransaction((Handle h, TransactionStatus status) -> {
+					consumer.accept(h);
+					return null;
+				});
+			} finally {
+				handle.createStatement("DETACH DATABASE " + schema).execute();
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
 	public void close() {
-		LOCK.lock();
+		REGISTRY_LOCK.lock();
 		try {
 			users--;
 			if (users == 0) {
+				lock.lock();
 				try {
+					// the write connection goes last, so that it checkpoints the WAL and removes it from disk
+					close(readConnections);
 					connection.close();
 				} catch (SQLException e) {
 					logger.error("close()", e);
+				} finally {
+					lock.unlock();
 				}
-				instance = null;
+				instances.remove(file);
 			}
 		} finally {
-			LOCK.unlock();
+			REGISTRY_LOCK.unlock();
+		}
+	}
+
+	private static void close(List<Connection> connections) {
+		for (Connection c : connections) {
+			try {
+				c.close();
+			} catch (SQLException e) {
+				logger.error("close()", e);
+			}
 		}
 	}
 
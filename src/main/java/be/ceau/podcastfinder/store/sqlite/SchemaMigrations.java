@@ -0,0 +1,244 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.store.sqlite;
+
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.StatementContext;
+import org.skife.jdbi.v2.TransactionStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * Versioned schema of the database, tracked in {@code PRAGMA user_version}.
+ * </p>
+ * <p>
+ * Each migration runs in a transaction of its own, together with the version bump, so that an interrupted upgrade
+ * resumes where it stopped and two processes opening the same file apply it only once. Databases created before the
+ * schema was versioned report version 0 and go through every migration, which is why the first one only creates what
+ * does not exist yet.
+ * </p>
+ */
+final class SchemaMigrations {
+
+	private static final Logger logger = LoggerFactory.getLogger(SchemaMigrations.class);
+
+	static final SchemaMigrations INSTANCE = new SchemaMigrations();
+
+	private static final String CREATE_TABLE_PODCASTS = "CREATE TABLE IF NOT EXISTS podcasts (uri TEXT NOT NULL UNIQUE, name TEXT, language TEXT, description TEXT, insertDate TEXT, podcastId INTEGER PRIMARY KEY NOT NULL)";
+
+	private static final String CREATE_TABLE_STATUS = "CREATE TABLE IF NOT EXISTS status (podcastId INTEGER NOT NULL, date TEXT NOT NULL, items INTEGER, lastUpdate TEXT, hash INTEGER, bytes INTEGER, etag TEXT, lastModified TEXT, FOREIGN KEY(podcastId) REFERENCES podcasts(podcastId))";
+
+	private static final String CREATE_TABLE_ERRORS = "CREATE TABLE IF NOT EXISTS errors (podcastId INTEGER NOT NULL, date TEXT NOT NULL, error TEXT NOT NULL, message TEXT NOT NULL, FOREIGN KEY(podcastId) REFERENCES podcasts(podcastId))";
+
+	private static final String CREATE_TABLE_SCHEDULE = "CREATE TABLE IF NOT EXISTS schedule (podcastId INTEGER PRIMARY KEY NOT NULL, nextDue TEXT NOT NULL, intervalSeconds INTEGER NOT NULL, FOREIGN KEY(podcastId) REFERENCES podcasts(podcastId))";
+
+	private static final String CREATE_INDEX_SCHEDULE_NEXT_DUE = "CREATE INDEX IF NOT EXISTS schedule_nextDue ON schedule (nextDue, podcastId)";
+
+	private static final String CREATE_TABLE_URI_ALIASES = "CREATE TABLE IF NOT EXISTS uri_aliases (uri TEXT PRIMARY KEY NOT NULL, podcastId INTEGER NOT NULL, date TEXT NOT NULL, FOREIGN KEY(podcastId) REFERENCES podcasts(podcastId))";
+
+	private static final String CREATE_TABLE_CHECKPOINT = "CREATE TABLE IF NOT EXISTS checkpoint (id INTEGER PRIMARY KEY NOT NULL CHECK (id = 1), runStart TEXT NOT NULL, scheduled INTEGER NOT NULL, afterPodcastId INTEGER NOT NULL, afterNextDue TEXT)";
+
+	private static final String CREATE_TABLE_CHECKPOINT_INFLIGHT = "CREATE TABLE IF NOT EXISTS checkpoint_inflight (podcastId INTEGER PRIMARY KEY NOT NULL)";
+
+	private static final String CREATE_TABLE_LEASE = "CREATE TABLE IF NOT EXISTS lease (podcastId INTEGER PRIMARY KEY NOT NULL, worker TEXT NOT NULL, claimed TEXT NOT NULL, expires TEXT NOT NULL, released INTEGER NOT NULL DEFAULT 0)";
+
+	private static final String CREATE_INDEX_LEASE_WORKER = "CREATE INDEX IF NOT EXISTS lease_worker ON lease (worker, released)";
+
+	/**
+	 * Statuses of a single podcast or a range of podcasts, and the latest status per podcast
+	 */
+	private static final String CREATE_INDEX_STATUS_PODCAST_ID_DATE = "CREATE INDEX IF NOT EXISTS status_podcastId_date ON status (podcastId, date)";
+
+	/**
+	 * Errors of a single podcast or a range of podcasts, and the latest error per podcast
+	 */
+	private static final String CREATE_INDEX_ERRORS_PODCAST_ID_DATE = "CREATE INDEX IF NOT EXISTS errors_podcastId_date ON errors (podcastId, date)";
+
+	/**
+	 * Exports by language and the list of languages
+	 */
+	private static final String CREATE_INDEX_PODCASTS_LANGUAGE = "CREATE INDEX IF NOT EXISTS podcasts_language ON podcasts (language)";
+
+	/**
+	 * Deleting the aliases of a podcast
+	 */
+	private static final String CREATE_INDEX_URI_ALIASES_PODCAST_ID = "CREATE INDEX IF NOT EXISTS uri_aliases_podcastId ON uri_aliases (podcastId)";
+
+	private static final String CREATE_TABLE_LATEST_STATUS = "CREATE TABLE IF NOT EXISTS latest_status (podcastId INTEGER PRIMARY KEY NOT NULL, date TEXT NOT NULL, items INTEGER, lastUpdate TEXT, hash INTEGER, bytes INTEGER, etag TEXT, lastModified TEXT, FOREIGN KEY(podcastId) REFERENCES podcasts(podcastId))";
+
+	/**
+	 * Pairs of podcasts with the same latest feed
+	 */
+	private static final String CREATE_INDEX_LATEST_STATUS_HASH = "CREATE INDEX IF NOT EXISTS latest_status_hash ON latest_status (hash, items, bytes)";
+
+	private static final String FILL_LATEST_STATUS = 
+			" INSERT OR REPLACE INTO latest_status (podcastId, date, items, lastUpdate, hash, bytes, etag, lastModified) "
+		+	" 	SELECT podcastId, max(date), items, lastUpdate, hash, bytes, etag, lastModified FROM status GROUP BY podcastId ";
+
+	/**
+	 * Consecutive failures of each scheduled podcast, counted as before the count was stored: errors after its newest
+	 * status, not counting hosts that were unavailable
+	 */
+	private static final String FILL_SCHEDULE_FAILURES = 
+			" UPDATE schedule SET failures = (SELECT count(*) FROM errors e WHERE e.podcastId = schedule.podcastId "
+		+	" 	AND e.error <> 'be.ceau.podcastfinder.http.HostUnavailableException' "
+		+	" 	AND e.date > coalesce((SELECT l.date FROM latest_status l WHERE l.podcastId = schedule.podcastId), '')) ";
+
+	/**
+	 * Status codes of errors stored before they had a column of their own, parsed from their message
+	 */
+	private static final String FILL_ERRORS_HTTP_STATUS = 
+			" UPDATE errors SET httpStatus = CAST(substr(message, 13, 3) AS INTEGER) WHERE message LIKE 'HTTP status ___%' ";
+
+	/**
+	 * Migrations in order, the one at index {@code i} upgrading the schema from version {@code i} to {@code i + 1}
+	 */
+	private final List<Consumer<Handle>> migrations = Collections.unmodifiableList(Arrays.asList(
+			SchemaMigrations::createTables,
+			SchemaMigrations::createQueryIndexes,
+			SchemaMigrations::createLatestStatus,
+			SchemaMigrations::addFailureColumns));
+
+	private SchemaMigrations() {
+	}
+
+	/**
+	 * @return {@code int} version of the schema after all migrations
+	 */
+	int getLatestVersion() {
+		return migrations.size();
+	}
+
+	/**
+	 * @return {@code int} version of the schema of the database behind the given {@link Handle}, {@code 0} for a new
+	 *         database or one created before the schema was versioned
+	 */
+	int getVersion(Handle handle) {
+		return handle.createQuery("PRAGMA user_version")
+				.mapTo(Integer.class)
+				.first();
+	}
+
+	/**
+	 * Upgrade the database behind the given {@link Handle} to the latest version
+	 */
+	void migrate(Handle handle) {
+		migrate(handle, getLatestVersion());
+	}
+
+	/**
+	 * Upgrade the database behind the given {@link Handle} to the given version, leaving it alone if it is there
+	 * already
+	 * 
+	 * @throws IllegalStateException
+	 *             if the database has a version beyond the latest, written by a newer version of this application
+	 */
+	void migrate(Handle handle, int target) {
+		if (target < 0 || target > getLatestVersion()) {
+			throw new IllegalArgumentException(String.format("target must be at least 0 and at most %s but is %s", getLatestVersion(), target));
+		}
+		int version = getVersion(handle);
+		if (version > getLatestVersion()) {
+			throw new IllegalStateException(String.format("database schema version is %s but this application knows versions up to %s only", version, getLatestVersion()));
+		}
+		while (version < target) {
+			final int next = version + 1;
+			handle.inTransaction((Handle h, TransactionStatus status) -> {
+				// another process may have applied this migration while we waited for the write lock
+				if (getVersion(h) < next) {
+					logger.info("migrating database schema to version {}", next);
+					migrations.get(next - 1).accept(h);
+					h.createStatement("PRAGMA user_version = " + next).execute();
+				}
+				return null;
+			});
+			version = getVersion(handle);
+		}
+	}
+
+	/**
+	 * Version 1: all tables as they were before the schema was versioned
+	 */
+	private static void createTables(Handle handle) {
+		handle.createStatement(CREATE_TABLE_PODCASTS).execute();
+		handle.createStatement(CREATE_TABLE_STATUS).execute();
+		handle.createStatement(CREATE_TABLE_ERRORS).execute();
+		handle.createStatement(CREATE_TABLE_SCHEDULE).execute();
+		handle.createStatement(CREATE_INDEX_SCHEDULE_NEXT_DUE).execute();
+		handle.createStatement(CREATE_TABLE_URI_ALIASES).execute();
+		handle.createStatement(CREATE_TABLE_CHECKPOINT).execute();
+		handle.createStatement(CREATE_TABLE_CHECKPOINT_INFLIGHT).execute();
+		handle.createStatement(CREATE_TABLE_LEASE).execute();
+		handle.createStatement(CREATE_INDEX_LEASE_WORKER).execute();
+		addColumnIfMissing(handle, "status", "etag", "TEXT");
+		addColumnIfMissing(handle, "status", "lastModified", "TEXT");
+	}
+
+	/**
+	 * Version 2: indexes for lookups by podcastId and language, that otherwise scan the growing status and errors
+	 * tables in full
+	 */
+	private static void createQueryIndexes(Handle handle) {
+		handle.createStatement(CREATE_INDEX_STATUS_PODCAST_ID_DATE).execute();
+		handle.createStatement(CREATE_INDEX_ERRORS_PODCAST_ID_DATE).execute();
+		handle.createStatement(CREATE_INDEX_PODCASTS_LANGUAGE).execute();
+		handle.createStatement(CREATE_INDEX_URI_ALIASES_PODCAST_ID).execute();
+	}
+
+	/**
+	 * Version 3: the newest row of {@code `status`} of each podcast, kept up to date by every write to {@code `status`}
+	 */
+	private static void createLatestStatus(Handle handle) {
+		handle.createStatement(CREATE_TABLE_LATEST_STATUS).execute();
+		handle.createStatement(CREATE_INDEX_LATEST_STATUS_HASH).execute();
+		int rows = handle.createStatement(FILL_LATEST_STATUS).execute();
+		logger.info("filled latest_status with {} rows", rows);
+	}
+
+	/**
+	 * Version 4: the number of consecutive failures in {@code `schedule`} and the HTTP status code in {@code `errors`},
+	 * so that backing off no longer depends on error rows that {@code clean} removes, or on the wording of messages
+	 */
+	private static void addFailureColumns(Handle handle) {
+		handle.createStatement("ALTER TABLE schedule ADD COLUMN failures INTEGER NOT NULL DEFAULT 0").execute();
+		handle.createStatement("ALTER TABLE errors ADD COLUMN httpStatus INTEGER").execute();
+		int schedules = handle.createStatement(FILL_SCHEDULE_FAILURES).execute();
+		int errors = handle.createStatement(FILL_ERRORS_HTTP_STATUS).execute();
+		logger.info("filled failures of {} schedules and httpStatus of {} errors", schedules, errors);
+	}
+
+	/**
+	 * Upgrade a table created by an earlier version of this application with a new, nullable column.
+	 */
+	private static void addColumnIfMissing(Handle handle, String table, String column, String type) {
+		boolean exists = handle.createQuery("PRAGMA table_info(" + table + ")")
+				.map((int index, ResultSet r, StatementContext ctx) -> r.getString("name"))
+				.list()
+				.contains(column);
+		if (!exists) {
+			logger.info("adding column {} to table {}", column, table);
+			handle.createStatement("ALTER TABLE " + table + " ADD COLUMN " + column + " " + type).execute();
+		}
+	}
+
+}
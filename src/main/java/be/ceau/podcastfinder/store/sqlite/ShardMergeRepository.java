@@ -0,0 +1,136 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.store.sqlite;
+
+import java.nio.file.Path;
+import java.util.Objects;
+
+import org.skife.jdbi.v2.Handle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Class for folding the output file of a shard back into the main database, attaching it as schema {@code `shard`}
+ */
+final class ShardMergeRepository {
+
+	private static final Logger logger = LoggerFactory.getLogger(ShardMergeRepository.class);
+
+	private static final String SCHEMA = "shard";
+
+	private static final String MERGE_PODCASTS = 
+			" UPDATE podcasts SET name = s.name, language = s.language, description = s.description "
+		+	" 	FROM shard.podcasts s WHERE podcasts.podcastId = s.podcastId ";
+
+	/**
+	 * Moves recorded in the shard, unless the new uri already belongs to another podcast
+	 */
+	private static final String MERGE_URIS = 
+			" UPDATE OR IGNORE podcasts SET uri = s.uri "
+		+	" 	FROM shard.podcasts s WHERE podcasts.podcastId = s.podcastId AND podcasts.uri <> s.uri "
+		+	" 	AND NOT EXISTS (SELECT 1 FROM podcasts p WHERE p.uri = s.uri) ";
+
+	/**
+	 * Podcasts deleted from the main database while the shard was being enriched stay deleted
+	 */
+	private static final String IN_MAIN = " podcastId IN (SELECT podcastId FROM main.podcasts) ";
+
+	/**
+	 * The shard only resolved the new uri of a moved podcast against the podcasts it holds: the old uri becomes an
+	 * alias of the podcast the main database holds under the new uri, if any, or else of the moved podcast itself
+	 */
+	private static final String MERGE_ALIASES = 
+			" INSERT OR IGNORE INTO uri_aliases (uri, podcastId, date) "
+		+	" 	SELECT uri, podcastId, date FROM ( "
+		+	" 		SELECT a.uri, COALESCE((SELECT p.podcastId FROM main.podcasts p WHERE p.uri = s.uri), a.podcastId) AS podcastId, a.date "
+		+	" 		FROM shard.uri_aliases a LEFT JOIN shard.podcasts s ON s.podcastId = a.podcastId "
+		+	" 	) WHERE " + IN_MAIN;
+
+	/**
+	 * A podcast that moved back to a former uri no longer has it as alias
+	 */
+	private static final String DELETE_CURRENT_ALIASES = 
+			" DELETE FROM main.uri_aliases WHERE EXISTS (SELECT 1 FROM main.podcasts p WHERE p.uri = uri_aliases.uri AND p.podcastId = uri_aliases.podcastId) ";
+
+	private static final String MERGE_STATUS = 
+			" INSERT INTO status (podcastId, date, items, lastUpdate, hash, bytes, etag, lastModified) "
+		+	" 	SELECT podcastId, date, items, lastUpdate, hash, bytes, etag, lastModified FROM shard.status WHERE " + IN_MAIN;
+
+	/**
+	 * Newest status of each podcast in the shard, unless the main database holds a newer one
+	 */
+	private static final String MERGE_LATEST_STATUS = 
+			" INSERT INTO latest_status (podcastId, date, items, lastUpdate, hash, bytes, etag, lastModified) "
+		+	" 	SELECT podcastId, date, items, lastUpdate, hash, bytes, etag, lastModified FROM shard.latest_status WHERE " + IN_MAIN
+		+	" 	ON CONFLICT (podcastId) DO UPDATE SET date = excluded.date, items = excluded.items, lastUpdate = excluded.lastUpdate, hash = excluded.hash, bytes = excluded.bytes, etag = excluded.etag, lastModified = excluded.lastModified "
+		+	" 	WHERE excluded.date >= latest_status.date ";
+
+	private static final String MERGE_ERRORS = 
+			" INSERT INTO errors (podcastId, date, error, message, httpStatus) "
+		+	" 	SELECT podcastId, date, error, message, httpStatus FROM shard.errors WHERE " + IN_MAIN;
+
+	private static final String MERGE_SCHEDULE = 
+			" INSERT OR REPLACE INTO schedule (podcastId, nextDue, intervalSeconds, failures) "
+		+	" 	SELECT podcastId, nextDue, intervalSeconds, failures FROM shard.schedule WHERE " + IN_MAIN;
+
+	private static final String[] CLEAR_SHARD = {
+			"DELETE FROM shard.latest_status",
+			"DELETE FROM shard.status",
+			"DELETE FROM shard.errors",
+			"DELETE FROM shard.schedule",
+			"DELETE FROM shard.uri_aliases",
+			"DELETE FROM shard.podcasts"
+	};
+
+	private final SQLiteDatabase database;
+
+	ShardMergeRepository(SQLiteDatabase database) {
+		Objects.requireNonNull(database);
+		this.database = database;
+	}
+
+	/**
+	 * Copy all podcast info, moves, statuses, errors and schedules from the given shard file in a single transaction, and
+	 * delete them from the shard file in that same transaction, so that merging a file twice has no effect. Podcasts
+	 * deleted from the main database in the meantime are not merged. The checkpoint of the shard is left alone, so an unfinished shard can still be resumed and merged again later.
+	 */
+	void merge(Path shardFile) {
+		Objects.requireNonNull(shardFile);
+		if (!shardFile.toFile().isFile()) {
+			throw new IllegalArgumentException(String.format("shard file %s does not exist", shardFile));
+		}
+		if (shardFile.toAbsolutePath().normalize().equals(database.getFile())) {
+			throw new IllegalArgumentException(String.format("can not merge database %s into itself", shardFile));
+		}
+		// opening the shard brings a file written by an earlier version of this application to the current schema
+		SQLiteDatabase.getInstance(shardFile).close();
+		database.inTransaction(shardFile, SCHEMA, (Handle h) -> {
+			int podcasts = h.createStatement(MERGE_PODCASTS).execute();
+			int moved = h.createStatement(MERGE_URIS).execute();
+			h.createStatement(MERGE_ALIASES).execute();
+			h.createStatement(DELETE_CURRENT_ALIASES).execute();
+			int statuses = h.createStatement(MERGE_STATUS).execute();
+			h.createStatement(MERGE_LATEST_STATUS).execute();
+			int errors = h.createStatement(MERGE_ERRORS).execute();
+			int schedules = h.createStatement(MERGE_SCHEDULE).execute();
+			for (String clear : CLEAR_SHARD) {
+				h.createStatement(clear).execute();
+			}
+			logger.info("merged {}: {} podcasts, {} moved, {} statuses, {} errors, {} schedules", shardFile, podcasts, moved, statuses, errors, schedules);
+		});
+	}
+
+}
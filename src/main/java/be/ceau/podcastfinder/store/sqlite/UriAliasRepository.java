@@ -0,0 +1,109 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.store.sqlite;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.PreparedBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.ceau.podcastfinder.model.PersistedFeed;
+import be.ceau.podcastfinder.util.Timestamp;
+
+/**
+ * Class for interacting with SQLite table {@code `uri_aliases`}, holding the former {@link java.net.URI} of each
+ * podcast that moved permanently, so that it is downloaded from its new location and not discovered again under its
+ * old one.
+ */
+final class UriAliasRepository {
+
+	private static final Logger logger = LoggerFactory.getLogger(UriAliasRepository.class);
+
+	/**
+	 * The old uri becomes an alias of the podcast already stored under the new uri, if any, or else of the moved
+	 * podcast itself
+	 */
+	private static final String INSERT_ALIAS = 
+			" INSERT OR IGNORE INTO uri_aliases (uri, podcastId, date) "
+		+	" 	SELECT uri, COALESCE((SELECT p.podcastId FROM podcasts p WHERE p.uri = :movedTo), podcastId), :date "
+		+	" 	FROM podcasts WHERE podcastId = :podcastId AND uri <> :movedTo ";
+
+	/**
+	 * A podcast that moved onto the uri of another one is left as it is, to be reported as a duplicate
+	 */
+	private static final String UPDATE_URI = 
+			" UPDATE podcasts SET uri = :movedTo "
+		+	" 	WHERE podcastId = :podcastId AND NOT EXISTS (SELECT 1 FROM podcasts p WHERE p.uri = :movedTo) ";
+
+	/**
+	 * A podcast that moved back to a former uri no longer has it as alias
+	 */
+	private static final String DELETE_ALIAS = 
+			"DELETE FROM uri_aliases WHERE uri = :movedTo AND podcastId = :podcastId";
+
+	private static final String DELETE_BY_PODCAST_ID = 
+			"DELETE FROM uri_aliases WHERE podcastId = :podcastId";
+
+	private final SQLiteDatabase database;
+
+	UriAliasRepository(SQLiteDatabase database) {
+		Objects.requireNonNull(database);
+		this.database = database;
+	}
+
+	/**
+	 * Point each given podcast that permanently moved to its new {@link java.net.URI}, keeping its old one as alias,
+	 * using the given {@link Handle}, for use in a wider transaction
+	 */
+	void moveAll(Handle h, Collection<PersistedFeed> feeds) {
+		List<PersistedFeed> moved = feeds.stream()
+				.filter(feed -> feed.getMovedTo() != null)
+				.collect(Collectors.toList());
+		if (moved.isEmpty()) {
+			return;
+		}
+		String date = Timestamp.now();
+		PreparedBatch aliases = h.prepareBatch(INSERT_ALIAS);
+		PreparedBatch updates = h.prepareBatch(UPDATE_URI);
+		PreparedBatch deletes = h.prepareBatch(DELETE_ALIAS);
+		for (PersistedFeed feed : moved) {
+			String movedTo = feed.getMovedTo().toASCIIString();
+			aliases.add().bind("podcastId", feed.getPodcastId()).bind("movedTo", movedTo).bind("date", date);
+			updates.add().bind("podcastId", feed.getPodcastId()).bind("movedTo", movedTo);
+			deletes.add().bind("podcastId", feed.getPodcastId()).bind("movedTo", movedTo);
+		}
+		int[] added = aliases.execute();
+		int[] updated = updates.execute();
+		deletes.execute();
+		for (int i = 0; i < moved.size(); i++) {
+			if (added[i] > 0 && updated[i] == 0) {
+				logger.info("podcast {} moved to {}, which is already stored as another podcast", moved.get(i).getPodcastId(), moved.get(i).getMovedTo());
+			}
+		}
+	}
+
+	boolean delete(final int podcastId) {
+		return database.execute((Handle h) -> h.createStatement(DELETE_BY_PODCAST_ID)
+				.bind("podcastId", podcastId)
+				.execute() > 0);
+	}
+
+}
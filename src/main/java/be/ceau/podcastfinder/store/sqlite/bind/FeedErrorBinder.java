@@ -30,7 +30,8 @@ public class FeedErrorBinder implements Binder<FeedError> {
 				.bind("podcastId", feederror.getPodcastId())
 				.bind("date", Timestamp.format(feederror.getDate()))
 				.bind("error", feederror.getError())
-				.bind("message", feederror.getMessage());
+				.bind("message", feederror.getMessage())
+				.bind("httpStatus", feederror.getHttpStatus() == 0 ? null : feederror.getHttpStatus());
 	}
 
 }
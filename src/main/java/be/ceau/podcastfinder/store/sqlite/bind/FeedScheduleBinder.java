@@ -0,0 +1,36 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.store.sqlite.bind;
+
+import org.skife.jdbi.v2.SQLStatement;
+
+import be.ceau.podcastfinder.model.FeedSchedule;
+import be.ceau.podcastfinder.util.Timestamp;
+
+public class FeedScheduleBinder implements Binder<FeedSchedule> {
+
+	public static final FeedScheduleBinder INSTANCE = new FeedScheduleBinder();
+
+	@Override
+	public void bind(SQLStatement<?> statement, FeedSchedule feedSchedule) {
+		statement
+				.bind("podcastId", feedSchedule.getPodcastId())
+				.bind("nextDue", Timestamp.format(feedSchedule.getNextDue()))
+				.bind("intervalSeconds", feedSchedule.getInterval().getSeconds())
+				.bind("failures", feedSchedule.getFailures());
+	}
+
+}
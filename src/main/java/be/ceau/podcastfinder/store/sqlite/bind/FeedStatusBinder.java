@@ -32,7 +32,9 @@ public class FeedStatusBinder implements Binder<FeedStatus> {
 				.bind("lastUpdate", Timestamp.format(feedStatus.getLastUpdate()))
 				.bind("items", feedStatus.getItems())
 				.bind("hash", feedStatus.getHash())
-				.bind("bytes", feedStatus.getBytes());
+				.bind("bytes", feedStatus.getBytes())
+				.bind("etag", feedStatus.getEtag())
+				.bind("lastModified", feedStatus.getLastModified());
 	}
 	
 }
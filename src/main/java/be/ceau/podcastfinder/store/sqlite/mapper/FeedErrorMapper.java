@@ -38,7 +38,8 @@ public class FeedErrorMapper implements ResultSetMapper<FeedError> {
 		LocalDateTime date = Timestamp.parseLocalDateTime(r.getString("date"));
 		String error = r.getString("error");
 		String message = r.getString("message");
-		return new FeedError(podcastId, date, error, message);
+		int httpStatus = r.getInt("httpStatus");
+		return new FeedError(podcastId, date, error, message, httpStatus);
 	}
 
 }
@@ -0,0 +1,49 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.store.sqlite.mapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+import org.skife.jdbi.v2.StatementContext;
+import org.skife.jdbi.v2.tweak.ResultSetMapper;
+
+import be.ceau.podcastfinder.model.FeedSchedule;
+import be.ceau.podcastfinder.util.Timestamp;
+
+/**
+ * {@link ResultSetMapper} for {@link FeedSchedule} instances, mapping to {@code null} if column {@code nextDue} is
+ * {@code null}
+ */
+public class FeedScheduleMapper implements ResultSetMapper<FeedSchedule> {
+
+	public static final FeedScheduleMapper INSTANCE = new FeedScheduleMapper();
+
+	@Override
+	public FeedSchedule map(int index, ResultSet r, StatementContext ctx) throws SQLException {
+		LocalDateTime nextDue = Timestamp.parseLocalDateTime(r.getString("nextDue"));
+		if (nextDue == null) {
+			return null;
+		}
+		int podcastId = r.getInt("podcastId");
+		Duration interval = Duration.ofSeconds(r.getLong("intervalSeconds"));
+		int failures = r.getInt("failures");
+		return new FeedSchedule(podcastId, nextDue, interval, failures);
+	}
+
+}
@@ -41,7 +41,9 @@ public class FeedStatusMapper implements ResultSetMapper<FeedStatus> {
 		int items = r.getInt("items");
 		int hash = r.getInt("hash");
 		int bytes = r.getInt("bytes");
-		return new FeedStatus(podcastId, date, lastUpdate, items, hash, bytes);
+		String etag = r.getString("etag");
+		String lastModified = r.getString("lastModified");
+		return new FeedStatus(podcastId, date, lastUpdate, items, hash, bytes, etag, lastModified);
 	}
 
 }
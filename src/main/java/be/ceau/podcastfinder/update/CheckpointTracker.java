@@ -0,0 +1,98 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.update;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import be.ceau.podcastfinder.model.Checkpoint;
+
+/**
+ * <p>
+ * Collects the progress of an enrich run between two commits: the {@link Checkpoint} reached by the dispatcher and the
+ * podcastIds it dispatched on the way. The {@link PipelineInserter} drains both into each commit transaction, so the
+ * durable checkpoint never runs ahead of the durable in-flight set.
+ * </p>
+ * <p>
+ * Instances are threadsafe.
+ * </p>
+ */
+class CheckpointTracker {
+
+	/**
+	 * Progress drained for a single commit
+	 */
+	static final class Progress {
+
+		final Checkpoint checkpoint;
+		final List<Integer> started;
+
+		private Progress(Checkpoint checkpoint, List<Integer> started) {
+			this.checkpoint = checkpoint;
+			this.started = started;
+		}
+
+	}
+
+	private Checkpoint checkpoint;
+	private List<Integer> started = new ArrayList<>();
+	private boolean dirty = false;
+
+	/**
+	 * Record that the feed with the given podcastId was dispatched, reaching the given {@link Checkpoint}
+	 */
+	synchronized void started(int podcastId, Checkpoint checkpoint) {
+		this.started.add(podcastId);
+		advance(checkpoint);
+	}
+
+	/**
+	 * Record that the given {@link Checkpoint} was reached without dispatching anything
+	 */
+	synchronized void advance(Checkpoint checkpoint) {
+		this.checkpoint = checkpoint;
+		this.dirty = true;
+	}
+
+	/**
+	 * @return {@code true} if there is progress that has not been drained
+	 */
+	synchronized boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * @return {@link Progress} since the previous call, never {@code null}
+	 */
+	synchronized Progress drain() {
+		Progress progress = new Progress(dirty ? checkpoint : null, started);
+		started = new ArrayList<>();
+		dirty = false;
+		return progress;
+	}
+
+	/**
+	 * Put back {@link Progress} that could not be committed, ahead of anything recorded since it was drained
+	 */
+	synchronized void restore(Progress progress) {
+		started.addAll(0, progress.started);
+		if (!dirty && progress.checkpoint != null) {
+			checkpoint = progress.checkpoint;
+			dirty = true;
+		}
+	}
+
+}
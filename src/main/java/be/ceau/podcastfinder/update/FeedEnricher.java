@@ -0,0 +1,86 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.update;
+
+import org.apache.commons.lang3.StringUtils;
+
+import be.ceau.podcastfinder.model.FeedId;
+import be.ceau.podcastfinder.model.FeedInfo;
+import be.ceau.podcastfinder.parse.FeedMetadata;
+
+/**
+ * Derives the {@link FeedInfo} of a podcast from the {@link FeedMetadata} of its feed. Shared by the download pipeline and the
+ * offline replay of archived feeds, so that both extract exactly the same metadata.
+ */
+final class FeedEnricher {
+
+	static final FeedEnricher INSTANCE = new FeedEnricher();
+
+	private FeedEnricher() {
+	}
+
+	/**
+	 * Create a new {@link FeedInfo} instance based on the given {@link FeedInfo} and the given {@link FeedMetadata}
+	 * 
+	 * @param feedInfo
+	 *            {@link FeedInfo} as currently stored, not {@code null}
+	 * @param feed
+	 *            {@link FeedMetadata} of a parsed feed, not {@code null}
+	 * @return a new {@link FeedInfo} instance, not {@code null}
+	 */
+	FeedInfo enrich(FeedInfo feedInfo, FeedMetadata feed) {
+
+		String name = StringUtils.trimToNull(feed.getTitle());
+		if (name == null || name.equals(feedInfo.getFeedId().getName())) {
+			name = feedInfo.getFeedId().getName();
+		}
+
+		FeedId feedId = new FeedId(name, feedInfo.getFeedId().getUri());
+
+		String language = StringUtils.lowerCase(StringUtils.substring(feed.getLanguage(), 0, 2));
+		if (StringUtils.isBlank(language) || language.equals(feedInfo.getLanguage())) {
+			language = feedInfo.getLanguage();
+		}
+
+		String description = getDescription(feed);
+		if (description == null || StringUtils.equals(description, feedInfo.getDescription())) {
+			description = feedInfo.getDescription();
+		}
+
+		return new FeedInfo(feedId, language, description);
+
+	}
+
+	private String getDescription(FeedMetadata feed) {
+		
+		// first choice : property summary
+		String description = StringUtils.trimToNull(feed.getSummary());
+		
+		// second choice : property description
+		if (description == null) {
+			description = StringUtils.trimToNull(feed.getDescription());
+		}
+		
+		// third choice : property subtitle
+		if (description == null) {
+			description = StringUtils.trimToNull(feed.getSubtitle());
+		}
+		
+		return description;
+
+	}
+
+}
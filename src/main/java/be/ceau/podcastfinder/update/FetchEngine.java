@@ -0,0 +1,54 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.update;
+
+import java.util.Locale;
+
+import be.ceau.podcastfinder.http.AsyncHttpFeedFetcher;
+import be.ceau.podcastfinder.http.HttpFeedFetcher;
+
+/**
+ * The ways {@link UpdatePipeline} can download feeds
+ */
+public enum FetchEngine {
+
+	/**
+	 * {@link HttpFeedFetcher} on the shared thread pool, one thread per download in flight
+	 */
+	BLOCKING,
+
+	/**
+	 * {@link AsyncHttpFeedFetcher}, thousands of downloads in flight on a handful of threads
+	 */
+	ASYNC;
+
+	/**
+	 * @param value
+	 *            name of a {@link FetchEngine}, in any case
+	 * @return the matching {@link FetchEngine}, not {@code null}
+	 * @throws IllegalArgumentException
+	 *             if there is no such {@link FetchEngine}
+	 */
+	public static FetchEngine parse(String value) {
+		for (FetchEngine engine : values()) {
+			if (engine.name().equals(value == null ? null : value.trim().toUpperCase(Locale.ROOT))) {
+				return engine;
+			}
+		}
+		throw new IllegalArgumentException(String.format("fetch engine must be blocking or async but is %s", value));
+	}
+
+}
@@ -0,0 +1,178 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.update;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.ceau.podcastfinder.model.FeedSchedule;
+import be.ceau.podcastfinder.model.PersistedFeed;
+import be.ceau.podcastfinder.store.sqlite.PodcastFinderStore;
+
+/**
+ * <p>
+ * The leases of a single worker sharing the database with other workers. Feeds are claimed in batches, the leases of
+ * all feeds not finished yet are renewed in the background, and each lease is released when the outcome of its feed is
+ * committed. A worker that dies stops renewing, and its feeds return to the pool once their leases expire.
+ * </p>
+ * <p>
+ * Instances are threadsafe.
+ * </p>
+ */
+class LeaseHolder implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(LeaseHolder.class);
+
+	static final Duration DEFAULT_LEASE_TIME = Duration.ofMinutes(10);
+
+	private final PodcastFinderStore store;
+	private final String worker;
+	private final LocalDateTime runStart;
+	private final Duration leaseTime;
+	private final Set<Integer> held = ConcurrentHashMap.newKeySet();
+	private final ScheduledExecutorService renewer;
+	private int afterPodcastId = 0;
+
+	LeaseHolder(PodcastFinderStore store) {
+		this(store, DEFAULT_LEASE_TIME);
+	}
+
+	/**
+	 * @param leaseTime
+	 *            {@link Duration} of each lease, renewed every third of it, at least one minute
+	 */
+	LeaseHolder(PodcastFinderStore store, Duration leaseTime) {
+		Objects.requireNonNull(store);
+		Objects.requireNonNull(leaseTime);
+		if (leaseTime.compareTo(Duration.ofMinutes(1)) < 0) {
+			throw new IllegalArgumentException(String.format("leaseTime must be at least one minute but is %s", leaseTime));
+		}
+		this.store = store;
+		this.worker = ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID();
+		this.runStart = LocalDateTime.now();
+		this.leaseTime = leaseTime;
+		this.renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "podcastfinder-lease-renewer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long period = leaseTime.toMillis() / 3;
+		this.renewer.scheduleAtFixedRate(this::renew, period, period, TimeUnit.MILLISECONDS);
+		logger.info("worker {} claiming feeds due at {}", worker, runStart);
+	}
+
+	String getWorker() {
+		return worker;
+	}
+
+	LocalDateTime getRunStart() {
+		return runStart;
+	}
+
+	/**
+	 * Claim the next batch of feeds. Only to be called by a single thread.
+	 * 
+	 * @return {@link List} of at most {@code limit} {@link PersistedFeed} instances, empty when nothing is left
+	 */
+	List<PersistedFeed> claim(int limit) {
+		List<PersistedFeed> claimed = store.claimFeeds(worker, runStart, afterPodcastId, leaseTime, limit);
+		for (PersistedFeed feed : claimed) {
+			held.add(feed.getPodcastId());
+			if (feed.getFeedSchedule() == null) {
+				afterPodcastId = Math.max(afterPodcastId, feed.getPodcastId());
+			}
+		}
+		return claimed;
+	}
+
+	/**
+	 * Release the leases of feeds that will not be downloaded in this run, storing their {@link FeedSchedule}, if any
+	 */
+	void release(Collection<PersistedFeed> feeds) {
+		if (feeds.isEmpty()) {
+			return;
+		}
+		List<Integer> podcastIds = new ArrayList<>(feeds.size());
+		List<FeedSchedule> schedules = new ArrayList<>(feeds.size());
+		for (PersistedFeed feed : feeds) {
+			podcastIds.add(feed.getPodcastId());
+			if (feed.getFeedSchedule() != null) {
+				schedules.add(feed.getFeedSchedule());
+			}
+		}
+		store.releaseLeases(worker, podcastIds, schedules);
+		held.removeAll(podcastIds);
+	}
+
+	/**
+	 * Record that the leases of the given feeds were released by a commit
+	 */
+	void committed(Collection<PersistedFeed> feeds) {
+		feeds.forEach(feed -> held.remove(feed.getPodcastId()));
+	}
+
+	/**
+	 * @return number of feeds claimed but not released yet
+	 */
+	int getHeldCount() {
+		return held.size();
+	}
+
+	private void renew() {
+		try {
+			List<Integer> podcastIds = new ArrayList<>(held);
+			int renewed = store.renewLeases(worker, podcastIds, leaseTime);
+			if (renewed < podcastIds.size()) {
+				// committed in the meantime, or held so long the lease expired and another worker took it
+				logger.debug("renewed {} of {} leases", renewed, podcastIds.size());
+			}
+		} catch (RuntimeException e) {
+			logger.warn("could not renew leases of worker {}", worker, e);
+		}
+	}
+
+	/**
+	 * Stop renewing, and put every feed still held back in the pool
+	 */
+	@Override
+	public void close() {
+		renewer.shutdownNow();
+		try {
+			int abandoned = store.abandonLeases(worker);
+			if (abandoned > 0) {
+				logger.info("worker {} abandoned {} leases", worker, abandoned);
+			}
+		} catch (RuntimeException e) {
+			logger.warn("could not abandon leases of worker {}, they expire within {}", worker, leaseTime, e);
+		}
+		held.clear();
+	}
+
+}
@@ -15,27 +15,34 @@
 */
 package be.ceau.podcastfinder.update;
 
+import java.net.URI;
 import java.net.UnknownHostException;
-import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
-import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
-import org.apache.commons.lang3.StringUtils;
 import org.apache.http.client.HttpResponseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import be.ceau.podcastfinder.http.AsyncHttpFeedFetcher;
+import be.ceau.podcastfinder.http.FeedResponse;
+import be.ceau.podcastfinder.http.HostUnavailableException;
 import be.ceau.podcastfinder.http.HttpFeedFetcher;
+import be.ceau.podcastfinder.http.NotAFeedException;
+import be.ceau.podcastfinder.metrics.PipelineMetrics;
 import be.ceau.podcastfinder.model.FeedError;
-import be.ceau.podcastfinder.model.FeedId;
 import be.ceau.podcastfinder.model.FeedInfo;
+import be.ceau.podcastfinder.model.FeedSchedule;
 import be.ceau.podcastfinder.model.FeedStatus;
 import be.ceau.podcastfinder.model.PersistedFeed;
-import be.ceau.podcastparser.models.core.Feed;
-import util.hash.MurmurHash3;
+import be.ceau.podcastfinder.parse.FeedMetadata;
+import be.ceau.podcastfinder.update.schedule.RefreshScheduler;
 
 /**
  * <p>
@@ -51,43 +58,175 @@ public class PipelineDownloader implements Runnable {
 	private static final Logger logger = LoggerFactory.getLogger(PipelineDownloader.class);
 
 	private final PersistedFeed persistedFeed;
-	private final Queue<PersistedFeed> queue;
+	private final BlockingQueue<PersistedFeed> queue;
 	private final HttpFeedFetcher httpFeedFetcher;
+	private final AsyncHttpFeedFetcher asyncHttpFeedFetcher;
+	private final RefreshScheduler scheduler;
+	private final PipelineMetrics metrics = PipelineMetrics.INSTANCE;
 	
-	public PipelineDownloader(PersistedFeed feed, Queue<PersistedFeed> queue, HttpFeedFetcher httpFeedFetcher) {
+	public PipelineDownloader(PersistedFeed feed, BlockingQueue<PersistedFeed> queue, HttpFeedFetcher httpFeedFetcher) {
+		this(feed, queue, httpFeedFetcher, new RefreshScheduler());
+	}
+
+	public PipelineDownloader(PersistedFeed feed, BlockingQueue<PersistedFeed> queue, HttpFeedFetcher httpFeedFetcher, RefreshScheduler scheduler) {
 		Objects.requireNonNull(feed);
 		Objects.requireNonNull(queue);
+		Objects.requireNonNull(scheduler);
 		this.persistedFeed = feed;
 		this.queue = queue;
 		this.httpFeedFetcher = httpFeedFetcher;
+		this.asyncHttpFeedFetcher = null;
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Constructor for a downloader to be started with {@link #start()} rather than run
+	 */
+	public PipelineDownloader(PersistedFeed feed, BlockingQueue<PersistedFeed> queue, AsyncHttpFeedFetcher asyncHttpFeedFetcher, RefreshScheduler scheduler) {
+		Objects.requireNonNull(feed);
+		Objects.requireNonNull(queue);
+		Objects.requireNonNull(asyncHttpFeedFetcher);
+		Objects.requireNonNull(scheduler);
+		this.persistedFeed = feed;
+		this.queue = queue;
+		this.httpFeedFetcher = null;
+		this.asyncHttpFeedFetcher = asyncHttpFeedFetcher;
+		this.scheduler = scheduler;
 	}
 	
 	@Override
 	public void run() {
-		PersistedFeed newPersistedFeed = executeLogic();
-		queue.add(newPersistedFeed);
+		if (httpFeedFetcher == null) {
+			throw new IllegalStateException("constructed with an AsyncHttpFeedFetcher, use start() instead");
+		}
+		put(executeLogic());
+	}
+
+	/**
+	 * Start downloading without blocking. Processing and queueing the result happen on
+	 * {@link be.ceau.podcastfinder.executor.TaskPool#PARSE}, waiting for room in the queue if need be.
+	 * 
+	 * @return {@link CompletableFuture} completed once the result is queued, not {@code null}
+	 */
+	public CompletableFuture<Void> start() {
+		if (asyncHttpFeedFetcher == null) {
+			throw new IllegalStateException("constructed with an HttpFeedFetcher, use run() instead");
+		}
+		FeedStatus previous = persistedFeed.getNewestFeedStatus();
+		CompletableFuture<FeedResponse> response = previous == null
+				? asyncHttpFeedFetcher.get(persistedFeed.getFeedId().getUri(), null, null)
+				: asyncHttpFeedFetcher.get(persistedFeed.getFeedId().getUri(), previous.getEtag(), previous.getLastModified());
+		return response.handle((r, e) -> {
+			put(e == null ? executeLogic(previous, r) : process(e instanceof Exception ? (Exception) e : new RuntimeException(e)));
+			return null;
+		});
+	}
+
+	private void put(PersistedFeed newPersistedFeed) {
+		try {
+			queue.put(newPersistedFeed);
+		} catch (InterruptedException e) {
+			logger.warn("interrupted, result for {} not stored", persistedFeed.getFeedId().getUri().toASCIIString());
+			Thread.currentThread().interrupt();
+		}
 	}
 	
 	private PersistedFeed executeLogic() {
+		FeedStatus previous = persistedFeed.getNewestFeedStatus();
+		FeedResponse response;
 		try {
-			Feed feed = httpFeedFetcher.get(persistedFeed.getFeedId().getUri());
-			return process(feed);
+			response = previous == null
+					? httpFeedFetcher.get(persistedFeed.getFeedId().getUri(), null, null)
+					: httpFeedFetcher.get(persistedFeed.getFeedId().getUri(), previous.getEtag(), previous.getLastModified());
 		} catch (Exception e) {
 			return process(e);
 		}
+		return executeLogic(previous, response);
 	}
 
-	private PersistedFeed process(Feed feed) throws Exception {
-		FeedInfo feedInfo = enrich(feed);
+	private PersistedFeed executeLogic(FeedStatus previous, FeedResponse response) {
+		try {
+			if (response.isNotModified() && previous != null) {
+				return process(previous, response);
+			}
+			return process(response);
+		} catch (Exception e) {
+			return process(e);
+		}
+	}
+
+	private PersistedFeed process(FeedResponse response) throws Exception {
+		metrics.feedDownloaded(response.getBytes());
+		FeedMetadata feed = response.getMetadata();
+		FeedInfo feedInfo = FeedEnricher.INSTANCE.enrich(persistedFeed.getFeedInfo(), feed);
 		PersistedFeed newPersistedFeed = new PersistedFeed(persistedFeed.getPodcastId(), feedInfo);
-		FeedStatus status = newFeedStatus(feed.toString(), feed);
+		FeedStatus status = newFeedStatus(feed, response);
+		newPersistedFeed.addFeedStatus(status);
+		// archived by the inserter once the status is committed
+		newPersistedFeed.setPayload(response.getBody(), response.getCharset());
+		newPersistedFeed.setFeedSchedule(reschedule(status));
+		newPersistedFeed.setMovedTo(getMovedTo(response));
+		return newPersistedFeed;
+	}
+
+	/**
+	 * The server confirmed that the feed did not change since {@code previous}: record that without parsing anything.
+	 */
+	private PersistedFeed process(FeedStatus previous, FeedResponse response) {
+		metrics.feedNotModified();
+		PersistedFeed newPersistedFeed = new PersistedFeed(persistedFeed.getPodcastId(), persistedFeed.getFeedInfo());
+		FeedStatus status = newUnchangedFeedStatus(previous, response);
 		newPersistedFeed.addFeedStatus(status);
+		newPersistedFeed.setFeedSchedule(reschedule(status));
+		newPersistedFeed.setMovedTo(getMovedTo(response));
 		return newPersistedFeed;
 	}
 
+	/**
+	 * @return {@link URI} the feed permanently moved to, to be downloaded from there on, or {@code null}
+	 */
+	private URI getMovedTo(FeedResponse response) {
+		URI movedTo = response.getPermanentUri();
+		if (movedTo != null) {
+			logger.info("{} moved permanently to {}", persistedFeed.getFeedId().getUri().toASCIIString(), movedTo.toASCIIString());
+		}
+		return movedTo;
+	}
+
+	/**
+	 * Schedule the next attempt from the failures counted in the current schedule, or from the full error history,
+	 * including the given new error, for a feed that has no schedule yet
+	 */
+	private FeedSchedule backoff(FeedError error) {
+		FeedSchedule schedule;
+		if (persistedFeed.getFeedSchedule() != null) {
+			schedule = scheduler.backoff(persistedFeed.getFeedSchedule(), error);
+		} else {
+			List<FeedError> errors = new ArrayList<>(persistedFeed.getFeedErrors());
+			errors.add(error);
+			schedule = scheduler.schedule(persistedFeed.getPodcastId(), persistedFeed.getFeedStatuses(), errors);
+		}
+		if (schedule.isParked()) {
+			logger.info("parking {} after repeated {}", persistedFeed.getFeedId().getUri().toASCIIString(), error.getError());
+		}
+		return schedule;
+	}
+
+	/**
+	 * Schedule the next download from the full status history, including the given new status
+	 */
+	private FeedSchedule reschedule(FeedStatus status) {
+		List<FeedStatus> history = new ArrayList<>(persistedFeed.getFeedStatuses());
+		history.add(status);
+		return scheduler.schedule(persistedFeed.getPodcastId(), history);
+	}
+
 	private PersistedFeed process(Exception e) {
+		metrics.feedFailed();
 		PersistedFeed newPersistedFeed = new PersistedFeed(persistedFeed.getPodcastId(), persistedFeed.getFeedInfo());
-		newPersistedFeed.addFeedError(newFeedError(e));
+		FeedError error = newFeedError(e);
+		newPersistedFeed.addFeedError(error);
+		newPersistedFeed.setFeedSchedule(backoff(error));
 		log(e);
 		return newPersistedFeed;
 	}
@@ -97,79 +236,40 @@ public class PipelineDownloader implements Runnable {
 			logger.error("process(Exception) {}", persistedFeed.getFeedId().getUri().toASCIIString(), e);
 		} else if (e instanceof NullPointerException) {
 			logger.error("process(Exception) {}", persistedFeed.getFeedId().getUri().toASCIIString(), e);
+		} else if (e instanceof HostUnavailableException) {
+			logger.debug("{}: {}", e.getMessage(), persistedFeed.getFeedId().getUri().toASCIIString());
 		} else if (e instanceof UnknownHostException) {
 			logger.warn("{}: {}", e.getClass().getCanonicalName(), persistedFeed.getFeedId().getUri().toASCIIString());
+		} else if (e instanceof NotAFeedException) {
+			logger.info("{}: {}", e.getMessage(), persistedFeed.getFeedId().getUri().toASCIIString());
 		} else {
 			logger.error("process(Exception) {}", persistedFeed.getFeedId().getUri().toASCIIString(), e);
 		}
 	}
 	
-	/**
-	 * Create a new {@link FeedInfo} instance based on the instance in this {@link PipelineDownloader} and the given
-	 * parsed {@link Feed}
-	 * 
-	 * @param feed
-	 *            a parsed {@link Feed}, not {@code null}
-	 * @return a new {@link FeedInfo} instance, not {@code null}
-	 */
-	private FeedInfo enrich(Feed feed) {
-
-		String name = StringUtils.trimToNull(feed.getTitle());
-		if (name == null || name.equals(persistedFeed.getFeedId().getName())) {
-			name = persistedFeed.getFeedId().getName();
-		}
-
-		FeedId feedId = new FeedId(name, persistedFeed.getFeedId().getUri());
-
-		String language = StringUtils.lowerCase(StringUtils.substring(feed.getLanguage(), 0, 2));
-		if (StringUtils.isBlank(language) || language.equals(persistedFeed.getFeedInfo().getLanguage())) {
-			language = persistedFeed.getFeedInfo().getLanguage();
-		}
-
-		String description = getDescription(feed);
-		if (description == null || StringUtils.equals(description, persistedFeed.getFeedInfo().getDescription())) {
-			description = persistedFeed.getFeedInfo().getDescription();
-		}
-
-		return new FeedInfo(feedId, language, description);
-
-	}
-
-	private String getDescription(Feed feed) {
-		
-		// first choice : property summary
-		String description = StringUtils.trimToNull(feed.getSummary());
-		
-		// second choice : property description
-		if (description == null) {
-			description = StringUtils.trimToNull(feed.getDescription() == null ? "" : feed.getDescription().getType());
-		}
-		
-		// third choice : property subtitle
-		if (description == null) {
-			description = StringUtils.trimToNull(feed.getSubtitle());
-		}
-		
-		return description;
-
-	}
-	
 	private FeedError newFeedError(Exception e) {
 		int podcastId = persistedFeed.getPodcastId();
 		LocalDateTime date = LocalDateTime.now();
 		String error = e.getClass().getCanonicalName();
 		String message = getMessage(e);
-		return new FeedError(podcastId, date, error, message);
+		int httpStatus = e instanceof HttpResponseException ? ((HttpResponseException) e).getStatusCode() : 0;
+		return new FeedError(podcastId, date, error, message, httpStatus);
 	}
 
-	private FeedStatus newFeedStatus(String xml, Feed feed) {
+	/**
+	 * Hash and size are those of the raw response body, computed while it was being parsed
+	 */
+	private FeedStatus newFeedStatus(FeedMetadata feed, FeedResponse response) {
 		int podcastId = persistedFeed.getPodcastId();
 		LocalDateTime date = LocalDateTime.now();
-		LocalDate lastUpdate = feed.getLastLocalDate();
-		int items = feed.getItems().size();
-		int hash = MurmurHash3.hash(feed.toString());
-		int bytes = xml.getBytes(StandardCharsets.UTF_8).length;
-		return new FeedStatus(podcastId, date, lastUpdate, items, hash, bytes);
+		LocalDate lastUpdate = feed.getLastUpdate();
+		int items = feed.getItems();
+		return new FeedStatus(podcastId, date, lastUpdate, items, response.getHash(), response.getBytes(), response.getEtag(), response.getLastModified());
+	}
+
+	private FeedStatus newUnchangedFeedStatus(FeedStatus previous, FeedResponse response) {
+		return new FeedStatus(previous.getPodcastId(), LocalDateTime.now(), previous.getLastUpdate(), previous.getItems(),
+				previous.getHash(), previous.getBytes(), response.getEtag(), response.getLastModified());
 	}
 
 	private static String getMessage(Exception e) {
@@ -15,55 +15,142 @@
 */
 package be.ceau.podcastfinder.update;
 
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import be.ceau.podcastfinder.metrics.PipelineMetrics;
+import be.ceau.podcastfinder.model.Checkpoint;
 import be.ceau.podcastfinder.model.PersistedFeed;
+import be.ceau.podcastfinder.model.Shard;
 import be.ceau.podcastfinder.store.sqlite.PodcastFinderStore;
+import be.ceau.podcastfinder.update.schedule.RefreshScheduler;
 
 /**
- * {@link ProducingQueue} implementation providing all {@link PersistedFeed} instances known at
+ * {@link ProducingQueue} implementation providing all {@link PersistedFeed} instances due for download at
  * instance construction.
  */
 class PipelineFillingQueue implements ProducingQueue<PersistedFeed>, AutoCloseable {
 
 	private static final Logger logger = LoggerFactory.getLogger(PipelineFillingQueue.class);
 
-	private static final int AVG_QUEUE_DEPTH = 10000;
+	static final int AVG_QUEUE_DEPTH = 10000;
 
-	private final BlockingQueue<PersistedFeed> queue = new LinkedBlockingQueue<>(AVG_QUEUE_DEPTH);
+	private final BlockingQueue<RetrieveLoop.Entry> queue = new LinkedBlockingQueue<>(AVG_QUEUE_DEPTH);
 	private final RetrieveLoop loop;
 	private final Thread loopThread;
+	private volatile boolean exhausted = false;
+	private Checkpoint checkpoint;
 
-	PipelineFillingQueue(PodcastFinderStore store) {
-		this(store, AVG_QUEUE_DEPTH);
+	PipelineFillingQueue(PodcastFinderStore store, RefreshScheduler scheduler) {
+		this(store, scheduler, Checkpoint.start(LocalDateTime.now()), Collections.emptyList());
 	}
 
-	PipelineFillingQueue(PodcastFinderStore store, int queueDepth) {
+	PipelineFillingQueue(PodcastFinderStore store, RefreshScheduler scheduler, Checkpoint start, List<Integer> inFlight) {
+		this(store, scheduler, start, inFlight, AVG_QUEUE_DEPTH);
+	}
+
+	PipelineFillingQueue(PodcastFinderStore store, RefreshScheduler scheduler, Checkpoint start, List<Integer> inFlight, int queueDepth) {
+		this(store, store, Shard.ALL, scheduler, start, inFlight, queueDepth);
+	}
+
+	/**
+	 * Provides feeds claimed through the given {@link LeaseHolder}, in batches of {@code batchSize}
+	 */
+	PipelineFillingQueue(PodcastFinderStore store, LeaseHolder leases, RefreshScheduler scheduler, int batchSize) {
+		Objects.requireNonNull(store);
+		Objects.requireNonNull(leases);
+		Objects.requireNonNull(scheduler);
+		if (batchSize < 1) {
+			throw new IllegalArgumentException(String.format("batchSize must be at least 1 but is %s", batchSize));
+		}
+		this.checkpoint = Checkpoint.start(leases.getRunStart());
+		this.loop = new RetrieveLoop(store, leases, scheduler, batchSize, queue);
+		PipelineMetrics.INSTANCE.setFillingQueueDepth(queue::size);
+		this.loopThread = new Thread(this.loop);
+		this.loopThread.start();
+	}
+
+	/**
+	 * @param store
+	 *            {@link PodcastFinderStore} to read feeds from
+	 * @param sink
+	 *            {@link PodcastFinderStore} the results of this run are written to
+	 * @param shard
+	 *            {@link Shard} to limit this run to
+	 */
+	PipelineFillingQueue(PodcastFinderStore store, PodcastFinderStore sink, Shard shard, RefreshScheduler scheduler, Checkpoint start, List<Integer> inFlight, int queueDepth) {
 		Objects.requireNonNull(store);
+		Objects.requireNonNull(sink);
+		Objects.requireNonNull(shard);
+		Objects.requireNonNull(scheduler);
+		Objects.requireNonNull(start);
+		Objects.requireNonNull(inFlight);
 		if (queueDepth < 1) {
 			throw new IllegalArgumentException(String.format("queueDepth must be at least 1 but is %s", queueDepth));
 		}
-		this.loop = new RetrieveLoop(store, queueDepth, queue);
+		this.checkpoint = start;
+		this.loop = new RetrieveLoop(store, sink, shard, scheduler, queueDepth, queue, start, inFlight);
+		PipelineMetrics.INSTANCE.setFillingQueueDepth(queue::size);
 		this.loopThread = new Thread(this.loop);
 		this.loopThread.start();
 	}
 
+	/**
+	 * Blocks until the next {@link PersistedFeed} is available. Returns {@code null} once the {@link RetrieveLoop} has
+	 * signalled the end of its stream, or has died without doing so.
+	 */
 	@Override
 	public PersistedFeed get() {
+		if (exhausted) {
+			return null;
+		}
 		try {
-			// XXX may block indefinitely if loop quits
-			return queue.take();
+			while (true) {
+				RetrieveLoop.Entry entry = queue.poll(1, TimeUnit.SECONDS);
+				if (entry == RetrieveLoop.END_OF_STREAM) {
+					exhausted = true;
+					return null;
+				}
+				if (entry != null) {
+					PipelineMetrics.INSTANCE.feedOffered();
+					checkpoint = entry.checkpoint;
+					return entry.feed;
+				}
+				if (!loopThread.isAlive() && queue.isEmpty()) {
+					logger.warn("get() RetrieveLoop stopped without signalling end of stream");
+					exhausted = true;
+					return null;
+				}
+			}
 		} catch (InterruptedException e) {
-			logger.error("get()", e);
+			logger.warn("get() interrupted");
+			Thread.currentThread().interrupt();
 			return null;
 		}
 	}
 
+	/**
+	 * @return {@link Checkpoint} reached once the feed last returned by {@link #get()} has been handled
+	 */
+	Checkpoint getCheckpoint() {
+		return checkpoint;
+	}
+
+	/**
+	 * @return {@code true} if every due feed has been returned by {@link #get()}
+	 */
+	boolean isComplete() {
+		return exhausted && loop.isCompleted();
+	}
+
 	@Override
 	public boolean isEmpty() {
 		return queue.isEmpty();
@@ -71,12 +158,13 @@ class PipelineFillingQueue implements ProducingQueue<PersistedFeed>, AutoCloseab
 
 	@Override
 	public boolean isFinished() {
-		return this.loop.finished;
+		return exhausted;
 	}
 
 	@Override
 	public void close() {
 		this.loopThread.interrupt();
+		PipelineMetrics.INSTANCE.setFillingQueueDepth(null);
 	}
 
 }
@@ -15,110 +15,288 @@
 */
 package be.ceau.podcastfinder.update;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
-import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import be.ceau.podcastfinder.archive.FeedArchive;
+import be.ceau.podcastfinder.metrics.PipelineMetrics;
 import be.ceau.podcastfinder.model.FeedError;
+import be.ceau.podcastfinder.model.FeedInfo;
 import be.ceau.podcastfinder.model.FeedStatus;
 import be.ceau.podcastfinder.model.PersistedFeed;
 import be.ceau.podcastfinder.store.sqlite.PodcastFinderStore;
 
 /**
- * Insert items from queue into database.
- * 
- * Instances are not threadsafe. Create a new instance per thread.
+ * <p>
+ * Single writer moving items from queue into database.
+ * </p>
+ * <p>
+ * The writer drains the queue in bulk and commits {@link FeedStatus}, {@link FeedError} and {@link FeedInfo} updates
+ * of a whole batch in one transaction. A batch is committed as soon as it holds {@code maxBatchSize} feeds, or when its
+ * oldest feed has waited for {@code maxLatencyMillis}, whichever comes first.
+ * </p>
+ * <p>
+ * If given a {@link CheckpointTracker}, each commit also persists the progress of the run, and progress alone is
+ * committed after {@code maxLatencyMillis} even if no feed arrived. If given a {@link LeaseHolder} instead, each commit
+ * releases the leases of the feeds in it.
+ * </p>
+ * <p>
+ * A batch that fails to commit is committed again one feed at a time, so that a single feed the database rejects does
+ * not take the rest of its batch down with it.
+ * </p>
+ * <p>
+ * If given a {@link FeedArchive}, the payload of each feed is archived once its status is committed, so that the
+ * archive holds no snapshot of a download the database does not know of.
+ * </p>
  */
-class PipelineInserter implements Runnable, AutoCloseable {
+class PipelineInserter implements AutoCloseable {
 
 	private static final Logger logger = LoggerFactory.getLogger(PipelineInserter.class);
 
-	private static final int THRESHOLD = 33;
+	private static final int DEFAULT_MAX_BATCH_SIZE = 500;
+	private static final long DEFAULT_MAX_LATENCY_MILLIS = 1000L;
+	private static final long STOP_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(50L);
 
 	private final PodcastFinderStore store;
-	private boolean stop = false;
+	private final BlockingQueue<PersistedFeed> queue;
+	private final int maxBatchSize;
+	private final long maxLatencyNanos;
+	private final CheckpointTracker tracker;
+	private final LeaseHolder leases;
+	private final FeedArchive archive;
+	private final Thread thread;
 
-	private final Queue<PersistedFeed> queue;
+	private final AtomicInteger statusCount = new AtomicInteger();
+	private final AtomicInteger errorCount = new AtomicInteger();
+	private final AtomicInteger lostFeedCount = new AtomicInteger();
+	private final PipelineMetrics metrics = PipelineMetrics.INSTANCE;
 
-	private final List<FeedStatus> statuses = new LinkedList<>();
-	private final List<FeedError> errors = new LinkedList<>();
+	private volatile boolean stop = false;
 
-	public PipelineInserter(PodcastFinderStore store, Queue<PersistedFeed> queue) {
+	public PipelineInserter(PodcastFinderStore store, BlockingQueue<PersistedFeed> queue) {
+		this(store, queue, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_LATENCY_MILLIS);
+	}
+
+	/**
+	 * @param archive
+	 *            {@link FeedArchive} to archive committed payloads in, or {@code null}
+	 */
+	public PipelineInserter(PodcastFinderStore store, BlockingQueue<PersistedFeed> queue, CheckpointTracker tracker, FeedArchive archive) {
+		this(store, queue, tracker, null, archive, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_LATENCY_MILLIS);
+	}
+
+	/**
+	 * @param archive
+	 *            {@link FeedArchive} to archive committed payloads in, or {@code null}
+	 */
+	public PipelineInserter(PodcastFinderStore store, BlockingQueue<PersistedFeed> queue, LeaseHolder leases, FeedArchive archive) {
+		this(store, queue, null, leases, archive, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_LATENCY_MILLIS);
+	}
+
+	public PipelineInserter(PodcastFinderStore store, BlockingQueue<PersistedFeed> queue, int maxBatchSize, long maxLatencyMillis) {
+		this(store, queue, null, maxBatchSize, maxLatencyMillis);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param tracker
+	 *            {@link CheckpointTracker} whose progress is committed along with each batch, or {@code null}
+	 */
+	public PipelineInserter(PodcastFinderStore store, BlockingQueue<PersistedFeed> queue, CheckpointTracker tracker, int maxBatchSize, long maxLatencyMillis) {
+		this(store, queue, tracker, null, null, maxBatchSize, maxLatencyMillis);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param tracker
+	 *            {@link CheckpointTracker} whose progress is committed along with each batch, or {@code null}
+	 * @param leases
+	 *            {@link LeaseHolder} whose leases are released by each batch, or {@code null}
+	 * @param archive
+	 *            {@link FeedArchive} to archive committed payloads in, or {@code null}
+	 */
+	public PipelineInserter(PodcastFinderStore store, BlockingQueue<PersistedFeed> queue, CheckpointTracker tracker, LeaseHolder leases, FeedArchive archive, int maxBatchSize, long maxLatencyMillis) {
 		Objects.requireNonNull(store);
 		Objects.requireNonNull(queue);
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException(String.format("maxBatchSize must be at least 1 but is %s", maxBatchSize));
+		}
+		if (maxLatencyMillis < 1) {
+			throw new IllegalArgumentException(String.format("maxLatencyMillis must be at least 1 but is %s", maxLatencyMillis));
+		}
+		if (tracker != null && leases != null) {
+			throw new IllegalArgumentException("a run is either checkpointed or leased, not both");
+		}
 		this.store = store;
 		this.queue = queue;
+		this.tracker = tracker;
+		this.leases = leases;
+		this.archive = archive;
+		this.maxBatchSize = maxBatchSize;
+		this.maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(maxLatencyMillis);
+		this.thread = new Thread(this::run, "podcastfinder-inserter");
 	}
 
-	@Override
-	public void run() {
-		while (!stop) {
-			dispatch();
-			insertAboveThreshold(THRESHOLD);
-			if (queue.isEmpty()) {
-				try {
-					Thread.sleep(100);
-				} catch (InterruptedException e) {
-					logger.warn("PipelineInserter.run() interrupted");
-					close();
-					break;
-				}
-			}
-		}
-		Thread.currentThread().interrupt();
+	/**
+	 * Start the writer thread
+	 */
+	public void start() {
+		thread.start();
 	}
 
+	/**
+	 * @return number of {@link FeedStatus} instances committed so far
+	 */
 	public int getStatusCount() {
-		return statuses.size();
+		return statusCount.get();
 	}
 
+	/**
+	 * @return number of {@link FeedError} instances committed so far
+	 */
 	public int getErrorCount() {
-		return errors.size();
+		return errorCount.get();
+	}
+
+	/**
+	 * @return number of feeds that could not be committed, not even on their own
+	 */
+	public int getLostFeedCount() {
+		return lostFeedCount.get();
 	}
 
+	/**
+	 * Signal the writer to commit whatever remains in the queue and finish. Does not wait.
+	 */
 	public void stop() {
 		stop = true;
 	}
 
+	/**
+	 * Stop the writer and wait until everything it received has been committed.
+	 */
 	@Override
 	public void close() {
-		stop = true;
-		insertAboveThreshold(0);
+		stop();
+		if (thread.isAlive()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				logger.warn("InterruptedException waiting for inserter to finish");
+				Thread.currentThread().interrupt();
+			}
+		}
 	}
 
-	private void dispatch() {
-		PersistedFeed feed = queue.poll();
-		if (feed == null) {
-			return;
+	private void run() {
+		final List<PersistedFeed> batch = new ArrayList<>(maxBatchSize);
+		long deadline = System.nanoTime() + maxLatencyNanos;
+		try {
+			while (!stop || !queue.isEmpty()) {
+				// wake up regularly, so that stop() does not wait for the deadline of a partial batch
+				long timeout = Math.min(deadline - System.nanoTime(), STOP_CHECK_NANOS);
+				PersistedFeed feed = timeout > 0 ? queue.poll(timeout, TimeUnit.NANOSECONDS) : queue.poll();
+				if (feed != null) {
+					if (batch.isEmpty()) {
+						deadline = System.nanoTime() + maxLatencyNanos;
+					}
+					batch.add(feed);
+					queue.drainTo(batch, maxBatchSize - batch.size());
+				}
+				if (batch.size() >= maxBatchSize || System.nanoTime() - deadline >= 0) {
+					// an empty batch only commits progress, if the dispatcher moved on while nothing was downloaded
+					commit(batch);
+					deadline = System.nanoTime() + maxLatencyNanos;
+				}
+			}
+		} catch (InterruptedException e) {
+			logger.warn("PipelineInserter.run() interrupted");
+			queue.drainTo(batch);
+			Thread.currentThread().interrupt();
+		} finally {
+			commit(batch);
+			if (tracker != null && tracker.isDirty()) {
+				commit(batch);
+			}
 		}
-		if (!feed.getFeedStatuses().isEmpty()) {
-			statuses.addAll(feed.getFeedStatuses());
-			store.update(feed.getPodcastId(), feed.getFeedInfo());
+	}
+
+	private void commit(List<PersistedFeed> batch) {
+		if (batch.isEmpty() && (tracker == null || !tracker.isDirty())) {
+			return;
 		}
-		if (!feed.getFeedErrors().isEmpty()) {
-			errors.addAll(feed.getFeedErrors());
+		long start = System.currentTimeMillis();
+		long startNanos = System.nanoTime();
+		// drained after the batch was formed, so it covers the dispatch of every feed in it
+		CheckpointTracker.Progress progress = tracker == null ? null : tracker.drain();
+		try {
+			store(batch, progress);
+			committed(batch);
+			metrics.getInsertBatchHistogram().recordSince(startNanos);
+			logger.trace("commit(List<PersistedFeed>) {} feeds in {} ms", batch.size(), System.currentTimeMillis() - start);
+		} catch (RuntimeException e) {
+			logger.warn("commit(List<PersistedFeed>) failed for {} feeds, committing them one by one", batch.size(), e);
+			retry(batch, progress);
+		} finally {
+			batch.clear();
 		}
 	}
 
 	/**
-	 * Move and insert all {@link FeedStatus} instances and all {@link FeedError} instances to database.
-	 * 
-	 * @param threshold
-	 *            the minimum number of statuses and errors to insert
+	 * Commit each feed of a batch that failed on its own. The progress of the run goes along with the first commit that
+	 * succeeds, or back to the {@link CheckpointTracker} if none does. A feed that still fails stays in flight in the
+	 * checkpoint, or leased until its lease expires, so that a later run downloads it again.
 	 */
-	private void insertAboveThreshold(int threshold) {
-		if (statuses.size() > threshold) {
-			store.addFeedStatuses(statuses);
-			statuses.clear();
+	private void retry(List<PersistedFeed> batch, CheckpointTracker.Progress progress) {
+		CheckpointTracker.Progress pending = progress;
+		for (PersistedFeed feed : batch) {
+			List<PersistedFeed> single = Collections.singletonList(feed);
+			try {
+				store(single, pending);
+				pending = null;
+				committed(single);
+			} catch (RuntimeException e) {
+				lostFeedCount.incrementAndGet();
+				logger.error("commit(List<PersistedFeed>) lost feed {}", feed.getPodcastId(), e);
+			}
 		}
-		if (errors.size() > threshold) {
-			store.addFeedErrors(errors);
-			errors.clear();
+		if (pending != null) {
+			tracker.restore(pending);
+		}
+	}
+
+	private void store(List<PersistedFeed> feeds, CheckpointTracker.Progress progress) {
+		if (leases != null) {
+			store.commitLeased(feeds, leases.getWorker());
+			leases.committed(feeds);
+		} else if (progress == null) {
+			store.commit(feeds);
+		} else {
+			store.commit(feeds, progress.checkpoint, progress.started);
+		}
+	}
+
+	private void committed(List<PersistedFeed> feeds) {
+		for (PersistedFeed feed : feeds) {
+			statusCount.addAndGet(feed.getFeedStatuses().size());
+			errorCount.addAndGet(feed.getFeedErrors().size());
+			FeedStatus status = feed.getNewestFeedStatus();
+			if (archive != null && feed.getPayload() != null && status != null) {
+				archive.add(feed.getPodcastId(), status.getDate(), feed.getPayload(), feed.getPayloadCharset());
+			}
+			feed.setPayload(null, null);
 		}
+		metrics.feedsCommitted(feeds.size());
 	}
 
 }
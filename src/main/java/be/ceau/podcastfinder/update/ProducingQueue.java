@@ -21,7 +21,9 @@ package be.ceau.podcastfinder.update;
 public interface ProducingQueue<T> {
 
 	/**
-	 * @return an instance or {@code null} if the queue is currently empty
+	 * Blocking retrieval of the next item.
+	 * 
+	 * @return the next instance, or {@code null} once the queue is finished and will not produce any more items
 	 */
 	public T get();
 
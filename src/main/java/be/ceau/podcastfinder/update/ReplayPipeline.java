@@ -0,0 +1,289 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.update;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import be.ceau.podcastfinder.archive.FeedArchive;
+import be.ceau.podcastfinder.model.FeedInfo;
+import be.ceau.podcastfinder.model.PersistedFeed;
+import be.ceau.podcastfinder.parse.FeedMetadata;
+import be.ceau.podcastfinder.parse.FeedMetadataParser;
+import be.ceau.podcastfinder.store.sqlite.PodcastFinderStore;
+
+/**
+ * <p>
+ * Service class for enriching podcasts again from the newest payload of each in the {@link FeedArchive} instances of
+ * this application, without any network access, so that a change to the extraction logic of {@link FeedEnricher} can
+ * be applied to every podcast at the cost of local CPU only.
+ * </p>
+ * <p>
+ * Each payload is decoded with the charset it was decoded with when downloaded. A payload archived without charset
+ * is only replayed if it is plain ASCII, which every charset a download falls back on decodes alike: replaying any
+ * other could store a decoding that differs from the live one.
+ * </p>
+ * <p>
+ * Pages of podcasts are split in chunks over a dedicated pool with one thread per processor, which parse and enrich
+ * in parallel while the next page is read. Changed {@link FeedInfo} instances are committed in batches by a
+ * {@link PipelineInserter}, as during a download run. No status, error or schedule is recorded.
+ * </p>
+ */
+public class ReplayPipeline {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReplayPipeline.class);
+
+	private static final int INSERT_QUEUE_DEPTH = 10000;
+
+	private static final int PAGE_SIZE = 5000;
+
+	/**
+	 * Number of feeds a single task of the pool replays
+	 */
+	private static final int CHUNK_SIZE = 32;
+
+	private final BlockingQueue<PersistedFeed> queue = new LinkedBlockingQueue<>(INSERT_QUEUE_DEPTH);
+	private final FeedMetadataParser parser = new FeedMetadataParser();
+	private final List<Path> archiveDirectories;
+	private final int parallelism;
+	private final AtomicInteger changed = new AtomicInteger();
+	private final AtomicInteger unchanged = new AtomicInteger();
+	private final AtomicInteger unarchived = new AtomicInteger();
+	private final AtomicInteger undecodable = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+
+	/**
+	 * Default constructor, replaying from the archive of this application and from the archive of every shard, on
+	 * every processor
+	 */
+	public ReplayPipeline() {
+		this(FeedArchive.getDirectories(), Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param archiveDirectories
+	 *            {@link List} of {@link Path} of every {@link FeedArchive} to replay from, not {@code null}
+	 * @param parallelism
+	 *            number of feeds to parse at once, greater than 0
+	 */
+	public ReplayPipeline(List<Path> archiveDirectories, int parallelism) {
+		Objects.requireNonNull(archiveDirectories);
+		if (parallelism < 1) {
+			throw new IllegalArgumentException(String.format("parallelism must be at least 1 but is %s", parallelism));
+		}
+		this.archiveDirectories = new ArrayList<>(archiveDirectories);
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Replay the newest archived payload of every podcast, across all archives, and store whatever {@link FeedInfo}
+	 * changed. Podcasts without archived payload, or with a payload that can not be decoded as it was when downloaded,
+	 * are left alone.
+	 */
+	public void reenrich() {
+		try (PodcastFinderStore store = new PodcastFinderStore()) {
+			reenrich(store);
+		}
+	}
+
+	/**
+	 * As {@link #reenrich()}, storing into the given {@link PodcastFinderStore}, which is left open
+	 */
+	void reenrich(PodcastFinderStore store) {
+		long start = System.nanoTime();
+		ExecutorService pool = Executors.newFixedThreadPool(parallelism, r -> {
+			Thread thread = new Thread(r, "podcastfinder-replay");
+			thread.setDaemon(true);
+			return thread;
+		});
+		List<FeedArchive> archives = new ArrayList<>();
+		try {
+			for (Path directory : archiveDirectories) {
+				// read-only, as an enrich run may be writing to any of them
+				archives.add(FeedArchive.openReadOnly(directory));
+			}
+			PipelineInserter inserter = new PipelineInserter(store, queue);
+			inserter.start();
+			try {
+				replayPages(store, archives, pool);
+			} finally {
+				inserter.close();
+			}
+			logger.info("replayed from {} archives in {} s: {} changed, {} unchanged, {} not archived, {} not decodable, {} failed", 
+					archives.size(), (System.nanoTime() - start) / 1000000000L, changed.get(), unchanged.get(), unarchived.get(), undecodable.get(), failed.get());
+		} finally {
+			pool.shutdownNow();
+			archives.forEach(FeedArchive::close);
+		}
+	}
+
+	/**
+	 * @return number of podcasts whose {@link FeedInfo} changed so far
+	 */
+	int getChangedCount() {
+		return changed.get();
+	}
+
+	/**
+	 * @return number of podcasts whose {@link FeedInfo} was replayed unchanged so far
+	 */
+	int getUnchangedCount() {
+		return unchanged.get();
+	}
+
+	/**
+	 * @return number of podcasts without archived payload so far
+	 */
+	int getUnarchivedCount() {
+		return unarchived.get();
+	}
+
+	/**
+	 * @return number of podcasts skipped so far as their payload was archived without charset and is not ASCII
+	 */
+	int getUndecodableCount() {
+		return undecodable.get();
+	}
+
+	private void replayPages(PodcastFinderStore store, List<FeedArchive> archives, ExecutorService pool) {
+		List<Future<?>> running = new ArrayList<>();
+		List<PersistedFeed> page;
+		int afterPodcastId = 0;
+		// read the next page while the previous one is replayed
+		while (!(page = store.getFeedInfoPage(afterPodcastId, PAGE_SIZE)).isEmpty()) {
+			List<Future<?>> next = new ArrayList<>();
+			for (int from = 0; from < page.size(); from += CHUNK_SIZE) {
+				List<PersistedFeed> chunk = page.subList(from, Math.min(from + CHUNK_SIZE, page.size()));
+				next.add(pool.submit(() -> chunk.forEach(feed -> replay(archives, feed))));
+			}
+			await(running);
+			running = next;
+			afterPodcastId = page.get(page.size() - 1).getPodcastId();
+		}
+		await(running);
+	}
+
+	private static void await(List<Future<?>> futures) {
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("interrupted while replaying", e);
+			} catch (ExecutionException e) {
+				logger.error("await(List)", e.getCause());
+			}
+		}
+	}
+
+	private void replay(List<FeedArchive> archives, PersistedFeed persistedFeed) {
+		int podcastId = persistedFeed.getPodcastId();
+		// a podcast enriched by shards over several runs can have snapshots in more than one archive
+		FeedArchive newest = null;
+		LocalDateTime date = null;
+		for (FeedArchive archive : archives) {
+			LocalDateTime d = archive.getNewestDate(podcastId);
+			if (d != null && (date == null || d.isAfter(date))) {
+				newest = archive;
+				date = d;
+			}
+		}
+		if (newest == null) {
+			unarchived.incrementAndGet();
+			return;
+		}
+		byte[] payload;
+		try {
+			payload = newest.get(podcastId, date);
+		} catch (IOException e) {
+			failed.incrementAndGet();
+			logger.error("replay(PersistedFeed) {}", podcastId, e);
+			return;
+		}
+		if (payload == null) {
+			unarchived.incrementAndGet();
+			return;
+		}
+		Charset charset = newest.getCharset(podcastId, date);
+		if (charset == null) {
+			if (!isAscii(payload)) {
+				undecodable.incrementAndGet();
+				return;
+			}
+			charset = StandardCharsets.US_ASCII;
+		}
+		FeedInfo feedInfo;
+		try {
+			FeedMetadata feed = parser.parse(payload, charset);
+			feedInfo = FeedEnricher.INSTANCE.enrich(persistedFeed.getFeedInfo(), feed);
+		} catch (Exception e) {
+			failed.incrementAndGet();
+			logger.debug("replay(PersistedFeed) {}: {}", podcastId, e.getMessage());
+			return;
+		}
+		if (!isChanged(persistedFeed.getFeedInfo(), feedInfo)) {
+			unchanged.incrementAndGet();
+			return;
+		}
+		changed.incrementAndGet();
+		try {
+			queue.put(new PersistedFeed(podcastId, feedInfo));
+		} catch (InterruptedException e) {
+			logger.warn("interrupted, result for {} not stored", podcastId);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * {@link FeedInfo#equals(Object)} only compares the {@link java.net.URI}
+	 */
+	private static boolean isChanged(FeedInfo previous, FeedInfo current) {
+		return !Objects.equals(previous.getFeedId().getName(), current.getFeedId().getName())
+				|| !Objects.equals(previous.getLanguage(), current.getLanguage())
+				|| !Objects.equals(previous.getDescription(), current.getDescription());
+	}
+
+	/**
+	 * @return {@code true} if the given payload holds 7-bit bytes only
+	 */
+	static boolean isAscii(byte[] payload) {
+		for (byte b : payload) {
+			if (b < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
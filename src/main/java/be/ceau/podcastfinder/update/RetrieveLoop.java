@@ -1,72 +1,283 @@
 package be.ceau.podcastfinder.update;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import be.ceau.podcastfinder.model.Checkpoint;
+import be.ceau.podcastfinder.model.FeedId;
+import be.ceau.podcastfinder.model.FeedInfo;
+import be.ceau.podcastfinder.model.FeedSchedule;
 import be.ceau.podcastfinder.model.PersistedFeed;
+import be.ceau.podcastfinder.model.Shard;
 import be.ceau.podcastfinder.store.sqlite.PodcastFinderStore;
+import be.ceau.podcastfinder.update.schedule.RefreshScheduler;
 
+/**
+ * Streams every stored {@link PersistedFeed} that is due for download into a queue, paging through the database by
+ * keyset. The next page is read while the current one is being handed off. Each feed is paired with the
+ * {@link Checkpoint} just after it, so that a run can be resumed.
+ */
 class RetrieveLoop implements Runnable {
 
 	private static final Logger logger = LoggerFactory.getLogger(RetrieveLoop.class);
 
+	/**
+	 * Poison pill offered to the queue after the last actual {@link PersistedFeed}. Compare by identity.
+	 */
+	static final Entry END_OF_STREAM = new Entry(new PersistedFeed(Integer.MAX_VALUE, new FeedInfo(new FeedId("", "urn:end-of-stream"), null, null)), null);
+
+	/**
+	 * A {@link PersistedFeed} and the {@link Checkpoint} reached once it has been handled
+	 */
+	static final class Entry {
+
+		final PersistedFeed feed;
+		final Checkpoint checkpoint;
+
+		Entry(PersistedFeed feed, Checkpoint checkpoint) {
+			this.feed = feed;
+			this.checkpoint = checkpoint;
+		}
+
+	}
+
 	private final PodcastFinderStore store;
-	private final BlockingQueue<PersistedFeed> queue;
-	private final int queueDepth;
-	boolean finished = false;
+	private final PodcastFinderStore sink;
+	private final Shard shard;
+	private final LeaseHolder leases;
+	private final BlockingQueue<Entry> queue;
+	private final RefreshScheduler scheduler;
+	private final int pageSize;
+	private final Checkpoint start;
+	private final List<Integer> inFlight;
+	private volatile boolean completed = false;
+
+	RetrieveLoop(PodcastFinderStore store, RefreshScheduler scheduler, int pageSize, BlockingQueue<Entry> queue) {
+		this(store, scheduler, pageSize, queue, Checkpoint.start(LocalDateTime.now()), Collections.emptyList());
+	}
+
+	/**
+	 * @param start
+	 *            {@link Checkpoint} to continue from
+	 * @param inFlight
+	 *            {@link List} of podcastIds in flight at {@code start}, offered again before anything else
+	 */
+	RetrieveLoop(PodcastFinderStore store, RefreshScheduler scheduler, int pageSize, BlockingQueue<Entry> queue, Checkpoint start, List<Integer> inFlight) {
+		this(store, store, Shard.ALL, scheduler, pageSize, queue, start, inFlight);
+	}
 
-	RetrieveLoop(PodcastFinderStore store, int queueDepth, BlockingQueue<PersistedFeed> queue) {
+	/**
+	 * @param store
+	 *            {@link PodcastFinderStore} to read feeds from
+	 * @param sink
+	 *            {@link PodcastFinderStore} to write the schedules of feeds that are not due yet to
+	 * @param shard
+	 *            {@link Shard} only feeds in this shard are offered
+	 * @param start
+	 *            {@link Checkpoint} to continue from
+	 * @param inFlight
+	 *            {@link List} of podcastIds in flight at {@code start}, offered again before anything else
+	 */
+	RetrieveLoop(PodcastFinderStore store, PodcastFinderStore sink, Shard shard, RefreshScheduler scheduler, int pageSize, BlockingQueue<Entry> queue, Checkpoint start, List<Integer> inFlight) {
+		this(store, sink, shard, null, scheduler, pageSize, queue, start, inFlight);
+	}
+
+	/**
+	 * Offers feeds claimed through the given {@link LeaseHolder}, in batches of {@code pageSize}, rather than paging
+	 * through the database. The {@link Entry} instances carry the start {@link Checkpoint}, as leases take its place.
+	 */
+	RetrieveLoop(PodcastFinderStore store, LeaseHolder leases, RefreshScheduler scheduler, int pageSize, BlockingQueue<Entry> queue) {
+		this(store, store, Shard.ALL, leases, scheduler, pageSize, queue, Checkpoint.start(leases.getRunStart()), Collections.emptyList());
+	}
+
+	private RetrieveLoop(PodcastFinderStore store, PodcastFinderStore sink, Shard shard, LeaseHolder leases, RefreshScheduler scheduler, int pageSize, BlockingQueue<Entry> queue, Checkpoint start, List<Integer> inFlight) {
 		this.store = store;
-		this.queueDepth = queueDepth;
+		this.sink = sink;
+		this.shard = shard;
+		this.leases = leases;
+		this.scheduler = scheduler;
+		this.pageSize = pageSize;
 		this.queue = queue;
+		this.start = start;
+		this.inFlight = inFlight;
+	}
+
+	/**
+	 * @return {@code true} if every due feed has been offered
+	 */
+	boolean isCompleted() {
+		return completed;
 	}
 
 	@Override
 	public void run() {
-		int iterations = determineIterationCount();
-		loop(iterations, store);
-		this.finished = true;
-		logger.debug("RetrieveLoop.run() finished");
+		ExecutorService prefetcher = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "podcastfinder-prefetch");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			loop(prefetcher);
+			completed = true;
+			logger.debug("RetrieveLoop.run() finished");
+		} catch (InterruptedException e) {
+			logger.warn("RetrieveLoop.run() interrupted");
+		} catch (ExecutionException e) {
+			logger.error("RetrieveLoop.run() could not read page", e.getCause());
+		} finally {
+			prefetcher.shutdownNow();
+			signalEndOfStream();
+		}
+	}
+
+	private void signalEndOfStream() {
+		try {
+			queue.put(END_OF_STREAM);
+		} catch (InterruptedException e) {
+			// consumer notices this thread has died
+			if (!queue.offer(END_OF_STREAM)) {
+				logger.warn("signalEndOfStream() could not offer END_OF_STREAM");
+			}
+			Thread.currentThread().interrupt();
+		}
 	}
 
-	private int determineIterationCount() {
-		int maxPodcastId = store.getMaxPodcastId();
-		int iterations = maxPodcastId / queueDepth;
-		if (maxPodcastId % queueDepth != 0) {
-			iterations++;
+	/**
+	 * Offers feeds left in flight by a previous run first, then feeds that were never scheduled, as they are the most
+	 * overdue, followed by scheduled feeds that are due, most overdue first. All phases use the {@code runStart} of the
+	 * {@link Checkpoint}, so feeds rescheduled while the run progresses are not offered twice.
+	 */
+	private void loop(ExecutorService prefetcher) throws InterruptedException, ExecutionException {
+		if (leases != null) {
+			int claimed = offerLeased();
+			logger.info("RetrieveLoop offered {} claimed feeds", claimed);
+			return;
 		}
-		return iterations;
+		int resumed = offerInFlight();
+		int unscheduled = start.isScheduled() ? 0 : offerUnscheduled(prefetcher);
+		int due = offerDue(prefetcher);
+		logger.info("RetrieveLoop offered {} resumed, {} unscheduled and {} due feeds", resumed, unscheduled, due);
 	}
 
-	private void loop(int iterations, PodcastFinderStore store) {
-		int displayedPercentage = -1;
-		int minPodcastId, maxPodcastId;
-		for (int i = 0; i < iterations; i++) {
-			minPodcastId = i * queueDepth;
-			maxPodcastId = (i + 1) * queueDepth;
-
-			store.getPersistedFeeds(minPodcastId, maxPodcastId)
-					.stream()
-					.forEach(f -> {
-						try {
-							queue.put(f);
-						} catch (InterruptedException e) {
-							logger.error("loop(int {}, PodcastFinderStore)", iterations, store, e);
-							this.finished = true;
-						}
-					});
-
-			int percentage = 0;
-			if (i > 0) {
-				percentage = (int) ((i / (double) iterations) * 100);
-				if (percentage % 5 == 0 && percentage != displayedPercentage) {
-					displayedPercentage = percentage;
-					logger.trace("PipelineFillingQueue: offered {}% of available feeds", percentage);
+	private int offerInFlight() throws InterruptedException {
+		int offered = 0;
+		for (Integer podcastId : inFlight) {
+			PersistedFeed feed = store.get(podcastId);
+			if (feed != null) {
+				if (feed.getFeedSchedule() == null) {
+					feed.setFeedSchedule(scheduler.schedule(feed));
 				}
+				queue.put(new Entry(feed, start));
+				offered++;
 			}
 		}
+		return offered;
+	}
+
+	/**
+	 * Feeds with a status history but no schedule yet were stored before scheduling existed: schedule them from their
+	 * history, and only offer those that are already due.
+	 */
+	private int offerUnscheduled(ExecutorService prefetcher) throws InterruptedException, ExecutionException {
+		final LocalDateTime now = start.getRunStart();
+		int offered = 0;
+		int deferred = 0;
+		int first = start.getAfterPodcastId();
+		CompletableFuture<List<PersistedFeed>> next = fetch(() -> store.getUnscheduledFeedPage(shard, first, pageSize), prefetcher);
+		while (next != null) {
+			List<PersistedFeed> page = next.get();
+			if (page.size() < pageSize) {
+				// short page, no more feeds after this one
+				next = null;
+			} else {
+				int after = page.get(page.size() - 1).getPodcastId();
+				next = fetch(() -> store.getUnscheduledFeedPage(shard, after, pageSize), prefetcher);
+			}
+
+			List<FeedSchedule> schedules = new ArrayList<>();
+			for (PersistedFeed feed : page) {
+				FeedSchedule schedule = scheduler.schedule(feed);
+				feed.setFeedSchedule(schedule);
+				if (RefreshScheduler.isDue(feed, now)) {
+					queue.put(new Entry(feed, start.afterUnscheduled(feed)));
+					offered++;
+				} else {
+					schedules.add(schedule);
+				}
+			}
+			if (!schedules.isEmpty()) {
+				sink.addFeedSchedules(schedules);
+				deferred += schedules.size();
+			}
+			logger.trace("RetrieveLoop: offered {} unscheduled feeds, scheduled {} for later", offered, deferred);
+		}
+		return offered;
+	}
+
+	/**
+	 * Claims batches until none are left. Unscheduled feeds are scheduled from their history as in
+	 * {@link #offerUnscheduled(ExecutorService)}, and those not due yet are released at once.
+	 */
+	private int offerLeased() throws InterruptedException {
+		final LocalDateTime now = leases.getRunStart();
+		int offered = 0;
+		List<PersistedFeed> page;
+		while (!(page = leases.claim(pageSize)).isEmpty()) {
+			List<PersistedFeed> deferred = new ArrayList<>();
+			for (PersistedFeed feed : page) {
+				if (feed.getFeedSchedule() == null) {
+					feed.setFeedSchedule(scheduler.schedule(feed));
+					if (!RefreshScheduler.isDue(feed, now)) {
+						deferred.add(feed);
+						continue;
+					}
+				}
+				queue.put(new Entry(feed, start));
+				offered++;
+			}
+			leases.release(deferred);
+			logger.trace("RetrieveLoop: offered {} claimed feeds, scheduled {} for later", offered, deferred.size());
+		}
+		return offered;
+	}
+
+	private int offerDue(ExecutorService prefetcher) throws InterruptedException, ExecutionException {
+		final LocalDateTime now = start.getRunStart();
+		int offered = 0;
+		FeedSchedule first = start.getAfterSchedule();
+		CompletableFuture<List<PersistedFeed>> next = fetch(() -> store.getDueFeedPage(shard, now, first, pageSize), prefetcher);
+		while (next != null) {
+			List<PersistedFeed> page = next.get();
+			if (page.size() < pageSize) {
+				// short page, no more feeds after this one
+				next = null;
+			} else {
+				FeedSchedule after = page.get(page.size() - 1).getFeedSchedule();
+				next = fetch(() -> store.getDueFeedPage(shard, now, after, pageSize), prefetcher);
+			}
+
+			for (PersistedFeed feed : page) {
+				queue.put(new Entry(feed, start.afterScheduled(feed)));
+			}
+			offered += page.size();
+			logger.trace("RetrieveLoop: offered {} due feeds", offered);
+		}
+		return offered;
+	}
+
+	private CompletableFuture<List<PersistedFeed>> fetch(Supplier<List<PersistedFeed>> page, ExecutorService prefetcher) {
+		return CompletableFuture.supplyAsync(page, prefetcher);
 	}
 
-}
\ No newline at end of file
+}
@@ -15,23 +15,37 @@
 */
 package be.ceau.podcastfinder.update;
 
-import java.util.LinkedList;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import be.ceau.podcastfinder.archive.FeedArchive;
 import be.ceau.podcastfinder.executor.ExecutorServiceFactory;
+import be.ceau.podcastfinder.executor.TaskPool;
+import be.ceau.podcastfinder.http.AsyncHttpFeedFetcher;
+import be.ceau.podcastfinder.http.HostCircuitBreaker;
 import be.ceau.podcastfinder.http.HttpFeedFetcher;
+import be.ceau.podcastfinder.http.ResponseLimits;
+import be.ceau.podcastfinder.metrics.MetricsReporter;
+import be.ceau.podcastfinder.metrics.PipelineMetrics;
+import be.ceau.podcastfinder.model.Checkpoint;
 import be.ceau.podcastfinder.model.PersistedFeed;
+import be.ceau.podcastfinder.model.Shard;
 import be.ceau.podcastfinder.store.sqlite.PodcastFinderStore;
 import be.ceau.podcastfinder.update.filter.NoErrorsFilter;
+import be.ceau.podcastfinder.update.schedule.RefreshScheduler;
 
 /**
  * Service class for enriching podcasts known to this application.
@@ -40,8 +54,20 @@ public class UpdatePipeline {
 
 	private static final Logger logger = LoggerFactory.getLogger(UpdatePipeline.class);
 
-	private final Queue<PersistedFeed> queue = new ConcurrentLinkedQueue<>();
+	private static final int INSERT_QUEUE_DEPTH = 10000;
+
+	/**
+	 * Number of feeds claimed at once by {@link #enrichLeased()}, small enough for other workers to get their share
+	 */
+	private static final int LEASE_BATCH_SIZE = 500;
+
+	private final BlockingQueue<PersistedFeed> queue = new LinkedBlockingQueue<>(INSERT_QUEUE_DEPTH);
 	private final Predicate<PersistedFeed> feedFilter;
+	private final RefreshScheduler scheduler;
+	private final ResponseLimits limits;
+	private final FetchEngine fetchEngine;
+	private final boolean archive;
+	private final int maxInFlight;
 
 	/**
 	 * Default constructor
@@ -58,63 +84,331 @@ public class UpdatePipeline {
 	 *            and enriching a specific feed
 	 */
 	public UpdatePipeline(Predicate<PersistedFeed> feedFilter) {
+		this(feedFilter, new RefreshScheduler());
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param feedFilter
+	 *            {@link Predicate} on {@link PersistedFeed} to decide whether to attempt downloading
+	 *            and enriching a specific feed
+	 * @param scheduler
+	 *            {@link RefreshScheduler} deciding when each feed is due for download
+	 */
+	public UpdatePipeline(Predicate<PersistedFeed> feedFilter, RefreshScheduler scheduler) {
+		this(feedFilter, scheduler, ResponseLimits.DEFAULT);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param feedFilter
+	 *            {@link Predicate} on {@link PersistedFeed} to decide whether to attempt downloading
+	 *            and enriching a specific feed
+	 * @param scheduler
+	 *            {@link RefreshScheduler} deciding when each feed is due for download
+	 * @param limits
+	 *            {@link ResponseLimits} on the size and download time of each feed
+	 */
+	public UpdatePipeline(Predicate<PersistedFeed> feedFilter, RefreshScheduler scheduler, ResponseLimits limits) {
+		this(feedFilter, scheduler, limits, FetchEngine.BLOCKING);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param feedFilter
+	 *            {@link Predicate} on {@link PersistedFeed} to decide whether to attempt downloading
+	 *            and enriching a specific feed
+	 * @param scheduler
+	 *            {@link RefreshScheduler} deciding when each feed is due for download
+	 * @param limits
+	 *            {@link ResponseLimits} on the size and download time of each feed
+	 * @param fetchEngine
+	 *            {@link FetchEngine} to download feeds with
+	 */
+	public UpdatePipeline(Predicate<PersistedFeed> feedFilter, RefreshScheduler scheduler, ResponseLimits limits, FetchEngine fetchEngine) {
+		this(feedFilter, scheduler, limits, fetchEngine, false);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param feedFilter
+	 *            {@link Predicate} on {@link PersistedFeed} to decide whether to attempt downloading
+	 *            and enriching a specific feed
+	 * @param scheduler
+	 *            {@link RefreshScheduler} deciding when each feed is due for download
+	 * @param limits
+	 *            {@link ResponseLimits} on the size and download time of each feed
+	 * @param fetchEngine
+	 *            {@link FetchEngine} to download feeds with
+	 * @param archive
+	 *            {@code true} to store the raw body of every downloaded feed in a {@link FeedArchive}
+	 */
+	public UpdatePipeline(Predicate<PersistedFeed> feedFilter, RefreshScheduler scheduler, ResponseLimits limits, FetchEngine fetchEngine, boolean archive) {
+		this(feedFilter, scheduler, limits, fetchEngine, archive, 0);
+	}
+
+	/**
+	 * As {@link #UpdatePipeline(Predicate, RefreshScheduler, ResponseLimits, FetchEngine, boolean)}, with at most
+	 * {@code maxInFlight} downloads in flight, or as many as the {@link FetchEngine} allows if {@code 0}
+	 */
+	UpdatePipeline(Predicate<PersistedFeed> feedFilter, RefreshScheduler scheduler, ResponseLimits limits, FetchEngine fetchEngine, boolean archive, int maxInFlight) {
 		Objects.requireNonNull(feedFilter);
+		Objects.requireNonNull(scheduler);
+		Objects.requireNonNull(limits);
+		Objects.requireNonNull(fetchEngine);
+		if (maxInFlight < 0) {
+			throw new IllegalArgumentException(String.format("maxInFlight must be at least 0 but is %s", maxInFlight));
+		}
 		this.feedFilter = feedFilter;
+		this.scheduler = scheduler;
+		this.limits = limits;
+		this.fetchEngine = fetchEngine;
+		this.archive = archive;
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Resume the previous run if it did not finish, otherwise start a new one.
+	 * 
+	 * @see #enrich(boolean)
+	 */
+	public void enrich() {
+		enrich(true);
 	}
 
 	/**
 	 * Start executing the following process:
 	 * <ul>
-	 * <li>retrieve all podcasts stored by this application in batches
-	 * <li>download each feed (if appropriate)
+	 * <li>retrieve all podcasts stored by this application that are due for download, in batches
+	 * <li>download each feed (if appropriate) and schedule its next download
 	 * <li>update stored podcast with any new info and store current status or feed error, if any
 	 * </ul>
+	 * <p>
+	 * Progress is checkpointed along with every commit. A run that does not finish leaves its checkpoint behind.
+	 * </p>
+	 * 
+	 * @param resume
+	 *            {@code true} to continue from the checkpoint of an unfinished run, if any, including the feeds it had
+	 *            in flight; {@code false} to discard any such checkpoint and start over
 	 */
-	public void enrich() {
-		try (PodcastFinderStore store = new PodcastFinderStore()) {
-			try (PipelineFillingQueue fillingQueue = new PipelineFillingQueue(store)) {
-				try (PipelineInserter inserter = new PipelineInserter(store, queue)) {
-
-					// start inserter
-					Thread insertThread = new Thread(inserter);
-					insertThread.start();
-
-					HttpFeedFetcher httpFeedFetcher = new HttpFeedFetcher();
-					
-					// start downloads
-					List<Future<?>> futures = new LinkedList<>();
-					while (!fillingQueue.isFinished()) {
-						while (!fillingQueue.isEmpty()) {
-							PersistedFeed feed = fillingQueue.get();
-							if (feedFilter.test(feed)) {
-								futures.add(ExecutorServiceFactory.submit(new PipelineDownloader(feed, queue, httpFeedFetcher)));
-							}
-						}
-					}
-					
-					futures.forEach(future -> {
-						try {
-							future.get();
-						} catch (InterruptedException | ExecutionException e) {
-							logger.warn("InterruptedException waiting for download task to finish");
-						}
-					});
-					
-					inserter.stop();
-					
-					try {
-						insertThread.join();
-					} catch (InterruptedException e) {
-						logger.warn("InterruptedException waiting for insertThread to finish");
-						Thread.currentThread().interrupt();
-					}
-					logger.debug("@end active threads {}", ExecutorServiceFactory.getActiveCount());
-					logger.debug("@end waiting count  {}", ExecutorServiceFactory.getWaitingCount());
-					logger.debug("@end total threads count {}", ExecutorServiceFactory.getCompletedCount());
-					logger.debug("@end errors to insert {}", inserter.getErrorCount());
-					logger.debug("@end statuses to insert {}", inserter.getStatusCount());
+	public void enrich(boolean resume) {
+		enrich(resume, Shard.ALL);
+	}
+
+	/**
+	 * As {@link #enrich(boolean)}, limited to the feeds in the given {@link Shard}. Unless the shard contains every
+	 * feed, feeds are read from the main database but all results, checkpoint included, are written to the file of the
+	 * shard, so that any number of shards can run at once, on this machine or on others holding a copy of the main
+	 * database. Each shard file must be merged into the main database with {@link PodcastFinderStore#merge(Path)}
+	 * before the next run.
+	 * 
+	 * @param resume
+	 *            {@code true} to continue from the checkpoint of an unfinished run of this shard, if any
+	 * @param shard
+	 *            {@link Shard} to enrich, not {@code null}
+	 */
+	public void enrich(boolean resume, Shard shard) {
+		Objects.requireNonNull(shard);
+		MetricsReporter reporter = new MetricsReporter();
+		try (PodcastFinderStore store = new PodcastFinderStore();
+				PodcastFinderStore sink = shard.isAll() ? new PodcastFinderStore() : PodcastFinderStore.openShardFile(PodcastFinderStore.getShardFile(shard));
+				FeedArchive feedArchive = openArchive(shard.isAll() ? FeedArchive.DEFAULT_DIRECTORY : FeedArchive.getShardDirectory(shard))) {
+			if (!shard.isAll()) {
+				logger.info("enriching shard {} into {}", shard, PodcastFinderStore.getShardFile(shard));
+			}
+			enrich(resume, shard, store, sink, feedArchive);
+		} finally {
+			// logs the summary of the whole run
+			reporter.close();
+		}
+	}
+
+	/**
+	 * As {@link #enrich(boolean, Shard)}, reading feeds from {@code store} and writing results to {@code sink}, which
+	 * are left open
+	 * 
+	 * @param feedArchive
+	 *            {@link FeedArchive} to archive downloaded feeds in, or {@code null}
+	 */
+	void enrich(boolean resume, Shard shard, PodcastFinderStore store, PodcastFinderStore sink, FeedArchive feedArchive) {
+		Checkpoint checkpoint = resume ? sink.getCheckpoint() : null;
+		List<Integer> inFlight;
+		if (checkpoint == null) {
+			checkpoint = Checkpoint.start(LocalDateTime.now());
+			inFlight = Collections.emptyList();
+			sink.startCheckpoint(checkpoint);
+		} else {
+			inFlight = sink.getInFlightPodcastIds();
+			logger.info("resuming enrich run from {} with {} feeds in flight", checkpoint, inFlight.size());
+		}
+		CheckpointTracker tracker = new CheckpointTracker();
+		try (PipelineFillingQueue fillingQueue = new PipelineFillingQueue(store, sink, shard, scheduler, checkpoint, inFlight, PipelineFillingQueue.AVG_QUEUE_DEPTH)) {
+			PipelineInserter inserter = new PipelineInserter(sink, queue, tracker, feedArchive);
+			inserter.start();
+			try {
+				download(fillingQueue, feedArchive != null,
+						feed -> tracker.started(feed.getPodcastId(), fillingQueue.getCheckpoint()),
+						feed -> tracker.advance(fillingQueue.getCheckpoint()));
+			} finally {
+				// commit everything still queued
+				inserter.close();
+			}
+			if (fillingQueue.isComplete() && inserter.getLostFeedCount() == 0) {
+				sink.clearCheckpoint();
+			} else {
+				logger.warn("enrich run did not finish, its checkpoint is kept to resume from");
+			}
+			logEnd(inserter);
+		}
+	}
+
+	/**
+	 * Enrich as one of any number of workers sharing the main database, in this process or others. Each worker claims
+	 * batches of due feeds with expiring leases, which it renews while it works and releases as it commits. A worker
+	 * that dies leaves its leases to expire, after which other workers pick up its feeds. A run ends once nothing is
+	 * left to claim, and never claims a feed another worker released since the run started.
+	 */
+	public void enrichLeased() {
+		MetricsReporter reporter = new MetricsReporter();
+		try (PodcastFinderStore store = new PodcastFinderStore();
+				LeaseHolder leases = new LeaseHolder(store);
+				FeedArchive feedArchive = openArchive(FeedArchive.DEFAULT_DIRECTORY)) {
+			try (PipelineFillingQueue fillingQueue = new PipelineFillingQueue(store, leases, scheduler, LEASE_BATCH_SIZE)) {
+				PipelineInserter inserter = new PipelineInserter(store, queue, leases, feedArchive);
+				inserter.start();
+				try {
+					download(fillingQueue, feedArchive != null,
+							feed -> {},
+							feed -> leases.release(Collections.singletonList(feed)));
+				} finally {
+					// commit everything still queued, the leases of anything lost are abandoned on close
+					inserter.close();
 				}
+				logEnd(inserter);
 			}
+		} finally {
+			reporter.close();
+		}
+	}
+
+	/**
+	 * @return {@link FeedArchive} in the given directory if this pipeline archives feeds, or {@code null} if it does
+	 *         not or if another process has the archive open
+	 */
+	private FeedArchive openArchive(Path directory) {
+		if (!archive) {
+			return null;
+		}
+		try {
+			return new FeedArchive(directory);
+		} catch (IllegalStateException e) {
+			logger.warn("not archiving feeds: {}", e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Download every feed provided by the given {@link PipelineFillingQueue} that passes the filter with the
+	 * {@link FetchEngine} of this pipeline, and wait for all downloads to finish
+	 * 
+	 * @param keepBody
+	 *            {@code true} to keep the raw body of every downloaded feed, for the {@link PipelineInserter} to archive
+	 * @param started
+	 *            {@link Consumer} called with each feed just before it is dispatched
+	 * @param skipped
+	 *            {@link Consumer} called with each feed the filter rejected
+	 */
+	private void download(PipelineFillingQueue fillingQueue, boolean keepBody, Consumer<PersistedFeed> started, Consumer<PersistedFeed> skipped) {
+		if (fetchEngine == FetchEngine.ASYNC) {
+			int maxInFlight = getMaxInFlight(Math.min(ExecutorServiceFactory.getMaxConcurrency(), AsyncHttpFeedFetcher.DEFAULT_MAX_CONNECTIONS));
+			try (AsyncHttpFeedFetcher fetcher = new AsyncHttpFeedFetcher(new HostCircuitBreaker(), limits, maxInFlight, keepBody)) {
+				logger.info("downloading with up to {} feeds in flight", maxInFlight);
+				download(fillingQueue, started, skipped, maxInFlight, (feed, downloads) -> start(new PipelineDownloader(feed, queue, fetcher, scheduler), downloads));
+			} catch (IOException e) {
+				logger.warn("IOException closing AsyncHttpFeedFetcher", e);
+			}
+		} else {
+			// never more in flight than the pool can run without queueing, nor than there are connections for
+			int maxInFlight = getMaxInFlight(ExecutorServiceFactory.getPoolSize(TaskPool.DOWNLOAD));
+			HttpFeedFetcher fetcher = new HttpFeedFetcher(new HostCircuitBreaker(), limits, Math.max(maxInFlight, HttpFeedFetcher.DEFAULT_MAX_CONNECTIONS), keepBody);
+			download(fillingQueue, started, skipped, maxInFlight, (feed, downloads) -> dispatch(new PipelineDownloader(feed, queue, fetcher, scheduler), downloads));
+		}
+	}
+
+	/**
+	 * @param maxInFlight
+	 *            maximum number of downloads in flight
+	 * @param dispatcher
+	 *            {@link BiConsumer} starting the download of a feed, which must release a permit of the given
+	 *            {@link Semaphore} once it is done
+	 */
+	private void download(PipelineFillingQueue fillingQueue, Consumer<PersistedFeed> started, Consumer<PersistedFeed> skipped,
+			int maxInFlight, BiConsumer<PersistedFeed, Semaphore> dispatcher) {
+		Semaphore downloads = new Semaphore(maxInFlight);
+		PipelineMetrics.INSTANCE.setInsertQueueDepth(queue::size);
+		PipelineMetrics.INSTANCE.setDownloadsInFlight(() -> maxInFlight - downloads.availablePermits());
+		try {
+			PersistedFeed feed;
+			while ((feed = fillingQueue.get()) != null) {
+				if (feedFilter.test(feed)) {
+					downloads.acquire();
+					started.accept(feed);
+					dispatcher.accept(feed, downloads);
+				} else {
+					skipped.accept(feed);
+				}
+			}
+			// wait for all downloads to finish
+			downloads.acquire(maxInFlight);
+		} catch (InterruptedException e) {
+			logger.warn("InterruptedException waiting for download task to finish");
+			Thread.currentThread().interrupt();
+		} finally {
+			PipelineMetrics.INSTANCE.setDownloadsInFlight(null);
+		}
+	}
+
+	/**
+	 * @return the given number of downloads the {@link FetchEngine} allows in flight, or the maximum this pipeline was
+	 *         given if lower
+	 */
+	private int getMaxInFlight(int limit) {
+		return maxInFlight == 0 ? limit : Math.min(maxInFlight, limit);
+	}
+
+	private void logEnd(PipelineInserter inserter) {
+		logger.debug("@end active threads {}", ExecutorServiceFactory.getActiveCount(TaskPool.DOWNLOAD));
+		logger.debug("@end waiting count  {}", ExecutorServiceFactory.getWaitingCount(TaskPool.DOWNLOAD));
+		logger.debug("@end total threads count {}", ExecutorServiceFactory.getCompletedCount(TaskPool.DOWNLOAD));
+		logger.debug("@end errors inserted {}", inserter.getErrorCount());
+		logger.debug("@end statuses inserted {}", inserter.getStatusCount());
+	}
+
+	private void dispatch(PipelineDownloader downloader, Semaphore inFlight) {
+		try {
+			ExecutorServiceFactory.execute(TaskPool.DOWNLOAD, () -> {
+				try {
+					downloader.run();
+				} finally {
+					inFlight.release();
+				}
+			});
+		} catch (RuntimeException e) {
+			inFlight.release();
+			throw e;
+		}
+	}
+
+	private void start(PipelineDownloader downloader, Semaphore inFlight) {
+		try {
+			downloader.start().whenComplete((result, e) -> inFlight.release());
+		} catch (RuntimeException e) {
+			inFlight.release();
+			throw e;
 		}
 	}
 
@@ -2,12 +2,28 @@ package be.ceau.podcastfinder.update.filter;
 
 import java.util.function.Predicate;
 
+import be.ceau.podcastfinder.model.FeedSchedule;
 import be.ceau.podcastfinder.model.PersistedFeed;
+import be.ceau.podcastfinder.update.schedule.BackoffPolicy;
 
+/**
+ * <p>
+ * Accepts feeds that never failed.
+ * </p>
+ * <p>
+ * Feeds that have a {@link FeedSchedule} are always accepted, errors or not: they are only offered once due, and a
+ * failing feed is only due after its {@link BackoffPolicy} says so, or never if it is parked. This filter therefore
+ * only keeps feeds without a schedule, which were never downloaded under one, from being retried after an error.
+ * </p>
+ */
 public class NoErrorsFilter implements Predicate<PersistedFeed> {
 
 	@Override
 	public boolean test(PersistedFeed feed) {
+		if (feed.getFeedSchedule() != null) {
+			// offered because its schedule, which backs off failing feeds, says it is due
+			return true;
+		}
 		return feed.getFeedErrors().isEmpty();
 	}
 
@@ -2,13 +2,29 @@ package be.ceau.podcastfinder.update.filter;
 
 import java.util.function.Predicate;
 
+import be.ceau.podcastfinder.model.FeedSchedule;
 import be.ceau.podcastfinder.model.FeedStatus;
 import be.ceau.podcastfinder.model.PersistedFeed;
+import be.ceau.podcastfinder.update.schedule.BackoffPolicy;
 
+/**
+ * <p>
+ * Accepts feeds that never failed and still lack a description, a language or a date of last update.
+ * </p>
+ * <p>
+ * Feeds that have a {@link FeedSchedule} are always accepted: they are only offered once due, and a failing feed is
+ * only due after its {@link BackoffPolicy} says so, or never if it is parked. The criteria above apply only to feeds
+ * without a schedule.
+ * </p>
+ */
 public class UpdateFilter implements Predicate<PersistedFeed> {
 
 	@Override
 	public boolean test(PersistedFeed feed) {
+		if (feed.getFeedSchedule() != null) {
+			// offered because its schedule says it is due, having backed off if it failed
+			return true;
+		}
 		if (!feed.getFeedErrors().isEmpty()) {
 			return false;
 		}
@@ -0,0 +1,239 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.update.schedule;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import be.ceau.podcastfinder.http.HostUnavailableException;
+import be.ceau.podcastfinder.http.NotAFeedException;
+import be.ceau.podcastfinder.http.ResponseTooLargeException;
+import be.ceau.podcastfinder.model.FeedError;
+import be.ceau.podcastfinder.model.FeedSchedule;
+import be.ceau.podcastfinder.model.FeedStatus;
+
+/**
+ * <p>
+ * Schedules the next download attempt of a failing feed.
+ * </p>
+ * <p>
+ * Only consecutive failures count. Their number is kept in the {@link FeedSchedule}, so each new {@link FeedError}
+ * adds one to the count of the previous schedule; feeds without a schedule yet have it counted from their errors
+ * recorded after the newest {@link FeedStatus}. The newest error determines the {@link Failure} class, which sets the
+ * base retry interval and the number of consecutive failures after which the feed is parked until unparked by hand.
+ * The retry interval doubles with each consecutive failure, up to a maximum.
+ * </p>
+ * <p>
+ * A {@link HostUnavailableException} says nothing about the feed itself: such errors are not counted, and a feed whose
+ * newest error is one is simply retried after {@link Failure#HOST_UNAVAILABLE}'s base interval.
+ * </p>
+ * <p>
+ * Instances are immutable and threadsafe.
+ * </p>
+ */
+public class BackoffPolicy {
+
+	public static final Duration DEFAULT_MAX_INTERVAL = Duration.ofDays(60);
+
+	/**
+	 * Classes of failure
+	 */
+	public enum Failure {
+
+		/**
+		 * Not attempted because the circuit for the host was open
+		 */
+		HOST_UNAVAILABLE(Duration.ofHours(1), Integer.MAX_VALUE),
+
+		/**
+		 * HTTP 404 or 410: the feed is gone
+		 */
+		GONE(Duration.ofDays(1), 5),
+
+		/**
+		 * The host name does not resolve
+		 */
+		UNKNOWN_HOST(Duration.ofDays(1), 6),
+
+		/**
+		 * Any other HTTP 4xx response, except 408 and 429, a response body over the size limit, or a response that is
+		 * not a feed at all
+		 */
+		CLIENT(Duration.ofDays(1), 8),
+
+		/**
+		 * Server errors, timeouts, connection failures, unparseable content and anything else
+		 */
+		TRANSIENT(Duration.ofHours(2), 12);
+
+		private final Duration baseInterval;
+		private final int parkAfter;
+
+		private Failure(Duration baseInterval, int parkAfter) {
+			this.baseInterval = baseInterval;
+			this.parkAfter = parkAfter;
+		}
+
+		/**
+		 * @return {@link Duration} to wait after the first failure
+		 */
+		public Duration getBaseInterval() {
+			return baseInterval;
+		}
+
+		/**
+		 * @return number of consecutive failures after which a feed is parked
+		 */
+		public int getParkAfter() {
+			return parkAfter;
+		}
+
+	}
+
+	private final Duration maxInterval;
+
+	/**
+	 * Default constructor, never waiting longer than {@link #DEFAULT_MAX_INTERVAL}
+	 */
+	public BackoffPolicy() {
+		this(DEFAULT_MAX_INTERVAL);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param maxInterval
+	 *            {@link Duration} longest interval between attempts for feeds that are not parked, not {@code null}
+	 */
+	public BackoffPolicy(Duration maxInterval) {
+		Objects.requireNonNull(maxInterval);
+		if (maxInterval.isNegative() || maxInterval.isZero()) {
+			throw new IllegalArgumentException(String.format("maxInterval must be positive but is %s", maxInterval));
+		}
+		this.maxInterval = maxInterval;
+	}
+
+	/**
+	 * @param podcastId
+	 *            {@code int} database id of the podcast
+	 * @param newestStatus
+	 *            newest {@link FeedStatus} of the podcast, or {@code null} if it was never downloaded successfully
+	 * @param errors
+	 *            {@link Collection} of every {@link FeedError} of the podcast, in any order, not {@code null}
+	 * @return new {@link FeedSchedule}, possibly parked, or {@code null} if there were no errors after
+	 *         {@code newestStatus}
+	 */
+	public FeedSchedule schedule(int podcastId, FeedStatus newestStatus, Collection<FeedError> errors) {
+		Objects.requireNonNull(errors);
+		List<FeedError> failures = errors.stream()
+				.filter(e -> newestStatus == null || e.getDate().isAfter(newestStatus.getDate()))
+				.sorted(Comparator.comparing(FeedError::getDate))
+				.collect(Collectors.toList());
+		if (failures.isEmpty()) {
+			return null;
+		}
+		FeedError newest = failures.get(failures.size() - 1);
+		failures.removeIf(e -> classify(e) == Failure.HOST_UNAVAILABLE);
+		return schedule(podcastId, failures.size(), newest);
+	}
+
+	/**
+	 * @param previous
+	 *            {@link FeedSchedule} the failed download was made under, not {@code null}
+	 * @param error
+	 *            new {@link FeedError} of the same podcast, not {@code null}
+	 * @return new {@link FeedSchedule}, possibly parked, counting one more consecutive failure than {@code previous}
+	 *         unless the host was unavailable
+	 */
+	public FeedSchedule schedule(FeedSchedule previous, FeedError error) {
+		Objects.requireNonNull(previous);
+		Objects.requireNonNull(error);
+		if (previous.getPodcastId() != error.getPodcastId()) {
+			throw new IllegalArgumentException(String.format("error must be of podcastId %s but is of %s", previous.getPodcastId(), error.getPodcastId()));
+		}
+		if (classify(error) == Failure.HOST_UNAVAILABLE) {
+			return schedule(previous.getPodcastId(), previous.getFailures(), error);
+		}
+		return schedule(previous.getPodcastId(), previous.getFailures() + 1, error);
+	}
+
+	/**
+	 * @param failures
+	 *            consecutive failures, not counting hosts that were unavailable
+	 * @param newest
+	 *            newest {@link FeedError}
+	 */
+	private FeedSchedule schedule(int podcastId, int failures, FeedError newest) {
+		Failure failure = classify(newest);
+		if (failure == Failure.HOST_UNAVAILABLE) {
+			Duration interval = failure.getBaseInterval();
+			return new FeedSchedule(podcastId, newest.getDate().plus(interval), interval, failures);
+		}
+		if (failures >= failure.getParkAfter()) {
+			return FeedSchedule.parked(podcastId, failures);
+		}
+		Duration interval = interval(failure, failures);
+		LocalDateTime nextDue = newest.getDate().plus(interval);
+		return new FeedSchedule(podcastId, nextDue, interval, failures);
+	}
+
+	/**
+	 * {@code base * 2^(failures - 1)}, capped at the maximum interval
+	 */
+	private Duration interval(Failure failure, int failures) {
+		Duration interval = failure.getBaseInterval();
+		for (int i = 1; i < failures && interval.compareTo(maxInterval) < 0; i++) {
+			interval = interval.multipliedBy(2);
+		}
+		return interval.compareTo(maxInterval) > 0 ? maxInterval : interval;
+	}
+
+	/**
+	 * @param error
+	 *            {@link FeedError}, not {@code null}
+	 * @return {@link Failure} class of the given error, never {@code null}
+	 */
+	public static Failure classify(FeedError error) {
+		if (HostUnavailableException.class.getCanonicalName().equals(error.getError())) {
+			return Failure.HOST_UNAVAILABLE;
+		}
+		if ("java.net.UnknownHostException".equals(error.getError())) {
+			return Failure.UNKNOWN_HOST;
+		}
+		if (ResponseTooLargeException.class.getCanonicalName().equals(error.getError())) {
+			// the server answers, but with more than will ever be parsed
+			return Failure.CLIENT;
+		}
+		if (NotAFeedException.class.getCanonicalName().equals(error.getError())) {
+			// typically a landing page or a parked domain, which will not turn into a feed any time soon
+			return Failure.CLIENT;
+		}
+		int status = error.getHttpStatus();
+		if (status == 404 || status == 410) {
+			return Failure.GONE;
+		}
+		if (status >= 400 && status < 500 && status != 408 && status != 429) {
+			return Failure.CLIENT;
+		}
+		return Failure.TRANSIENT;
+	}
+
+}
@@ -0,0 +1,218 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.update.schedule;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+import be.ceau.podcastfinder.model.FeedError;
+import be.ceau.podcastfinder.model.FeedSchedule;
+import be.ceau.podcastfinder.model.FeedStatus;
+import be.ceau.podcastfinder.model.PersistedFeed;
+
+/**
+ * <p>
+ * Estimates how often a feed changes from its {@link FeedStatus} history and schedules its next download accordingly.
+ * </p>
+ * <p>
+ * A change is a pair of consecutive statuses whose {@code hash} or {@code lastUpdate} differ. If changes were seen,
+ * the estimated interval is the observed span divided by the number of changes. If none were seen, the feed has been
+ * stable for at least the observed span and, according to its own {@code lastUpdate}, for at least the time since
+ * that date. Either way the interval is clamped between a minimum and a maximum, and the feed is due that long after
+ * its newest status.
+ * </p>
+ * <p>
+ * Feeds that failed since their newest status are scheduled by a {@link BackoffPolicy} instead.
+ * </p>
+ * <p>
+ * Instances are immutable and threadsafe.
+ * </p>
+ */
+public class RefreshScheduler {
+
+	public static final Duration DEFAULT_MIN_INTERVAL = Duration.ofHours(6);
+	public static final Duration DEFAULT_MAX_INTERVAL = Duration.ofDays(30);
+
+	private final Duration minInterval;
+	private final Duration maxInterval;
+	private final BackoffPolicy backoffPolicy;
+
+	/**
+	 * Default constructor, scheduling between {@link #DEFAULT_MIN_INTERVAL} and {@link #DEFAULT_MAX_INTERVAL}, and
+	 * backing off failing feeds with a default {@link BackoffPolicy}
+	 */
+	public RefreshScheduler() {
+		this(DEFAULT_MIN_INTERVAL, DEFAULT_MAX_INTERVAL);
+	}
+
+	/**
+	 * Constructor, backing off failing feeds with a default {@link BackoffPolicy}
+	 * 
+	 * @param minInterval
+	 *            {@link Duration} shortest interval between downloads of any feed, not {@code null} or negative
+	 * @param maxInterval
+	 *            {@link Duration} longest interval between downloads of any feed, not shorter than
+	 *            {@code minInterval}
+	 */
+	public RefreshScheduler(Duration minInterval, Duration maxInterval) {
+		this(minInterval, maxInterval, new BackoffPolicy());
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param minInterval
+	 *            {@link Duration} shortest interval between downloads of any feed, not {@code null} or negative
+	 * @param maxInterval
+	 *            {@link Duration} longest interval between downloads of any feed, not shorter than
+	 *            {@code minInterval}
+	 * @param backoffPolicy
+	 *            {@link BackoffPolicy} for feeds that failed since their newest status, not {@code null}
+	 */
+	public RefreshScheduler(Duration minInterval, Duration maxInterval, BackoffPolicy backoffPolicy) {
+		Objects.requireNonNull(minInterval);
+		Objects.requireNonNull(maxInterval);
+		Objects.requireNonNull(backoffPolicy);
+		if (minInterval.isNegative()) {
+			throw new IllegalArgumentException(String.format("minInterval can not be negative but is %s", minInterval));
+		}
+		if (maxInterval.compareTo(minInterval) < 0) {
+			throw new IllegalArgumentException(String.format("maxInterval %s is shorter than minInterval %s", maxInterval, minInterval));
+		}
+		this.minInterval = minInterval;
+		this.maxInterval = maxInterval;
+		this.backoffPolicy = backoffPolicy;
+	}
+
+	/**
+	 * @param feed
+	 *            {@link PersistedFeed} with its full {@link FeedStatus} and {@link FeedError} history, not
+	 *            {@code null}
+	 * @return new {@link FeedSchedule}, or {@code null} if the feed was never downloaded
+	 */
+	public FeedSchedule schedule(PersistedFeed feed) {
+		return schedule(feed.getPodcastId(), feed.getFeedStatuses(), feed.getFeedErrors());
+	}
+
+	/**
+	 * @param podcastId
+	 *            {@code int} database id of the podcast
+	 * @param statuses
+	 *            {@link Collection} of every {@link FeedStatus} of the podcast, in any order, not {@code null}
+	 * @param errors
+	 *            {@link Collection} of every {@link FeedError} of the podcast, in any order, not {@code null}
+	 * @return new {@link FeedSchedule}, or {@code null} if both {@code statuses} and {@code errors} are empty
+	 */
+	public FeedSchedule schedule(int podcastId, Collection<FeedStatus> statuses, Collection<FeedError> errors) {
+		FeedStatus newest = statuses.stream().max(Comparator.comparing(FeedStatus::getDate)).orElse(null);
+		FeedSchedule backoff = backoffPolicy.schedule(podcastId, newest, errors);
+		if (backoff != null) {
+			return backoff;
+		}
+		return schedule(podcastId, statuses);
+	}
+
+	/**
+	 * @param previous
+	 *            {@link FeedSchedule} the failed download was made under, not {@code null}
+	 * @param error
+	 *            new {@link FeedError} of the same podcast, not {@code null}
+	 * @return new {@link FeedSchedule} backing off from {@code previous}, possibly parked
+	 */
+	public FeedSchedule backoff(FeedSchedule previous, FeedError error) {
+		return backoffPolicy.schedule(previous, error);
+	}
+
+	/**
+	 * @param podcastId
+	 *            {@code int} database id of the podcast
+	 * @param statuses
+	 *            {@link Collection} of every {@link FeedStatus} of the podcast, in any order, not {@code null}
+	 * @return new {@link FeedSchedule} ignoring any errors, or {@code null} if {@code statuses} is empty
+	 */
+	public FeedSchedule schedule(int podcastId, Collection<FeedStatus> statuses) {
+		if (statuses.isEmpty()) {
+			return null;
+		}
+		List<FeedStatus> history = new ArrayList<>(statuses);
+		history.sort(Comparator.comparing(FeedStatus::getDate));
+
+		int changes = 0;
+		for (int i = 1; i < history.size(); i++) {
+			if (isChange(history.get(i - 1), history.get(i))) {
+				changes++;
+			}
+		}
+
+		FeedStatus newest = history.get(history.size() - 1);
+		Duration span = Duration.between(history.get(0).getDate(), newest.getDate());
+
+		Duration estimate;
+		if (changes > 0) {
+			estimate = span.dividedBy(changes);
+		} else {
+			estimate = span;
+			LocalDate lastUpdate = newest.getLastUpdate();
+			if (lastUpdate != null) {
+				Duration stable = Duration.between(lastUpdate.atStartOfDay(), newest.getDate());
+				if (stable.compareTo(estimate) > 0) {
+					estimate = stable;
+				}
+			}
+		}
+
+		Duration interval = clamp(estimate);
+		return new FeedSchedule(podcastId, newest.getDate().plus(interval), interval);
+	}
+
+	/**
+	 * A {@code hash} of {@code 0} was stored before hashes were recorded, and can not be compared.
+	 */
+	private static boolean isChange(FeedStatus previous, FeedStatus next) {
+		if (previous.getHash() != 0 && next.getHash() != 0 && previous.getHash() != next.getHash()) {
+			return true;
+		}
+		return !Objects.equals(previous.getLastUpdate(), next.getLastUpdate());
+	}
+
+	private Duration clamp(Duration estimate) {
+		if (estimate.compareTo(minInterval) < 0) {
+			return minInterval;
+		}
+		if (estimate.compareTo(maxInterval) > 0) {
+			return maxInterval;
+		}
+		return estimate;
+	}
+
+	/**
+	 * @param feed
+	 *            {@link PersistedFeed}, not {@code null}
+	 * @param now
+	 *            {@link LocalDateTime} to compare with, not {@code null}
+	 * @return {@code true} if the given feed is unscheduled or its {@link FeedSchedule} is due at {@code now}
+	 */
+	public static boolean isDue(PersistedFeed feed, LocalDateTime now) {
+		return feed.getFeedSchedule() == null || feed.getFeedSchedule().isDue(now);
+	}
+
+}
@@ -21,11 +21,13 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import be.ceau.podcastfinder.executor.ExecutorServiceFactory;
+import be.ceau.podcastfinder.executor.TaskPool;
 import be.ceau.podcastfinder.http.HttpStringFetcher;
 
 /**
@@ -57,12 +59,21 @@ public class LocalLinkSaver {
 		new SavingRunnable(path, uri, httpStringFetcher).run();
 	}
 
+	/**
+	 * Download the given URIs on {@link TaskPool#DOWNLOAD} and write them on {@link TaskPool#DISK}, waiting until all
+	 * are done
+	 */
 	public void save(Collection<URI> uris) {
-		uris.stream()
+		CompletableFuture<?>[] saves = uris.stream()
 				.map(uri -> new SavingRunnable(path, uri, httpStringFetcher))
-				.forEach(ExecutorServiceFactory::submit);
-		ExecutorServiceFactory.await();
-		return;
+				.map(saver -> CompletableFuture.supplyAsync(saver::fetch, ExecutorServiceFactory.getExecutor(TaskPool.DOWNLOAD))
+						.thenAcceptAsync(xml -> {
+							if (xml != null) {
+								saver.write(xml);
+							}
+						}, ExecutorServiceFactory.getExecutor(TaskPool.DISK)))
+				.toArray(CompletableFuture<?>[]::new);
+		CompletableFuture.allOf(saves).join();
 	}
 
 }
@@ -27,17 +27,38 @@ class SavingRunnable implements Runnable {
 
 	@Override
 	public void run() {
-		String fileName = toFileName();
-		Path file = path.resolve(fileName);
-		if (Files.exists(file)) {
-			return;
+		String xml = fetch();
+		if (xml != null) {
+			write(xml);
+		}
+	}
+
+	/**
+	 * @return contents of the {@link URI}, or {@code null} if it was saved before or could not be retrieved
+	 */
+	String fetch() {
+		if (Files.exists(path.resolve(toFileName()))) {
+			return null;
+		}
+		try {
+			return httpStringFetcher.get(uri);
+		} catch (Exception e) {
+			logger.error("fetch() {}", toFileName(), e);
+			return null;
 		}
+	}
+
+	/**
+	 * @param xml
+	 *            contents of the {@link URI}, not {@code null}
+	 */
+	void write(String xml) {
+		String fileName = toFileName();
 		try {
-			String xml = httpStringFetcher.get(uri);
-			file = Files.createFile(file);
+			Path file = Files.createFile(path.resolve(fileName));
 			Files.write(file, xml.getBytes(StandardCharsets.UTF_8));
 		} catch (Exception e) {
-			logger.error("run() {}", fileName, e);
+			logger.error("write(String) {}", fileName, e);
 		}
 	}
 
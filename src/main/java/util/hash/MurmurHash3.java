@@ -1,5 +1,8 @@
 package util.hash;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
  * <p>
  * The MurmurHash3 algorithm was created by Austin Appleby and placed in the public domain. This java port was authored
@@ -29,6 +32,341 @@ public final class MurmurHash3 {
 		return MurmurHash3.murmurhash3_x86_32(s, 0, s.length(), SEED);
 	}
 
+	/**
+	 * @return a new {@link Hasher32} using the same seed as {@link #hash(String)}
+	 */
+	public static Hasher32 newHasher32() {
+		return new Hasher32(SEED);
+	}
+
+	/**
+	 * @return a new {@link Hasher128} using the same seed as {@link #hash(String)}
+	 */
+	public static Hasher128 newHasher128() {
+		return new Hasher128(SEED);
+	}
+
+	/**
+	 * <p>
+	 * Incremental MurmurHash3_x86_32 over a stream of bytes. Feeding the UTF-8 bytes of a String produces the same
+	 * value as {@link #murmurhash3_x86_32(CharSequence, int, int, int)} with the same seed, regardless of how the input
+	 * is split across calls to {@code update}.
+	 * </p>
+	 * <p>
+	 * Whole 4 byte blocks are read as little endian ints straight from the input; only a block split across two
+	 * updates is assembled byte by byte.
+	 * </p>
+	 * <p>
+	 * Instances are not threadsafe.
+	 * </p>
+	 */
+	public static final class Hasher32 {
+
+		private static final int C1 = 0xcc9e2d51;
+		private static final int C2 = 0x1b873593;
+
+		private final byte[] tail = new byte[4];
+		private int tailLength = 0;
+		private int h1;
+		private long length = 0;
+
+		public Hasher32(int seed) {
+			this.h1 = seed;
+		}
+
+		public Hasher32 update(byte b) {
+			length++;
+			tail[tailLength++] = b;
+			if (tailLength == 4) {
+				mix(getIntLittleEndian(tail, 0));
+				tailLength = 0;
+			}
+			return this;
+		}
+
+		public Hasher32 update(byte[] data, int offset, int len) {
+			if (offset < 0 || len < 0 || len > data.length - offset) {
+				throw new IndexOutOfBoundsException(String.format("offset %s and length %s out of bounds for array of length %s", offset, len, data.length));
+			}
+			length += len;
+			int pos = offset;
+			int end = offset + len;
+			while (tailLength > 0 && pos < end) {
+				tail[tailLength++] = data[pos++];
+				if (tailLength == 4) {
+					mix(getIntLittleEndian(tail, 0));
+					tailLength = 0;
+				}
+			}
+			if (end - pos >= 4) {
+				ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+				int roundedEnd = pos + ((end - pos) & 0xFFFFFFFC); // round down to 4 byte block
+				for (; pos < roundedEnd; pos += 4) {
+					mix(buffer.getInt(pos));
+				}
+			}
+			while (pos < end) {
+				tail[tailLength++] = data[pos++];
+			}
+			return this;
+		}
+
+		/**
+		 * Hash the remaining bytes of the given buffer. On return, the buffer's position equals its limit.
+		 * 
+		 * @param data
+		 *            heap or direct {@link ByteBuffer}, not {@code null}
+		 * @return this instance
+		 */
+		public Hasher32 update(ByteBuffer data) {
+			ByteBuffer buffer = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+			length += buffer.remaining();
+			while (tailLength > 0 && buffer.hasRemaining()) {
+				tail[tailLength++] = buffer.get();
+				if (tailLength == 4) {
+					mix(getIntLittleEndian(tail, 0));
+					tailLength = 0;
+				}
+			}
+			while (buffer.remaining() >= 4) {
+				mix(buffer.getInt());
+			}
+			while (buffer.hasRemaining()) {
+				tail[tailLength++] = buffer.get();
+			}
+			data.position(data.limit());
+			return this;
+		}
+
+		private void mix(int k1) {
+			k1 *= C1;
+			k1 = (k1 << 15) | (k1 >>> 17); // ROTL32(k1,15);
+			k1 *= C2;
+
+			h1 ^= k1;
+			h1 = (h1 << 13) | (h1 >>> 19); // ROTL32(h1,13);
+			h1 = h1 * 5 + 0xe6546b64;
+		}
+
+		/**
+		 * @return number of bytes hashed so far
+		 */
+		public long length() {
+			return length;
+		}
+
+		/**
+		 * Compute the hash of all bytes passed so far. Does not modify the state of this instance.
+		 * 
+		 * @return {@code int} hash
+		 */
+		public int finish() {
+			int h = h1;
+			// handle tail
+			if (tailLength > 0) {
+				int k = 0;
+				for (int i = tailLength - 1; i >= 0; i--) {
+					k = (k << 8) | (tail[i] & 0xff);
+				}
+				k *= C1;
+				k = (k << 15) | (k >>> 17); // ROTL32(k1,15);
+				k *= C2;
+				h ^= k;
+			}
+
+			// finalization
+			h ^= (int) length;
+
+			// fmix(h1);
+			h ^= h >>> 16;
+			h *= 0x85ebca6b;
+			h ^= h >>> 13;
+			h *= 0xc2b2ae35;
+			h ^= h >>> 16;
+
+			return h;
+		}
+
+	}
+
+	/**
+	 * <p>
+	 * Incremental MurmurHash3_x64_128 over a stream of bytes. Produces the same value as
+	 * {@link #murmurhash3_x64_128(byte[], int, int, int, LongPair)} over the concatenation of all input, regardless of
+	 * how the input is split across calls to {@code update}.
+	 * </p>
+	 * <p>
+	 * Instances are not threadsafe.
+	 * </p>
+	 */
+	public static final class Hasher128 {
+
+		private static final long C1 = 0x87c37b91114253d5L;
+		private static final long C2 = 0x4cf5ad432745937fL;
+
+		private final byte[] tail = new byte[16];
+		private int tailLength = 0;
+		private long h1;
+		private long h2;
+		private long length = 0;
+
+		public Hasher128(int seed) {
+			// mask to match the behavior of the unsigned seed of the original algorithm
+			this.h1 = seed & 0x00000000FFFFFFFFL;
+			this.h2 = seed & 0x00000000FFFFFFFFL;
+		}
+
+		public Hasher128 update(byte b) {
+			length++;
+			tail[tailLength++] = b;
+			if (tailLength == 16) {
+				mix(getLongLittleEndian(tail, 0), getLongLittleEndian(tail, 8));
+				tailLength = 0;
+			}
+			return this;
+		}
+
+		public Hasher128 update(byte[] data, int offset, int len) {
+			if (offset < 0 || len < 0 || len > data.length - offset) {
+				throw new IndexOutOfBoundsException(String.format("offset %s and length %s out of bounds for array of length %s", offset, len, data.length));
+			}
+			length += len;
+			int pos = offset;
+			int end = offset + len;
+			while (tailLength > 0 && pos < end) {
+				tail[tailLength++] = data[pos++];
+				if (tailLength == 16) {
+					mix(getLongLittleEndian(tail, 0), getLongLittleEndian(tail, 8));
+					tailLength = 0;
+				}
+			}
+			if (end - pos >= 16) {
+				ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+				int roundedEnd = pos + ((end - pos) & 0xFFFFFFF0); // round down to 16 byte block
+				for (; pos < roundedEnd; pos += 16) {
+					mix(buffer.getLong(pos), buffer.getLong(pos + 8));
+				}
+			}
+			while (pos < end) {
+				tail[tailLength++] = data[pos++];
+			}
+			return this;
+		}
+
+		/**
+		 * Hash the remaining bytes of the given buffer. On return, the buffer's position equals its limit.
+		 * 
+		 * @param data
+		 *            heap or direct {@link ByteBuffer}, not {@code null}
+		 * @return this instance
+		 */
+		public Hasher128 update(ByteBuffer data) {
+			ByteBuffer buffer = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+			length += buffer.remaining();
+			while (tailLength > 0 && buffer.hasRemaining()) {
+				tail[tailLength++] = buffer.get();
+				if (tailLength == 16) {
+					mix(getLongLittleEndian(tail, 0), getLongLittleEndian(tail, 8));
+					tailLength = 0;
+				}
+			}
+			while (buffer.remaining() >= 16) {
+				mix(buffer.getLong(), buffer.getLong());
+			}
+			while (buffer.hasRemaining()) {
+				tail[tailLength++] = buffer.get();
+			}
+			data.position(data.limit());
+			return this;
+		}
+
+		private void mix(long k1, long k2) {
+			k1 *= C1;
+			k1 = Long.rotateLeft(k1, 31);
+			k1 *= C2;
+			h1 ^= k1;
+			h1 = Long.rotateLeft(h1, 27);
+			h1 += h2;
+			h1 = h1 * 5 + 0x52dce729;
+			k2 *= C2;
+			k2 = Long.rotateLeft(k2, 33);
+			k2 *= C1;
+			h2 ^= k2;
+			h2 = Long.rotateLeft(h2, 31);
+			h2 += h1;
+			h2 = h2 * 5 + 0x38495ab5;
+		}
+
+		/**
+		 * @return number of bytes hashed so far
+		 */
+		public long length() {
+			return length;
+		}
+
+		/**
+		 * Compute the hash of all bytes passed so far. Does not modify the state of this instance.
+		 * 
+		 * @return new {@link LongPair} holding the 128 bit hash
+		 */
+		public LongPair finish() {
+			LongPair out = new LongPair();
+			finish(out);
+			return out;
+		}
+
+		/**
+		 * Compute the hash of all bytes passed so far, placing the result in "out". Does not modify the state of this
+		 * instance.
+		 * 
+		 * @param out
+		 *            {@link LongPair} to receive the result
+		 */
+		public void finish(LongPair out) {
+			long a = h1;
+			long b = h2;
+
+			// handle tail
+			if (tailLength > 8) {
+				long k2 = 0;
+				for (int i = tailLength - 1; i >= 8; i--) {
+					k2 = (k2 << 8) | (tail[i] & 0xffL);
+				}
+				k2 *= C2;
+				k2 = Long.rotateLeft(k2, 33);
+				k2 *= C1;
+				b ^= k2;
+			}
+			if (tailLength > 0) {
+				long k1 = 0;
+				for (int i = Math.min(tailLength, 8) - 1; i >= 0; i--) {
+					k1 = (k1 << 8) | (tail[i] & 0xffL);
+				}
+				k1 *= C1;
+				k1 = Long.rotateLeft(k1, 31);
+				k1 *= C2;
+				a ^= k1;
+			}
+
+			// finalization
+			a ^= length;
+			b ^= length;
+
+			a += b;
+			b += a;
+
+			a = fmix64(a);
+			b = fmix64(b);
+
+			a += b;
+			b += a;
+
+			out.val1 = a;
+			out.val2 = b;
+		}
+
+	}
+
 	/**
 	 * 128 bits of state
 	 */
@@ -46,6 +384,14 @@ public final class MurmurHash3 {
 		return k;
 	}
 
+	/**
+	 * Gets an int from a byte buffer in little endian byte order.
+	 */
+	public static final int getIntLittleEndian(byte[] buf, int offset) {
+		return (buf[offset + 3] << 24) // no mask needed
+				| ((buf[offset + 2] & 0xff) << 16) | ((buf[offset + 1] & 0xff) << 8) | (buf[offset] & 0xff);
+	}
+
 	/**
 	 * Gets a long from a byte buffer in little endian byte order.
 	 */
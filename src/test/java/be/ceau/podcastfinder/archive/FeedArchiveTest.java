@@ -0,0 +1,128 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.archive;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FeedArchiveTest {
+
+	private static final LocalDateTime DATE = LocalDateTime.of(2024, 3, 1, 12, 0, 0);
+
+	private static final byte[] PAYLOAD = "<rss><channel><title>feed</title></channel></rss>".getBytes(StandardCharsets.UTF_8);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void storesEachPayloadOnce() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		try (FeedArchive archive = new FeedArchive(directory)) {
+			archive.add(1, DATE, PAYLOAD, StandardCharsets.UTF_8);
+			archive.add(1, DATE.plusDays(1), PAYLOAD, StandardCharsets.UTF_8);
+			archive.add(2, DATE, PAYLOAD, StandardCharsets.UTF_8);
+			Assert.assertArrayEquals(PAYLOAD, archive.get(1, DATE));
+			Assert.assertArrayEquals(PAYLOAD, archive.getNewest(2));
+			Assert.assertEquals(Arrays.asList(DATE, DATE.plusDays(1)), archive.getDates(1));
+			Assert.assertNull(archive.getNewest(3));
+		}
+		long size = Files.size(directory.resolve(PackFile.getFileName(0)));
+		Assert.assertTrue(size > 0 && size < PAYLOAD.length);
+	}
+
+	@Test
+	public void dropsPayloadsThatWereNeverIndexed() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		try (FeedArchive archive = new FeedArchive(directory)) {
+			archive.add(1, DATE, PAYLOAD, StandardCharsets.UTF_8);
+		}
+		Path pack = directory.resolve(PackFile.getFileName(0));
+		long size = Files.size(pack);
+		Files.write(pack, new byte[] { 1, 2, 3 }, StandardOpenOption.APPEND);
+		try (FeedArchive archive = new FeedArchive(directory)) {
+			Assert.assertEquals(size, Files.size(pack));
+			archive.add(2, DATE, "<rss/>".getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+			Assert.assertArrayEquals(PAYLOAD, archive.get(1, DATE));
+			Assert.assertEquals("<rss/>", new String(archive.get(2, DATE), StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	public void keepsCharsetOfEachSnapshot() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		try (FeedArchive archive = new FeedArchive(directory)) {
+			archive.add(1, DATE, PAYLOAD, StandardCharsets.ISO_8859_1);
+			archive.add(1, DATE.plusDays(1), PAYLOAD, null);
+		}
+		try (FeedArchive archive = new FeedArchive(directory)) {
+			Assert.assertEquals(StandardCharsets.ISO_8859_1, archive.getCharset(1, DATE));
+			Assert.assertNull(archive.getCharset(1, DATE.plusDays(1)));
+			Assert.assertNull(archive.getCharset(2, DATE));
+			Assert.assertEquals(DATE.plusDays(1), archive.getNewestDate(1));
+			Assert.assertNull(archive.getNewestDate(2));
+		}
+	}
+
+	@Test
+	public void readsAlongsideWriterWithoutTouchingFiles() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		try (FeedArchive writer = new FeedArchive(directory)) {
+			writer.add(1, DATE, PAYLOAD, StandardCharsets.UTF_8);
+			Assert.assertEquals(DATE, writer.getNewestDate(1));
+			Path pack = directory.resolve(PackFile.getFileName(0));
+			// as left by a payload the writer is appending but has not indexed yet
+			Files.write(pack, new byte[] { 1, 2, 3 }, StandardOpenOption.APPEND);
+			long size = Files.size(pack);
+			try (FeedArchive reader = FeedArchive.openReadOnly(directory)) {
+				Assert.assertArrayEquals(PAYLOAD, reader.getNewest(1));
+				Assert.assertEquals(StandardCharsets.UTF_8, reader.getCharset(1, DATE));
+				try {
+					reader.add(2, DATE, PAYLOAD, null);
+					Assert.fail("added to a read-only archive");
+				} catch (IllegalStateException e) {
+					// expected
+				}
+			}
+			Assert.assertEquals(size, Files.size(pack));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void readOnlyNeedsAnArchive() {
+		FeedArchive.openReadOnly(folder.getRoot().toPath());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void onlyOneInstancePerDirectory() {
+		FeedArchive archive = new FeedArchive(folder.getRoot().toPath());
+		try {
+			new FeedArchive(folder.getRoot().toPath());
+		} finally {
+			archive.close();
+		}
+	}
+
+}
@@ -26,4 +26,12 @@ public class PodcastFinderClTest {
     	Assert.assertNotEquals("opml", arguments.getExport());
    }
 
+    @Test
+    public void reenrichAloneIsActive() {
+    	String[] args = new String[] {"--reenrich"};
+    	PodcastfinderArguments arguments = CommandLine.populateCommand(new PodcastfinderArguments(), args);
+    	Assert.assertTrue(arguments.isReenrich());
+    	Assert.assertTrue(arguments.isActive());
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,94 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.executor;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExecutorServiceFactoryTest {
+
+	@Test
+	public void saturatedDownloadPoolRunsOnCaller() throws InterruptedException {
+		ExecutorService executor = ExecutorServiceFactory.create(TaskPool.DOWNLOAD, false, 1);
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			executor.execute(() -> await(release));
+			executor.execute(() -> await(release));
+			Set<Thread> threads = Collections.synchronizedSet(new HashSet<>());
+			executor.execute(() -> threads.add(Thread.currentThread()));
+			Assert.assertEquals(Collections.singleton(Thread.currentThread()), threads);
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void parsePoolQueuesRatherThanRunOnCaller() throws InterruptedException {
+		ExecutorService executor = ExecutorServiceFactory.create(TaskPool.PARSE, false, 1);
+		int tasks = TaskPool.PARSE.getDefaultSize() * 2 + 1;
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch finished = new CountDownLatch(tasks);
+		Set<String> names = Collections.synchronizedSet(new HashSet<>());
+		try {
+			for (int i = 0; i < tasks; i++) {
+				executor.execute(() -> {
+					await(release);
+					names.add(Thread.currentThread().getName());
+					finished.countDown();
+				});
+			}
+			release.countDown();
+			Assert.assertTrue(finished.await(10, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdown();
+		}
+		Assert.assertEquals(TaskPool.PARSE.getDefaultSize(), names.size());
+		for (String name : names) {
+			Assert.assertTrue(name, name.startsWith("podcastfinder-parse-thread-"));
+		}
+	}
+
+	@Test
+	public void downloadPoolSizeIsCappedByMaxConcurrency() {
+		ExecutorService small = ExecutorServiceFactory.create(TaskPool.DOWNLOAD, false, 10);
+		ExecutorService large = ExecutorServiceFactory.create(TaskPool.DOWNLOAD, false, 1000);
+		try {
+			Assert.assertEquals(10, ((ThreadPoolExecutor) small).getMaximumPoolSize());
+			Assert.assertEquals(TaskPool.DOWNLOAD.getDefaultSize(), ((ThreadPoolExecutor) large).getMaximumPoolSize());
+		} finally {
+			small.shutdown();
+			large.shutdown();
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.executor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class VirtualThreadExecutorTest {
+
+	@Test
+	public void blocksSubmitterWhileMaxConcurrencyRuns() throws InterruptedException {
+		VirtualThreadExecutor executor = new VirtualThreadExecutor(Executors.defaultThreadFactory(), 2);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch finished = new CountDownLatch(3);
+		Runnable task = () -> {
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			finished.countDown();
+		};
+		executor.execute(task);
+		executor.execute(task);
+		Thread submitter = new Thread(() -> executor.execute(task));
+		submitter.start();
+		for (int i = 0; i < 100 && executor.getWaitingCount() == 0; i++) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(2, executor.getActiveCount());
+		Assert.assertEquals(1, executor.getWaitingCount());
+
+		release.countDown();
+		Assert.assertTrue(finished.await(10, TimeUnit.SECONDS));
+		submitter.join();
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		Assert.assertEquals(3, executor.getCompletedTaskCount());
+	}
+
+	@Test(expected = RejectedExecutionException.class)
+	public void rejectsAfterShutdown() {
+		VirtualThreadExecutor executor = new VirtualThreadExecutor(Executors.defaultThreadFactory(), 1);
+		executor.shutdown();
+		executor.execute(() -> {});
+	}
+
+	@Test
+	public void virtualThreadsFromJava21() {
+		int version = getJavaVersion();
+		boolean supported = VirtualThreadExecutor.newVirtualThreadFactory("test-") != null;
+		if (version >= 21) {
+			Assert.assertTrue(supported);
+		} else if (version < 19) {
+			Assert.assertFalse(supported);
+		}
+	}
+
+	@Test
+	public void downloadPoolFallsBackToPlatformThreads() {
+		Assume.assumeTrue(VirtualThreadExecutor.newVirtualThreadFactory("test-") == null);
+		ExecutorService executor = ExecutorServiceFactory.create(TaskPool.DOWNLOAD, true, 10);
+		try {
+			Assert.assertTrue(executor instanceof ThreadPoolExecutor);
+			Assert.assertEquals(10, ((ThreadPoolExecutor) executor).getMaximumPoolSize());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void downloadPoolRunsOnVirtualThreads() {
+		Assume.assumeTrue(VirtualThreadExecutor.newVirtualThreadFactory("test-") != null);
+		ExecutorService executor = ExecutorServiceFactory.create(TaskPool.DOWNLOAD, true, 5000);
+		try {
+			Assert.assertTrue(executor instanceof VirtualThreadExecutor);
+			Assert.assertEquals(2048, ((VirtualThreadExecutor) executor).getMaxConcurrency());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void isVirtualThreadsDoesNotStartDownloadPool() {
+		Assume.assumeFalse(ExecutorServiceFactory.isStarted(TaskPool.DOWNLOAD));
+		Assert.assertFalse(ExecutorServiceFactory.isVirtualThreads());
+		Assert.assertFalse(ExecutorServiceFactory.isStarted(TaskPool.DOWNLOAD));
+	}
+
+	/**
+	 * @return feature release of the running JVM, from {@code 1.8} or {@code 17}
+	 */
+	private static int getJavaVersion() {
+		String version = System.getProperty("java.specification.version");
+		return Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version);
+	}
+
+}
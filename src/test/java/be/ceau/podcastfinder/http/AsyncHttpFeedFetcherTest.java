@@ -0,0 +1,175 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class AsyncHttpFeedFetcherTest {
+
+	private static final int MAX_BYTES = 16 * 1024;
+
+	private static final ResponseLimits LIMITS = new ResponseLimits(MAX_BYTES, Duration.ofMillis(500));
+
+	private static final int BUFFER_BYTES = MAX_BYTES + 8192;
+
+	private final CountDownLatch stop = new CountDownLatch(1);
+	private HttpServer server;
+	private AsyncHttpFeedFetcher fetcher;
+
+	@Before
+	public void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/feed", exchange -> send(exchange, feed(20), true));
+		server.createContext("/chunked", exchange -> send(exchange, feed(2000), false));
+		server.createContext("/large", exchange -> send(exchange, feed(2000), true));
+		server.createContext("/stalled", exchange -> {
+			exchange.getResponseHeaders().set("Content-Type", "application/rss+xml");
+			exchange.sendResponseHeaders(200, 0);
+			try {
+				stop.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			exchange.close();
+		});
+		server.start();
+		fetcher = new AsyncHttpFeedFetcher(new HostCircuitBreaker(), LIMITS, 64, false, BUFFER_BYTES);
+	}
+
+	@After
+	public void stop() throws IOException {
+		stop.countDown();
+		fetcher.close();
+		server.stop(0);
+	}
+
+	@Test
+	public void parsesFeedAndReleasesItsBytes() throws Exception {
+		FeedResponse response = fetcher.get(uri("/feed"), null, null).get();
+		Assert.assertEquals("test feed", response.getMetadata().getTitle());
+		Assert.assertEquals(20, response.getMetadata().getItems());
+		assertBudgetReleased();
+	}
+
+	@Test
+	public void keepsBodyWithoutCopyingItForTheFullParse() throws Exception {
+		try (AsyncHttpFeedFetcher keeping = new AsyncHttpFeedFetcher(new HostCircuitBreaker(), LIMITS, 64, true, BUFFER_BYTES)) {
+			FeedResponse response = keeping.get(uri("/feed"), null, null).get();
+			// undated, so parsed a second time from the buffered body
+			Assert.assertEquals(20, response.getMetadata().getItems());
+			Assert.assertArrayEquals(feed(20), response.getBody());
+		}
+	}
+
+	@Test
+	public void concurrentBodiesShareTheBudget() throws Exception {
+		List<CompletableFuture<FeedResponse>> futures = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			futures.add(fetcher.get(uri("/feed"), null, null));
+		}
+		for (CompletableFuture<FeedResponse> future : futures) {
+			Assert.assertEquals(20, future.get(10, TimeUnit.SECONDS).getMetadata().getItems());
+		}
+		assertBudgetReleased();
+	}
+
+	@Test
+	public void announcedBodyOverMaxBytesFails() throws Exception {
+		assertFailure("/large", ResponseTooLargeException.class);
+	}
+
+	@Test
+	public void streamedBodyOverMaxBytesFails() throws Exception {
+		assertFailure("/chunked", ResponseTooLargeException.class);
+	}
+
+	@Test
+	public void stalledBodyFailsAtDeadline() throws Exception {
+		long start = System.nanoTime();
+		assertFailure("/stalled", ResponseTimeoutException.class);
+		Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void budgetMustHoldLargestBody() {
+		new AsyncHttpFeedFetcher(new HostCircuitBreaker(), LIMITS, 64, false, MAX_BYTES);
+	}
+
+	private void assertFailure(String path, Class<? extends IOException> expected) throws InterruptedException {
+		try {
+			fetcher.get(uri(path), null, null).get();
+			Assert.fail("fetched " + path);
+		} catch (ExecutionException e) {
+			Assert.assertEquals(expected, e.getCause().getClass());
+		}
+		assertBudgetReleased();
+	}
+
+	/**
+	 * Bytes are released just after the response is completed
+	 */
+	private void assertBudgetReleased() throws InterruptedException {
+		for (int i = 0; i < 100 && fetcher.getAvailableBufferBytes() < BUFFER_BYTES; i++) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(BUFFER_BYTES, fetcher.getAvailableBufferBytes());
+	}
+
+	private URI uri(String path) {
+		return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + path);
+	}
+
+	private static byte[] feed(int items) {
+		StringBuilder sb = new StringBuilder()
+				.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<rss version=\"2.0\"><channel><title>test feed</title>");
+		for (int i = 0; i < items; i++) {
+			sb.append("<item><title>episode ").append(i).append("</title><guid>").append(i).append("</guid></item>");
+		}
+		return sb.append("</channel></rss>").toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void send(HttpExchange exchange, byte[] body, boolean contentLength) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "application/rss+xml");
+		exchange.sendResponseHeaders(200, contentLength ? body.length : 0);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		} catch (IOException e) {
+			// the client aborted
+		}
+	}
+
+}
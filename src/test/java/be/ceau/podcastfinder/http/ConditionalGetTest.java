@@ -0,0 +1,165 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import be.ceau.podcastfinder.metrics.PipelineMetrics;
+import be.ceau.podcastfinder.model.FeedId;
+import be.ceau.podcastfinder.model.FeedInfo;
+import be.ceau.podcastfinder.model.FeedStatus;
+import be.ceau.podcastfinder.model.PersistedFeed;
+import be.ceau.podcastfinder.update.PipelineDownloader;
+
+public class ConditionalGetTest {
+
+	private static final String HOST = "127.0.0.1";
+
+	private static final String ETAG = "\"v1\"";
+
+	private static final String LAST_MODIFIED = "Mon, 01 Jun 2020 12:00:00 GMT";
+
+	private static final String NEW_LAST_MODIFIED = "Tue, 02 Jun 2020 12:00:00 GMT";
+
+	private static final byte[] FEED = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<rss version=\"2.0\"><channel><title>test feed</title><item><title>episode</title></item></channel></rss>")
+					.getBytes(StandardCharsets.UTF_8);
+
+	private final List<String> ifNoneMatch = Collections.synchronizedList(new ArrayList<>());
+	private final List<String> ifModifiedSince = Collections.synchronizedList(new ArrayList<>());
+	private final HttpFeedFetcher fetcher = new HttpFeedFetcher(new HostCircuitBreaker(), ResponseLimits.DEFAULT, 10);
+	private HttpServer server;
+
+	@Before
+	public void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(HOST, 0), 10);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/feed", exchange -> {
+			record(exchange);
+			if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				// validators of a 304 may differ from the ones the client sent
+				exchange.getResponseHeaders().set("ETag", ETAG);
+				exchange.getResponseHeaders().set("Last-Modified", NEW_LAST_MODIFIED);
+				exchange.sendResponseHeaders(304, -1);
+				exchange.close();
+				return;
+			}
+			exchange.getResponseHeaders().set("Content-Type", "application/rss+xml");
+			exchange.getResponseHeaders().set("ETag", ETAG);
+			exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+			exchange.sendResponseHeaders(200, FEED.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(FEED);
+			}
+		});
+		server.createContext("/bare", exchange -> {
+			record(exchange);
+			exchange.sendResponseHeaders(304, -1);
+			exchange.close();
+		});
+		server.start();
+	}
+
+	@After
+	public void stop() {
+		server.stop(0);
+	}
+
+	@Test
+	public void repeatRequestIsNotModified() throws Exception {
+		FeedResponse first = fetcher.get(uri("/feed"), null, null);
+		Assert.assertFalse(first.isNotModified());
+		Assert.assertEquals("test feed", first.getMetadata().getTitle());
+		Assert.assertEquals(ETAG, first.getEtag());
+		Assert.assertEquals(LAST_MODIFIED, first.getLastModified());
+		Assert.assertNull(ifNoneMatch.get(0));
+		Assert.assertNull(ifModifiedSince.get(0));
+
+		long parsed = PipelineMetrics.INSTANCE.getParseHistogram().snapshot().getCount();
+		FeedResponse second = fetcher.get(uri("/feed"), first.getEtag(), first.getLastModified());
+		Assert.assertEquals(ETAG, ifNoneMatch.get(1));
+		Assert.assertEquals(LAST_MODIFIED, ifModifiedSince.get(1));
+		Assert.assertTrue(second.isNotModified());
+		Assert.assertNull(second.getMetadata());
+		Assert.assertEquals(parsed, PipelineMetrics.INSTANCE.getParseHistogram().snapshot().getCount());
+		Assert.assertEquals(ETAG, second.getEtag());
+		Assert.assertEquals(NEW_LAST_MODIFIED, second.getLastModified());
+	}
+
+	@Test
+	public void notModifiedWithoutValidatorsKeepsTheOnesSent() throws Exception {
+		FeedResponse response = fetcher.get(uri("/bare"), ETAG, LAST_MODIFIED);
+		Assert.assertTrue(response.isNotModified());
+		Assert.assertEquals(ETAG, response.getEtag());
+		Assert.assertEquals(LAST_MODIFIED, response.getLastModified());
+	}
+
+	@Test
+	public void notModifiedCarriesPreviousStatusForward() throws Exception {
+		LocalDateTime previousDate = LocalDateTime.now().minusDays(1);
+		PersistedFeed feed = new PersistedFeed(1, new FeedInfo(new FeedId("test feed", uri("/feed").toString()), "en", "description"));
+		feed.addFeedStatus(new FeedStatus(1, previousDate, LocalDate.of(2020, 5, 1), 7, 42, 1234, ETAG, LAST_MODIFIED));
+		BlockingQueue<PersistedFeed> queue = new LinkedBlockingQueue<>();
+
+		new PipelineDownloader(feed, queue, fetcher).run();
+
+		PersistedFeed result = queue.take();
+		Assert.assertEquals(ETAG, ifNoneMatch.get(0));
+		Assert.assertTrue(result.getFeedErrors().isEmpty());
+		Assert.assertEquals(1, result.getFeedStatuses().size());
+		FeedStatus status = result.getNewestFeedStatus();
+		Assert.assertTrue(status.getDate().isAfter(previousDate));
+		Assert.assertEquals(LocalDate.of(2020, 5, 1), status.getLastUpdate());
+		Assert.assertEquals(7, status.getItems());
+		Assert.assertEquals(42, status.getHash());
+		Assert.assertEquals(1234, status.getBytes());
+		Assert.assertEquals(ETAG, status.getEtag());
+		Assert.assertEquals(NEW_LAST_MODIFIED, status.getLastModified());
+		Assert.assertEquals("description", result.getFeedInfo().getDescription());
+		Assert.assertNull(result.getPayload());
+		Assert.assertNotNull(result.getFeedSchedule());
+	}
+
+	private void record(HttpExchange exchange) {
+		ifNoneMatch.add(exchange.getRequestHeaders().getFirst("If-None-Match"));
+		ifModifiedSince.add(exchange.getRequestHeaders().getFirst("If-Modified-Since"));
+	}
+
+	private URI uri(String path) {
+		return URI.create("http://" + HOST + ":" + server.getAddress().getPort() + path);
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ContentSnifferTest {
+
+	private final ContentSniffer sniffer = ContentSniffer.INSTANCE;
+
+	@Test
+	public void feeds() throws NotAFeedException {
+		accept("<?xml version=\"1.0\"?>\n<rss version=\"2.0\"><channel></channel></rss>", "text/html");
+		accept("\uFEFF  <!-- generated --><feed xmlns=\"http://www.w3.org/2005/Atom\"></feed>", "application/octet-stream");
+		accept("<!DOCTYPE rss PUBLIC \"-//Netscape Communications//DTD RSS 0.91//EN\"><rss/>", null);
+		accept("<?xml version=\"1.0\"?><rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"/>", "text/xml");
+	}
+
+	@Test
+	public void wideEncodingIsLeftToTheParser() throws NotAFeedException {
+		byte[] utf16 = "<html></html>".getBytes(StandardCharsets.UTF_16);
+		sniffer.checkBody(Arrays.copyOf(utf16, ContentSniffer.SNIFF_BYTES), utf16.length, "text/xml");
+	}
+
+	@Test
+	public void html() {
+		reject("<!DOCTYPE html><html><head><title>Parked</title></head></html>", "text/html", "HTML");
+		reject("<?xml version=\"1.0\"?>\r\n<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Strict//EN\" \"x\"><html/>", "text/xml", "HTML");
+		reject("\n<!-- landing --><HTML lang=\"en\"><body>moved</body></HTML>", null, "HTML");
+	}
+
+	@Test
+	public void notMarkup() {
+		reject("{\"error\":\"not found\"}", "application/json", "JSON");
+		reject("Service Unavailable", "text/plain", "not markup");
+		reject(" \r\n ", "text/xml", "empty");
+	}
+
+	@Test
+	public void media() {
+		try {
+			sniffer.checkContentType("audio/mpeg");
+			Assert.fail("audio accepted");
+		} catch (NotAFeedException e) {
+			Assert.assertEquals("response is audio, not a feed (Content-Type audio/mpeg)", e.getMessage());
+		}
+	}
+
+	private void accept(String body, String mimeType) throws NotAFeedException {
+		sniffer.checkContentType(mimeType);
+		sniff(body, mimeType);
+	}
+
+	private void reject(String body, String mimeType, String kind) {
+		try {
+			sniff(body, mimeType);
+			Assert.fail(body + " accepted");
+		} catch (NotAFeedException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("response is " + kind + ","));
+		}
+	}
+
+	private void sniff(String body, String mimeType) throws NotAFeedException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		sniffer.checkBody(Arrays.copyOf(bytes, ContentSniffer.SNIFF_BYTES), bytes.length, mimeType);
+	}
+
+}
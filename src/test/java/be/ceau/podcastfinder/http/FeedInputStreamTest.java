@@ -0,0 +1,127 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import util.hash.MurmurHash3;
+
+public class FeedInputStreamTest {
+
+	private static final byte[] BODY = new byte[10000];
+
+	static {
+		for (int i = 0; i < BODY.length; i++) {
+			BODY[i] = (byte) ('a' + i % 26);
+		}
+	}
+
+	@Test
+	public void countsAndHashesWithinLimits() throws IOException {
+		FeedInputStream in = new FeedInputStream(new ByteArrayInputStream(BODY), new ResponseLimits(BODY.length, Duration.ofMinutes(1)), () -> {});
+		Assert.assertEquals(100, in.skip(100));
+		in.drain();
+		Assert.assertNull(in.getFailure());
+		Assert.assertEquals(BODY.length, in.getByteCount());
+		Assert.assertEquals(MurmurHash3.newHasher32().update(BODY, 0, BODY.length).finish(), in.getHash());
+	}
+
+	@Test
+	public void copiesUntilStopped() throws IOException {
+		FeedInputStream in = new FeedInputStream(new ByteArrayInputStream(BODY), new ResponseLimits(BODY.length, Duration.ofMinutes(1)), () -> {}, true);
+		in.drain();
+		Assert.assertArrayEquals(BODY, in.getCopy());
+		in.stopCopy();
+		Assert.assertNull(in.getCopy());
+		Assert.assertNull(new FeedInputStream(new ByteArrayInputStream(BODY), new ResponseLimits(BODY.length, Duration.ofMinutes(1)), () -> {}).getCopy());
+	}
+
+	@Test
+	public void skipNothing() throws IOException {
+		FeedInputStream in = new FeedInputStream(new ByteArrayInputStream(BODY));
+		Assert.assertEquals(0, in.skip(-1));
+		Assert.assertEquals(0, in.skip(0));
+		Assert.assertEquals(0, in.getByteCount());
+	}
+
+	@Test
+	public void abortsBeyondMaxBytes() {
+		AtomicBoolean aborted = new AtomicBoolean();
+		FeedInputStream in = new FeedInputStream(new ByteArrayInputStream(BODY), new ResponseLimits(4096, Duration.ofMinutes(1)), () -> aborted.set(true));
+		try {
+			in.drain();
+			Assert.fail("read beyond the limit");
+		} catch (IOException e) {
+			Assert.assertTrue(e instanceof ResponseTooLargeException);
+		}
+		Assert.assertTrue(aborted.get());
+		Assert.assertTrue(in.getFailure() instanceof ResponseTooLargeException);
+		try {
+			in.read();
+			Assert.fail("read after failure");
+		} catch (IOException e) {
+			Assert.assertSame(in.getFailure(), e);
+		}
+	}
+
+	@Test
+	public void abortsAfterDeadline() throws IOException {
+		AtomicBoolean aborted = new AtomicBoolean();
+		FeedInputStream in = new FeedInputStream(new SlowInputStream(), new ResponseLimits(BODY.length, Duration.ofMillis(50)), () -> aborted.set(true));
+		try {
+			in.drain();
+			Assert.fail("read beyond the deadline");
+		} catch (ResponseTimeoutException e) {
+			Assert.assertTrue(aborted.get());
+			Assert.assertTrue(in.getByteCount() > 0);
+		}
+	}
+
+	/**
+	 * Trickles one byte every 10 ms, forever
+	 */
+	private static final class SlowInputStream extends InputStream {
+
+		@Override
+		public int read() throws IOException {
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			}
+			return 'x';
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			b[off] = (byte) read();
+			return 1;
+		}
+
+	}
+
+}
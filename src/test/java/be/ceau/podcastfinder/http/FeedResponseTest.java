@@ -0,0 +1,66 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.http;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FeedResponseTest {
+
+	private static final URI OLD = URI.create("http://old.example.com/feed.xml");
+	private static final URI HOP = URI.create("http://hop.example.com/feed.xml");
+	private static final URI NEW = URI.create("https://new.example.com/feed.xml");
+
+	private final FeedResponse response = FeedResponse.notModified(null, null);
+
+	@Test
+	public void notRedirected() {
+		FeedResponse redirected = response.withRedirects(OLD, Collections.emptyList());
+		Assert.assertEquals(OLD, redirected.getFinalUri());
+		Assert.assertNull(redirected.getPermanentUri());
+	}
+
+	@Test
+	public void permanentChain() {
+		FeedResponse redirected = response.withRedirects(OLD, Arrays.asList(new Redirect(301, HOP), new Redirect(308, NEW)));
+		Assert.assertEquals(NEW, redirected.getFinalUri());
+		Assert.assertEquals(NEW, redirected.getPermanentUri());
+	}
+
+	@Test
+	public void permanentUntilTemporaryHop() {
+		FeedResponse redirected = response.withRedirects(OLD, Arrays.asList(new Redirect(301, HOP), new Redirect(302, NEW)));
+		Assert.assertEquals(NEW, redirected.getFinalUri());
+		Assert.assertEquals(HOP, redirected.getPermanentUri());
+	}
+
+	@Test
+	public void temporaryHopFirst() {
+		FeedResponse redirected = response.withRedirects(OLD, Arrays.asList(new Redirect(307, HOP), new Redirect(301, NEW)));
+		Assert.assertNull(redirected.getPermanentUri());
+	}
+
+	@Test
+	public void circularIsNoMove() {
+		FeedResponse redirected = response.withRedirects(OLD, Arrays.asList(new Redirect(301, HOP), new Redirect(301, OLD)));
+		Assert.assertNull(redirected.getPermanentUri());
+	}
+
+}
@@ -0,0 +1,104 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.http;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.client.HttpResponseException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HostCircuitBreakerTest {
+
+	private static final String HOST = "feeds.example.com";
+
+	private final AtomicLong clock = new AtomicLong(1000);
+	private final HostCircuitBreaker breaker = new HostCircuitBreaker(3, 100, 1000, clock::get);
+
+	@Test
+	public void opensAfterConsecutiveConnectionFailures() throws IOException {
+		for (int i = 0; i < 3; i++) {
+			breaker.acquire(HOST);
+			breaker.onFailure(HOST, new ConnectException());
+		}
+		assertUnavailable();
+		breaker.acquire("other.example.com");
+	}
+
+	@Test
+	public void httpErrorClosesCircuit() throws IOException {
+		breaker.onFailure(HOST, new ConnectException());
+		breaker.onFailure(HOST, new ConnectException());
+		breaker.onFailure(HOST, new HttpResponseException(500, "Internal Server Error"));
+		breaker.onFailure(HOST, new ConnectException());
+		breaker.acquire(HOST);
+		Assert.assertEquals(1, breaker.size());
+	}
+
+	@Test
+	public void unknownHostOpensImmediately() throws IOException {
+		breaker.onFailure(HOST, new UnknownHostException(HOST));
+		assertUnavailable();
+		clock.addAndGet(500);
+		assertUnavailable();
+	}
+
+	@Test
+	public void halfOpenLetsSingleProbeThrough() throws IOException {
+		for (int i = 0; i < 3; i++) {
+			breaker.onFailure(HOST, new ConnectException());
+		}
+		clock.addAndGet(100);
+		breaker.acquire(HOST);
+		assertUnavailable();
+
+		breaker.onFailure(HOST, new ConnectException());
+		assertUnavailable();
+
+		clock.addAndGet(100);
+		breaker.acquire(HOST);
+		breaker.onSuccess(HOST);
+		breaker.acquire(HOST);
+		Assert.assertEquals(0, breaker.size());
+	}
+
+	@Test
+	public void abandonedProbeLetsNextOneThrough() throws IOException {
+		for (int i = 0; i < 3; i++) {
+			breaker.onFailure(HOST, new ConnectException());
+		}
+		clock.addAndGet(100);
+		breaker.acquire(HOST);
+		assertUnavailable();
+
+		breaker.onAbandoned(HOST);
+		breaker.acquire(HOST);
+		assertUnavailable();
+	}
+
+	private void assertUnavailable() throws IOException {
+		try {
+			breaker.acquire(HOST);
+			Assert.fail("expected HostUnavailableException");
+		} catch (HostUnavailableException e) {
+			Assert.assertEquals(HOST, e.getHost());
+		}
+	}
+
+}
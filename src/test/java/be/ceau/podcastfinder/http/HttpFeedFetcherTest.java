@@ -0,0 +1,147 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.HttpResponseException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpFeedFetcherTest {
+
+	private static final String HOST = "127.0.0.1";
+
+	private static final byte[] FEED = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<rss version=\"2.0\"><channel><title>test feed</title><item><title>episode</title></item></channel></rss>")
+					.getBytes(StandardCharsets.UTF_8);
+
+	private static final byte[] DATED_FEED = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<rss version=\"2.0\"><channel><title>dated feed</title><lastBuildDate>Tue, 02 Jan 2018 10:00:00 +0000</lastBuildDate>"
+			+ "<item><title>episode</title></item></channel></rss>")
+					.getBytes(StandardCharsets.UTF_8);
+
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final AtomicInteger running = new AtomicInteger();
+	private final AtomicInteger maxRunning = new AtomicInteger();
+	private final ExecutorService clients = Executors.newCachedThreadPool();
+	private final HttpFeedFetcher fetcher = new HttpFeedFetcher(new HostCircuitBreaker(), ResponseLimits.DEFAULT, 100);
+	private HttpServer server;
+
+	@Before
+	public void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(HOST, 0), 100);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/feed", exchange -> {
+			maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			running.decrementAndGet();
+			exchange.getResponseHeaders().set("Content-Type", "application/rss+xml");
+			exchange.sendResponseHeaders(200, FEED.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(FEED);
+			}
+		});
+		server.createContext("/dated", exchange -> {
+			exchange.getResponseHeaders().set("Content-Type", "application/rss+xml");
+			exchange.sendResponseHeaders(200, DATED_FEED.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(DATED_FEED);
+			}
+		});
+		server.createContext("/missing", exchange -> {
+			exchange.sendResponseHeaders(404, -1);
+			exchange.close();
+		});
+		server.start();
+	}
+
+	@After
+	public void stop() {
+		release.countDown();
+		clients.shutdownNow();
+		server.stop(0);
+	}
+
+	@Test
+	public void limitsRequestsPerHost() throws Exception {
+		int requests = HttpClientFactory.MAX_CONNECTIONS_PER_ROUTE + 10;
+		List<Future<FeedResponse>> futures = new ArrayList<>();
+		for (int i = 0; i < requests; i++) {
+			futures.add(clients.submit(() -> fetcher.get(uri("/feed"), null, null)));
+		}
+		for (int i = 0; i < 500 && running.get() < HttpClientFactory.MAX_CONNECTIONS_PER_ROUTE; i++) {
+			Thread.sleep(10);
+		}
+		Thread.sleep(100);
+		Assert.assertEquals(HttpClientFactory.MAX_CONNECTIONS_PER_ROUTE, running.get());
+		Assert.assertEquals(0, fetcher.getAvailableConnections(HOST));
+
+		release.countDown();
+		for (Future<FeedResponse> future : futures) {
+			Assert.assertEquals("test feed", future.get(10, TimeUnit.SECONDS).getMetadata().getTitle());
+		}
+		Assert.assertEquals(HttpClientFactory.MAX_CONNECTIONS_PER_ROUTE, maxRunning.get());
+		Assert.assertEquals(HttpClientFactory.MAX_CONNECTIONS_PER_ROUTE, fetcher.getAvailableConnections(HOST));
+	}
+
+	@Test
+	public void failedRequestsReleaseTheirHost() throws Exception {
+		for (int i = 0; i < HttpClientFactory.MAX_CONNECTIONS_PER_ROUTE + 10; i++) {
+			try {
+				fetcher.get(uri("/missing"), null, null);
+				Assert.fail("fetched a missing feed");
+			} catch (HttpResponseException e) {
+				Assert.assertEquals(404, e.getStatusCode());
+			}
+		}
+		Assert.assertEquals(HttpClientFactory.MAX_CONNECTIONS_PER_ROUTE, fetcher.getAvailableConnections(HOST));
+	}
+
+	@Test
+	public void keepsWholeBodyPastTheFeedLevelDate() throws Exception {
+		HttpFeedFetcher keeping = new HttpFeedFetcher(new HostCircuitBreaker(), ResponseLimits.DEFAULT, 10, true);
+		FeedResponse response = keeping.get(uri("/dated"), null, null);
+		Assert.assertEquals("dated feed", response.getMetadata().getTitle());
+		Assert.assertArrayEquals(DATED_FEED, response.getBody());
+		Assert.assertNull(fetcher.get(uri("/dated"), null, null).getBody());
+	}
+
+	private URI uri(String path) {
+		return URI.create("http://" + HOST + ":" + server.getAddress().getPort() + path);
+	}
+
+}
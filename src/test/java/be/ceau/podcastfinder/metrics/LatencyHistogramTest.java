@@ -0,0 +1,69 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void bucketsCoverEveryValue() {
+		long[] values = { 0L, 1L, 3L, 4L, 7L, 8L, 9L, 1000L, 123456789L, Long.MAX_VALUE };
+		for (long value : values) {
+			int index = LatencyHistogram.index(value);
+			Assert.assertTrue(value + " above its bucket", value <= LatencyHistogram.upperBound(index));
+			Assert.assertTrue(value + " within 25% of its bucket", LatencyHistogram.upperBound(index) - value <= value / 4);
+			if (index > 0) {
+				Assert.assertTrue(value + " below its bucket", value > LatencyHistogram.upperBound(index - 1));
+			}
+		}
+	}
+
+	@Test
+	public void percentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+		}
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		Assert.assertEquals(100, snapshot.getCount());
+		Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(100), snapshot.getMax());
+		assertWithin(TimeUnit.MILLISECONDS.toNanos(50), snapshot.getPercentile(0.5d));
+		assertWithin(TimeUnit.MILLISECONDS.toNanos(99), snapshot.getPercentile(0.99d));
+		Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(100), snapshot.getPercentile(1d));
+	}
+
+	@Test
+	public void sinceCoversLaterRecordsOnly() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(TimeUnit.SECONDS.toNanos(10));
+		LatencyHistogram.Snapshot earlier = histogram.snapshot();
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(5));
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(5));
+		LatencyHistogram.Snapshot interval = histogram.snapshot().since(earlier);
+		Assert.assertEquals(2, interval.getCount());
+		Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(5), interval.getMean());
+		assertWithin(TimeUnit.MILLISECONDS.toNanos(5), interval.getMax());
+	}
+
+	private static void assertWithin(long expected, long actual) {
+		Assert.assertTrue(actual + " not within 25% of " + expected, actual >= expected && actual <= expected + expected / 4);
+	}
+
+}
@@ -0,0 +1,70 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.model;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ShardTest {
+
+	@Test
+	public void parse() {
+		Assert.assertEquals(new Shard(0, 4), Shard.parse("0/4"));
+		Assert.assertEquals(new Shard(3, 4), Shard.parse(" 3/4 "));
+		Assert.assertEquals(Shard.ALL, Shard.parse("0/1"));
+		Assert.assertEquals("2/3", Shard.parse("2/3").toString());
+	}
+
+	@Test
+	public void parseRejectsMalformed() {
+		for (String value : new String[] { null, "", "1", "1/", "/4", "a/4", "1-4", "1/4/5", "-1/4", "99999999999/4" }) {
+			try {
+				Shard.parse(value);
+				Assert.fail("expected IllegalArgumentException for " + value);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void parseRejectsOutOfRange() {
+		for (String value : new String[] { "4/4", "5/4", "0/0" }) {
+			try {
+				Shard.parse(value);
+				Assert.fail("expected IllegalArgumentException for " + value);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void containsEachPodcastInExactlyOneShard() {
+		Shard[] shards = { new Shard(0, 3), new Shard(1, 3), new Shard(2, 3) };
+		for (int podcastId = 1; podcastId <= 100; podcastId++) {
+			int count = 0;
+			for (Shard shard : shards) {
+				if (shard.contains(podcastId)) {
+					count++;
+				}
+			}
+			Assert.assertEquals(1, count);
+			Assert.assertTrue(Shard.ALL.contains(podcastId));
+		}
+	}
+
+}
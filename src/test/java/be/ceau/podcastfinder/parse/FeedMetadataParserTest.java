@@ -0,0 +1,132 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.parse;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FeedMetadataParserTest {
+
+	private static final String RSS = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<rss version=\"2.0\" xmlns:itunes=\"http://www.itunes.com/dtds/podcast-1.0.dtd\" xmlns:atom=\"http://www.w3.org/2005/Atom\">"
+			+ "<channel>"
+			+ "<atom:link href=\"http://example.com/feed.xml\" rel=\"self\" type=\"application/rss+xml\"/>"
+			+ "<title>Example &amp; Co</title>"
+			+ "<image><url>http://example.com/logo.png</url><title>Logo</title></image>"
+			+ "<language>nl-be</language>"
+			+ "<description><![CDATA[An <b>example</b>]]></description>"
+			+ "<itunes:summary>Summary</itunes:summary>"
+			+ "<itunes:subtitle>  </itunes:subtitle>"
+			+ "<itunes:owner><itunes:name>Owner</itunes:name></itunes:owner>"
+			+ "<lastBuildDate>Tue, 02 Jan 2018 10:00:00 +0000</lastBuildDate>"
+			+ "<item><title>One</title><description>First</description><pubDate>Mon, 01 Jan 2018 10:00:00 +0000</pubDate></item>"
+			+ "<item><title>Two</title><language>en</language></item>"
+			+ "<textInput><title>Search</title><description>Find</description></textInput>"
+			+ "</channel>"
+			+ "</rss>";
+
+	private static final String ATOM = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<feed xmlns=\"http://www.w3.org/2005/Atom\">"
+			+ "<title>Atom example</title>"
+			+ "<subtitle>Sub</subtitle>"
+			+ "<author><name>Author</name></author>"
+			+ "<updated>2018-01-03T10:00:00Z</updated>"
+			+ "<entry><title>One</title><updated>2018-01-01T10:00:00Z</updated></entry>"
+			+ "</feed>";
+
+	private static final String UNDATED = "<rss version=\"2.0\"><channel><title>Undated</title>"
+			+ "<item><title>One</title><pubDate>Mon, 01 Jan 2018 10:00:00 +0000</pubDate></item>"
+			+ "</channel></rss>";
+
+	private final FeedMetadataParser parser = new FeedMetadataParser();
+
+	@Test
+	public void rss() throws IOException {
+		FeedMetadata metadata = assertSameAsFullParse(RSS);
+		Assert.assertEquals("Example & Co", metadata.getTitle());
+		Assert.assertEquals("nl", metadata.getLanguage());
+		Assert.assertEquals("An <b>example</b>", metadata.getDescription());
+		Assert.assertEquals("Summary", metadata.getSummary());
+		Assert.assertNull(metadata.getSubtitle());
+		Assert.assertEquals(2, metadata.getItems());
+		Assert.assertEquals(LocalDate.of(2018, 1, 2), metadata.getLastUpdate());
+	}
+
+	@Test
+	public void atom() throws IOException {
+		FeedMetadata metadata = assertSameAsFullParse(ATOM);
+		Assert.assertEquals("Atom example", metadata.getTitle());
+		Assert.assertEquals("Sub", metadata.getSubtitle());
+		Assert.assertEquals(1, metadata.getItems());
+		Assert.assertEquals(LocalDate.of(2018, 1, 3), metadata.getLastUpdate());
+	}
+
+	@Test
+	public void undatedFallsBack() throws IOException {
+		Assert.assertNull(parser.extract(new StringReader(UNDATED)));
+		FeedMetadata metadata = parser.parse(UNDATED.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+		Assert.assertEquals("Undated", metadata.getTitle());
+		Assert.assertEquals(LocalDate.of(2018, 1, 1), metadata.getLastUpdate());
+	}
+
+	@Test
+	public void decidedOnceAtFeedLevelDate() throws IOException {
+		AtomicInteger decided = new AtomicInteger();
+		Assert.assertNotNull(parser.extract(new StringReader(RSS), decided::incrementAndGet));
+		Assert.assertEquals(1, decided.get());
+		Assert.assertNotNull(parser.extract(new StringReader(ATOM), decided::incrementAndGet));
+		Assert.assertEquals(2, decided.get());
+		Assert.assertNull(parser.extract(new StringReader(UNDATED), decided::incrementAndGet));
+		Assert.assertEquals(2, decided.get());
+	}
+
+	@Test
+	public void unparseableDateKeepsEarlierOne() throws IOException {
+		String xml = "<rss version=\"2.0\"><channel><title>Dated</title>"
+				+ "<pubDate>Tue, 02 Jan 2018 10:00:00 +0000</pubDate><pubDate>soon</pubDate>"
+				+ "<item><title>One</title><pubDate>Mon, 01 Jan 2018 10:00:00 +0000</pubDate></item>"
+				+ "</channel></rss>";
+		Assert.assertEquals(LocalDate.of(2018, 1, 2), parser.extract(new StringReader(xml)).getLastUpdate());
+	}
+
+	@Test
+	public void notFeedFallsBack() throws IOException {
+		Assert.assertNull(parser.extract(new StringReader("<html><body>not a feed</body></html>")));
+		Assert.assertNull(parser.extract(new StringReader("<!DOCTYPE rss SYSTEM \"rss.dtd\"><rss><channel/></rss>")));
+		Assert.assertNull(parser.extract(new StringReader("<rss><channel><title>broken</rss>")));
+	}
+
+	private FeedMetadata assertSameAsFullParse(String xml) throws IOException {
+		FeedMetadata extracted = parser.extract(new StringReader(xml));
+		FeedMetadata parsed = parser.parse(new StringReader(xml));
+		Assert.assertNotNull(extracted);
+		Assert.assertEquals(parsed.getTitle(), extracted.getTitle());
+		Assert.assertEquals(parsed.getLanguage(), extracted.getLanguage());
+		Assert.assertEquals(parsed.getSummary(), extracted.getSummary());
+		Assert.assertEquals(parsed.getDescription(), extracted.getDescription());
+		Assert.assertEquals(parsed.getSubtitle(), extracted.getSubtitle());
+		Assert.assertEquals(parsed.getItems(), extracted.getItems());
+		Assert.assertEquals(parsed.getLastUpdate(), extracted.getLastUpdate());
+		return extracted;
+	}
+
+}
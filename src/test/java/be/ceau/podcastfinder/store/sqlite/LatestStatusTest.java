@@ -0,0 +1,115 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.store.sqlite;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+
+import be.ceau.podcastfinder.model.DataStatus;
+import be.ceau.podcastfinder.model.FeedId;
+import be.ceau.podcastfinder.model.FeedInfo;
+import be.ceau.podcastfinder.model.FeedStatus;
+
+public class LatestStatusTest {
+
+	private static final LocalDateTime NOW = LocalDateTime.of(2020, 6, 1, 12, 0);
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private Path file;
+	private PodcastFinderStore store;
+
+	@Before
+	public void createFeeds() throws IOException {
+		file = folder.newFile("podcastfinder.sqlite").toPath();
+		store = new PodcastFinderStore(file);
+		List<FeedInfo> infos = new ArrayList<>();
+		for (int i = 1; i <= 3; i++) {
+			infos.add(new FeedInfo(new FeedId("feed " + i, "http://feeds.example.com/" + i), null, null));
+		}
+		store.addFeedInfos(infos);
+	}
+
+	@After
+	public void close() {
+		store.close();
+	}
+
+	@Test
+	public void olderStatusAddedLaterIsNotLatest() {
+		store.add(status(1, NOW, 10));
+		store.add(status(1, NOW.minusDays(1), 9));
+		store.addFeedStatuses(Arrays.asList(status(1, NOW.minusDays(2), 8)));
+		Assert.assertEquals("2020-06-01 12:00:00 10", latest(1));
+		Assert.assertEquals("3", query("SELECT count(*) FROM status WHERE podcastId = 1"));
+	}
+
+	@Test
+	public void newestOfOneBatchIsLatest() {
+		store.addFeedStatuses(Arrays.asList(status(2, NOW.minusDays(1), 9), status(2, NOW, 10), status(2, NOW.minusDays(2), 8)));
+		Assert.assertEquals("2020-06-01 12:00:00 10", latest(2));
+		store.addFeedStatuses(Arrays.asList(status(2, NOW.plusDays(1), 11)));
+		Assert.assertEquals("2020-06-02 12:00:00 11", latest(2));
+	}
+
+	@Test
+	public void latestStatusDrivesCounts() {
+		// podcast 1 lost all its items since, podcast 2 gained them, podcast 3 has none yet
+		store.addFeedStatuses(Arrays.asList(status(1, NOW, 0), status(1, NOW.minusDays(1), 5), status(2, NOW.minusDays(1), 0), status(2, NOW, 7)));
+		DataStatus dataStatus = store.getDataStatus();
+		Assert.assertEquals(1, dataStatus.getValidated());
+		Assert.assertEquals(1, dataStatus.getZeroItems());
+		Assert.assertEquals(7, dataStatus.getEnclosures());
+	}
+
+	@Test
+	public void deleteRemovesLatestStatus() {
+		store.addFeedStatuses(Arrays.asList(status(1, NOW, 10), status(2, NOW, 10)));
+		store.delete(1);
+		Assert.assertNull(latest(1));
+		Assert.assertEquals("2020-06-01 12:00:00 10", latest(2));
+	}
+
+	private static FeedStatus status(int podcastId, LocalDateTime date, int items) {
+		return new FeedStatus(podcastId, date, LocalDate.of(2020, 5, 1), items, 42 + items, 100);
+	}
+
+	private String latest(int podcastId) {
+		return query("SELECT date || ' ' || items FROM latest_status WHERE podcastId = " + podcastId);
+	}
+
+	private String query(String sql) {
+		try (Handle h = new DBI("jdbc:sqlite:" + file).open()) {
+			return h.createQuery(sql).mapTo(String.class).first();
+		}
+	}
+
+}
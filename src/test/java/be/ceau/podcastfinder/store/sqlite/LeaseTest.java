@@ -0,0 +1,135 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.store.sqlite;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+
+import be.ceau.podcastfinder.model.FeedId;
+import be.ceau.podcastfinder.model.FeedInfo;
+import be.ceau.podcastfinder.model.FeedSchedule;
+import be.ceau.podcastfinder.model.FeedStatus;
+import be.ceau.podcastfinder.model.PersistedFeed;
+
+public class LeaseTest {
+
+	private static final Duration LEASE_TIME = Duration.ofMinutes(5);
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private Path file;
+	private PodcastFinderStore store;
+	private LocalDateTime runStart;
+
+	@Before
+	public void createFeeds() throws IOException {
+		file = folder.newFile("podcastfinder.sqlite").toPath();
+		store = new PodcastFinderStore(file);
+		List<FeedInfo> infos = new ArrayList<>();
+		for (int i = 1; i <= 5; i++) {
+			infos.add(new FeedInfo(new FeedId("feed " + i, "http://feeds.example.com/" + i), null, null));
+		}
+		store.addFeedInfos(infos);
+		runStart = LocalDateTime.now();
+	}
+
+	@After
+	public void close() {
+		store.close();
+	}
+
+	@Test
+	public void workersClaimDisjointFeeds() {
+		Assert.assertEquals(Arrays.asList(1, 2, 3), podcastIds(store.claimFeeds("a", runStart, 0, LEASE_TIME, 3)));
+		Assert.assertEquals(Arrays.asList(4, 5), podcastIds(store.claimFeeds("b", runStart, 0, LEASE_TIME, 3)));
+		Assert.assertTrue(store.claimFeeds("b", runStart, 5, LEASE_TIME, 3).isEmpty());
+		Assert.assertTrue(store.claimFeeds("c", runStart, 0, LEASE_TIME, 3).isEmpty());
+	}
+
+	@Test
+	public void expiredLeaseIsTakenOver() {
+		// a lease of no time at all has expired by the time anyone else looks
+		Assert.assertEquals(Arrays.asList(1, 2), podcastIds(store.claimFeeds("a", runStart, 0, Duration.ZERO, 2)));
+		Assert.assertEquals(Arrays.asList(1, 2), podcastIds(store.claimFeeds("b", runStart, 0, LEASE_TIME, 2)));
+
+		// the worker that lost its leases can neither renew nor release them
+		Assert.assertEquals(0, store.renewLeases("a", Arrays.asList(1, 2), LEASE_TIME));
+		store.commitLeased(Arrays.asList(downloaded(1)), "a");
+		Assert.assertEquals("b", query("SELECT worker FROM lease WHERE podcastId = 1 AND released = 0"));
+		Assert.assertEquals(2, store.renewLeases("b", Arrays.asList(1, 2), LEASE_TIME));
+	}
+
+	@Test
+	public void committedFeedIsNotClaimedAgainInTheSameRun() {
+		List<PersistedFeed> claimed = store.claimFeeds("a", runStart, 0, LEASE_TIME, 2);
+		store.commitLeased(claimed.stream().map(feed -> downloaded(feed.getPodcastId())).collect(Collectors.toList()), "a");
+		Assert.assertEquals("2", query("SELECT count(*) FROM lease WHERE released = 1"));
+		// another worker of the same run starts over from the first podcastId
+		Assert.assertEquals(Arrays.asList(3, 4, 5), podcastIds(store.claimFeeds("b", runStart, 0, LEASE_TIME, 5)));
+	}
+
+	@Test
+	public void abandonedLeasesAreClaimableAtOnce() {
+		store.claimFeeds("a", runStart, 0, LEASE_TIME, 5);
+		Assert.assertEquals(5, store.abandonLeases("a"));
+		Assert.assertEquals(Arrays.asList(1, 2, 3, 4, 5), podcastIds(store.claimFeeds("b", runStart, 0, LEASE_TIME, 5)));
+	}
+
+	@Test
+	public void deleteRemovesLease() {
+		store.claimFeeds("a", runStart, 0, LEASE_TIME, 2);
+		store.delete(1);
+		Assert.assertEquals("0", query("SELECT count(*) FROM lease WHERE podcastId = 1"));
+		Assert.assertEquals("1", query("SELECT count(*) FROM lease"));
+	}
+
+	private static List<Integer> podcastIds(List<PersistedFeed> feeds) {
+		return feeds.stream().map(PersistedFeed::getPodcastId).collect(Collectors.toList());
+	}
+
+	private static PersistedFeed downloaded(int podcastId) {
+		LocalDateTime now = LocalDateTime.now();
+		PersistedFeed feed = new PersistedFeed(podcastId, new FeedInfo(new FeedId("feed " + podcastId, "http://feeds.example.com/" + podcastId), "en", null));
+		feed.addFeedStatus(new FeedStatus(podcastId, now, LocalDate.of(2020, 5, 1), 5, 42, 100));
+		// due again at once, so that only its released lease keeps it from being claimed again
+		feed.setFeedSchedule(new FeedSchedule(podcastId, now.minusDays(1), Duration.ofDays(1)));
+		return feed;
+	}
+
+	private String query(String sql) {
+		try (Handle h = new DBI("jdbc:sqlite:" + file).open()) {
+			return h.createQuery(sql).mapTo(String.class).first();
+		}
+	}
+
+}
@@ -0,0 +1,120 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.store.sqlite;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.skife.jdbi.v2.Handle;
+
+public class SQLiteDatabaseTest {
+
+	private static final String INSERT = "INSERT INTO podcasts (name, uri) VALUES (:name, :uri)";
+
+	private static final String COUNT = "SELECT count(*) FROM podcasts";
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private SQLiteDatabase database;
+
+	@Before
+	public void open() throws IOException {
+		database = SQLiteDatabase.getInstance(folder.newFile("podcastfinder.sqlite").toPath());
+	}
+
+	@After
+	public void close() {
+		database.close();
+	}
+
+	@Test
+	public void readerSeesCommittedDataOnly() throws Exception {
+		insert(database, 1);
+		Assert.assertEquals(1, count());
+
+		CountDownLatch inserted = new CountDownLatch(1);
+		CountDownLatch commit = new CountDownLatch(1);
+		CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> database.inTransaction((Handle h) -> {
+			insert(h, 2);
+			inserted.countDown();
+			await(commit);
+		}));
+		Assert.assertTrue(inserted.await(10, TimeUnit.SECONDS));
+		// the writer holds its lock and its open transaction: a reader neither waits for it nor sees its changes
+		Assert.assertEquals(1, count());
+		commit.countDown();
+		writer.get(10, TimeUnit.SECONDS);
+		Assert.assertEquals(2, count());
+	}
+
+	@Test
+	public void writeLockHolderReadsOwnWrites() {
+		database.inTransaction((Handle h) -> {
+			insert(h, 1);
+			insert(h, 2);
+			Assert.assertEquals(2, count());
+		});
+		Assert.assertEquals(2, count());
+	}
+
+	@Test
+	public void rolledBackWritesAreNeverRead() {
+		try {
+			database.inTransaction((Handle h) -> {
+				insert(h, 1);
+				Assert.assertEquals(1, count());
+				throw new IllegalStateException("roll back");
+			});
+			Assert.fail("transaction did not fail");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		Assert.assertEquals(0, count());
+	}
+
+	private int count() {
+		return database.read((Handle h) -> h.createQuery(COUNT).mapTo(Integer.class).first());
+	}
+
+	private static void insert(SQLiteDatabase database, int i) {
+		database.execute((Handle h) -> insert(h, i));
+	}
+
+	private static void insert(Handle h, int i) {
+		h.createStatement(INSERT)
+				.bind("name", "feed " + i)
+				.bind("uri", "http://feeds.example.com/" + i)
+				.execute();
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,187 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.store.sqlite;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.PreparedBatch;
+import org.skife.jdbi.v2.TransactionStatus;
+import org.sqlite.SQLiteDataSource;
+
+import be.ceau.podcastfinder.util.Timestamp;
+
+/**
+ * Times the queries of the repositories against a synthetic database of {@value #PODCASTS} podcasts with
+ * {@value #STATUSES_PER_PODCAST} statuses each and errors for one in four, at schema version 1, before the query
+ * indexes, at version 2 and at version 3, which keeps the latest status of each podcast in a table of its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SchemaMigrationsBenchmark {
+
+	private static final int PODCASTS = 20000;
+	private static final int STATUSES_PER_PODCAST = 25;
+	private static final int ERRORS_PER_PODCAST = 4;
+	private static final String[] LANGUAGES = { "en", "nl", "fr", "de", "es", "pt", "it", "sv" };
+
+	private static final String SELECT_STATUSES_BY_ID =
+			"SELECT podcastId, date, lastUpdate, items, hash, bytes, etag, lastModified FROM status WHERE podcastId = :podcastId";
+
+	private static final String SELECT_ERRORS_BY_ID_RANGE =
+			"SELECT podcastId, date, error, message FROM errors WHERE podcastId >= :minPodcastId and podcastId <= :maxPodcastId";
+
+	private static final String SELECT_PAGE_STATUSES =
+			" WITH page AS ( SELECT podcastId FROM podcasts WHERE podcastId > :afterPodcastId ORDER BY podcastId LIMIT 100 ) "
+		+	" SELECT s.podcastId, s.date, s.lastUpdate, s.items, s.hash, s.bytes FROM status s INNER JOIN page ON s.podcastId = page.podcastId ";
+
+	private static final String SELECT_VALIDATED_PODCAST_COUNT =
+			"SELECT COUNT(*) FROM (SELECT podcastId, items, max(date) FROM status GROUP BY podcastId) WHERE items > 0";
+
+	private static final String SELECT_VALIDATED_PODCAST_COUNT_LATEST =
+			"SELECT count(*) FROM latest_status WHERE items > 0";
+
+	private static final String SELECT_LANGUAGES =
+			"SELECT DISTINCT language FROM podcasts ORDER BY language ASC";
+
+	/**
+	 * Schema version of the synthetic database
+	 */
+	@Param({ "1", "2", "3" })
+	public int version;
+
+	private Path file;
+	private Handle handle;
+	private Random random;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, SQLException {
+		file = Files.createTempFile("podcastfinder-benchmark", ".sqlite");
+		SQLiteDataSource ds = new SQLiteDataSource();
+		ds.setUrl("jdbc:sqlite:" + file);
+		handle = DBI.open(ds.getConnection());
+		SchemaMigrations.INSTANCE.migrate(handle, 1);
+		populate();
+		SchemaMigrations.INSTANCE.migrate(handle, version);
+		random = new Random(42);
+	}
+
+	private void populate() {
+		Random r = new Random(7);
+		LocalDateTime start = LocalDateTime.of(2018, 1, 1, 0, 0);
+		// one run after another, as the pipeline appends them
+		handle.inTransaction((Handle h, TransactionStatus status) -> {
+			PreparedBatch podcasts = h.prepareBatch("INSERT INTO podcasts (podcastId, name, uri, language, description, insertDate) VALUES (?, ?, ?, ?, ?, ?)");
+			for (int id = 1; id <= PODCASTS; id++) {
+				podcasts.add(id, "podcast " + id, "http://example.com/" + id + "/feed.xml", LANGUAGES[r.nextInt(LANGUAGES.length)], "description of podcast " + id, Timestamp.format(start));
+			}
+			podcasts.execute();
+			for (int run = 0; run < STATUSES_PER_PODCAST; run++) {
+				String date = Timestamp.format(start.plusDays(run));
+				PreparedBatch statuses = h.prepareBatch("INSERT INTO status (podcastId, date, items, lastUpdate, hash, bytes) VALUES (?, ?, ?, ?, ?, ?)");
+				PreparedBatch errors = h.prepareBatch("INSERT INTO errors (podcastId, date, error, message) VALUES (?, ?, ?, ?)");
+				for (int id = 1; id <= PODCASTS; id++) {
+					statuses.add(id, date, r.nextInt(500), date, r.nextInt(), r.nextInt(1 << 20));
+					if (id % 4 == 0 && run % (STATUSES_PER_PODCAST / ERRORS_PER_PODCAST) == 0) {
+						errors.add(id, date, "java.net.SocketTimeoutException", "Read timed out");
+					}
+				}
+				statuses.execute();
+				errors.execute();
+			}
+			return null;
+		});
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		handle.close();
+		Files.deleteIfExists(file);
+	}
+
+	@Benchmark
+	public List<Map<String, Object>> statusesOfPodcast() {
+		return handle.createQuery(SELECT_STATUSES_BY_ID)
+				.bind("podcastId", 1 + random.nextInt(PODCASTS))
+				.list();
+	}
+
+	@Benchmark
+	public List<Map<String, Object>> errorsOfRange() {
+		int min = 1 + random.nextInt(PODCASTS - 100);
+		return handle.createQuery(SELECT_ERRORS_BY_ID_RANGE)
+				.bind("minPodcastId", min)
+				.bind("maxPodcastId", min + 99)
+				.list();
+	}
+
+	@Benchmark
+	public List<Map<String, Object>> statusesOfPage() {
+		return handle.createQuery(SELECT_PAGE_STATUSES)
+				.bind("afterPodcastId", random.nextInt(PODCASTS - 100))
+				.list();
+	}
+
+	@Benchmark
+	public Integer validatedCount() {
+		return handle.createQuery(version < 3 ? SELECT_VALIDATED_PODCAST_COUNT : SELECT_VALIDATED_PODCAST_COUNT_LATEST)
+				.mapTo(Integer.class)
+				.first();
+	}
+
+	@Benchmark
+	public List<String> languages() {
+		return handle.createQuery(SELECT_LANGUAGES)
+				.mapTo(String.class)
+				.list();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder().include(SchemaMigrationsBenchmark.class.getSimpleName()).build();
+		new Runner(options).run();
+	}
+
+}
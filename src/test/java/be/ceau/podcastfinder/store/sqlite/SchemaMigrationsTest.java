@@ -0,0 +1,125 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.store.sqlite;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+
+public class SchemaMigrationsTest {
+
+	/**
+	 * Tables as created before the schema was versioned, by a version that did not store validators yet
+	 */
+	private static final String[] BASELINE = {
+			"CREATE TABLE podcasts (uri TEXT NOT NULL UNIQUE, name TEXT, language TEXT, description TEXT, insertDate TEXT, podcastId INTEGER PRIMARY KEY NOT NULL)",
+			"CREATE TABLE status (podcastId INTEGER NOT NULL, date TEXT NOT NULL, items INTEGER, lastUpdate TEXT, hash INTEGER, bytes INTEGER, FOREIGN KEY(podcastId) REFERENCES podcasts(podcastId))",
+			"CREATE TABLE errors (podcastId INTEGER NOT NULL, date TEXT NOT NULL, error TEXT NOT NULL, message TEXT NOT NULL, FOREIGN KEY(podcastId) REFERENCES podcasts(podcastId))",
+			"CREATE TABLE schedule (podcastId INTEGER PRIMARY KEY NOT NULL, nextDue TEXT NOT NULL, intervalSeconds INTEGER NOT NULL, FOREIGN KEY(podcastId) REFERENCES podcasts(podcastId))",
+			"CREATE TABLE uri_aliases (uri TEXT PRIMARY KEY NOT NULL, podcastId INTEGER NOT NULL, date TEXT NOT NULL, FOREIGN KEY(podcastId) REFERENCES podcasts(podcastId))",
+			"INSERT INTO podcasts (podcastId, name, uri, language, insertDate) VALUES (1, 'feed 1', 'http://feeds.example.com/1', 'en', '2018-01-01 00:00:00')",
+			"INSERT INTO podcasts (podcastId, name, uri, language, insertDate) VALUES (2, 'feed 2', 'http://feeds.example.com/2', 'nl', '2018-01-01 00:00:00')",
+			"INSERT INTO status (podcastId, date, items, lastUpdate, hash, bytes) VALUES (1, '2018-01-03 00:00:00', 12, '2018-01-02', 42, 1000)",
+			"INSERT INTO status (podcastId, date, items, lastUpdate, hash, bytes) VALUES (1, '2018-01-02 00:00:00', 11, '2018-01-01', 41, 900)",
+			"INSERT INTO status (podcastId, date, items, lastUpdate, hash, bytes) VALUES (2, '2018-01-02 00:00:00', 5, '2018-01-01', 7, 300)",
+			"INSERT INTO errors (podcastId, date, error, message) VALUES (1, '2018-01-02 12:00:00', 'java.net.SocketTimeoutException', 'Read timed out')",
+			"INSERT INTO errors (podcastId, date, error, message) VALUES (1, '2018-01-04 00:00:00', 'org.apache.http.client.HttpResponseException', 'HTTP status 503: Service Unavailable')",
+			"INSERT INTO errors (podcastId, date, error, message) VALUES (1, '2018-01-05 00:00:00', 'be.ceau.podcastfinder.http.HostUnavailableException', 'host unavailable')",
+			"INSERT INTO errors (podcastId, date, error, message) VALUES (1, '2018-01-06 00:00:00', 'java.net.SocketTimeoutException', 'Read timed out')",
+			"INSERT INTO schedule (podcastId, nextDue, intervalSeconds) VALUES (1, '2018-01-07 00:00:00', 86400)",
+			"INSERT INTO schedule (podcastId, nextDue, intervalSeconds) VALUES (2, '2018-01-07 00:00:00', 86400)"
+	};
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private Path file;
+
+	@Before
+	public void createBaseline() throws IOException {
+		file = folder.newFile("podcastfinder.sqlite").toPath();
+		try (Handle h = open()) {
+			for (String sql : BASELINE) {
+				h.createStatement(sql).execute();
+			}
+			Assert.assertEquals(0, SchemaMigrations.INSTANCE.getVersion(h));
+		}
+	}
+
+	@Test
+	public void migratesBaselineToLatestVersion() {
+		SQLiteDatabase.getInstance(file).close();
+		try (Handle h = open()) {
+			Assert.assertEquals(SchemaMigrations.INSTANCE.getLatestVersion(), SchemaMigrations.INSTANCE.getVersion(h));
+			// version 1 creates what the baseline lacked, and adds the validator columns
+			Assert.assertEquals(3, (int) h.createQuery("SELECT count(*) FROM status WHERE etag IS NULL AND lastModified IS NULL").mapTo(Integer.class).first());
+			Assert.assertEquals(0, (int) h.createQuery("SELECT count(*) FROM lease").mapTo(Integer.class).first());
+			// version 2
+			List<String> indexes = h.createQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND name NOT LIKE 'sqlite_%' ORDER BY name")
+					.mapTo(String.class)
+					.list();
+			Assert.assertTrue(indexes.containsAll(Arrays.asList("errors_podcastId_date", "podcasts_language", "status_podcastId_date", "uri_aliases_podcastId")));
+			// version 3 takes the newest status of each podcast, whatever the order it was stored in
+			Assert.assertEquals(Arrays.asList("1 2018-01-03 00:00:00 12", "2 2018-01-02 00:00:00 5"),
+					h.createQuery("SELECT podcastId || ' ' || date || ' ' || items FROM latest_status ORDER BY podcastId").mapTo(String.class).list());
+			// version 4 counts errors after the newest status, other than unavailable hosts, and parses status codes
+			Assert.assertEquals(Arrays.asList(2, 0), h.createQuery("SELECT failures FROM schedule ORDER BY podcastId").mapTo(Integer.class).list());
+			Assert.assertEquals(Integer.valueOf(503), h.createQuery("SELECT httpStatus FROM errors WHERE message LIKE 'HTTP status%'").mapTo(Integer.class).first());
+			Assert.assertEquals(3, (int) h.createQuery("SELECT count(*) FROM errors WHERE httpStatus IS NULL").mapTo(Integer.class).first());
+		}
+	}
+
+	@Test
+	public void migratesOnlyOnce() {
+		SQLiteDatabase.getInstance(file).close();
+		try (Handle h = open()) {
+			h.createStatement("DELETE FROM latest_status").execute();
+			SchemaMigrations.INSTANCE.migrate(h);
+			Assert.assertEquals(0, (int) h.createQuery("SELECT count(*) FROM latest_status").mapTo(Integer.class).first());
+		}
+	}
+
+	@Test
+	public void migratesUpToTarget() {
+		try (Handle h = open()) {
+			SchemaMigrations.INSTANCE.migrate(h, 2);
+			Assert.assertEquals(2, SchemaMigrations.INSTANCE.getVersion(h));
+			Assert.assertEquals(0, (int) h.createQuery("SELECT count(*) FROM sqlite_master WHERE name = 'latest_status'").mapTo(Integer.class).first());
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void refusesNewerVersion() {
+		try (Handle h = open()) {
+			h.createStatement("PRAGMA user_version = " + (SchemaMigrations.INSTANCE.getLatestVersion() + 1)).execute();
+			SchemaMigrations.INSTANCE.migrate(h);
+		}
+	}
+
+	private Handle open() {
+		return new DBI("jdbc:sqlite:" + file).open();
+	}
+
+}
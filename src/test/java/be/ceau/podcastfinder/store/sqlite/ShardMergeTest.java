@@ -0,0 +1,204 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.store.sqlite;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.skife.jdbi.v2.DBI;
+import org.skife.jdbi.v2.Handle;
+
+import be.ceau.podcastfinder.model.FeedError;
+import be.ceau.podcastfinder.model.FeedId;
+import be.ceau.podcastfinder.model.FeedInfo;
+import be.ceau.podcastfinder.model.FeedSchedule;
+import be.ceau.podcastfinder.model.FeedStatus;
+import be.ceau.podcastfinder.model.PersistedFeed;
+
+public class ShardMergeTest {
+
+	private static final LocalDateTime NOW = LocalDateTime.of(2020, 6, 1, 12, 0);
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private Path main;
+	private Path shard;
+
+	@Before
+	public void createFeeds() throws IOException {
+		main = folder.newFile("podcastfinder.sqlite").toPath();
+		shard = folder.newFile("podcastfinder-shard-1-of-2.sqlite").toPath();
+		try (PodcastFinderStore store = new PodcastFinderStore(main)) {
+			List<FeedInfo> infos = new ArrayList<>();
+			for (int i = 1; i <= 6; i++) {
+				infos.add(new FeedInfo(new FeedId("feed " + i, uri(i)), null, null));
+			}
+			store.addFeedInfos(infos);
+		}
+	}
+
+	@Test
+	public void mergesEverythingOnce() {
+		try (PodcastFinderStore store = new PodcastFinderStore(main)) {
+			store.addFeedStatuses(Collections.singletonList(status(1, NOW.minusDays(2))));
+		}
+		try (PodcastFinderStore store = PodcastFinderStore.openShardFile(shard)) {
+			PersistedFeed first = downloaded(1, "en", NOW);
+			PersistedFeed third = new PersistedFeed(3, new FeedInfo(new FeedId("feed 3", uri(3)), null, null));
+			third.addFeedError(new FeedError(3, NOW, "org.apache.http.client.HttpResponseException", "HTTP status 503: Service Unavailable", 503));
+			third.setFeedSchedule(new FeedSchedule(3, NOW.plusHours(2), Duration.ofHours(2), 1));
+			store.commit(Arrays.asList(first, third));
+			// an older status of the same feed, committed after the newer one
+			store.commit(Collections.singletonList(downloaded(1, "en", NOW.minusDays(1))));
+		}
+
+		try (PodcastFinderStore store = new PodcastFinderStore(main)) {
+			store.merge(shard);
+			PersistedFeed first = store.get(1);
+			Assert.assertEquals("en", first.getFeedInfo().getLanguage());
+			Assert.assertEquals(3, first.getFeedStatuses().size());
+			Assert.assertEquals(NOW, first.getFeedSchedule().getNextDue());
+			PersistedFeed third = store.get(3);
+			Assert.assertEquals(503, third.getNewestFeedError().getHttpStatus());
+			Assert.assertEquals(1, third.getFeedSchedule().getFailures());
+
+			store.merge(shard);
+			Assert.assertEquals(3, store.get(1).getFeedStatuses().size());
+			Assert.assertEquals(1, store.get(3).getFeedErrors().size());
+		}
+		Assert.assertEquals(NOW.toString().replace('T', ' ') + ":00", query(main, "SELECT date FROM latest_status WHERE podcastId = 1"));
+		Assert.assertEquals("0", query(shard, "SELECT count(*) FROM status"));
+		Assert.assertEquals("0", query(shard, "SELECT count(*) FROM podcasts"));
+	}
+
+	@Test
+	public void keepsNewerLatestStatusOfMain() {
+		try (PodcastFinderStore store = PodcastFinderStore.openShardFile(shard)) {
+			store.commit(Collections.singletonList(downloaded(2, null, NOW.minusDays(1))));
+		}
+		try (PodcastFinderStore store = new PodcastFinderStore(main)) {
+			store.addFeedStatuses(Collections.singletonList(status(2, NOW)));
+			store.merge(shard);
+		}
+		Assert.assertEquals("2", query(main, "SELECT count(*) FROM status WHERE podcastId = 2"));
+		Assert.assertEquals(NOW.toString().replace('T', ' ') + ":00", query(main, "SELECT date FROM latest_status WHERE podcastId = 2"));
+	}
+
+	@Test
+	public void podcastDeletedFromMainStaysDeleted() {
+		try (PodcastFinderStore store = PodcastFinderStore.openShardFile(shard)) {
+			store.commit(Collections.singletonList(downloaded(4, "en", NOW)));
+		}
+		try (PodcastFinderStore store = new PodcastFinderStore(main)) {
+			store.delete(4);
+			store.merge(shard);
+			Assert.assertNull(store.get(4));
+		}
+		Assert.assertEquals("0", query(main, "SELECT count(*) FROM status WHERE podcastId = 4"));
+		Assert.assertEquals("0", query(main, "SELECT count(*) FROM latest_status WHERE podcastId = 4"));
+		Assert.assertEquals("0", query(main, "SELECT count(*) FROM schedule WHERE podcastId = 4"));
+	}
+
+	@Test
+	public void commitDoesNotResurrectDeletedPodcast() {
+		try (PodcastFinderStore store = new PodcastFinderStore(main)) {
+			PersistedFeed feed = downloaded(4, "en", NOW);
+			store.delete(4);
+			store.commit(Arrays.asList(feed, downloaded(5, "en", NOW)));
+			Assert.assertNull(store.get(4));
+			Assert.assertEquals("en", store.get(5).getFeedInfo().getLanguage());
+		}
+	}
+
+	@Test
+	public void uriConflictInShardDoesNotAbortCommit() {
+		try (PodcastFinderStore store = PodcastFinderStore.openShardFile(shard)) {
+			PersistedFeed moved = downloaded(1, null, NOW);
+			moved.setMovedTo(URI.create(uri(2)));
+			store.commit(Collections.singletonList(moved));
+			// feed 2 is not in the shard yet, but its uri is
+			store.commit(Arrays.asList(downloaded(2, "en", NOW), downloaded(3, "en", NOW)));
+		}
+		Assert.assertEquals("1 3", query(shard, "SELECT group_concat(podcastId, ' ') FROM podcasts"));
+		Assert.assertEquals("3", query(shard, "SELECT count(*) FROM status"));
+	}
+
+	@Test
+	public void aliasIsResolvedAgainstMain() {
+		try (PodcastFinderStore store = PodcastFinderStore.openShardFile(shard)) {
+			// feed 5 moves to the uri of feed 6, which the shard does not hold
+			PersistedFeed moved = downloaded(5, null, NOW);
+			moved.setMovedTo(URI.create(uri(6)));
+			store.commit(Collections.singletonList(moved));
+		}
+		Assert.assertEquals("5", query(shard, "SELECT podcastId FROM uri_aliases WHERE uri = '" + uri(5) + "'"));
+		try (PodcastFinderStore store = new PodcastFinderStore(main)) {
+			store.merge(shard);
+			Assert.assertEquals(uri(5), store.get(5).getFeedId().getUri().toASCIIString());
+		}
+		Assert.assertEquals("6", query(main, "SELECT podcastId FROM uri_aliases WHERE uri = '" + uri(5) + "'"));
+	}
+
+	@Test
+	public void moveIsMergedWithAlias() {
+		try (PodcastFinderStore store = PodcastFinderStore.openShardFile(shard)) {
+			PersistedFeed moved = downloaded(5, null, NOW);
+			moved.setMovedTo(URI.create("http://feeds.example.com/moved/5"));
+			store.commit(Collections.singletonList(moved));
+		}
+		try (PodcastFinderStore store = new PodcastFinderStore(main)) {
+			store.merge(shard);
+			Assert.assertEquals("http://feeds.example.com/moved/5", store.get(5).getFeedId().getUri().toASCIIString());
+			Assert.assertEquals(Integer.valueOf(5), store.getPodcastId(URI.create(uri(5))));
+		}
+	}
+
+	private static String uri(int podcastId) {
+		return "http://feeds.example.com/" + podcastId;
+	}
+
+	private static FeedStatus status(int podcastId, LocalDateTime date) {
+		return new FeedStatus(podcastId, date, LocalDate.of(2020, 5, 1), 5, 42 + podcastId, 100);
+	}
+
+	private static PersistedFeed downloaded(int podcastId, String language, LocalDateTime date) {
+		PersistedFeed feed = new PersistedFeed(podcastId, new FeedInfo(new FeedId("feed " + podcastId, uri(podcastId)), language, null));
+		feed.addFeedStatus(status(podcastId, date));
+		feed.setFeedSchedule(new FeedSchedule(podcastId, date.plusDays(1), Duration.ofDays(1)));
+		return feed;
+	}
+
+	private static String query(Path file, String sql) {
+		try (Handle h = new DBI("jdbc:sqlite:" + file).open()) {
+			return h.createQuery(sql).mapTo(String.class).first();
+		}
+	}
+
+}
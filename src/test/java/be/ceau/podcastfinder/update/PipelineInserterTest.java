@@ -0,0 +1,194 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.update;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import be.ceau.podcastfinder.archive.FeedArchive;
+import be.ceau.podcastfinder.model.FeedId;
+import be.ceau.podcastfinder.model.FeedInfo;
+import be.ceau.podcastfinder.model.FeedStatus;
+import be.ceau.podcastfinder.model.PersistedFeed;
+import be.ceau.podcastfinder.store.sqlite.PodcastFinderStore;
+
+public class PipelineInserterTest {
+
+	private static final LocalDateTime DATE = LocalDateTime.of(2020, 6, 1, 12, 0);
+
+	private static final byte[] PAYLOAD = "<rss><channel><title>feed 1</title></channel></rss>".getBytes(StandardCharsets.UTF_8);
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private final BlockingQueue<PersistedFeed> queue = new LinkedBlockingQueue<>();
+	private CountingStore store;
+	private FeedArchive archive;
+
+	@Before
+	public void open() throws IOException {
+		Path file = folder.newFile("podcastfinder.sqlite").toPath();
+		store = new CountingStore(file);
+		List<FeedInfo> infos = new ArrayList<>();
+		for (int i = 1; i <= 100; i++) {
+			infos.add(new FeedInfo(new FeedId("feed " + i, "http://feeds.example.com/" + i), null, null));
+		}
+		store.addFeedInfos(infos);
+		archive = new FeedArchive(folder.newFolder("archive").toPath());
+	}
+
+	@After
+	public void close() {
+		archive.close();
+		store.close();
+	}
+
+	@Test
+	public void archivesCommittedPayload() throws IOException {
+		PersistedFeed feed = downloaded();
+		insert(feed);
+		Assert.assertArrayEquals(PAYLOAD, archive.get(1, DATE));
+		Assert.assertEquals(StandardCharsets.ISO_8859_1, archive.getCharset(1, DATE));
+		Assert.assertNull(feed.getPayload());
+	}
+
+	@Test
+	public void doesNotArchiveLostPayload() throws IOException {
+		store.close();
+		PipelineInserter inserter = insert(downloaded());
+		Assert.assertEquals(1, inserter.getLostFeedCount());
+		Assert.assertTrue(archive.getDates(1).isEmpty());
+	}
+
+	@Test
+	public void commitsFullBatchWithoutWaiting() throws InterruptedException {
+		for (int i = 1; i <= 7; i++) {
+			queue.add(status(i));
+		}
+		PipelineInserter inserter = new PipelineInserter(store, queue, 3, 60000L);
+		inserter.start();
+		try {
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (store.batches.size() < 2 && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			// the seventh feed waits for a full batch or its deadline, a minute away
+			Assert.assertEquals(6, inserter.getStatusCount());
+		} finally {
+			inserter.close();
+		}
+		Assert.assertEquals(7, inserter.getStatusCount());
+		Assert.assertEquals(3, (int) store.batches.get(0));
+		Assert.assertEquals(3, (int) store.batches.get(1));
+	}
+
+	@Test
+	public void commitsWhenOldestFeedReachesMaxLatency() throws InterruptedException {
+		PipelineInserter inserter = new PipelineInserter(store, queue, 100, 200L);
+		inserter.start();
+		long start = System.nanoTime();
+		try {
+			// a steady trickle that never fills a batch
+			for (int i = 1; i <= 50; i++) {
+				queue.add(status(i));
+				Thread.sleep(20);
+			}
+			Assert.assertTrue(store.batches.size() >= 2);
+		} finally {
+			inserter.close();
+		}
+		Assert.assertEquals(50, inserter.getStatusCount());
+		Assert.assertTrue(store.batches.get(0) < 50);
+		Assert.assertTrue(store.times.get(0) - start >= TimeUnit.MILLISECONDS.toNanos(200));
+		Assert.assertEquals(50, store.batches.stream().mapToInt(Integer::intValue).sum());
+	}
+
+	@Test
+	public void commitsEverythingOnClose() {
+		for (int i = 1; i <= 10; i++) {
+			queue.add(status(i));
+		}
+		long start = System.nanoTime();
+		PipelineInserter inserter = new PipelineInserter(store, queue, 4, 60000L);
+		inserter.start();
+		inserter.close();
+		Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+		Assert.assertTrue(queue.isEmpty());
+		Assert.assertEquals(10, inserter.getStatusCount());
+		Assert.assertEquals(10, store.batches.stream().mapToInt(Integer::intValue).sum());
+		Assert.assertTrue(store.batches.stream().allMatch(size -> size <= 4));
+	}
+
+	private PipelineInserter insert(PersistedFeed feed) {
+		PipelineInserter inserter = new PipelineInserter(store, queue, null, null, archive, 10, 10L);
+		inserter.start();
+		queue.add(feed);
+		inserter.close();
+		return inserter;
+	}
+
+	private static PersistedFeed downloaded() {
+		PersistedFeed feed = new PersistedFeed(1, new FeedInfo(new FeedId("feed 1", "http://feeds.example.com/1"), "en", null));
+		feed.addFeedStatus(new FeedStatus(1, DATE, LocalDate.of(2020, 5, 1), 5, 42, PAYLOAD.length));
+		feed.setPayload(PAYLOAD, StandardCharsets.ISO_8859_1);
+		return feed;
+	}
+
+	private static PersistedFeed status(int podcastId) {
+		PersistedFeed feed = new PersistedFeed(podcastId, new FeedInfo(new FeedId("feed " + podcastId, "http://feeds.example.com/" + podcastId), null, null));
+		feed.addFeedStatus(new FeedStatus(podcastId, DATE, LocalDate.of(2020, 5, 1), 5, podcastId, 100));
+		return feed;
+	}
+
+	/**
+	 * Records the size and time of each batch committed
+	 */
+	private static class CountingStore extends PodcastFinderStore {
+
+		private final List<Integer> batches = new CopyOnWriteArrayList<>();
+		private final List<Long> times = new CopyOnWriteArrayList<>();
+
+		private CountingStore(Path file) {
+			super(file);
+		}
+
+		@Override
+		public void commit(Collection<PersistedFeed> feeds) {
+			super.commit(feeds);
+			times.add(System.nanoTime());
+			batches.add(feeds.size());
+		}
+
+	}
+
+}
@@ -0,0 +1,122 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.update;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import be.ceau.podcastfinder.archive.FeedArchive;
+import be.ceau.podcastfinder.model.FeedId;
+import be.ceau.podcastfinder.model.FeedInfo;
+import be.ceau.podcastfinder.store.sqlite.PodcastFinderStore;
+
+public class ReplayPipelineTest {
+
+	private static final LocalDateTime DATE = LocalDateTime.of(2020, 6, 1, 12, 0);
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private PodcastFinderStore store;
+	private Path main;
+	private Path shard;
+
+	@Before
+	public void open() throws IOException {
+		store = new PodcastFinderStore(folder.newFile("podcastfinder.sqlite").toPath());
+		List<FeedInfo> infos = new ArrayList<>();
+		for (int i = 1; i <= 6; i++) {
+			infos.add(new FeedInfo(new FeedId("feed " + i, "http://feeds.example.com/" + i), null, null));
+		}
+		store.addFeedInfos(infos);
+		main = folder.newFolder("archive").toPath();
+		shard = folder.newFolder("archive-shard-1-of-2").toPath();
+	}
+
+	@After
+	public void close() {
+		store.close();
+	}
+
+	@Test
+	public void replaysNewestSnapshotAcrossArchives() {
+		try (FeedArchive archive = new FeedArchive(main)) {
+			add(archive, 1, DATE.plusDays(1), "newest title", StandardCharsets.UTF_8);
+			add(archive, 2, DATE, "Café", StandardCharsets.ISO_8859_1);
+		}
+		// the shard archive stays open for writing while it is replayed
+		try (FeedArchive archive = new FeedArchive(shard)) {
+			add(archive, 1, DATE, "older title", StandardCharsets.UTF_8);
+			add(archive, 6, DATE, "feed 6", StandardCharsets.UTF_8);
+			Assert.assertEquals(DATE, archive.getNewestDate(6));
+
+			ReplayPipeline replay = new ReplayPipeline(Arrays.asList(main, shard), 2);
+			replay.reenrich(store);
+
+			Assert.assertEquals("newest title", getName(1));
+			// decoded with the archived charset, rather than as UTF-8
+			Assert.assertEquals("Café", getName(2));
+			Assert.assertEquals("feed 6", getName(6));
+			Assert.assertEquals(2, replay.getChangedCount());
+			Assert.assertEquals(1, replay.getUnchangedCount());
+			Assert.assertEquals(3, replay.getUnarchivedCount());
+		}
+	}
+
+	@Test
+	public void replaysPayloadWithoutCharsetIfAscii() {
+		try (FeedArchive archive = new FeedArchive(main)) {
+			add(archive, 3, DATE, "plain title", null);
+			add(archive, 4, DATE, "Café", null);
+			archive.add(5, DATE, rss("Café").getBytes(StandardCharsets.ISO_8859_1), null);
+		}
+		ReplayPipeline replay = new ReplayPipeline(Arrays.asList(main), 1);
+		replay.reenrich(store);
+
+		Assert.assertEquals("plain title", getName(3));
+		// neither UTF-8 nor ISO-8859-1 are known to be the charset of the live download
+		Assert.assertEquals("feed 4", getName(4));
+		Assert.assertEquals("feed 5", getName(5));
+		Assert.assertEquals(1, replay.getChangedCount());
+		Assert.assertEquals(2, replay.getUndecodableCount());
+	}
+
+	private String getName(int podcastId) {
+		return store.get(podcastId).getFeedInfo().getFeedId().getName();
+	}
+
+	private static void add(FeedArchive archive, int podcastId, LocalDateTime date, String title, Charset charset) {
+		archive.add(podcastId, date, rss(title).getBytes(charset == null ? StandardCharsets.UTF_8 : charset), charset);
+	}
+
+	private static String rss(String title) {
+		return "<rss version=\"2.0\"><channel><title>" + title + "</title><item><title>episode</title></item></channel></rss>";
+	}
+
+}
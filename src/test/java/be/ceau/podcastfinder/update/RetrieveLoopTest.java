@@ -0,0 +1,135 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.update;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import be.ceau.podcastfinder.model.Checkpoint;
+import be.ceau.podcastfinder.model.FeedId;
+import be.ceau.podcastfinder.model.FeedInfo;
+import be.ceau.podcastfinder.model.FeedSchedule;
+import be.ceau.podcastfinder.model.FeedStatus;
+import be.ceau.podcastfinder.model.PersistedFeed;
+import be.ceau.podcastfinder.store.sqlite.PodcastFinderStore;
+import be.ceau.podcastfinder.update.schedule.RefreshScheduler;
+
+public class RetrieveLoopTest {
+
+	private static final LocalDateTime RUN_START = LocalDateTime.of(2020, 6, 1, 12, 0);
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private Path file;
+
+	@Before
+	public void createFeeds() throws IOException {
+		file = folder.newFile("podcastfinder.sqlite").toPath();
+		try (PodcastFinderStore store = new PodcastFinderStore(file)) {
+			List<FeedInfo> infos = new ArrayList<>();
+			for (int i = 1; i <= 10; i++) {
+				infos.add(new FeedInfo(new FeedId("feed " + i, "http://feeds.example.com/" + i), null, null));
+			}
+			store.addFeedInfos(infos);
+		}
+	}
+
+	@Test
+	public void offersEveryFeedOnce() throws InterruptedException {
+		try (PodcastFinderStore store = new PodcastFinderStore(file)) {
+			Assert.assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10), offered(store, Checkpoint.start(RUN_START), new ArrayList<>()));
+		}
+	}
+
+	@Test
+	public void resumesAfterCheckpointWithFeedsInFlightFirst() throws InterruptedException {
+		Checkpoint checkpoint = Checkpoint.start(RUN_START);
+		try (PodcastFinderStore store = new PodcastFinderStore(file)) {
+			store.startCheckpoint(checkpoint);
+			List<PersistedFeed> downloaded = new ArrayList<>();
+			for (int podcastId = 1; podcastId <= 3; podcastId++) {
+				downloaded.add(downloaded(store.get(podcastId)));
+			}
+			// feeds 1 to 5 were dispatched, only the first 3 committed before the run died
+			checkpoint = checkpoint.afterUnscheduled(store.get(5));
+			store.commit(downloaded, checkpoint, Arrays.asList(1, 2, 3, 4, 5));
+		}
+
+		try (PodcastFinderStore store = new PodcastFinderStore(file)) {
+			Assert.assertEquals(checkpoint, store.getCheckpoint());
+			List<Integer> inFlight = store.getInFlightPodcastIds();
+			Assert.assertEquals(Arrays.asList(4, 5), inFlight);
+			Assert.assertEquals(Arrays.asList(4, 5, 6, 7, 8, 9, 10), offered(store, store.getCheckpoint(), inFlight));
+		}
+	}
+
+	@Test
+	public void clearedCheckpointIsGone() {
+		try (PodcastFinderStore store = new PodcastFinderStore(file)) {
+			Checkpoint checkpoint = Checkpoint.start(RUN_START);
+			store.startCheckpoint(checkpoint);
+			store.commit(new ArrayList<>(), checkpoint.afterUnscheduled(store.get(2)), Arrays.asList(1, 2));
+			store.clearCheckpoint();
+			Assert.assertNull(store.getCheckpoint());
+			Assert.assertTrue(store.getInFlightPodcastIds().isEmpty());
+		}
+	}
+
+	@Test
+	public void deletedFeedIsNoLongerInFlight() {
+		try (PodcastFinderStore store = new PodcastFinderStore(file)) {
+			Checkpoint checkpoint = Checkpoint.start(RUN_START);
+			store.startCheckpoint(checkpoint);
+			store.commit(new ArrayList<>(), checkpoint.afterUnscheduled(store.get(2)), Arrays.asList(1, 2));
+			store.delete(1);
+			Assert.assertEquals(Arrays.asList(2), store.getInFlightPodcastIds());
+		}
+	}
+
+	private static PersistedFeed downloaded(PersistedFeed feed) {
+		PersistedFeed result = new PersistedFeed(feed.getPodcastId(), feed.getFeedInfo());
+		result.addFeedStatus(new FeedStatus(feed.getPodcastId(), RUN_START.plusMinutes(1), LocalDate.of(2020, 5, 1), 5, 42, 100));
+		result.setFeedSchedule(new FeedSchedule(feed.getPodcastId(), RUN_START.plusDays(1), Duration.ofDays(1)));
+		return result;
+	}
+
+	private static List<Integer> offered(PodcastFinderStore store, Checkpoint start, List<Integer> inFlight) throws InterruptedException {
+		LinkedBlockingQueue<RetrieveLoop.Entry> queue = new LinkedBlockingQueue<>();
+		RetrieveLoop loop = new RetrieveLoop(store, new RefreshScheduler(), 3, queue, start, inFlight);
+		loop.run();
+		Assert.assertTrue(loop.isCompleted());
+		List<Integer> podcastIds = new ArrayList<>();
+		for (RetrieveLoop.Entry entry = queue.take(); entry != RetrieveLoop.END_OF_STREAM; entry = queue.take()) {
+			podcastIds.add(entry.feed.getPodcastId());
+		}
+		return podcastIds;
+	}
+
+}
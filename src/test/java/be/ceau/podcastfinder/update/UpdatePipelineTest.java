@@ -0,0 +1,152 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.update;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import be.ceau.podcastfinder.http.ResponseLimits;
+import be.ceau.podcastfinder.model.FeedId;
+import be.ceau.podcastfinder.model.FeedInfo;
+import be.ceau.podcastfinder.model.PersistedFeed;
+import be.ceau.podcastfinder.model.Shard;
+import be.ceau.podcastfinder.store.sqlite.PodcastFinderStore;
+import be.ceau.podcastfinder.update.filter.NoErrorsFilter;
+import be.ceau.podcastfinder.update.schedule.RefreshScheduler;
+
+public class UpdatePipelineTest {
+
+	private static final String HOST = "127.0.0.1";
+
+	private static final int MAX_IN_FLIGHT = 4;
+
+	private static final int FEEDS = 30;
+
+	/**
+	 * Feeds from here on are still downloading when the last feed has been dispatched
+	 */
+	private static final int FIRST_SLOW_FEED = FEEDS - MAX_IN_FLIGHT + 1;
+
+	private static final byte[] FEED = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<rss version=\"2.0\"><channel><title>test feed</title><item><title>episode</title></item></channel></rss>")
+					.getBytes(StandardCharsets.UTF_8);
+
+	private static final byte[] BROKEN = "not a feed".getBytes(StandardCharsets.UTF_8);
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger running = new AtomicInteger();
+	private final AtomicInteger maxRunning = new AtomicInteger();
+	private HttpServer server;
+	private PodcastFinderStore store;
+
+	@Before
+	public void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(HOST, 0), 100);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/ok", exchange -> respond(exchange, 200, FEED));
+		server.createContext("/missing", exchange -> respond(exchange, 404, BROKEN));
+		server.createContext("/broken", exchange -> respond(exchange, 200, BROKEN));
+		server.start();
+
+		Path file = folder.newFile("podcastfinder.sqlite").toPath();
+		store = new PodcastFinderStore(file);
+		List<FeedInfo> infos = new ArrayList<>();
+		for (int i = 1; i <= FEEDS; i++) {
+			infos.add(new FeedInfo(new FeedId("feed " + i, uri(i)), null, null));
+		}
+		store.addFeedInfos(infos);
+	}
+
+	@After
+	public void stop() {
+		store.close();
+		server.stop(0);
+	}
+
+	@Test(timeout = 60000L)
+	public void blockingRunCommitsEveryFeedOnce() {
+		assertEveryFeedCommittedOnce(FetchEngine.BLOCKING);
+	}
+
+	@Test(timeout = 60000L)
+	public void asyncRunCommitsEveryFeedOnce() {
+		assertEveryFeedCommittedOnce(FetchEngine.ASYNC);
+	}
+
+	private void assertEveryFeedCommittedOnce(FetchEngine fetchEngine) {
+		// a failed download that kept its permit would leave the run waiting forever
+		new UpdatePipeline(new NoErrorsFilter(), new RefreshScheduler(), ResponseLimits.DEFAULT, fetchEngine, false, MAX_IN_FLIGHT)
+				.enrich(false, Shard.ALL, store, store, null);
+
+		Assert.assertEquals(FEEDS, requests.get());
+		Assert.assertTrue(maxRunning.get() <= MAX_IN_FLIGHT);
+		for (int i = 1; i <= FEEDS; i++) {
+			PersistedFeed feed = store.get(i);
+			// the slowest feeds only made it if the run waited for them before closing the inserter
+			Assert.assertEquals("feed " + i, 1, feed.getFeedStatuses().size() + feed.getFeedErrors().size());
+			Assert.assertEquals("feed " + i, i % 3 == 1, feed.getFeedErrors().isEmpty());
+			Assert.assertNotNull("feed " + i, feed.getFeedSchedule());
+		}
+		Assert.assertNull(store.getCheckpoint());
+	}
+
+	private void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+		requests.incrementAndGet();
+		maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+		try {
+			int podcastId = Integer.parseInt(exchange.getRequestURI().getPath().replaceAll("\\D", ""));
+			TimeUnit.MILLISECONDS.sleep(podcastId >= FIRST_SLOW_FEED ? 500L : 20L);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		running.decrementAndGet();
+		exchange.getResponseHeaders().set("Content-Type", "application/rss+xml");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	/**
+	 * @return URI of feed {@code i}, one in three fine, failing with HTTP 404 or failing to parse
+	 */
+	private String uri(int i) {
+		String path = i % 3 == 1 ? "/ok/" : i % 3 == 2 ? "/broken/" : "/missing/";
+		return "http://" + HOST + ":" + server.getAddress().getPort() + path + i;
+	}
+
+}
@@ -0,0 +1,110 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.update.schedule;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import be.ceau.podcastfinder.model.FeedError;
+import be.ceau.podcastfinder.model.FeedSchedule;
+import be.ceau.podcastfinder.model.FeedStatus;
+
+public class BackoffPolicyTest {
+
+	private static final LocalDateTime NOW = LocalDateTime.of(2020, 6, 1, 12, 0);
+
+	private final BackoffPolicy policy = new BackoffPolicy();
+
+	@Test
+	public void intervalDoublesWithConsecutiveFailures() {
+		List<FeedError> errors = new ArrayList<>();
+		errors.add(new FeedError(1, NOW.minusDays(3), "java.net.SocketTimeoutException", "Read timed out"));
+		errors.add(new FeedError(1, NOW.minusDays(2), "java.net.SocketTimeoutException", "Read timed out"));
+		errors.add(new FeedError(1, NOW, "java.net.SocketTimeoutException", "Read timed out"));
+		FeedSchedule schedule = policy.schedule(1, null, errors);
+		Assert.assertEquals(3, schedule.getFailures());
+		Assert.assertEquals(Duration.ofHours(8), schedule.getInterval());
+		Assert.assertEquals(NOW.plusHours(8), schedule.getNextDue());
+	}
+
+	@Test
+	public void errorsBeforeNewestStatusDoNotCount() {
+		List<FeedError> errors = new ArrayList<>();
+		errors.add(new FeedError(1, NOW.minusDays(3), "java.net.UnknownHostException", "example.com"));
+		FeedStatus status = new FeedStatus(1, NOW.minusDays(1), LocalDate.of(2020, 5, 1), 5, 42, 100);
+		Assert.assertNull(policy.schedule(1, status, errors));
+	}
+
+	@Test
+	public void goneFeedIsParked() {
+		List<FeedError> errors = new ArrayList<>();
+		for (int i = 0; i < BackoffPolicy.Failure.GONE.getParkAfter(); i++) {
+			errors.add(new FeedError(1, NOW.minusDays(i), "org.apache.http.client.HttpResponseException", "HTTP status 404: Not Found", 404));
+		}
+		FeedSchedule schedule = policy.schedule(1, null, errors);
+		Assert.assertTrue(schedule.isParked());
+		Assert.assertFalse(schedule.isDue(NOW.plusYears(100)));
+	}
+
+	@Test
+	public void failuresAreCountedFromPreviousSchedule() {
+		// the error rows behind these failures may have been removed by clean
+		FeedSchedule previous = new FeedSchedule(1, NOW, Duration.ofHours(4), 2);
+		FeedSchedule schedule = policy.schedule(previous, new FeedError(1, NOW, "java.net.SocketTimeoutException", "Read timed out"));
+		Assert.assertEquals(3, schedule.getFailures());
+		Assert.assertEquals(Duration.ofHours(8), schedule.getInterval());
+		Assert.assertEquals(NOW.plusHours(8), schedule.getNextDue());
+	}
+
+	@Test
+	public void unavailableHostDoesNotCount() {
+		FeedSchedule previous = new FeedSchedule(1, NOW, Duration.ofHours(4), 2);
+		FeedSchedule schedule = policy.schedule(previous, new FeedError(1, NOW, "be.ceau.podcastfinder.http.HostUnavailableException", "circuit open"));
+		Assert.assertEquals(2, schedule.getFailures());
+		Assert.assertEquals(NOW.plus(BackoffPolicy.Failure.HOST_UNAVAILABLE.getBaseInterval()), schedule.getNextDue());
+	}
+
+	@Test
+	public void goneFeedIsParkedFromPreviousSchedule() {
+		FeedSchedule previous = new FeedSchedule(1, NOW, Duration.ofDays(8), BackoffPolicy.Failure.GONE.getParkAfter() - 1);
+		FeedSchedule schedule = policy.schedule(previous, new FeedError(1, NOW, "org.apache.http.client.HttpResponseException", "HTTP status 404: Not Found", 404));
+		Assert.assertTrue(schedule.isParked());
+		Assert.assertEquals(BackoffPolicy.Failure.GONE.getParkAfter(), schedule.getFailures());
+	}
+
+	@Test
+	public void classifiesOnStatusCodeNotMessage() {
+		Assert.assertEquals(BackoffPolicy.Failure.GONE, BackoffPolicy.classify(new FeedError(1, NOW, "org.apache.http.client.HttpResponseException", "Not Found", 404)));
+	}
+
+	@Test
+	public void classify() {
+		Assert.assertEquals(BackoffPolicy.Failure.GONE, BackoffPolicy.classify(new FeedError(1, NOW, "org.apache.http.client.HttpResponseException", "HTTP status 410: Gone", 410)));
+		Assert.assertEquals(BackoffPolicy.Failure.CLIENT, BackoffPolicy.classify(new FeedError(1, NOW, "org.apache.http.client.HttpResponseException", "HTTP status 403: Forbidden", 403)));
+		Assert.assertEquals(BackoffPolicy.Failure.TRANSIENT, BackoffPolicy.classify(new FeedError(1, NOW, "org.apache.http.client.HttpResponseException", "HTTP status 429: Too Many Requests", 429)));
+		Assert.assertEquals(BackoffPolicy.Failure.UNKNOWN_HOST, BackoffPolicy.classify(new FeedError(1, NOW, "java.net.UnknownHostException", "example.com")));
+		Assert.assertEquals(BackoffPolicy.Failure.CLIENT, BackoffPolicy.classify(new FeedError(1, NOW, "be.ceau.podcastfinder.http.ResponseTooLargeException", "response body of at least 52428800 bytes exceeds limit of 33554432 bytes")));
+		Assert.assertEquals(BackoffPolicy.Failure.TRANSIENT, BackoffPolicy.classify(new FeedError(1, NOW, "be.ceau.podcastfinder.http.ResponseTimeoutException", "response body not read within 120 s, aborted after 1024 bytes")));
+		Assert.assertEquals(BackoffPolicy.Failure.CLIENT, BackoffPolicy.classify(new FeedError(1, NOW, "be.ceau.podcastfinder.http.NotAFeedException", "response is HTML, not a feed (Content-Type text/html)")));
+	}
+
+}
@@ -0,0 +1,71 @@
+/*
+	Copyright 2018 Marceau Dewilde <m@ceau.be>
+	
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+	
+		https://www.apache.org/licenses/LICENSE-2.0
+	
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package be.ceau.podcastfinder.update.schedule;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import be.ceau.podcastfinder.model.FeedSchedule;
+import be.ceau.podcastfinder.model.FeedStatus;
+
+public class RefreshSchedulerTest {
+
+	private static final LocalDateTime NOW = LocalDateTime.of(2020, 6, 1, 12, 0);
+
+	private final RefreshScheduler scheduler = new RefreshScheduler();
+
+	@Test
+	public void unscheduledWithoutHistory() {
+		Assert.assertNull(scheduler.schedule(1, Collections.emptyList()));
+	}
+
+	@Test
+	public void dailyChangesAreFetchedDaily() {
+		List<FeedStatus> history = new ArrayList<>();
+		for (int day = 10; day >= 0; day--) {
+			history.add(new FeedStatus(1, NOW.minusDays(day), NOW.minusDays(day).toLocalDate(), 5, day, 100));
+		}
+		FeedSchedule schedule = scheduler.schedule(1, history);
+		Assert.assertEquals(Duration.ofDays(1), schedule.getInterval());
+		Assert.assertEquals(NOW.plusDays(1), schedule.getNextDue());
+	}
+
+	@Test
+	public void dormantFeedIsFetchedRarely() {
+		List<FeedStatus> history = new ArrayList<>();
+		history.add(new FeedStatus(1, NOW, LocalDate.of(2017, 1, 1), 5, 42, 100));
+		FeedSchedule schedule = scheduler.schedule(1, history);
+		Assert.assertEquals(RefreshScheduler.DEFAULT_MAX_INTERVAL, schedule.getInterval());
+	}
+
+	@Test
+	public void unchangedHashIsNotAChange() {
+		List<FeedStatus> history = new ArrayList<>();
+		history.add(new FeedStatus(1, NOW.minusDays(2), null, 5, 42, 100));
+		history.add(new FeedStatus(1, NOW.minusDays(1), null, 5, 42, 100));
+		history.add(new FeedStatus(1, NOW, null, 5, 42, 100));
+		FeedSchedule schedule = scheduler.schedule(1, history);
+		Assert.assertEquals(Duration.ofDays(2), schedule.getInterval());
+	}
+
+}
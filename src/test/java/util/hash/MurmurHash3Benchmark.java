@@ -0,0 +1,97 @@
+package util.hash;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares hashing a feed body through the original String path against the incremental hashers fed in 8 KiB
+ * chunks, the way {@code FeedInputStream} sees a response body.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MurmurHash3Benchmark {
+
+	private static final int CHUNK = 8192;
+
+	@Param({ "65536", "4194304" })
+	public int size;
+
+	private String text;
+	private byte[] bytes;
+	private ByteBuffer direct;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		StringBuilder sb = new StringBuilder(size);
+		while (sb.length() < size) {
+			sb.append("<item><title>Episode ").append(random.nextInt()).append("</title><description>")
+					.append(random.nextLong()).append(" éè café</description></item>\n");
+		}
+		text = sb.substring(0, size);
+		bytes = text.getBytes(StandardCharsets.UTF_8);
+		direct = ByteBuffer.allocateDirect(bytes.length);
+		direct.put(bytes).flip();
+	}
+
+	@Benchmark
+	public int string() {
+		return MurmurHash3.hash(text);
+	}
+
+	@Benchmark
+	public int decodeThenString() {
+		return MurmurHash3.hash(new String(bytes, StandardCharsets.UTF_8));
+	}
+
+	@Benchmark
+	public int hasher32Chunked() {
+		MurmurHash3.Hasher32 hasher = MurmurHash3.newHasher32();
+		for (int pos = 0; pos < bytes.length; pos += CHUNK) {
+			hasher.update(bytes, pos, Math.min(CHUNK, bytes.length - pos));
+		}
+		return hasher.finish();
+	}
+
+	@Benchmark
+	public int hasher32Direct() {
+		return MurmurHash3.newHasher32().update(direct.duplicate()).finish();
+	}
+
+	@Benchmark
+	public long hasher128Chunked() {
+		MurmurHash3.Hasher128 hasher = MurmurHash3.newHasher128();
+		for (int pos = 0; pos < bytes.length; pos += CHUNK) {
+			hasher.update(bytes, pos, Math.min(CHUNK, bytes.length - pos));
+		}
+		return hasher.finish().val1;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder().include(MurmurHash3Benchmark.class.getSimpleName()).build();
+		new Runner(options).run();
+	}
+
+}
@@ -0,0 +1,119 @@
+package util.hash;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import util.hash.MurmurHash3.LongPair;
+
+/**
+ * Incremental hashers must match the one-shot functions however the input is chunked.
+ */
+public class MurmurHash3Test {
+
+	private static final int SEED = 1514015011;
+
+	@Test
+	public void hasher32MatchesStringHash() {
+		Random random = new Random(42);
+		for (int i = 0; i < 500; i++) {
+			String s = randomString(random, random.nextInt(200));
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			int expected = MurmurHash3.hash(s);
+
+			Assert.assertEquals(expected, MurmurHash3.newHasher32().update(bytes, 0, bytes.length).finish());
+			Assert.assertEquals(expected, chunked32(random, bytes).finish());
+
+			MurmurHash3.Hasher32 single = MurmurHash3.newHasher32();
+			for (byte b : bytes) {
+				single.update(b);
+			}
+			Assert.assertEquals(expected, single.finish());
+
+			ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+			direct.put(bytes).flip();
+			Assert.assertEquals(expected, MurmurHash3.newHasher32().update(direct).finish());
+			Assert.assertFalse(direct.hasRemaining());
+		}
+	}
+
+	@Test
+	public void hasher128MatchesOneShot() {
+		Random random = new Random(7);
+		for (int i = 0; i < 500; i++) {
+			byte[] bytes = new byte[random.nextInt(300)];
+			random.nextBytes(bytes);
+			LongPair expected = new LongPair();
+			MurmurHash3.murmurhash3_x64_128(bytes, 0, bytes.length, SEED, expected);
+
+			assertEquals(expected, MurmurHash3.newHasher128().update(bytes, 0, bytes.length).finish());
+
+			MurmurHash3.Hasher128 chunked = MurmurHash3.newHasher128();
+			int pos = 0;
+			while (pos < bytes.length) {
+				int len = Math.min(bytes.length - pos, random.nextInt(40));
+				if (random.nextBoolean()) {
+					chunked.update(ByteBuffer.wrap(bytes, pos, len));
+				} else {
+					chunked.update(bytes, pos, len);
+				}
+				pos += len;
+			}
+			assertEquals(expected, chunked.finish());
+			Assert.assertEquals(bytes.length, chunked.length());
+		}
+	}
+
+	@Test
+	public void finishDoesNotModifyState() {
+		byte[] bytes = "abcdefghijklmnopqrstuvwxyz".getBytes(StandardCharsets.UTF_8);
+		MurmurHash3.Hasher32 hasher = MurmurHash3.newHasher32().update(bytes, 0, 5);
+		hasher.finish();
+		hasher.update(bytes, 5, bytes.length - 5);
+		Assert.assertEquals(MurmurHash3.hash("abcdefghijklmnopqrstuvwxyz"), hasher.finish());
+	}
+
+	private static MurmurHash3.Hasher32 chunked32(Random random, byte[] bytes) {
+		MurmurHash3.Hasher32 hasher = MurmurHash3.newHasher32();
+		int pos = 0;
+		while (pos < bytes.length) {
+			int len = Math.min(bytes.length - pos, random.nextInt(11));
+			if (random.nextBoolean()) {
+				hasher.update(ByteBuffer.wrap(bytes, pos, len));
+			} else {
+				hasher.update(bytes, pos, len);
+			}
+			pos += len;
+		}
+		return hasher;
+	}
+
+	private static String randomString(Random random, int length) {
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			switch (random.nextInt(4)) {
+			case 0:
+				sb.append((char) (0x20 + random.nextInt(0x5f)));
+				break;
+			case 1:
+				sb.append((char) (0x80 + random.nextInt(0x700)));
+				break;
+			case 2:
+				sb.append((char) (0x800 + random.nextInt(0xd000)));
+				break;
+			default:
+				sb.appendCodePoint(0x10000 + random.nextInt(0x10000));
+			}
+		}
+		return sb.toString();
+	}
+
+	private static void assertEquals(LongPair expected, LongPair actual) {
+		Assert.assertEquals(expected.val1, actual.val1);
+		Assert.assertEquals(expected.val2, actual.val2);
+	}
+
+}